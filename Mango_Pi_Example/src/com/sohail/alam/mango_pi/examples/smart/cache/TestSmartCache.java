@@ -19,10 +19,45 @@ package com.sohail.alam.mango_pi.examples.smart.cache;
 
 import com.sohail.alam.mango_pi.smart.cache.DefaultSmartCache;
 import com.sohail.alam.mango_pi.smart.cache.DeprecatedSmartCache;
+import com.sohail.alam.mango_pi.smart.cache.Expiry;
+import com.sohail.alam.mango_pi.smart.cache.SmartCache;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheBulkEventListener;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheEventListener;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheException;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheExecutorStatistics;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheLoader;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheManager;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheMerger;
 import com.sohail.alam.mango_pi.smart.cache.SmartCachePojo;
+import com.sohail.alam.mango_pi.smart.cache.SmartCachePurge;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheReducer;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheScan;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheSearcher;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheValueIndex;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheValueReference;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheVersioned;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheVisitor;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheWriter;
+import com.sohail.alam.mango_pi.smart.cache.codec.BinaryValueCodec;
+import com.sohail.alam.mango_pi.smart.cache.codec.ValueCodec;
+import com.sohail.alam.mango_pi.smart.cache.codec.ValueCodecs;
+import com.sohail.alam.mango_pi.smart.cache.metrics.SmartCacheMetricsExporter;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * User: Sohail Alam
@@ -45,6 +80,56 @@ public class TestSmartCache {
         testWithListener();
 
         //testWithReflection();
+
+        //testConcurrentMerge();
+
+        //testPutIfVersion();
+
+        //testScan();
+
+        //testPurgeAndClose();
+
+        //testMetricsExporter();
+
+        //testFlightRecorder();
+
+        //testExecutorStatistics();
+
+        //testSharedRuntime();
+
+        //testManager();
+
+        //testExpireAfterAccess();
+
+        //testExpiryPolicy();
+
+        //testExpirySpreading();
+
+        //testEarlyRefresh();
+
+        //testStaleWhileRevalidate();
+
+        //testWeakValues();
+
+        //testSizeEstimation();
+
+        //testValueCodec();
+
+        //testCompression();
+
+        //testDeduplication();
+
+        //testNegativeCaching();
+
+        //testWriteBehind();
+
+        //testTags();
+
+        //testKeyIndex();
+
+        //testValueIndex();
+
+        //testBulkOperations();
     }
 
     /**
@@ -128,4 +213,951 @@ public class TestSmartCache {
             mySmartCache.put("key" + i, new SmartCacheData("DATA" + i, createData(NUMBER_OF_CHUNKS, CHUNK_SIZE)));
         }
     }
+
+    private void testConcurrentMerge() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with concurrent merges of a single Key");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test2", false);
+
+        // The writer gets every new value of the Key, in the order in which they were put
+        final Map<String, Long> database = new ConcurrentHashMap<String, Long>();
+        mySmartCache.writeThrough(new SmartCacheWriter<String, Counter>() {
+            @Override
+            public void write(String key, Counter data) {
+                database.put(key, data.getCount());
+            }
+
+            @Override
+            public void writeAll(Map<String, Counter> entries) {
+                for (Map.Entry<String, Counter> entry : entries.entrySet())
+                    write(entry.getKey(), entry.getValue());
+            }
+
+            @Override
+            public void delete(String key) {
+                database.remove(key);
+            }
+
+            @Override
+            public void deleteAll(Collection<String> keys) {
+                for (String key : keys)
+                    delete(key);
+            }
+        });
+
+        // Every thread increments the same Key, none of the increments is lost
+        final SmartCacheMerger<Counter> sum = new SmartCacheMerger<Counter>() {
+            @Override
+            public Counter merge(Counter current, Counter data) {
+                return new Counter(current.getCount() + data.getCount());
+            }
+        };
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++)
+                        mySmartCache.merge("hits", new Counter(1), sum, -1, TimeUnit.SECONDS);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        // Both print 40000: the writer saw the last value last
+        System.out.println("Cache: " + mySmartCache.get("hits").getCount() + " Database: " + database.get("hits"));
+        mySmartCache.close();
+    }
+
+    private void testPutIfVersion() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with versioned puts");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test3", false);
+        mySmartCache.put("stock", new Counter(10), -1, TimeUnit.SECONDS);
+
+        // Two clients read the same version of the Key
+        SmartCacheVersioned<Counter> first = mySmartCache.getWithVersion("stock");
+        SmartCacheVersioned<Counter> second = mySmartCache.getWithVersion("stock");
+
+        // The first one to put wins, and the entry gets a new version
+        boolean firstStored = mySmartCache.putIfVersion("stock",
+                new Counter(first.data().getCount() - 3), first.version(), -1, TimeUnit.SECONDS);
+        System.out.println("First client stored: " + firstStored);
+
+        // The second one is rejected, since its version is stale: it reads the Key again and retries
+        boolean secondStored = mySmartCache.putIfVersion("stock",
+                new Counter(second.data().getCount() - 5), second.version(), -1, TimeUnit.SECONDS);
+        System.out.println("Second client stored: " + secondStored + " (stale version " + second.version() + ")");
+        while (!secondStored) {
+            second = mySmartCache.getWithVersion("stock");
+            secondStored = mySmartCache.putIfVersion("stock",
+                    new Counter(second.data().getCount() - 5), second.version(), -1, TimeUnit.SECONDS);
+        }
+
+        // Prints 2: neither update was lost
+        System.out.println("Stock: " + mySmartCache.get("stock").getCount());
+        mySmartCache.close();
+    }
+
+    private void testScan() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with a paged scan");
+
+        final DefaultSmartCache<Sku, Counter> mySmartCache =
+                new DefaultSmartCache<Sku, Counter>("Test4", false);
+
+        // The scan walks the index of the Keys, which must be kept
+        mySmartCache.indexKeys(true);
+        for (int i = 0; i < 10; i++)
+            mySmartCache.put(new Sku("sku-0" + i, "EU"), new Counter(i), -1, TimeUnit.SECONDS);
+
+        // These Keys have the same string form as "sku-03" in the EU, so they are returned in the same page,
+        // which may then hold more than the Keys asked for: no Key is skipped or returned twice
+        mySmartCache.put(new Sku("sku-03", "US"), new Counter(30), -1, TimeUnit.SECONDS);
+        mySmartCache.put(new Sku("sku-03", "ASIA"), new Counter(31), -1, TimeUnit.SECONDS);
+
+        String cursor = null;
+        int page = 0;
+        do {
+            SmartCacheScan<Sku, Counter> scan = mySmartCache.scan(cursor, 4, null);
+            System.out.println("Page " + (++page) + ": " + scan.entries().keySet());
+            cursor = scan.cursor();
+        } while (cursor != null);
+        mySmartCache.close();
+    }
+
+    private void testPurgeAndClose() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with a purge cut short by close");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test5", false);
+
+        // A slow listener, which gets the purged entries a chunk at a time
+        final AtomicInteger backedUp = new AtomicInteger(0);
+        mySmartCache.addSmartCacheEventsListener(new SmartCacheEventListener<String, Counter>() {
+            @Override
+            public void onCreateCacheEntry(String key, Counter createdEntry) {
+            }
+
+            @Override
+            public void onDeleteCacheEntry(String key, Counter deletedEntry, String reason) {
+            }
+
+            @Override
+            public void onSingleEntryPurge(String key, Counter purgedElement) {
+            }
+
+            @Override
+            public void onCachePurge(Map<String, Counter> cacheList) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                backedUp.addAndGet(cacheList.size());
+            }
+        });
+        for (int i = 0; i < 10000; i++)
+            mySmartCache.put("key" + i, new Counter(i), -1, TimeUnit.SECONDS);
+
+        SmartCachePurge purge = mySmartCache.purge(mySmartCache.keySet(), 100);
+        Thread.sleep(100);
+
+        // Closing cancels the purge, and waits for the chunks under way to be given to the listener,
+        // so that every purged entry has been backed up once it returns
+        mySmartCache.close();
+        System.out.println("Purge cancelled: " + purge.isCancelled() + " done: " + purge.isDone()
+                + " purged: " + purge.purged() + " of " + purge.total() + " backed up: " + backedUp.get());
+    }
+
+    private void testMetricsExporter() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with the OpenMetrics exporter");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test6", false);
+        for (int i = 0; i < 100; i++)
+            mySmartCache.put("key" + i, new Counter(i), -1, TimeUnit.SECONDS);
+        for (int i = 0; i < 150; i++)
+            mySmartCache.get("key" + i);
+
+        // Any free port will do here, Prometheus would be pointed at a fixed one
+        SmartCacheMetricsExporter exporter = new SmartCacheMetricsExporter(
+                new InetSocketAddress("localhost", 0), SmartCacheMetricsExporter.DEFAULT_PATH);
+        exporter.start();
+        try {
+            URL url = new URL("http://localhost:" + exporter.address().getPort() + SmartCacheMetricsExporter.DEFAULT_PATH);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8"));
+            try {
+                // Every sample is labelled with the name of its cache: 100 entries, 100 hits and 50 misses here
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.matches("smartcache_(entries|hits_total|misses_total)\\{cache=\"Test6\"\\}.*"))
+                        System.out.println(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            exporter.stop(0);
+            mySmartCache.close();
+        }
+    }
+
+    private void testFlightRecorder() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with Flight Recorder events");
+
+        // Run with -XX:StartFlightRecording=filename=smart-cache.jfr, and open the recording in JDK Mission Control:
+        // the events are under 'Mango Pi / Smart Cache'. Without a recording they cost next to nothing
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test7", false);
+
+        // A slow listener, whose callbacks show up as 'Smart Cache Listener Callback' events
+        mySmartCache.addSmartCacheEventsListener(new SmartCacheEventListener<String, Counter>() {
+            @Override
+            public void onCreateCacheEntry(String key, Counter createdEntry) {
+            }
+
+            @Override
+            public void onDeleteCacheEntry(String key, Counter deletedEntry, String reason) {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onSingleEntryPurge(String key, Counter purgedElement) {
+            }
+
+            @Override
+            public void onCachePurge(Map<String, Counter> cacheList) {
+            }
+        });
+
+        // The entries expire in batches, recorded as 'Smart Cache Expiry' events, and a snapshot of the
+        // size of the cache is recorded every second as a 'Smart Cache Statistics' event
+        for (int i = 0; i < 1000; i++)
+            mySmartCache.put("key" + i, new Counter(i), 100, TimeUnit.MILLISECONDS);
+        Thread.sleep(3000);
+        mySmartCache.close();
+    }
+
+    private void testExecutorStatistics() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with executor statistics");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test8", false);
+
+        // A slow listener, whose callbacks queue up on the lane of the cache in the worker pool
+        mySmartCache.addSmartCacheEventsListener(new SmartCacheEventListener<String, Counter>() {
+            @Override
+            public void onCreateCacheEntry(String key, Counter createdEntry) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onDeleteCacheEntry(String key, Counter deletedEntry, String reason) {
+            }
+
+            @Override
+            public void onSingleEntryPurge(String key, Counter purgedElement) {
+            }
+
+            @Override
+            public void onCachePurge(Map<String, Counter> cacheList) {
+            }
+        });
+        for (int i = 0; i < 500; i++)
+            mySmartCache.put("key" + i, new Counter(i), -1, TimeUnit.SECONDS);
+
+        // The callbacks waiting for their turn, and how long the last ones have waited
+        SmartCacheExecutorStatistics worker = mySmartCache.workQueueStatistics();
+        System.out.println("Worker queue depth: " + worker.queueDepth() + " completed: " + worker.completedTasks());
+        Thread.sleep(2000);
+        System.out.println("Worker queue depth: " + worker.queueDepth() + " completed: " + worker.completedTasks()
+                + " max wait: " + TimeUnit.NANOSECONDS.toMillis(worker.maxWaitTime()) + " ms"
+                + " max run: " + TimeUnit.NANOSECONDS.toMillis(worker.maxRunTime()) + " ms");
+
+        // The same figures for the other executors, also shown by the MBean operation 'executorStatistics'
+        System.out.println(mySmartCache.expiryExecutorStatistics());
+        System.out.println(mySmartCache.historyExecutorStatistics());
+        mySmartCache.close();
+    }
+
+    private void testSharedRuntime() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with many caches sharing the same threads");
+
+        // Every cache has its own lane on the shared scheduler and worker pool, not threads of its own
+        List<DefaultSmartCache<String, Counter>> caches = new ArrayList<DefaultSmartCache<String, Counter>>();
+        for (int i = 0; i < 50; i++) {
+            DefaultSmartCache<String, Counter> mySmartCache =
+                    new DefaultSmartCache<String, Counter>("Test9-" + i, false);
+            for (int j = 0; j < 100; j++)
+                mySmartCache.put("key" + j, new Counter(j), 100, TimeUnit.MILLISECONDS);
+            caches.add(mySmartCache);
+            if (i == 0)
+                System.out.println("Threads with 1 cache: " + Thread.activeCount());
+        }
+        System.out.println("Threads with " + caches.size() + " caches: " + Thread.activeCount());
+
+        // The shared scheduler expires the entries of all of them
+        Thread.sleep(500);
+        int entries = 0;
+        for (DefaultSmartCache<String, Counter> mySmartCache : caches) {
+            entries += mySmartCache.numberOfEntries();
+            mySmartCache.close();
+        }
+        System.out.println("Entries left: " + entries);
+    }
+
+    private void testManager() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with the SmartCacheManager");
+
+        DefaultSmartCache<String, Counter> mySmartCache = SmartCacheManager.create("Test10", false);
+
+        // The cache starts, and can be looked up, once its first entry is stored
+        System.out.println("Looked up before the first put: " + SmartCacheManager.lookup("Test10"));
+        mySmartCache.put("key", new Counter(1), -1, TimeUnit.SECONDS);
+        System.out.println("Looked up after the first put: " + (SmartCacheManager.lookup("Test10") == mySmartCache));
+
+        // The name is taken until the cache is closed
+        try {
+            SmartCacheManager.create("Test10", false);
+        } catch (SmartCacheException e) {
+            System.out.println("Second cache rejected: " + e.getMessage());
+        }
+
+        // Closing the cache releases its name, so it can be replaced at runtime
+        System.out.println("Closed: " + SmartCacheManager.close("Test10"));
+        DefaultSmartCache<String, Counter> replacement = SmartCacheManager.create("Test10", false);
+        replacement.put("key", new Counter(2), -1, TimeUnit.SECONDS);
+        System.out.println("Replacement: " + (SmartCacheManager.lookup("Test10") == replacement)
+                + " caches: " + SmartCacheManager.cacheNames());
+
+        // When the application is undeployed, SmartCacheManager.shutdown(timeout, unit) also stops the threads
+        SmartCacheManager.closeAll(10, TimeUnit.SECONDS);
+        System.out.println("Caches after closeAll: " + SmartCacheManager.cacheNames());
+    }
+
+    private void testExpireAfterAccess() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with expire after access");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test11", false);
+
+        // The entries put from now on expire after 300 ms without being read, on top of their TTL
+        mySmartCache.expireAfterAccess(300, TimeUnit.MILLISECONDS);
+        mySmartCache.put("hot", new Counter(1), 10, TimeUnit.SECONDS);
+        mySmartCache.put("cold", new Counter(2), 10, TimeUnit.SECONDS);
+
+        // Every read of the hot Key pushes its deadline back
+        for (int i = 0; i < 10; i++) {
+            mySmartCache.get("hot");
+            Thread.sleep(100);
+        }
+        System.out.println("Hot: " + (mySmartCache.get("hot") != null) + " cold: " + (mySmartCache.get("cold") != null));
+
+        // Once it is not read anymore, it expires too
+        Thread.sleep(500);
+        System.out.println("Hot after 500 ms without reads: " + (mySmartCache.get("hot") != null));
+        mySmartCache.close();
+    }
+
+    private void testExpiryPolicy() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with a per entry expiry policy");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test12", false);
+
+        // Every entry lives as long as its Data say, like a max-age that came from upstream,
+        // whatever the TTL given to put: here the count is the time to live in milliseconds, 0 for ever
+        mySmartCache.expiry(new Expiry<String, Counter>() {
+            @Override
+            public long expireAfterCreate(String key, Counter value, long currentTime, long requestedDuration) {
+                return value.getCount() == 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(value.getCount());
+            }
+
+            @Override
+            public long expireAfterUpdate(String key, Counter value, long currentTime, long requestedDuration,
+                                          long currentDuration) {
+                return expireAfterCreate(key, value, currentTime, requestedDuration);
+            }
+
+            @Override
+            public long expireAfterRead(String key, Counter value, long currentTime, long currentDuration) {
+                return currentDuration;
+            }
+        });
+        mySmartCache.put("short", new Counter(100), 10, TimeUnit.SECONDS);
+        mySmartCache.put("long", new Counter(1000), 10, TimeUnit.SECONDS);
+        mySmartCache.put("forever", new Counter(0), 10, TimeUnit.SECONDS);
+
+        Thread.sleep(300);
+        System.out.println("After 300 ms: " + mySmartCache.keySet());
+        Thread.sleep(1000);
+        System.out.println("After 1300 ms: " + mySmartCache.keySet());
+        mySmartCache.close();
+    }
+
+    private void testExpirySpreading() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with expiry jitter and a limit per tick");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test13", false);
+
+        // The entries expire up to 20% early, and at most 500 of them are removed per tick of the expiry queue
+        mySmartCache.expiryJitter(20);
+        mySmartCache.maxExpirationsPerTick(500);
+
+        // All loaded at once with the same TTL, they would otherwise all expire in the same tick
+        for (int i = 0; i < 20000; i++)
+            mySmartCache.put("key" + i, new Counter(i), 500, TimeUnit.MILLISECONDS);
+
+        // The entries that are due but wait for their turn are the expiry backlog
+        long start = System.currentTimeMillis();
+        while (mySmartCache.numberOfEntries() > 0) {
+            System.out.println((System.currentTimeMillis() - start) + " ms: " + mySmartCache.numberOfEntries()
+                    + " entries, backlog " + mySmartCache.expiryBacklog());
+            Thread.sleep(100);
+        }
+        System.out.println((System.currentTimeMillis() - start) + " ms: all expired");
+        mySmartCache.close();
+    }
+
+    private void testEarlyRefresh() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with probabilistic early refresh");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test14", false);
+
+        // A reader may reload the Key shortly before it expires, more likely as the deadline gets closer
+        // and the longer the load takes, so the Key is usually refreshed by one reader before it expires
+        mySmartCache.earlyRefresh(1.0);
+        final AtomicInteger loads = new AtomicInteger(0);
+        final SmartCacheLoader<String, Counter> slowLoader = new SmartCacheLoader<String, Counter>() {
+            @Override
+            public Counter load(String key) throws Exception {
+                Thread.sleep(100);
+                return new Counter(loads.incrementAndGet());
+            }
+        };
+
+        // 8 readers of a popular Key with a TTL of 1 second, for 3 seconds: only the first reads miss,
+        // the Key is then always refreshed before it expires, and the other readers never wait for the loader
+        final long end = System.currentTimeMillis() + 3000;
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            mySmartCache.get("popular", slowLoader, 1, TimeUnit.SECONDS);
+                            Thread.sleep(10);
+                        }
+                    } catch (SmartCacheException e) {
+                        e.printStackTrace();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        System.out.println("Loads: " + loads.get() + " early refreshes: " + mySmartCache.statistics().earlyRefreshCount()
+                + " misses: " + mySmartCache.statistics().missCount());
+        mySmartCache.close();
+    }
+
+    private void testStaleWhileRevalidate() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with stale while revalidate");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test15", false);
+
+        // The entries are kept 2 seconds after their TTL, and served while they are reloaded
+        mySmartCache.staleWhileRevalidate(2, TimeUnit.SECONDS);
+        final AtomicInteger version = new AtomicInteger(0);
+        final AtomicInteger backendDown = new AtomicInteger(0);
+        SmartCacheLoader<String, Counter> loader = new SmartCacheLoader<String, Counter>() {
+            @Override
+            public Counter load(String key) throws Exception {
+                if (backendDown.get() == 1)
+                    throw new Exception("The backend is down");
+                return new Counter(version.incrementAndGet());
+            }
+        };
+        System.out.println("Loaded: " + mySmartCache.get("key", loader, 200, TimeUnit.MILLISECONDS).getCount());
+
+        // The backend goes down after the TTL: the stale entry is served, and its reloads fail in the background
+        backendDown.set(1);
+        Thread.sleep(300);
+        for (int i = 0; i < 3; i++) {
+            System.out.println("Served while the backend is down: " + mySmartCache.get("key", loader, 200,
+                    TimeUnit.MILLISECONDS).getCount());
+            Thread.sleep(100);
+        }
+
+        // The backend is back: the stale entry is served once more, and replaced by the reload
+        backendDown.set(0);
+        System.out.println("Served while reloading: " + mySmartCache.get("key", loader, 200, TimeUnit.MILLISECONDS).getCount());
+        Thread.sleep(100);
+        System.out.println("Served after the reload: " + mySmartCache.get("key", loader, 200, TimeUnit.MILLISECONDS).getCount());
+        System.out.println("Stale serves: " + mySmartCache.statistics().staleServeCount()
+                + " failed loads: " + mySmartCache.statistics().loadFailureCount());
+        mySmartCache.close();
+    }
+
+    private void testWeakValues() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with weak values");
+
+        // The values of this cache may be collected by the Garbage Collector (SOFT values only under memory pressure)
+        final DefaultSmartCache<String, SmartCacheData> mySmartCache =
+                new DefaultSmartCache<String, SmartCacheData>("Test16", false, SmartCacheValueReference.WEAK);
+        final AtomicInteger collected = new AtomicInteger(0);
+        mySmartCache.addSmartCacheEventsListener(new SmartCacheEventListener<String, SmartCacheData>() {
+            @Override
+            public void onCreateCacheEntry(String key, SmartCacheData createdEntry) {
+            }
+
+            @Override
+            public void onDeleteCacheEntry(String key, SmartCacheData deletedEntry, String reason) {
+                // A collected entry is reported without its value
+                if (SmartCache.SmartCacheDeleteReason.COLLECTED.equals(reason))
+                    collected.incrementAndGet();
+            }
+
+            @Override
+            public void onSingleEntryPurge(String key, SmartCacheData purgedElement) {
+            }
+
+            @Override
+            public void onCachePurge(Map<String, SmartCacheData> cacheList) {
+            }
+        });
+
+        // Only the first value is still referenced from outside of the cache
+        SmartCacheData kept = new SmartCacheData("DATA0", createData(NUMBER_OF_CHUNKS, CHUNK_SIZE));
+        mySmartCache.put("key0", kept, -1, TimeUnit.SECONDS);
+        for (int i = 1; i < 100; i++)
+            mySmartCache.put("key" + i, new SmartCacheData("DATA" + i, createData(NUMBER_OF_CHUNKS, CHUNK_SIZE)),
+                    -1, TimeUnit.SECONDS);
+        System.out.println("Entries: " + mySmartCache.numberOfEntries() + " size: " + mySmartCache.totalCacheSize());
+
+        // The collected entries are removed a few at a time by the expiry ticks and the puts
+        System.gc();
+        Thread.sleep(1000);
+        System.out.println("Entries after a GC: " + mySmartCache.numberOfEntries() + " size: " + mySmartCache.totalCacheSize()
+                + " collected: " + collected.get() + " key0 kept: " + (mySmartCache.get("key0") == kept));
+        mySmartCache.close();
+    }
+
+    private void testSizeEstimation() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with estimated sizes");
+
+        // Counter does not implement size(): the size of its Data is estimated from their object graph
+        final DefaultSmartCache<String, Counter> counters =
+                new DefaultSmartCache<String, Counter>("Test17", false);
+        for (int i = 0; i < 1000; i++)
+            counters.put("key" + i, new Counter(i), -1, TimeUnit.SECONDS);
+        System.out.println("1000 counters: " + counters.totalCacheSize() + " bytes");
+
+        // SmartCacheData implements size(), with the number of bytes of its chunks, which is used as it is
+        final DefaultSmartCache<String, SmartCacheData> mySmartCache =
+                new DefaultSmartCache<String, SmartCacheData>("Test18", false);
+        mySmartCache.put("exact", new SmartCacheData("DATA", createData(NUMBER_OF_CHUNKS, CHUNK_SIZE)), -1, TimeUnit.SECONDS);
+        System.out.println("Reported by size(): " + mySmartCache.totalCacheSize() + " bytes");
+
+        // Unless the cache estimates every size, which also counts the arrays and the object headers
+        mySmartCache.sizeEstimation(true);
+        mySmartCache.put("estimated", new SmartCacheData("DATA", createData(NUMBER_OF_CHUNKS, CHUNK_SIZE)), -1, TimeUnit.SECONDS);
+        System.out.println("Estimated: " + (mySmartCache.totalCacheSize() - CHUNK_SIZE * NUMBER_OF_CHUNKS) + " bytes");
+        counters.close();
+        mySmartCache.close();
+    }
+
+    private void testValueCodec() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with the binary value codec");
+
+        // The codec writes the chunks of SmartCacheData in bulk, and its other fields one by one
+        ValueCodec<SmartCacheData> codec = new BinaryValueCodec<SmartCacheData>();
+
+        // A small buffer, which grows once to fit the values and is then re-used for all of them
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        SmartCacheData decoded = null;
+        for (int i = 0; i < 1000; i++) {
+            buffer.clear();
+            buffer = ValueCodecs.encode(codec, new SmartCacheData("DATA" + i, createData(NUMBER_OF_CHUNKS, CHUNK_SIZE)), buffer);
+            buffer.flip();
+            decoded = codec.decode(buffer);
+        }
+        System.out.println("Encoded in " + buffer.limit() + " bytes, buffer of " + buffer.capacity() + " bytes");
+        System.out.println("Decoded: " + decoded.getKey() + " with " + decoded.size() + " bytes of data");
+
+        // Compare it with the SerializableValueCodec on your own Data with:
+        // java com.sohail.alam.mango_pi.smart.cache.codec.ValueCodecBenchmark 200000
+    }
+
+    private void testCompression() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with compressed values");
+
+        final DefaultSmartCache<String, SmartCacheData> mySmartCache =
+                new DefaultSmartCache<String, SmartCacheData>("Test19", false);
+        mySmartCache.put("plain", new SmartCacheData("DATA", createData(NUMBER_OF_CHUNKS, CHUNK_SIZE)), -1, TimeUnit.SECONDS);
+        long plain = mySmartCache.totalCacheSize();
+
+        // The values of 4KB or more put from now on are kept deflated, if that saves at least an eighth
+        mySmartCache.compressAbove(4096);
+        for (int i = 0; i < 100; i++)
+            mySmartCache.put("key" + i, new SmartCacheData("DATA" + i, createData(NUMBER_OF_CHUNKS, CHUNK_SIZE)),
+                    -1, TimeUnit.SECONDS);
+        System.out.println("Plain value: " + plain + " bytes, compressed value: "
+                + (mySmartCache.totalCacheSize() - plain) / 100 + " bytes, ratio: "
+                + String.format("%.1f", mySmartCache.statistics().compressionRatio()));
+
+        // Every read decompresses a new copy of the value
+        SmartCacheData data = mySmartCache.get("key42");
+        System.out.println("Read: " + data.getKey() + " with " + data.size() + " bytes of data, "
+                + mySmartCache.statistics().decompressionCount() + " decompression");
+        mySmartCache.close();
+    }
+
+    private void testDeduplication() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with deduplicated values");
+
+        final DefaultSmartCache<String, SmartCacheData> mySmartCache =
+                new DefaultSmartCache<String, SmartCacheData>("Test20", false);
+
+        // The values put from now on are kept once per content, whatever the number of Keys that hold them
+        mySmartCache.deduplicate(true);
+
+        // The same rendered fragment, for 1000 users
+        byte[][] fragment = createData(NUMBER_OF_CHUNKS, CHUNK_SIZE);
+        for (int i = 0; i < 1000; i++)
+            mySmartCache.put("user" + i, new SmartCacheData("FRAGMENT", fragment), -1, TimeUnit.SECONDS);
+        System.out.println("Shared values: " + mySmartCache.sharedValues() + " total size: " + mySmartCache.totalCacheSize()
+                + " physical size: " + mySmartCache.physicalCacheSize());
+
+        // The Keys share the same instance, which must therefore not be changed
+        System.out.println("Same instance: " + (mySmartCache.get("user1") == mySmartCache.get("user2")));
+        mySmartCache.close();
+    }
+
+    private void testNegativeCaching() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with negative caching");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test21", false);
+
+        // The Keys that the loader does not find are remembered as absent for 500 ms
+        mySmartCache.negativeTtl(500, TimeUnit.MILLISECONDS);
+        final AtomicInteger lookups = new AtomicInteger(0);
+        SmartCacheLoader<String, Counter> loader = new SmartCacheLoader<String, Counter>() {
+            @Override
+            public Counter load(String key) throws Exception {
+                lookups.incrementAndGet();
+                return key.startsWith("missing") ? null : new Counter(1);
+            }
+        };
+
+        // Only the first lookup of the missing ID reaches the backend
+        for (int i = 0; i < 100; i++)
+            mySmartCache.get("missing-42", loader, 60, TimeUnit.SECONDS);
+        System.out.println("Backend lookups: " + lookups.get() + " absent markers: " + mySmartCache.numberOfAbsentEntries()
+                + " entries: " + mySmartCache.numberOfEntries());
+
+        // Once the marker expires, the backend is asked again
+        Thread.sleep(600);
+        mySmartCache.get("missing-42", loader, 60, TimeUnit.SECONDS);
+        System.out.println("Backend lookups after the negative TTL: " + lookups.get());
+        System.out.println("Negative hits: " + mySmartCache.statistics().negativeHitCount()
+                + " misses: " + mySmartCache.statistics().negativeMissCount());
+        mySmartCache.close();
+    }
+
+    private void testWriteBehind() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with a write behind writer");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test22", false);
+
+        // The database gets the updates in batches, in the background
+        final Map<String, Long> database = new ConcurrentHashMap<String, Long>();
+        final AtomicInteger batches = new AtomicInteger(0);
+        mySmartCache.writeBehind(new SmartCacheWriter<String, Counter>() {
+            @Override
+            public void write(String key, Counter data) {
+                database.put(key, data.getCount());
+            }
+
+            @Override
+            public void writeAll(Map<String, Counter> entries) {
+                batches.incrementAndGet();
+                for (Map.Entry<String, Counter> entry : entries.entrySet())
+                    write(entry.getKey(), entry.getValue());
+            }
+
+            @Override
+            public void delete(String key) {
+                database.remove(key);
+            }
+
+            @Override
+            public void deleteAll(Collection<String> keys) {
+                batches.incrementAndGet();
+                for (String key : keys)
+                    delete(key);
+            }
+        }, 100, 500, TimeUnit.MILLISECONDS, 10000);
+
+        // 10 hot Keys, each updated 1000 times within a flush interval: only their latest Data are written
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j < 10; j++)
+                mySmartCache.put("key" + j, new Counter(i), -1, TimeUnit.SECONDS);
+        }
+        System.out.println("Pending writes: " + mySmartCache.pendingWrites() + " written so far: " + database.size());
+
+        // Closing the cache writes the pending updates first (flushWrites() would start writing them at once)
+        mySmartCache.close();
+        System.out.println("Batches: " + batches.get() + " writes: " + mySmartCache.statistics().writeCount()
+                + " coalesced: " + mySmartCache.statistics().coalescedWriteCount() + " key9: " + database.get("key9"));
+    }
+
+    private void testTags() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with tagged entries");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test23", false);
+
+        // A bulk listener is told of all the entries removed by a tag at once
+        mySmartCache.addSmartCacheEventsListener(new SmartCacheBulkEventListener<String, Counter>() {
+            @Override
+            public void onDeleteCacheEntries(Map<String, Counter> deletedEntries, String reason) {
+                System.out.println("Deleted at once: " + new TreeMap<String, Counter>(deletedEntries).keySet());
+            }
+
+            @Override
+            public void onCreateCacheEntry(String key, Counter createdEntry) {
+            }
+
+            @Override
+            public void onDeleteCacheEntry(String key, Counter deletedEntry, String reason) {
+            }
+
+            @Override
+            public void onSingleEntryPurge(String key, Counter purgedElement) {
+            }
+
+            @Override
+            public void onCachePurge(Map<String, Counter> cacheList) {
+            }
+        });
+
+        // Every entry derived from a user carries its tag, along with that of its region
+        for (int user = 1; user <= 3; user++) {
+            for (String view : new String[]{"profile", "orders", "cart"})
+                mySmartCache.put(view + ":" + user, new Counter(user), -1, TimeUnit.SECONDS,
+                        "user:" + user, user == 3 ? "region:us" : "region:eu");
+        }
+        System.out.println("Entries: " + mySmartCache.numberOfEntries() + " tags: " + mySmartCache.numberOfTags());
+
+        // The user changed: all its views go at once, without a scan of the Keys
+        Map<String, Counter> removed = mySmartCache.invalidateTag("user:2", SmartCache.SmartCacheDeleteReason.DELETED_BY_USER);
+        // The callback is given asynchronously, on the lane of the cache
+        Thread.sleep(100);
+        System.out.println("Removed: " + removed.size() + " entries left: " + mySmartCache.numberOfEntries());
+
+        mySmartCache.invalidateTag("region:eu", SmartCache.SmartCacheDeleteReason.DELETED_BY_USER);
+        Thread.sleep(100);
+        System.out.println("Left after the EU region: " + new TreeMap<String, Counter>(mySmartCache.copy()).keySet());
+        mySmartCache.close();
+    }
+
+    private void testKeyIndex() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with the Keys indexed by prefix");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test24", false);
+
+        // The sorted index of the Keys is kept up to date on every put and remove
+        mySmartCache.indexKeys(true);
+        for (int i = 0; i < 10000; i++) {
+            String region = i % 2 == 0 ? "eu" : "us";
+            mySmartCache.put("session:" + region + ":" + i, new Counter(i), -1, TimeUnit.SECONDS);
+            mySmartCache.put("user:" + i, new Counter(i), -1, TimeUnit.SECONDS);
+        }
+
+        // Counting, walking or removing the Keys of a prefix costs the Keys that match, not a scan of the cache
+        System.out.println("Sessions: " + mySmartCache.countKeysWithPrefix("session:")
+                + " in the EU: " + mySmartCache.countKeysWithPrefix("session:eu:"));
+
+        // Any other part of the Keys is looked for in the whole index, which still saves the string forms
+        System.out.println("Keys containing ':99': " + mySmartCache.countKeysContaining(":99"));
+        int shown = 0;
+        for (String key : mySmartCache.keysWithPrefix("session:us:")) {
+            System.out.println("First US sessions: " + key);
+            if (++shown == 3)
+                break;
+        }
+        int removed = mySmartCache.removeKeysWithPrefix("session:eu:", SmartCache.SmartCacheDeleteReason.DELETED_BY_USER);
+        System.out.println("Removed: " + removed + " sessions left: " + mySmartCache.countKeysWithPrefix("session:")
+                + " entries left: " + mySmartCache.numberOfEntries());
+        mySmartCache.close();
+    }
+
+    private void testValueIndex() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with the entries indexed by value");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test25", false);
+
+        // The users share a few plan instances, so they are indexed by identity
+        mySmartCache.indexValues(SmartCacheValueIndex.IDENTITY);
+        Counter[] plans = {new Counter(0), new Counter(1), new Counter(2)};
+        for (int i = 0; i < 10000; i++)
+            mySmartCache.put("user" + i, plans[i % 3], -1, TimeUnit.SECONDS);
+        Counter trial = new Counter(3);
+        mySmartCache.put("trial", trial, 100, TimeUnit.MILLISECONDS);
+
+        // Neither of these scans the cache
+        System.out.println("Users on plan 2: " + mySmartCache.keysForValue(plans[2]).size()
+                + " trial in use: " + mySmartCache.containsValue(trial)
+                + " index size: " + mySmartCache.valueIndexWeight() + " bytes");
+
+        // An expired entry is left out, whether or not the expiry has removed it yet
+        Thread.sleep(200);
+        System.out.println("Trial in use after its TTL: " + mySmartCache.containsValue(trial));
+        mySmartCache.close();
+    }
+
+    private void testBulkOperations() throws Exception {
+
+        System.out.println("Starting SmartCache Setup with parallel bulk operations");
+
+        final DefaultSmartCache<String, Counter> mySmartCache =
+                new DefaultSmartCache<String, Counter>("Test26", false);
+        for (int i = 0; i < 100000; i++)
+            mySmartCache.put("key" + i, new Counter(i), -1, TimeUnit.SECONDS);
+
+        // From 10000 entries on, the threads of the shared fork/join pool take slices of the entries until none is left
+        final AtomicLong visited = new AtomicLong(0);
+        mySmartCache.parallelForEach(10000, new SmartCacheVisitor<String, Counter>() {
+            @Override
+            public void visit(String key, Counter data) {
+                visited.incrementAndGet();
+            }
+        });
+
+        // The search stops on all the threads at the first result
+        String found = mySmartCache.search(10000, new SmartCacheSearcher<String, Counter, String>() {
+            @Override
+            public String search(String key, Counter data) {
+                return data.getCount() == 42424 ? key : null;
+            }
+        });
+
+        // Every slice is folded on its own, and the results of the slices are then combined
+        Long total = mySmartCache.reduce(10000, new SmartCacheReducer<String, Counter, Long>() {
+            @Override
+            public Long transform(String key, Counter data) {
+                return data.getCount();
+            }
+
+            @Override
+            public Long reduce(Long left, Long right) {
+                return left + right;
+            }
+        });
+        System.out.println("Visited: " + visited.get() + " found: " + found + " total: " + total);
+        mySmartCache.close();
+    }
+
+    /**
+     * A Key whose string form leaves out its region
+     */
+    private static class Sku {
+
+        private final String code;
+        private final String region;
+
+        public Sku(String code, String region) {
+            this.code = code;
+            this.region = region;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Sku && ((Sku) o).code.equals(code) && ((Sku) o).region.equals(region);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * code.hashCode() + region.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return code;
+        }
+    }
+
+    /**
+     * A counter, as the Data of the Smart Cache
+     */
+    private static class Counter extends SmartCachePojo<String> {
+
+        private final long count;
+
+        public Counter(long count) {
+            this.count = count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String getKey() {
+            return null;
+        }
+
+        @Override
+        public void setKey(String key) {
+        }
+    }
 }
@@ -1,12 +1,25 @@
 package com.sohail.alam.mango_pi.smart.cache;
 
+import com.sohail.alam.mango_pi.smart.cache.codec.BinaryValueCodec;
+import com.sohail.alam.mango_pi.smart.cache.codec.ValueCodec;
 import com.sohail.alam.mango_pi.smart.cache.mbeans.AbstractSmartCacheManager;
 
+import java.io.Closeable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
+import static com.sohail.alam.mango_pi.smart.cache.SmartCache.SmartCacheDeleteReason.COLLECTED;
+import static com.sohail.alam.mango_pi.smart.cache.SmartCache.SmartCacheDeleteReason.DELETED_BY_USER;
 import static com.sohail.alam.mango_pi.smart.cache.SmartCache.SmartCacheDeleteReason.EXPIRED;
 import static com.sohail.alam.mango_pi.smart.cache.SmartCache.SmartCacheDeleteReason.PURGED;
 import static com.sohail.alam.mango_pi.smart.cache.SmartCacheHistoryImpl.SMART_CACHE_HISTORY;
@@ -18,54 +31,215 @@ import static com.sohail.alam.mango_pi.smart.cache.SmartCacheHistoryImpl.SMART_C
  * <p/>
  * It also initializes a Smart Cache MBean for management purpose (if enabled by User).
  * <p/>
+ * The expiry, the purge jobs and the listener callbacks of every cache run on the threads shared by all
+ * the Smart Cache Instances (see {@link SmartCacheRuntime}), so a cache does not start any thread of its own.
+ * The listener callbacks are therefore given asynchronously, one at a time and in order, after the
+ * operation that caused them has completed.
+ * <p/>
+ * A Smart Cache Instance holds on to its name, its MBeans and its share of the background work until it is
+ * closed, see {@link #close()} and {@link SmartCacheManager}. Its name is taken when it is created, but it
+ * only starts, that is it shows up in {@link #registeredCaches()}, gets its expiry task and activates its
+ * MBeans, when its first entry is stored or {@link #start()} is invoked, so that none of the threads shared
+ * by the caches sees it before all the constructors of its subclasses have run.
+ * <p/>
  * User: Sohail Alam
  * Version: 1.0.0
  * Date: 21/7/13
  * Time: 12:15 PM
  */
-public abstract class AbstractSmartCache<K, V> implements SmartCache<K, V> {
-
-    private static final ArrayList<String> UNIQUE_CACHE_NAMES = new ArrayList<String>();
-    private final ConcurrentHashMap<K, V> SMART_CACHE_DATA;
-    private final ConcurrentHashMap<K, ScheduledFuture<V>> TASK_HOLDER;
-    private final ConcurrentHashMap<K, ConcurrentHashMap<String, Object>> NON_SCHEDULED_TASKS;
-    private final ScheduledThreadPoolExecutor TASK_EXECUTOR;
-    private final ExecutorService PURGE_EXECUTOR;
+public abstract class AbstractSmartCache<K, V> implements SmartCache<K, V>, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(AbstractSmartCache.class.getName());
+    private static final long EXPIRY_LAG_ALERT_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    private static final long DEFAULT_CLOSE_TIMEOUT = 30;
+    private static final SmartCacheFlightRecorder RECORDER = SmartCacheFlightRecorder.INSTANCE;
+    private static final int LOAD = 0;
+    private static final int EARLY_REFRESH = 1;
+    private static final int REVALIDATE = 2;
+    private static final int COLLECTED_PER_WRITE = 16;
+    private static final int COLLECTED_PER_TICK = 1024;
+    private static final Object UNCHANGED = new Object();
+    private static final int KEYS_PER_PAGE = 1024;
+    private static final int KEYS_PER_PURGE_CHUNK = 4096;
+    private static final int WRITE_LOCKS = 64;
+    private static final ConcurrentHashMap<String, AbstractSmartCache<?, ?>> REGISTERED_CACHES =
+            new ConcurrentHashMap<String, AbstractSmartCache<?, ?>>();
+    private final ConcurrentHashMap<K, SmartCacheEntry<K, V>> SMART_CACHE_DATA;
+    private final SmartCacheExpiryQueue<K, V> EXPIRY_QUEUE;
+    private final SmartCacheValueReference VALUE_REFERENCE;
+    private final ReferenceQueue<V> COLLECTED_VALUES;
+    private final ConcurrentHashMap<K, Long> NON_SCHEDULED_TASKS;
+    private final SmartCacheDeduplicator<V> DEDUPLICATOR = new SmartCacheDeduplicator<V>();
+    private final SmartCacheEntryIndex<String, K, V> TAGS = new SmartCacheEntryIndex<String, K, V>();
+    private final ConcurrentHashMap<K, SmartCacheEntry<K, V>> ABSENT_ENTRIES = new ConcurrentHashMap<K, SmartCacheEntry<K, V>>();
+    private final ConcurrentHashMap<K, FutureTask<V>> LOADING_TASKS = new ConcurrentHashMap<K, FutureTask<V>>();
+    private final Set<SmartCachePurge> PURGES = Collections.newSetFromMap(new ConcurrentHashMap<SmartCachePurge, Boolean>());
+    private final ReentrantLock[] KEY_WRITE_LOCKS = new ReentrantLock[WRITE_LOCKS];
+    private final SmartCacheWorkQueue WORK_QUEUE;
+    private final SmartCacheWorkQueue LOADER_QUEUE;
+    private final SmartCacheWorkQueue WRITER_QUEUE;
+    private final List<AbstractSmartCacheManager<?, ?, ?>> MBEANS = new CopyOnWriteArrayList<AbstractSmartCacheManager<?, ?, ?>>();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final Object START_LOCK = new Object();
+    private final boolean activateMBean;
+    private final AtomicLong VERSIONS = new AtomicLong(0);
+    private final SmartCacheStatistics statistics;
+    private final SmartCacheExecutorStatistics expiryStatistics;
+    private final AtomicLong lastExpiryLagAlert = new AtomicLong(System.nanoTime() - EXPIRY_LAG_ALERT_INTERVAL);
+    private volatile ScheduledFuture<?> expiryTask = null;
+    private volatile boolean started = false;
+    private volatile long expiryLagAlertThreshold = Long.MAX_VALUE;
+    private volatile long expireAfterAccess = 0;
+    private volatile Expiry<K, V> expiry = null;
+    private volatile int expiryJitterPercent = 0;
+    private volatile long expiryJitterWindow = 0;
+    private volatile int maxExpirationsPerTick = Integer.MAX_VALUE;
+    private volatile double earlyRefresh = 0;
+    private volatile long staleWhileRevalidate = 0;
+    private volatile long negativeTtl = 0;
+    private volatile SmartCacheWriter<K, V> writeThrough = null;
+    private volatile SmartCacheWriteBehind<K, V> writeBehind = null;
+    private volatile SmartCacheCompressor<V> compressor = null;
+    private volatile SmartCacheKeyIndex<K> keyIndex = null;
+    private volatile ValueIndex valueIndex = null;
     private SmartCacheEventListener smartCacheEventListener = null;
+    private volatile boolean expiring;
     private String cacheName = "SmartCache";
-    private boolean startAutoCleaner = true;
-    private AtomicInteger canceledTasks;
     private AtomicLong deletedEntriesCounter;
 
     /**
-     * Instantiates a new {@link AbstractSmartCache}
+     * Instantiates a new {@link AbstractSmartCache}, which takes its name right away and starts when its first
+     * entry is stored, see {@link #start()}.
      *
      * @param cacheName     the cache name (must be unique if more than one Smart Cache
      *                      is instantiated in the application)
-     * @param activateMBean This indicates whether to activate the SmartCache MBean.
+     * @param activateMBean This indicates whether to activate the SmartCache MBean, once started.
      *
      * @throws SmartCacheException Throws any SmartCacheException that might occur.
      */
     public AbstractSmartCache(String cacheName, boolean activateMBean) throws SmartCacheException {
+        this(cacheName, activateMBean, SmartCacheValueReference.STRONG);
+    }
+
+    /**
+     * Instantiates a new {@link AbstractSmartCache} whose values may be collected by the Garbage Collector.
+     * <p/>
+     * The entries whose value was collected are removed a few at a time whenever an entry is put, and
+     * at every expiry tick, and reported to the listener and the History with the reason
+     * {@link SmartCache.SmartCacheDeleteReason#COLLECTED} (and a {@code null} value). Until then,
+     * they are seen as missing by {@link #get(Object)}.
+     *
+     * @param cacheName      the cache name (must be unique if more than one Smart Cache
+     *                       is instantiated in the application)
+     * @param activateMBean  This indicates whether to activate the SmartCache MBean, once started.
+     * @param valueReference how strongly the cache holds on to its values
+     *
+     * @throws SmartCacheException if the name is not unique, or the Smart Cache has been shut down
+     */
+    public AbstractSmartCache(String cacheName, boolean activateMBean, SmartCacheValueReference valueReference)
+            throws SmartCacheException {
+        if (SmartCacheRuntime.runtime().isShutdown())
+            throw new SmartCacheException("The Smart Cache '" + cacheName
+                    + "' can not be created, the Smart Cache has been shut down");
         this.cacheName = cacheName;
-        if (UNIQUE_CACHE_NAMES.contains(this.cacheName)) {
+        SMART_CACHE_DATA = new ConcurrentHashMap<K, SmartCacheEntry<K, V>>();
+        for (int i = 0; i < KEY_WRITE_LOCKS.length; i++)
+            KEY_WRITE_LOCKS[i] = new ReentrantLock();
+        EXPIRY_QUEUE = new SmartCacheExpiryQueue<K, V>();
+        VALUE_REFERENCE = valueReference == null ? SmartCacheValueReference.STRONG : valueReference;
+        COLLECTED_VALUES = VALUE_REFERENCE == SmartCacheValueReference.STRONG ? null : new ReferenceQueue<V>();
+        NON_SCHEDULED_TASKS = new ConcurrentHashMap<K, Long>();
+        WORK_QUEUE = SmartCacheRuntime.runtime().newWorkQueue("worker");
+        LOADER_QUEUE = SmartCacheRuntime.runtime().newLoaderQueue();
+        WRITER_QUEUE = SmartCacheRuntime.runtime().newWorkQueue("writer");
+        statistics = new SmartCacheStatistics();
+        expiryStatistics = new SmartCacheExecutorStatistics("expiry") {
+            @Override
+            public int queueDepth() {
+                return EXPIRY_QUEUE.size();
+            }
+
+            @Override
+            public int activeThreads() {
+                return expiring ? 1 : 0;
+            }
+        };
+        deletedEntriesCounter = new AtomicLong(0);
+        this.activateMBean = activateMBean;
+        if (activateMBean)
+            MBEANS.add(new AbstractSmartCacheManager<AbstractSmartCache<K, V>, K, V>(this));
+        // Only the name is taken here, the cache is published once it is started
+        if (REGISTERED_CACHES.putIfAbsent(this.cacheName, this) != null)
             throw new SmartCacheException("The Smart Cache Name: '" + cacheName
                     + "' is not unique, please select another name for this SmartCache instance");
-        } else {
-            UNIQUE_CACHE_NAMES.add(this.cacheName);
-        }
-        SMART_CACHE_DATA = new ConcurrentHashMap<K, V>();
-        TASK_HOLDER = new ConcurrentHashMap<K, ScheduledFuture<V>>();
-        TASK_EXECUTOR = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors());
-        NON_SCHEDULED_TASKS = new ConcurrentHashMap<K, ConcurrentHashMap<String, Object>>();
-        PURGE_EXECUTOR = Executors.newSingleThreadExecutor();
-        canceledTasks = new AtomicInteger(0);
-        deletedEntriesCounter = new AtomicLong(0);
-        if (activateMBean) {
-            new AbstractSmartCacheManager<AbstractSmartCache, K, V>(this).startSmartCacheMBeanService();
+    }
+
+    /**
+     * Starts this Smart Cache Instance: shows it in {@link #registeredCaches()}, and so to the exporters and
+     * the {@link SmartCacheManager}, schedules its expiry task and activates its MBeans, see
+     * {@link #startMBeanService(AbstractSmartCacheManager)}.
+     * <p/>
+     * A cache starts on its own when its first entry is stored, which is always after it has been constructed,
+     * so this only needs to be invoked to see an empty cache in JMX or in the registry. It must not be invoked
+     * from a constructor, since the threads shared by the caches may then call the methods of a subclass that
+     * is not fully constructed. Starting a cache more than once has no effect.
+     *
+     * @throws SmartCacheException   if an MBean could not be activated, in which case the cache is started
+     *                               without it, or the Smart Cache has been shut down
+     * @throws IllegalStateException if the cache has been closed
+     */
+    public final void start() throws SmartCacheException {
+        if (started)
+            return;
+        synchronized (START_LOCK) {
+            if (started)
+                return;
+            if (closed.get())
+                throw new IllegalStateException("The Smart Cache '" + cacheName + "' has been closed");
+            try {
+                expiryTask = SmartCacheRuntime.runtime().scheduleExpiry(new ExpiryTask());
+            } catch (RejectedExecutionException e) {
+                throw new SmartCacheException("The Smart Cache '" + cacheName
+                        + "' can not be started, the Smart Cache has been shut down", e);
+            }
+            started = true;
+            SmartCacheException failure = null;
+            for (AbstractSmartCacheManager<?, ?, ?> manager : MBEANS) {
+                try {
+                    manager.startSmartCacheMBeanService();
+                } catch (SmartCacheException e) {
+                    MBEANS.remove(manager);
+                    if (failure == null)
+                        failure = e;
+                }
+            }
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * Starts this cache, if it has not been started yet, when an entry is stored, see {@link #start()}.
+     */
+    private void ensureStarted() {
+        if (started)
+            return;
+        try {
+            start();
+        } catch (SmartCacheException e) {
+            LOGGER.log(Level.WARNING, "The Smart Cache '" + cacheName + "' could not be fully started", e);
         }
     }
 
+    /**
+     * Checks whether this Smart Cache Instance has been started, see {@link #start()}.
+     *
+     * @return {@code true} if started
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
     /**
      * Checks whether the {@link com.sohail.alam.mango_pi.smart.cache.SmartCache} is empty.
      *
@@ -91,7 +265,8 @@ public abstract class AbstractSmartCache<K, V> implements SmartCache<K, V> {
 
     /**
      * Checks whether the specified value is associated with any key in the
-     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}
+     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}. The entries that have expired or gone stale,
+     * but are not removed yet, are left out.
      *
      * @param value The Key of type {@link V}
      *
@@ -99,7 +274,51 @@ public abstract class AbstractSmartCache<K, V> implements SmartCache<K, V> {
      */
     @Override
     public boolean containsValue(V value) throws NullPointerException {
-        return SMART_CACHE_DATA.containsValue(value);
+        if (value == null)
+            throw new NullPointerException();
+        long now = System.nanoTime();
+        ValueIndex index = valueIndex;
+        if (index != null) {
+            for (SmartCacheEntry<K, V> entry : index.entries.entries(index.attribute(value))) {
+                if (SMART_CACHE_DATA.get(entry.key) == entry && liveValue(entry, now) != null)
+                    return true;
+            }
+            return false;
+        }
+        for (SmartCacheEntry<K, V> entry : SMART_CACHE_DATA.values()) {
+            if (value.equals(liveValue(entry, now)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the Keys whose Data is the given value: the same instance if the values are indexed by identity,
+     * see {@link #indexValues(SmartCacheValueIndex)}, or else an equal one. Without the index, all the entries
+     * are scanned. The entries that have expired or gone stale, but are not removed yet, are left out.
+     *
+     * @param value the value of type {@link V}
+     *
+     * @return the Keys of type {@link K}
+     */
+    public Set<K> keysForValue(V value) {
+        if (value == null)
+            throw new NullPointerException();
+        Set<K> keys = new HashSet<K>();
+        long now = System.nanoTime();
+        ValueIndex index = valueIndex;
+        if (index != null) {
+            for (SmartCacheEntry<K, V> entry : index.entries.entries(index.attribute(value))) {
+                if (SMART_CACHE_DATA.get(entry.key) == entry && liveValue(entry, now) != null)
+                    keys.add(entry.key);
+            }
+            return keys;
+        }
+        for (SmartCacheEntry<K, V> entry : SMART_CACHE_DATA.values()) {
+            if (value.equals(liveValue(entry, now)))
+                keys.add(entry.key);
+        }
+        return keys;
     }
 
     /**
@@ -112,11 +331,13 @@ public abstract class AbstractSmartCache<K, V> implements SmartCache<K, V> {
      * This can be prevented and the entry can live forever (until the user manually deletes it),
      * by setting the TTL value to -1.
      * <p/>
-     * For the entries to be auto deleted the Smart Cache Auto Cleaner Service must be kept alive.
-     * By default it is on.
+     * An expired entry is removed within one expiry tick of its TTL
+     * (see {@link SmartCacheRuntime#expiryTick(TimeUnit)}).
+     * Putting a Key again replaces its Data and its TTL.
+     * If an {@link Expiry} policy is set (see {@link #expiry(Expiry)}), it decides the TTL instead.
      * <p/>
-     * If the Auto Cleaner Service is not alive, then the entries will be deleted
-     * (if and when it outlives) when the Auto Cleaner Service is started.
+     * If a {@link SmartCacheWriter} is set, the Data are written through it first, see
+     * {@link #writeThrough(SmartCacheWriter)} and {@link #writeBehind(SmartCacheWriter, int, long, TimeUnit, int)}.
      * <p/>
      * If a {@link SmartCacheEventListener} is attached to this {@link SmartCache} instance,
      * then an appropriate callback is received in the method
@@ -126,23 +347,315 @@ public abstract class AbstractSmartCache<K, V> implements SmartCache<K, V> {
      * @param data     Any Data of type {@link V}
      * @param ttl      the ttl value - The after which data will be auto deleted from the Cache
      * @param timeUnit the time unit for the TTL Value
+     *
+     * @throws NullPointerException  if the Key or the Data is {@code null}
+     * @throws IllegalStateException if the Data could not be written through
      */
     @Override
     public void put(K key, V data, int ttl, TimeUnit timeUnit) {
-        SMART_CACHE_DATA.put(key, data);
-        if (ttl > 0) {
-            if (startAutoCleaner)
-                TASK_HOLDER.put(key, TASK_EXECUTOR.schedule(new AutoCleanerTask(key), ttl, timeUnit));
-            else {
-                ConcurrentHashMap<String, Object> temp = new ConcurrentHashMap<String, Object>();
-                temp.put("TTL", ttl);
-                temp.put("TIME_UNIT", timeUnit);
-                temp.put("CURRENT_NANO", System.nanoTime());
-                NON_SCHEDULED_TASKS.put(key, temp);
+        if (closed.get())
+            throw new IllegalStateException("The Smart Cache '" + cacheName + "' has been closed");
+        checkNotNull(key, data);
+        ReentrantLock lock = lockWrites(key);
+        try {
+            write(key, data);
+            store(key, data, ttl > 0 ? timeUnit.toNanos(ttl) : -1, 0, null);
+        } finally {
+            unlockWrites(lock);
+        }
+    }
+
+    /**
+     * Put the Data for the given Key, tagged with the given tags, see {@link #put(Object, Object, int, TimeUnit)}.
+     * All the entries that carry a tag can be removed at once with {@link #invalidateTag(String, String)}, for
+     * example the entries derived from the same entity. The tags belong to the entry: putting the Key again
+     * replaces them, while the atomic updates such as {@link #compute(Object, SmartCacheRemapper, int, TimeUnit)}
+     * keep them.
+     *
+     * @param key      Any Key of type {@link K}
+     * @param data     Any Data of type {@link V}
+     * @param ttl      the ttl value - The after which data will be auto deleted from the Cache
+     * @param timeUnit the time unit for the TTL Value
+     * @param tags     the tags of the entry
+     *
+     * @throws NullPointerException  if the Key or the Data is {@code null}
+     * @throws IllegalStateException if the Data could not be written through
+     */
+    public void put(K key, V data, int ttl, TimeUnit timeUnit, String... tags) {
+        if (closed.get())
+            throw new IllegalStateException("The Smart Cache '" + cacheName + "' has been closed");
+        for (String tag : tags) {
+            if (tag == null)
+                throw new NullPointerException("A tag of the Key: " + key + " is null");
+        }
+        checkNotNull(key, data);
+        ReentrantLock lock = lockWrites(key);
+        try {
+            write(key, data);
+            store(key, data, ttl > 0 ? timeUnit.toNanos(ttl) : -1, 0, tags.length == 0 ? null : tags.clone());
+        } finally {
+            unlockWrites(lock);
+        }
+    }
+
+    /**
+     * Rejects a {@code null} Key or Data before anything is written, as the underlying map would.
+     *
+     * @param key  the Key of type {@link K}
+     * @param data the Data of type {@link V}
+     *
+     * @throws NullPointerException if the Key or the Data is {@code null}
+     */
+    private static void checkNotNull(Object key, Object data) {
+        if (key == null)
+            throw new NullPointerException("The Key is null");
+        if (data == null)
+            throw new NullPointerException("The Data of the Key: " + key + " is null");
+    }
+
+    /**
+     * Takes the lock of the given Key if a {@link SmartCacheWriter} is set, so that the user's changes of a Key
+     * are written in the order they are stored: the write and the change of the entry are made under the lock.
+     * The changes that write nothing, such as the expiry or the loads, do not take it. While the lock is held the
+     * callbacks never wait for room in the lane, whose tasks may take the lock themselves.
+     *
+     * @param key the Key of type {@link K}
+     *
+     * @return the lock to give to {@link #unlockWrites(ReentrantLock)}, {@code null} if nothing is written
+     */
+    private ReentrantLock lockWrites(K key) {
+        if (writeThrough == null && writeBehind == null)
+            return null;
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        ReentrantLock lock = KEY_WRITE_LOCKS[hash & (WRITE_LOCKS - 1)];
+        lock.lock();
+        SmartCacheWorkQueue.enterUnbounded();
+        return lock;
+    }
+
+    /**
+     * Releases a lock taken with {@link #lockWrites(Object)}.
+     *
+     * @param lock the lock, {@code null} if none was taken
+     */
+    private void unlockWrites(ReentrantLock lock) {
+        if (lock != null) {
+            SmartCacheWorkQueue.exitUnbounded();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the Data put by the user to the {@link SmartCacheWriter}, if one is set.
+     *
+     * @param key  the Key of type {@link K}
+     * @param data the Data of type {@link V}, {@code null} to delete the Key
+     *
+     * @throws IllegalStateException if the Data could not be written through
+     */
+    private void write(K key, V data) {
+        SmartCacheWriter<K, V> writer = writeThrough;
+        if (writer != null) {
+            try {
+                if (data == null)
+                    writer.delete(key);
+                else
+                    writer.write(key, data);
+                statistics.recordWrites(1);
+            } catch (Exception e) {
+                statistics.recordWriteFailure();
+                throw new IllegalStateException("Smart Cache '" + cacheName + "' failed to write the Key: " + key, e);
+            }
+        }
+        SmartCacheWriteBehind<K, V> behind = writeBehind;
+        if (behind != null) {
+            if (data == null)
+                behind.delete(key);
+            else
+                behind.write(key, data);
+        }
+    }
+
+    /**
+     * Deletes Keys removed together by the user from the {@link SmartCacheWriter}, if one is set.
+     *
+     * @param keys the Keys of type {@link K}
+     *
+     * @throws IllegalStateException if the Keys could not be deleted through
+     */
+    private void deleteAll(List<K> keys) {
+        if (keys.isEmpty())
+            return;
+        SmartCacheWriter<K, V> writer = writeThrough;
+        if (writer != null) {
+            try {
+                writer.deleteAll(keys);
+                statistics.recordWrites(keys.size());
+            } catch (Exception e) {
+                statistics.recordWriteFailure();
+                throw new IllegalStateException("Smart Cache '" + cacheName + "' failed to delete " + keys.size() + " Keys", e);
+            }
+        }
+        SmartCacheWriteBehind<K, V> behind = writeBehind;
+        if (behind != null) {
+            for (K key : keys)
+                behind.delete(key);
+        }
+    }
+
+    /**
+     * Stores a new entry, see {@link #put(Object, Object, int, TimeUnit)}.
+     *
+     * @param key      the Key of type {@link K}
+     * @param data     the Data of type {@link V}
+     * @param duration the time to live in nanoseconds, or a negative value if the entry never expires
+     * @param loadTime the nanoseconds it took to load the Data, {@code 0} if it was not loaded
+     * @param tags     the tags of the entry, {@code null} if it has none
+     */
+    private void store(K key, V data, long duration, long loadTime, String[] tags) {
+        if (closed.get())
+            throw new IllegalStateException("The Smart Cache '" + cacheName + "' has been closed");
+        if (COLLECTED_VALUES != null)
+            removeCollected(COLLECTED_PER_WRITE);
+        Object event = RECORDER.beginPut();
+        SmartCacheEntry<K, V> current = SMART_CACHE_DATA.get(key);
+        SmartCacheEntry<K, V> entry = prepare(key, data, current, duration, loadTime, tags);
+        // The version of the entry follows that of the entry it replaces, which must be the one that was read
+        while (current == null ? SMART_CACHE_DATA.putIfAbsent(key, entry) != null
+                : !SMART_CACHE_DATA.replace(key, current, entry)) {
+            current = SMART_CACHE_DATA.get(key);
+            entry.version = nextVersion(current);
+        }
+        installed(entry, data, current, event);
+    }
+
+    /**
+     * Creates the entry of a new value, sets its deadlines and adds it to the index of its tags,
+     * before it is put into the map.
+     *
+     * @param key      the Key of type {@link K}
+     * @param data     the Data of type {@link V}
+     * @param current  the entry that is replaced, {@code null} if the Key is absent
+     * @param duration the time to live in nanoseconds, or a negative value if the entry never expires
+     * @param loadTime the nanoseconds it took to load the Data, {@code 0} if it was not loaded
+     * @param tags     the tags of the entry, {@code null} if it has none
+     *
+     * @return the entry
+     */
+    private SmartCacheEntry<K, V> prepare(K key, V data, SmartCacheEntry<K, V> current, long duration, long loadTime,
+                                          String[] tags) {
+        ensureStarted();
+        long now = System.nanoTime();
+        Expiry<K, V> policy = expiry;
+        if (policy != null) {
+            if (current == null) {
+                duration = policy.expireAfterCreate(key, data, now, duration);
+            } else {
+                long deadline = current.deadline;
+                duration = policy.expireAfterUpdate(key, data, now, duration,
+                        deadline == SmartCacheEntry.NEVER ? -1 : Math.max(0, deadline - now));
             }
         }
-        if (smartCacheEventListener != null)
-            smartCacheEventListener.onCreateCacheEntry(key, data);
+        if (duration > 0)
+            duration -= jitter(duration);
+        SmartCacheEntry<K, V> entry = newEntry(key, data, loadTime);
+        long stale = staleWhileRevalidate;
+        if (stale > 0 && duration >= 0) {
+            // Keep the entry beyond its TTL, to be served while it is reloaded
+            entry.softDeadline = now + duration;
+            duration += stale;
+        }
+        deadlines(entry, now, duration);
+        entry.version = nextVersion(current);
+        entry.tags = tags;
+        index(entry);
+        return entry;
+    }
+
+    /**
+     * The version of an entry that replaces the given one: the next version of the same Key, or else a new base
+     * taken from {@link #VERSIONS}, in the upper half of the version. So the versions of a Key are counted
+     * without any shared counter, and a Key that is removed and put again does not reuse the versions of its
+     * past entries (before 2<sup>32</sup> updates).
+     *
+     * @param current the entry that is replaced, {@code null} if the Key is absent
+     *
+     * @return the version of the new entry, never {@code 0}
+     */
+    private long nextVersion(SmartCacheEntry<K, V> current) {
+        return current == null ? VERSIONS.incrementAndGet() << 32 : current.version + 1;
+    }
+
+    /**
+     * The book keeping common to all the stores, once the new entry is in the map.
+     *
+     * @param entry    the new entry
+     * @param data     the Data of type {@link V} of the new entry
+     * @param replaced the entry that was replaced, {@code null} if the Key was absent
+     * @param event    the token returned by {@link SmartCacheFlightRecorder#beginPut()}
+     */
+    private void installed(SmartCacheEntry<K, V> entry, V data, SmartCacheEntry<K, V> replaced, Object event) {
+        K key = entry.key;
+        long weight = entry.weight;
+        removeAbsent(key);
+        if (replaced != null) {
+            EXPIRY_QUEUE.cancel(replaced);
+            NON_SCHEDULED_TASKS.remove(key);
+            SmartCacheDeduplicator.Shared<V> shared = replaced.shared();
+            if (shared != null)
+                shared.release();
+            unindex(replaced);
+        } else {
+            SmartCacheKeyIndex<K> index = keyIndex;
+            if (index != null)
+                indexKey(index, key);
+        }
+        long expiresAt = entry.expiresAt();
+        if (expiresAt != SmartCacheEntry.NEVER)
+            EXPIRY_QUEUE.schedule(entry, expiresAt);
+        if (replaced != null && replaced.reference() != null && !replaced.hasValue()) {
+            // The replaced value was collected, and is not in the queue of this cache anymore
+            removed(replaced, null, COLLECTED);
+            deletedEntriesCounter.incrementAndGet();
+            fireDeleteCacheEntry(key, null, COLLECTED, replaced.weight);
+            replaced = null;
+        }
+        entryStored(key, data, weight, replaced == null ? 0 : replaced.weight);
+        if (event != null)
+            RECORDER.endPut(event, cacheName, key, weight);
+        fireCreateCacheEntry(key, data, weight);
+    }
+
+    /**
+     * Creates the entry that holds a new value: a reference to the shared copy of the value if the values are
+     * deduplicated, the compressed value if it is worth compressing, or else the value itself.
+     *
+     * @param key      the Key of type {@link K}
+     * @param data     the Data of type {@link V}
+     * @param loadTime the nanoseconds it took to load the Data, {@code 0} if it was not loaded
+     *
+     * @return the entry, whose weight is that of the value as it is held
+     */
+    private SmartCacheEntry<K, V> newEntry(K key, V data, long loadTime) {
+        SmartCacheDeduplicator.Digest digest = DEDUPLICATOR.digest(data);
+        SmartCacheDeduplicator.Shared<V> shared = digest == null ? null : DEDUPLICATOR.acquire(digest);
+        if (shared != null)
+            return new SmartCacheEntry<K, V>(key, shared, loadTime);
+
+        SmartCacheCompressor<V> compressor = this.compressor;
+        SmartCacheCompressor.Compressed<V> compressed = compressor == null || data == null ? null : compressor.compress(data);
+        if (digest != null) {
+            Object stored = compressed != null ? compressed : data;
+            long weight = compressed != null ? compressed.weight() : weightOf(data);
+            return new SmartCacheEntry<K, V>(key, DEDUPLICATOR.add(digest, stored, weight), loadTime);
+        }
+        if (compressed != null)
+            return new SmartCacheEntry<K, V>(key, compressed, loadTime);
+        long weight = weightOf(data);
+        if (COLLECTED_VALUES == null)
+            return new SmartCacheEntry<K, V>(key, data, loadTime, weight);
+        return new SmartCacheEntry<K, V>(key, data, loadTime, weight, VALUE_REFERENCE, COLLECTED_VALUES);
     }
 
     /**
@@ -176,424 +689,2960 @@ public abstract class AbstractSmartCache<K, V> implements SmartCache<K, V> {
     }
 
     /**
-     * Get the Data corresponding to the given Key from the
-     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}
+     * Put the Data for the given Key, unless the Key already has Data. The check and the put are atomic:
+     * of the threads that put the same absent Key at the same time, only one stores its Data.
+     * <p/>
+     * An entry that has expired, but is still waiting for the expiry task, or whose value was collected,
+     * counts as absent. Like {@link #put(Object, Object, int, TimeUnit)}, the Data are written through the
+     * {@link SmartCacheWriter} if one is set, and a {@link SmartCacheEventListener} receives
+     * {@link SmartCacheEventListener#onCreateCacheEntry(Object, Object)} only if the Data were stored.
      *
-     * @param key The Key of type {@link K}
+     * @param key      Any Key of type {@link K}
+     * @param data     Any Data of type {@link V}
+     * @param ttl      the ttl value of the Data, -1 if it never expires
+     * @param timeUnit the time unit for the TTL Value
      *
-     * @return The Data of type {@link V}
+     * @return the current Data of the Key, or {@code null} if it was absent and the given Data were stored
+     *
+     * @throws IllegalStateException if the Data could not be written through
      */
-    @Override
-    public V get(K key) throws NullPointerException {
-        return SMART_CACHE_DATA.get(key);
+    public V putIfAbsent(K key, final V data, int ttl, TimeUnit timeUnit) {
+        if (data == null)
+            throw new NullPointerException("The Data of the Key: " + key + " is null");
+        return update(key, new SmartCacheRemapper<K, V>() {
+            @Override
+            public V remap(K key, V current) {
+                return current == null ? data : unchanged();
+            }
+        }, ttl, timeUnit, true);
     }
 
     /**
-     * Removes the Data corresponding to the given Key from the
-     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}
-     * <p/>
-     * If a {@link SmartCacheEventListener} is attached to this {@link SmartCache} instance,
-     * then an appropriate callback is received in the method
-     * {@link SmartCacheEventListener#onDeleteCacheEntry(Object, Object, String)}.
+     * Replace the Data of the given Key, only if its current Data equals the given one.
+     * The comparison and the replacement are atomic. The new entry gets the given TTL.
      *
-     * @param key    The Key of type
-     * @param reason the reason for which the entry was deleted.
-     *               This can contain any value, but preferably one of the values present in
-     *               {@link SmartCache.SmartCacheDeleteReason}.
+     * @param key      Any Key of type {@link K}
+     * @param oldData  the Data of type {@link V} that the Key is expected to have
+     * @param newData  the new Data of type {@link V}
+     * @param ttl      the ttl value of the new Data, -1 if it never expires
+     * @param timeUnit the time unit for the TTL Value
      *
-     * @return The Data of type that was removed
+     * @return {@code true} if the Data were replaced
+     *
+     * @throws IllegalStateException if the Data could not be written through
      */
-    @Override
-    public V remove(K key, String reason) {
-        V data;
-        if ((data = SMART_CACHE_DATA.remove(key)) != null) {
-            deletedEntriesCounter.incrementAndGet();
-            if (smartCacheEventListener != null)
-                smartCacheEventListener.onDeleteCacheEntry(key, data, reason);
-            return data;
-        } else {
-            return null;
-        }
+    public boolean replace(K key, final V oldData, final V newData, int ttl, TimeUnit timeUnit) {
+        if (oldData == null || newData == null)
+            throw new NullPointerException("The Data of the Key: " + key + " is null");
+        V previous = update(key, new SmartCacheRemapper<K, V>() {
+            @Override
+            public V remap(K key, V current) {
+                return oldData.equals(current) ? newData : unchanged();
+            }
+        }, ttl, timeUnit, true);
+        return oldData.equals(previous);
     }
 
     /**
-     * Gets a copy of the entire Map from the
-     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}
+     * Computes the new Data of the given Key from its current Data, atomically: the new Data are stored only
+     * if the Key has not changed since its current Data were read, otherwise the remapper is invoked again
+     * with the Data that won. So no update is lost, without any lock held around the cache. The remapper must
+     * therefore have no side effects, and may see Data that are never stored.
+     * <p/>
+     * If a {@link SmartCacheWriter} is set, the update holds the lock of the Key instead, so that the Data it
+     * writes are the ones it stores: the remapper is then invoked once, and the other changes of the Key by the
+     * user wait for it.
+     * <p/>
+     * The new entry gets the given TTL, or the one decided by the {@link Expiry} policy.
+     * If the remapper returns {@code null} the Key is removed, with the reason
+     * {@link SmartCache.SmartCacheDeleteReason#DELETED_BY_USER}, and deleted from the {@link SmartCacheWriter}.
      *
-     * @return dataMap Map of type {@link java.util.concurrent.ConcurrentMap}
-     *         having Key of type {@link K} and Data of type {@link V}
+     * @param key      Any Key of type {@link K}
+     * @param remapper the remapper that computes the new Data, which may be invoked more than once
+     * @param ttl      the ttl value of the new Data, -1 if it never expires
+     * @param timeUnit the time unit for the TTL Value
+     *
+     * @return the new Data of type {@link V}, or {@code null} if the Key has none
+     *
+     * @throws IllegalStateException if the Data could not be written through
      */
-    @Override
-    public ConcurrentMap<K, V> copy() {
-        ConcurrentMap<K, V> copy = new ConcurrentHashMap<K, V>();
-        copy.putAll(SMART_CACHE_DATA);
-        return copy;
+    public V compute(K key, SmartCacheRemapper<? super K, V> remapper, int ttl, TimeUnit timeUnit) {
+        return update(key, remapper, ttl, timeUnit, false);
     }
 
     /**
-     * Removes an entire Map from the
-     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache} and returns it
-     * <p/>
-     * If a {@link SmartCacheEventListener} is attached to this {@link SmartCache} instance,
-     * then an appropriate callback is received in the method
-     * {@link SmartCacheEventListener#onDeleteCacheEntry(Object, Object, String)}
-     * for <strong>every</strong> entry that is deleted.
-     * <p/>
-     * One could filter the entries on the basis of Deleted Reason.
+     * Computes the new Data of the given Key from its current Data, only if the Key has Data,
+     * see {@link #compute(Object, SmartCacheRemapper, int, TimeUnit)}.
      *
-     * @return dataMap Map of type {@link java.util.concurrent.ConcurrentMap}
-     *         having Key of type {@link K} and Data of type {@link V}
+     * @param key      Any Key of type {@link K}
+     * @param remapper the remapper that computes the new Data, which is never given {@code null}
+     * @param ttl      the ttl value of the new Data, -1 if it never expires
+     * @param timeUnit the time unit for the TTL Value
+     *
+     * @return the new Data of type {@link V}, or {@code null} if the Key has none
+     *
+     * @throws IllegalStateException if the Data could not be written through
      */
-    @Override
-    public ConcurrentMap<K, V> removeAll(String reason) {
-        ConcurrentMap<K, V> tempData = new ConcurrentHashMap<K, V>();
-        tempData.putAll(SMART_CACHE_DATA);
-        for (K key : keySet()) {
-            remove(key, reason);
-        }
-        return tempData;
+    public V computeIfPresent(K key, final SmartCacheRemapper<? super K, V> remapper, int ttl, TimeUnit timeUnit) {
+        return update(key, new SmartCacheRemapper<K, V>() {
+            @Override
+            public V remap(K key, V current) {
+                return current == null ? unchanged() : remapper.remap(key, current);
+            }
+        }, ttl, timeUnit, false);
     }
 
     /**
-     * Returns a Set view of the keys contained in this map.
-     * The set is backed by the map, so changes to the map are reflected in the set,
-     * and vice-versa.
-     * <p/>
-     * The set supports element removal, which removes the corresponding mapping from this map,
-     * via the Iterator.remove, Set.remove, removeAll, retainAll, and clear operations.
-     * It does not support the add or addAll operations.
+     * Puts the given Data for the given Key if it is absent, or else combines it with the current Data,
+     * atomically, see {@link #compute(Object, SmartCacheRemapper, int, TimeUnit)}. For example a counter is
+     * incremented with {@code merge(key, 1, sum, ttl, timeUnit)}, from any number of threads.
      *
-     * @return A set view of the keys contained in this map
+     * @param key      Any Key of type {@link K}
+     * @param data     the Data of type {@link V} to put or to combine
+     * @param merger   the merger that combines the current Data with the given one
+     * @param ttl      the ttl value of the new Data, -1 if it never expires
+     * @param timeUnit the time unit for the TTL Value
+     *
+     * @return the new Data of type {@link V}, or {@code null} if the merger removed the Key
+     *
+     * @throws IllegalStateException if the Data could not be written through
      */
-    @Override
-    public Set<K> keySet() {
-        return SMART_CACHE_DATA.keySet();
+    public V merge(K key, final V data, final SmartCacheMerger<V> merger, int ttl, TimeUnit timeUnit) {
+        if (data == null)
+            throw new NullPointerException("The Data of the Key: " + key + " is null");
+        return update(key, new SmartCacheRemapper<K, V>() {
+            @Override
+            public V remap(K key, V current) {
+                return current == null ? data : merger.merge(current, data);
+            }
+        }, ttl, timeUnit, false);
     }
 
     /**
-     * Returns a Collection view of the values contained in this map.
-     * The collection is backed by the map, so changes to the map are reflected in the collection,
-     * and vice-versa.
+     * Updates the Data of a Key atomically, with a compare and set of its entry in the map: if the entry is
+     * replaced or removed meanwhile, the remapper is invoked again. An entry that has expired or gone stale,
+     * or whose value was collected, is treated as absent (and replaced, if the Key gets new Data).
      * <p/>
-     * The collection supports element removal,
-     * which removes the corresponding mapping from this map, via the Iterator.remove,
-     * Collection.remove, removeAll, retainAll, and clear operations.
-     * It does not support the add or addAll operations.
+     * If a {@link SmartCacheWriter} is set, the update holds the lock of the Key (see {@link #lockWrites(Object)}),
+     * and the Data are written through before they are stored, just like a put. So the remapper is invoked once,
+     * and the writes of the Key are made in the order of its updates. Only a change that writes nothing, such as
+     * an expiry or a load, can still replace or remove the entry before the compare and set: the Data, which are
+     * already written, are then stored over that change (see {@link #commitWritten}), so that the cache never
+     * misses Data that its writer holds.
      *
-     * @return A Collection view of the values contained in this map
+     * @param key      the Key of type {@link K}
+     * @param remapper the remapper, which returns {@link #unchanged()} to leave the Key as it is
+     * @param ttl      the ttl value of the new Data, -1 if it never expires
+     * @param timeUnit the time unit for the TTL Value
+     * @param previous whether to return the Data of the Key before the update, rather than after it
+     *
+     * @return the Data of type {@link V} of the Key before or after the update
      */
-    @Override
-    public Collection<V> values() {
-        return SMART_CACHE_DATA.values();
+    private V update(K key, SmartCacheRemapper<? super K, V> remapper, int ttl, TimeUnit timeUnit, boolean previous) {
+        if (closed.get())
+            throw new IllegalStateException("The Smart Cache '" + cacheName + "' has been closed");
+        long duration = ttl > 0 ? timeUnit.toNanos(ttl) : -1;
+        ReentrantLock lock = lockWrites(key);
+        try {
+            while (true) {
+                if (COLLECTED_VALUES != null)
+                    removeCollected(COLLECTED_PER_WRITE);
+                SmartCacheEntry<K, V> current = SMART_CACHE_DATA.get(key);
+                long now = System.nanoTime();
+                V data = liveValue(current, now);
+                V updated = remapper.remap(key, data);
+                if (updated == UNCHANGED || (updated == null && data == null))
+                    return data;
+                if (lock != null) {
+                    write(key, updated);
+                    commitWritten(key, current, data, updated, duration);
+                    return previous ? data : updated;
+                }
+                if (commit(key, current, data, updated, duration))
+                    return previous ? data : updated;
+                statistics.recordVersionConflict();
+            }
+        } finally {
+            unlockWrites(lock);
+        }
     }
 
     /**
-     * Get the number of key-value mappings in this map.
-     * If the map contains more than Integer.MAX_VALUE elements, returns Integer.MAX_VALUE.
+     * Replaces the entry of a Key that was read with a new entry, or removes it, unless the Key has changed
+     * since it was read.
      *
-     * @return The number of key-value mappings in this map
+     * @param key      the Key of type {@link K}
+     * @param current  the entry that was read, {@code null} if the Key was absent
+     * @param data     the Data of type {@link V} that was read, {@code null} if the entry has expired
+     * @param updated  the new Data of type {@link V}, {@code null} to remove the entry
+     * @param duration the time to live of the new Data in nanoseconds, or a negative value if it never expires
+     *
+     * @return {@code false} if the Key has changed since it was read
      */
-    @Override
-    public int numberOfEntries() {
-        return SMART_CACHE_DATA.size();
+    private boolean commit(K key, SmartCacheEntry<K, V> current, V data, V updated, long duration) {
+        if (updated == null) {
+            if (!SMART_CACHE_DATA.remove(key, current))
+                return false;
+            String reason = removed(current, data, DELETED_BY_USER);
+            deletedEntriesCounter.incrementAndGet();
+            fireDeleteCacheEntry(key, data, reason, current.weight);
+            return true;
+        }
+        Object event = RECORDER.beginPut();
+        SmartCacheEntry<K, V> entry = prepare(key, updated, data == null ? null : current, duration, 0,
+                data == null ? null : current.tags);
+        if (current == null ? SMART_CACHE_DATA.putIfAbsent(key, entry) != null
+                : !SMART_CACHE_DATA.replace(key, current, entry)) {
+            // Lost to another thread, the shared value that this entry refers to is given back
+            SmartCacheDeduplicator.Shared<V> shared = entry.shared();
+            if (shared != null)
+                shared.release();
+            unindex(entry);
+            return false;
+        }
+        installed(entry, updated, current, event);
+        return true;
     }
 
     /**
-     * Adds a {@link SmartCacheEventListener} or replaces an existing one.
-     * <p/>
-     * If a listener is attached to the {@link SmartCache} instance, then
-     * {@link SmartCache} can provide automatic callbacks on various internal events.
+     * Stores Data that have been written through under the lock of their Key. Only a change that writes nothing
+     * can get in between, so the compare and set is retried against the entry it left, until the Data are stored.
      *
-     * @param smartCacheEventListener the smart cache event listener
+     * @param key      the Key of type {@link K}
+     * @param current  the entry that was read, {@code null} if the Key was absent
+     * @param data     the Data of type {@link V} that was read, {@code null} if the entry has expired
+     * @param updated  the new Data of type {@link V}, {@code null} to remove the entry
+     * @param duration the time to live of the new Data in nanoseconds, or a negative value if it never expires
+     */
+    private void commitWritten(K key, SmartCacheEntry<K, V> current, V data, V updated, long duration) {
+        while (!commit(key, current, data, updated, duration)) {
+            statistics.recordVersionConflict();
+            current = SMART_CACHE_DATA.get(key);
+            data = liveValue(current, System.nanoTime());
+            // A removal that found the Key gone, or expired, has nothing left to remove
+            if (updated == null && data == null)
+                return;
+        }
+    }
+
+    /**
+     * Get the Data corresponding to the given Key along with the version of its entry, to update the Key
+     * later with {@link #putIfVersion(Object, Object, long, int, TimeUnit)}. The lookup is recorded as a hit
+     * or a miss like that of {@link #get(Object)}.
+     *
+     * @param key The Key of type {@link K}
+     *
+     * @return The Data of type {@link V} and its version, which are {@code null} and {@code 0} if the Key is absent
+     */
+    public SmartCacheVersioned<V> getWithVersion(K key) {
+        SmartCacheEntry<K, V> entry = lookup(key, false);
+        V data = entry == null || entry.isExpired(System.nanoTime()) ? null : entry.value();
+        return new SmartCacheVersioned<V>(data, data == null ? 0 : entry.version);
+    }
+
+    /**
+     * Put the Data for the given Key, only if its entry still has the given version, see
+     * {@link #getWithVersion(Object)}. So a long computation can run without any lock held and be committed
+     * with a compare and set; if another thread has updated the Key meanwhile, nothing is stored and
+     * the caller reads the Key again and retries:
+     * <pre>
+     * SmartCacheVersioned&lt;V&gt; current;
+     * do {
+     *     current = cache.getWithVersion(key);
+     * } while (!cache.putIfVersion(key, compute(current.data()), current.version(), ttl, timeUnit));
+     * </pre>
+     * The version {@code 0} stores the Data only if the Key is absent. Otherwise the Data are stored like those
+     * of a put, and the new entry gets a new version. {@code null} Data remove the Key, with the reason
+     * {@link SmartCache.SmartCacheDeleteReason#DELETED_BY_USER}.
+     * <p/>
+     * If a {@link SmartCacheWriter} is set, the version is checked under the lock of the Key, and the Data are
+     * written through before they are stored. Once written they are always stored, even over a load or an expiry
+     * of the Key that got in between, so that the cache holds the Data whenever {@code true} is returned.
+     *
+     * @param key      Any Key of type {@link K}
+     * @param data     the new Data of type {@link V}, {@code null} to remove the Key
+     * @param version  the version of the entry that the new Data replace, {@code 0} if the Key was absent
+     * @param ttl      the ttl value of the new Data, -1 if it never expires
+     * @param timeUnit the time unit for the TTL Value
+     *
+     * @return {@code true} if the Data were stored, {@code false} if the version of the Key has changed
+     *
+     * @throws IllegalStateException if the Data could not be written through
+     */
+    public boolean putIfVersion(K key, V data, long version, int ttl, TimeUnit timeUnit) {
+        if (closed.get())
+            throw new IllegalStateException("The Smart Cache '" + cacheName + "' has been closed");
+        ReentrantLock lock = lockWrites(key);
+        try {
+            if (COLLECTED_VALUES != null)
+                removeCollected(COLLECTED_PER_WRITE);
+            SmartCacheEntry<K, V> current = SMART_CACHE_DATA.get(key);
+            long now = System.nanoTime();
+            V currentData = liveValue(current, now);
+            if ((currentData == null ? 0 : current.version) != version) {
+                statistics.recordVersionConflict();
+                return false;
+            }
+            if (data == null && currentData == null)
+                return true;
+            long duration = ttl > 0 ? timeUnit.toNanos(ttl) : -1;
+            if (lock != null) {
+                write(key, data);
+                // Under the lock, only a change that writes nothing can get in between: the written Data go over it
+                commitWritten(key, current, currentData, data, duration);
+                return true;
+            }
+            if (commit(key, current, currentData, data, duration))
+                return true;
+            statistics.recordVersionConflict();
+            return false;
+        } finally {
+            unlockWrites(lock);
+        }
+    }
+
+    /**
+     * Get the marker that a remapper returns to leave the Key as it is, see
+     * {@link #update(Object, SmartCacheRemapper, int, TimeUnit, boolean)}.
+     *
+     * @return the marker
+     */
+    @SuppressWarnings("unchecked")
+    private V unchanged() {
+        return (V) UNCHANGED;
+    }
+
+    /**
+     * Get the Data corresponding to the given Key from the
+     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}
+     *
+     * @param key The Key of type {@link K}
+     *
+     * @return The Data of type {@link V}
      */
     @Override
-    public void addSmartCacheEventsListener(SmartCacheEventListener smartCacheEventListener) {
-        this.smartCacheEventListener = smartCacheEventListener;
+    public V get(K key) throws NullPointerException {
+        SmartCacheEntry<K, V> entry = lookup(key, false);
+        return entry == null ? null : entry.value();
     }
 
     /**
-     * Starts the Smart Cache Auto Cleaner Service. This method starts the auto cleaner service and
-     * deletes the entries which have been timed out.
+     * Get the Data corresponding to the given Key from the
+     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}, and load it with the given loader
+     * if it is missing. The loaded Data is put into the cache with the given TTL, unless it is {@code null}.
      * <p/>
-     * The Smart Cache Auto Cleaner service is started by default and you need not invoke this
-     * method, unless you at some point stop the Auto Cleaner Service.
+     * Only one thread loads a given Key at a time: the threads that ask for the same Key meanwhile
+     * wait for its result, so a missing Key that is popular is not loaded once per reader.
+     * The loader must not load the same Key through this cache.
      * <p/>
-     * This method is needed, if you have stopped the Auto Cleaner Service and have added elements
-     * into the {@link SmartCache} which needs to be removed automatically after a certain duration.
+     * If the early refresh is enabled (see {@link #earlyRefresh(double)}), a reader may also reload an entry that
+     * was loaded this way before it expires, while the others keep reading the current Data.
      * <p/>
-     * This method obsoletes those that are found in the {@link DeprecatedSmartCache} class.
-     * It is <Strong>HIGHLY RECOMMENDED</Strong> that you use this method instead of the
-     * deprecated once for new design/implementation.
+     * If a stale window is set (see {@link #staleWhileRevalidate(long, TimeUnit)}), an entry that has outlived
+     * its TTL is returned at once and reloaded in the background. If the reload fails, the stale entry keeps
+     * being served, and reloaded, until the end of the stale window.
+     *
+     * @param key      The Key of type {@link K}
+     * @param loader   the loader that computes the Data of a missing Key
+     * @param ttl      the ttl value of the loaded Data, -1 if it never expires
+     * @param timeUnit the time unit for the TTL Value
+     *
+     * @return The Data of type {@link V}, or {@code null} if the loader has none
+     *
+     * @throws SmartCacheException if the loader failed, or the thread was interrupted while waiting for it
+     */
+    public V get(K key, SmartCacheLoader<? super K, ? extends V> loader, int ttl, TimeUnit timeUnit)
+            throws SmartCacheException {
+        if (closed.get())
+            throw new IllegalStateException("The Smart Cache '" + cacheName + "' has been closed");
+        long duration = ttl > 0 ? timeUnit.toNanos(ttl) : -1;
+        SmartCacheEntry<K, V> absent = ABSENT_ENTRIES.get(key);
+        if (absent != null && !absent.isExpired(System.nanoTime())) {
+            statistics.recordNegativeHit();
+            return null;
+        }
+        SmartCacheEntry<K, V> entry = lookup(key, true);
+        V current = entry == null ? null : entry.value();
+        if (current == null)
+            return load(key, loader, duration, LOAD);
+        if (entry.isStale(System.nanoTime())) {
+            statistics.recordStaleServe();
+            revalidate(key, loader, duration);
+            return current;
+        }
+        if (refreshEarly(entry)) {
+            try {
+                V data = load(key, loader, duration, EARLY_REFRESH);
+                if (data != null)
+                    return data;
+            } catch (SmartCacheException e) {
+                LOGGER.log(Level.WARNING, "Smart Cache '" + cacheName
+                        + "' failed to refresh an entry early, its current Data is served", e.getCause());
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Reloads a stale entry in the background, on the lane of this cache in the loader pool of the
+     * {@link SmartCacheRuntime}, unless it is already being reloaded. If the lane is full, the entry is not
+     * reloaded this time and is still served stale, so a slow loader never holds up the reads.
+     *
+     * @param key      the Key of type {@link K}
+     * @param loader   the loader
+     * @param duration the time to live of the loaded Data in nanoseconds, or a negative value if it never expires
+     */
+    private void revalidate(final K key, final SmartCacheLoader<? super K, ? extends V> loader, final long duration) {
+        if (LOADING_TASKS.containsKey(key))
+            return;
+        LOADER_QUEUE.offer(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load(key, loader, duration, REVALIDATE);
+                } catch (SmartCacheException e) {
+                    if (!closed.get())
+                        LOGGER.log(Level.WARNING, "Smart Cache '" + cacheName
+                                + "' failed to reload a stale entry, it is served until the end of its stale window", e.getCause());
+                }
+            }
+        });
+    }
+
+    /**
+     * Looks an entry up and records the lookup.
+     *
+     * @param key   The Key of type {@link K}
+     * @param stale whether a stale entry is returned, rather than treated as missing
+     *
+     * @return the entry, or {@code null} if there is no Data for the Key
+     */
+    private SmartCacheEntry<K, V> lookup(K key, boolean stale) {
+        Object event = RECORDER.beginGet();
+        SmartCacheEntry<K, V> entry = SMART_CACHE_DATA.get(key);
+        if (entry != null && (expireAfterAccess > 0 || expiry != null))
+            entry = read(entry);
+        if (!stale && entry != null && entry.softDeadline != SmartCacheEntry.NEVER && entry.isStale(System.nanoTime()))
+            entry = null;
+        boolean hit = entry != null && entry.hasValue();
+        if (hit)
+            statistics.recordHit();
+        else
+            statistics.recordMiss();
+        if (event != null)
+            RECORDER.endGet(event, cacheName, key, hit ? entry.weight : 0, hit);
+        return hit ? entry : null;
+    }
+
+    /**
+     * Loads the Data of a Key and stores it, unless another thread is already loading the same Key,
+     * in which case its result is awaited instead.
+     *
+     * @param key      the Key of type {@link K}
+     * @param loader   the loader
+     * @param duration the time to live of the loaded Data in nanoseconds, or a negative value if it never expires
+     * @param mode     {@link #LOAD} for a missing Key, {@link #EARLY_REFRESH} or {@link #REVALIDATE} for a Key that
+     *                 is reloaded before it expires, in which case a load already in progress is not awaited
+     *
+     * @return the loaded Data, or {@code null} if there is none or another thread is already reloading the Key
+     *
+     * @throws SmartCacheException if the loader failed, or the thread was interrupted while waiting for it
+     */
+    private V load(final K key, final SmartCacheLoader<? super K, ? extends V> loader, final long duration,
+                   int mode) throws SmartCacheException {
+        final boolean refresh = mode != LOAD;
+        FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                if (!refresh) {
+                    // Another thread may have loaded the Key since it was found missing
+                    SmartCacheEntry<K, V> current = SMART_CACHE_DATA.get(key);
+                    V data = current == null ? null : current.value();
+                    if (data != null && !current.isExpired(System.nanoTime()))
+                        return data;
+                }
+                long start = System.nanoTime();
+                V data;
+                try {
+                    data = loader.load(key);
+                } catch (Exception e) {
+                    statistics.recordLoadFailure();
+                    throw e;
+                }
+                long loadTime = Math.max(1, System.nanoTime() - start);
+                statistics.recordLoad(loadTime);
+                if (data != null) {
+                    store(key, data, duration, loadTime, null);
+                } else if (!refresh) {
+                    statistics.recordNegativeMiss();
+                    storeAbsent(key);
+                }
+                return data;
+            }
+        });
+        FutureTask<V> loading = LOADING_TASKS.putIfAbsent(key, task);
+        if (loading == null) {
+            if (mode == EARLY_REFRESH)
+                statistics.recordEarlyRefresh();
+            try {
+                task.run();
+            } finally {
+                LOADING_TASKS.remove(key, task);
+            }
+            loading = task;
+        } else if (refresh) {
+            return null;
+        }
+        try {
+            return loading.get();
+        } catch (ExecutionException e) {
+            throw new SmartCacheException("Smart Cache '" + cacheName + "' failed to load the Key: " + key, e.getCause());
+        } catch (CancellationException e) {
+            throw new SmartCacheException("The Smart Cache '" + cacheName + "' was closed while loading the Key: " + key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SmartCacheException("Interrupted while waiting for the Key: " + key + " to be loaded", e);
+        }
+    }
+
+    /**
+     * Decides whether a reader refreshes a loaded entry before it expires, as per the XFetch algorithm:
+     * the entry is refreshed once {@code now - loadTime * beta * ln(random)} passes its deadline. The closer
+     * the deadline and the longer the entry took to load, the more likely a reader refreshes it, so that
+     * usually a single reader (across all the nodes that cache the same Key) reloads it, just in time.
+     *
+     * @param entry the entry that was read
+     *
+     * @return {@code true} if the reader must refresh the entry
+     */
+    private boolean refreshEarly(SmartCacheEntry<K, V> entry) {
+        double beta = earlyRefresh;
+        long deadline = entry.softDeadline != SmartCacheEntry.NEVER ? entry.softDeadline : entry.deadline;
+        if (beta <= 0 || entry.loadTime == 0 || deadline == SmartCacheEntry.NEVER)
+            return false;
+        double gap = entry.loadTime * beta * -Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return gap >= deadline - System.nanoTime();
+    }
+
+    /**
+     * Remembers that the loader found no Data for a Key, for the negative TTL of this cache, see
+     * {@link #negativeTtl(long, TimeUnit)}.
+     *
+     * @param key the Key of type {@link K}
+     */
+    private void storeAbsent(K key) {
+        long ttl = negativeTtl;
+        if (ttl <= 0 || closed.get())
+            return;
+        ensureStarted();
+        SmartCacheEntry<K, V> absent = new SmartCacheEntry<K, V>(key, (V) null, 0, 0);
+        absent.deadline = System.nanoTime() + ttl;
+        SmartCacheEntry<K, V> replaced = ABSENT_ENTRIES.put(key, absent);
+        if (replaced != null)
+            EXPIRY_QUEUE.cancel(replaced);
+        EXPIRY_QUEUE.schedule(absent, absent.deadline);
+        // The Key may have been put meanwhile, and the put may have missed this marker
+        if (SMART_CACHE_DATA.containsKey(key))
+            removeAbsent(key);
+    }
+
+    /**
+     * Forgets that a Key is absent.
+     *
+     * @param key the Key of type {@link K}
+     */
+    private void removeAbsent(K key) {
+        SmartCacheEntry<K, V> absent = ABSENT_ENTRIES.remove(key);
+        if (absent != null)
+            EXPIRY_QUEUE.cancel(absent);
+    }
+
+    /**
+     * Get the Data corresponding to the given Key without recording a hit or a miss.
+     * Meant for the internal book keeping of the implementations, which must not
+     * distort the statistics that are reported for the user's own lookups.
+     *
+     * @param key The Key of type {@link K}
+     *
+     * @return The Data of type {@link V}, or {@code null} if absent
+     */
+    protected V peek(K key) {
+        SmartCacheEntry<K, V> entry = SMART_CACHE_DATA.get(key);
+        return entry == null ? null : entry.value();
+    }
+
+    /**
+     * Removes the Data corresponding to the given Key from the
+     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}
      * <p/>
-     * As an added benefit apart from performance gain, you now can store different elements
-     * into the {@link SmartCache} with different TTL value.
+     * If a {@link SmartCacheEventListener} is attached to this {@link SmartCache} instance,
+     * then an appropriate callback is received in the method
+     * {@link SmartCacheEventListener#onDeleteCacheEntry(Object, Object, String)}.
+     *
+     * @param key    The Key of type
+     * @param reason the reason for which the entry was deleted.
+     *               This can contain any value, but preferably one of the values present in
+     *               {@link SmartCache.SmartCacheDeleteReason}.
+     *
+     * @return The Data of type that was removed
+     */
+    @Override
+    public V remove(K key, String reason) {
+        if (EXPIRED.equals(reason) || PURGED.equals(reason) || COLLECTED.equals(reason))
+            return removeEntry(key, reason);
+        ReentrantLock lock = lockWrites(key);
+        try {
+            if (lock != null && SMART_CACHE_DATA.containsKey(key))
+                write(key, null);
+            return removeEntry(key, reason);
+        } finally {
+            unlockWrites(lock);
+        }
+    }
+
+    /**
+     * Removes the entry of the given Key, without writing anything.
+     *
+     * @param key    the Key of type {@link K}
+     * @param reason the reason for which the entry is deleted
+     *
+     * @return the Data of type {@link V} that was removed
+     */
+    private V removeEntry(K key, String reason) {
+        removeAbsent(key);
+        SmartCacheEntry<K, V> entry = SMART_CACHE_DATA.remove(key);
+        if (entry == null)
+            return null;
+        V data = entry.value();
+        String removedReason = removed(entry, data, reason);
+        deletedEntriesCounter.incrementAndGet();
+        fireDeleteCacheEntry(key, data, removedReason, entry.weight);
+        return data;
+    }
+
+    /**
+     * Gets a copy of the entire Map from the
+     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}
+     *
+     * @return dataMap Map of type {@link java.util.concurrent.ConcurrentMap}
+     *         having Key of type {@link K} and Data of type {@link V}
+     */
+    @Override
+    public ConcurrentMap<K, V> copy() {
+        ConcurrentMap<K, V> copy = new ConcurrentHashMap<K, V>();
+        V data;
+        for (SmartCacheEntry<K, V> entry : SMART_CACHE_DATA.values()) {
+            if ((data = entry.value()) != null)
+                copy.put(entry.key, data);
+        }
+        return copy;
+    }
+
+    /**
+     * Removes an entire Map from the
+     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache} and returns it
      * <p/>
-     * Optionally with this method you can pass a {@link SmartCacheEventListener} to
-     * receive callbacks on certain events.
+     * If a {@link SmartCacheEventListener} is attached to this {@link SmartCache} instance,
+     * then an appropriate callback is received in the method
+     * {@link SmartCacheEventListener#onDeleteCacheEntry(Object, Object, String)}
+     * for <strong>every</strong> entry that is deleted.
+     * <p/>
+     * One could filter the entries on the basis of Deleted Reason.
+     *
+     * @return dataMap Map of type {@link java.util.concurrent.ConcurrentMap}
+     *         having Key of type {@link K} and Data of type {@link V}
+     */
+    @Override
+    public ConcurrentMap<K, V> removeAll(String reason) {
+        ConcurrentMap<K, V> tempData = new ConcurrentHashMap<K, V>();
+        V data;
+        for (K key : ABSENT_ENTRIES.keySet()) {
+            removeAbsent(key);
+        }
+        for (K key : keySet()) {
+            if ((data = remove(key, reason)) != null)
+                tempData.put(key, data);
+        }
+        return tempData;
+    }
+
+    /**
+     * Removes all the entries that carry the given tag, see {@link #put(Object, Object, int, TimeUnit, String...)},
+     * in a single pass over the index of the tag rather than over all the Keys.
+     * <p/>
+     * Unless the reason is {@link SmartCache.SmartCacheDeleteReason#EXPIRED},
+     * {@link SmartCache.SmartCacheDeleteReason#PURGED} or {@link SmartCache.SmartCacheDeleteReason#COLLECTED},
+     * the Keys are deleted from the {@link SmartCacheWriter} first, with a single
+     * {@link SmartCacheWriter#deleteAll(java.util.Collection)} when writing through.
+     * <p/>
+     * A {@link SmartCacheBulkEventListener} receives all the removed entries with a single
+     * {@link SmartCacheBulkEventListener#onDeleteCacheEntries(Map, String)} callback,
+     * any other {@link SmartCacheEventListener} one callback per entry.
+     *
+     * @param tag    the tag
+     * @param reason the reason for which the entries are deleted.
+     *               This can contain any value, but preferably one of the values present in
+     *               {@link SmartCache.SmartCacheDeleteReason}.
+     *
+     * @return the Data of the removed entries, by Key
+     *
+     * @throws IllegalStateException if the Keys could not be deleted through
+     */
+    public Map<K, V> invalidateTag(String tag, String reason) {
+        return invalidate(TAGS.entries(tag), reason);
+    }
+
+    /**
+     * Removes the given entries together, see {@link #invalidateTag(String, String)}.
+     *
+     * @param entries the entries, some of which may have been replaced or removed already
+     * @param reason  the reason for which the entries are deleted
+     *
+     * @return the Data of the removed entries, by Key
+     *
+     * @throws IllegalStateException if the Keys could not be deleted through
+     */
+    private Map<K, V> invalidate(List<SmartCacheEntry<K, V>> entries, String reason) {
+        if (entries.isEmpty())
+            return new HashMap<K, V>(0);
+        if ((writeThrough != null || writeBehind != null) && !EXPIRED.equals(reason) && !PURGED.equals(reason)
+                && !COLLECTED.equals(reason)) {
+            List<K> keys = new ArrayList<K>(entries.size());
+            for (SmartCacheEntry<K, V> entry : entries) {
+                if (SMART_CACHE_DATA.get(entry.key) == entry)
+                    keys.add(entry.key);
+            }
+            deleteAll(keys);
+        }
+        Map<K, V> invalidated = new HashMap<K, V>(entries.size() * 4 / 3 + 1);
+        long weight = 0;
+        for (SmartCacheEntry<K, V> entry : entries) {
+            // The entry may have been replaced or removed since the index was read
+            if (!SMART_CACHE_DATA.remove(entry.key, entry))
+                continue;
+            V data = entry.value();
+            String removedReason = removed(entry, data, reason);
+            deletedEntriesCounter.incrementAndGet();
+            if (data == null) {
+                fireDeleteCacheEntry(entry.key, null, removedReason, entry.weight);
+            } else {
+                invalidated.put(entry.key, data);
+                weight += entry.weight;
+            }
+        }
+        if (!invalidated.isEmpty())
+            fireDeleteCacheEntries(invalidated, reason, weight);
+        return invalidated;
+    }
+
+    /**
+     * Get the number of tags carried by the entries of this cache.
+     *
+     * @return the number of tags
+     */
+    public int numberOfTags() {
+        return TAGS.size();
+    }
+
+    /**
+     * Keeps an index of the Keys by their string form, or drops it. The index makes the lookups by prefix, such as
+     * {@link #countKeysWithPrefix(String)}, cost the number of Keys that match rather than a scan of the cache,
+     * at the price of a sorted copy of the string form of every Key, kept up to date on every put and remove.
+     * Without it, the lookups by prefix scan the Keys. The index also lets the cache be walked a page at a time,
+     * see {@link #scan(String, int, SmartCacheFilter)}.
+     * <p/>
+     * The index is weakly consistent: a Key that is put or removed while it is read may or may not be counted.
+     *
+     * @param index {@code true} to index the Keys, {@code false} to drop the index
+     */
+    public void indexKeys(boolean index) {
+        if (!index) {
+            keyIndex = null;
+        } else if (keyIndex == null) {
+            SmartCacheKeyIndex<K> created = new SmartCacheKeyIndex<K>();
+            keyIndex = created;
+            for (K key : SMART_CACHE_DATA.keySet())
+                indexKey(created, key);
+        }
+    }
+
+    /**
+     * Checks whether the Keys are indexed by their string form, see {@link #indexKeys(boolean)}.
+     *
+     * @return {@code true} if the Keys are indexed
+     */
+    public boolean isIndexingKeys() {
+        return keyIndex != null;
+    }
+
+    /**
+     * Walks the entries of this cache a page at a time: every call returns the entries of the next {@code count}
+     * Keys, in the order of their string form, and the cursor to pass to the next call. A scan starts with a
+     * {@code null} cursor and is complete once the returned cursor is {@code null}:
+     * <pre>
+     * String cursor = null;
+     * do {
+     *     SmartCacheScan&lt;K, V&gt; page = cache.scan(cursor, 1000, filter);
+     *     export(page.entries());
+     *     cursor = page.cursor();
+     * } while (cursor != null);
+     * </pre>
+     * The cursor is the string form of the last Key of the page, so the cache keeps no state for the scans, and a
+     * scan can be carried on by another process or given up at any time. Unlike {@link #copy()}, a scan never
+     * holds more than a page of the cache.
+     * <p/>
+     * A scan is weakly consistent: the Keys that are in the cache for the whole scan are returned exactly once,
+     * whatever the puts and removes meanwhile, while the Keys put or removed during the scan may or may not be.
+     * The expired entries are left out. The scan walks the index of the Keys, which must be kept,
+     * see {@link #indexKeys(boolean)}.
+     *
+     * @param cursor the cursor returned by the previous call, {@code null} to start a new scan
+     * @param count  the number of Keys to read, which bounds the work of the call; fewer entries are returned
+     *               if the filter leaves some out
+     * @param filter the filter of the entries to return, {@code null} to return them all
+     *
+     * @return the page of entries and the next cursor
+     *
+     * @throws IllegalStateException if the Keys are not indexed
+     */
+    public SmartCacheScan<K, V> scan(String cursor, int count, SmartCacheFilter<? super K, ? super V> filter) {
+        SmartCacheKeyIndex<K> index = keyIndex;
+        if (index == null)
+            throw new IllegalStateException("The Keys of the Smart Cache '" + cacheName
+                    + "' are not indexed, they can not be scanned");
+        if (count <= 0)
+            throw new IllegalArgumentException("Invalid count: " + count);
+        List<K> keys = index.keys("", cursor, count);
+        Map<K, V> entries = new LinkedHashMap<K, V>(keys.size() * 4 / 3 + 1);
+        long now = System.nanoTime();
+        for (K key : keys) {
+            SmartCacheEntry<K, V> entry = SMART_CACHE_DATA.get(key);
+            if (entry == null || entry.isExpired(now))
+                continue;
+            V data = entry.value();
+            if (data != null && (filter == null || filter.accept(key, data)))
+                entries.put(key, data);
+        }
+        return new SmartCacheScan<K, V>(entries, keys.size() < count ? null : String.valueOf(keys.get(keys.size() - 1)));
+    }
+
+    /**
+     * Visits every entry of the Smart Cache, in parallel once there are at least {@code parallelismThreshold}
+     * entries. The work is then shared by the threads of the fork/join pool shared by all the caches
+     * (see {@link SmartCacheRuntime}): they all take their entries from a single iterator over the map, a slice
+     * of at least {@code parallelismThreshold} entries at a time, until none is left, so a thread that is done
+     * with its slice takes the next one rather than waiting on a fixed range. Each entry is read directly, without going through {@link #get(Object)}: the reads are not counted as hits
+     * and do not push back the access deadlines. The expired entries are left out.
+     * <p/>
+     * The operation walks the map itself, without copying it, so it is weakly consistent: the entries put or
+     * removed meanwhile may or may not be visited.
+     *
+     * @param parallelismThreshold the number of entries from which the work is split between threads,
+     *                             {@link Long#MAX_VALUE} to visit them all on the calling thread
+     * @param visitor              the visitor of the entries
+     */
+    public void parallelForEach(long parallelismThreshold, final SmartCacheVisitor<? super K, ? super V> visitor) {
+        if (visitor == null)
+            throw new NullPointerException("visitor");
+        bulk(parallelismThreshold, new BulkOperation<K, V, Object>() {
+            @Override
+            public Object apply(Iterator<SmartCacheEntry<K, V>> entries) {
+                long now = System.nanoTime();
+                while (entries.hasNext()) {
+                    SmartCacheEntry<K, V> entry = entries.next();
+                    V data = liveValue(entry, now);
+                    if (data != null)
+                        visitor.visit(entry.key, data);
+                }
+                return null;
+            }
+
+            @Override
+            public Object combine(Object left, Object right) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Looks for an entry of the Smart Cache for which the searcher returns a result, in parallel once there are
+     * at least {@code parallelismThreshold} entries, see {@link #parallelForEach(long, SmartCacheVisitor)}.
+     * The search stops as soon as a result is found, on all the threads, and when several entries have one,
+     * any of them may be returned. The expired entries are left out.
+     *
+     * @param parallelismThreshold the number of entries from which the work is split between threads,
+     *                             {@link Long#MAX_VALUE} to search them all on the calling thread
+     * @param searcher             the searcher of the entries
+     *
+     * @return a result of the searcher, {@code null} if it found none
+     */
+    public <R> R search(long parallelismThreshold, final SmartCacheSearcher<? super K, ? super V, ? extends R> searcher) {
+        if (searcher == null)
+            throw new NullPointerException("searcher");
+        final AtomicReference<R> found = new AtomicReference<R>();
+        bulk(parallelismThreshold, new BulkOperation<K, V, Object>() {
+            @Override
+            public Object apply(Iterator<SmartCacheEntry<K, V>> entries) {
+                long now = System.nanoTime();
+                while (entries.hasNext() && found.get() == null) {
+                    SmartCacheEntry<K, V> entry = entries.next();
+                    V data = liveValue(entry, now);
+                    if (data == null)
+                        continue;
+                    R result = searcher.search(entry.key, data);
+                    if (result != null) {
+                        found.compareAndSet(null, result);
+                        break;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public Object combine(Object left, Object right) {
+                return null;
+            }
+
+            @Override
+            public boolean isDone() {
+                return found.get() != null;
+            }
+        });
+        return found.get();
+    }
+
+    /**
+     * Folds the entries of the Smart Cache into a single result, in parallel once there are at least
+     * {@code parallelismThreshold} entries, see {@link #parallelForEach(long, SmartCacheVisitor)}. Every slice
+     * of entries is folded on its own, and the results of the slices are then combined, so
+     * {@link SmartCacheReducer#reduce(Object, Object)} must be associative. The expired entries are left out.
+     *
+     * @param parallelismThreshold the number of entries from which the work is split between threads,
+     *                             {@link Long#MAX_VALUE} to fold them all on the calling thread
+     * @param reducer              the reducer of the entries
+     *
+     * @return the result, {@code null} if the cache holds no entry that the reducer transforms into one
+     */
+    public <R> R reduce(long parallelismThreshold, final SmartCacheReducer<? super K, ? super V, R> reducer) {
+        if (reducer == null)
+            throw new NullPointerException("reducer");
+        return bulk(parallelismThreshold, new BulkOperation<K, V, R>() {
+            @Override
+            public R apply(Iterator<SmartCacheEntry<K, V>> entries) {
+                long now = System.nanoTime();
+                R result = null;
+                while (entries.hasNext()) {
+                    SmartCacheEntry<K, V> entry = entries.next();
+                    V data = liveValue(entry, now);
+                    if (data == null)
+                        continue;
+                    R transformed = reducer.transform(entry.key, data);
+                    if (transformed != null)
+                        result = result == null ? transformed : reducer.reduce(result, transformed);
+                }
+                return result;
+            }
+
+            @Override
+            public R combine(R left, R right) {
+                return left == null ? right : right == null ? left : reducer.reduce(left, right);
+            }
+        });
+    }
+
+    /**
+     * Runs a bulk operation over the entries, walking the map with its own iterator: on the calling thread if
+     * there are fewer than {@code parallelismThreshold} of them, in the shared fork/join pool otherwise, where
+     * every thread takes the next slice of entries from the iterator until none is left.
+     *
+     * @param parallelismThreshold the number of entries from which the work is split between threads
+     * @param operation            the operation
+     *
+     * @return the combined result of the operation
+     */
+    private <R> R bulk(long parallelismThreshold, BulkOperation<K, V, R> operation) {
+        if (parallelismThreshold <= 0)
+            throw new IllegalArgumentException("Invalid parallelism threshold: " + parallelismThreshold);
+        int size = SMART_CACHE_DATA.size();
+        Iterator<SmartCacheEntry<K, V>> entries = SMART_CACHE_DATA.values().iterator();
+        if (size < parallelismThreshold || size < 2)
+            return operation.apply(entries);
+        ForkJoinPool pool = SmartCacheRuntime.runtime().parallel();
+        // A few slices per thread keep them all busy when some slices take longer than the others.
+        int slice = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(parallelismThreshold, size / (pool.getParallelism() * 8L)));
+        int workers = (int) Math.min(pool.getParallelism(), (size + (long) slice - 1) / slice);
+        return pool.invoke(new BulkTask<K, V, R>(operation, entries, slice, Math.max(1, workers)));
+    }
+
+    /**
+     * Get the value of an entry, if it is live.
+     *
+     * @param entry the entry
+     * @param now   the current {@link System#nanoTime()}
+     *
+     * @return the value, {@code null} if the entry has expired, is stale or its value has been collected
+     */
+    private V liveValue(SmartCacheEntry<K, V> entry, long now) {
+        return entry == null || entry.isExpired(now) || entry.isStale(now) ? null : entry.value();
+    }
+
+    /**
+     * Keeps an index of the entries by their value, or drops it. The index makes {@link #containsValue(Object)}
+     * and {@link #keysForValue(Object)} cost the number of entries that hold the value rather than a scan of
+     * the cache, at the price of a few hundred bytes per distinct value (see {@link #valueIndexWeight()}),
+     * kept up to date on every put and remove. The values are matched by identity or by equality, in which
+     * case they must not change while they are in the cache.
+     * <p/>
+     * The index holds on to the values, so it is only kept for the values held strongly, which are not
+     * compressed: a value that was compressed before the index was started is indexed by a decompressed copy,
+     * and only if the values are matched by equality.
+     *
+     * @param mode how the values are matched, {@code null} to drop the index
+     */
+    public void indexValues(SmartCacheValueIndex mode) {
+        if (mode == null) {
+            valueIndex = null;
+            return;
+        }
+        if (VALUE_REFERENCE != SmartCacheValueReference.STRONG)
+            throw new IllegalStateException("The values of the Smart Cache '" + cacheName
+                    + "' may be collected, they can not be indexed");
+        if (compressor != null)
+            throw new IllegalStateException("The values of the Smart Cache '" + cacheName
+                    + "' are compressed, they can not be indexed");
+        ValueIndex current = valueIndex;
+        if (current != null && current.mode == mode)
+            return;
+        ValueIndex created = new ValueIndex(mode);
+        valueIndex = created;
+        for (SmartCacheEntry<K, V> entry : SMART_CACHE_DATA.values()) {
+            created.add(entry);
+            // The entry may have been replaced or removed meanwhile, and not taken out of this index
+            if (SMART_CACHE_DATA.get(entry.key) != entry)
+                created.remove(entry);
+        }
+    }
+
+    /**
+     * Get the way the values are matched by the index of the values, see {@link #indexValues(SmartCacheValueIndex)}.
+     *
+     * @return the mode, {@code null} if the values are not indexed
+     */
+    public SmartCacheValueIndex valueIndexMode() {
+        ValueIndex index = valueIndex;
+        return index == null ? null : index.mode;
+    }
+
+    /**
+     * Get an estimate of the memory taken by the index of the values, see {@link #indexValues(SmartCacheValueIndex)},
+     * leaving out the values themselves, which are in the cache anyway.
+     *
+     * @return the weight in bytes, {@code 0} if the values are not indexed
+     */
+    public long valueIndexWeight() {
+        ValueIndex index = valueIndex;
+        if (index == null)
+            return 0;
+        long perValue = index.mode == SmartCacheValueIndex.IDENTITY
+                ? SmartCacheEntryIndex.BYTES_PER_ATTRIBUTE + SmartCacheEntryIndex.Identity.BYTES
+                : SmartCacheEntryIndex.BYTES_PER_ATTRIBUTE;
+        return index.entries.size() * perValue + index.entries.entries() * SmartCacheEntryIndex.BYTES_PER_ENTRY;
+    }
+
+    /**
+     * Adds a new entry to the indexes of the tags and of the values, before it is put into the map.
+     *
+     * @param entry the entry
+     */
+    private void index(SmartCacheEntry<K, V> entry) {
+        String[] tags = entry.tags;
+        if (tags != null) {
+            for (String tag : tags)
+                TAGS.add(tag, entry);
+        }
+        ValueIndex values = valueIndex;
+        if (values != null)
+            values.add(entry);
+    }
+
+    /**
+     * Removes an entry from the indexes of the tags and of the values, once it is out of the map.
+     *
+     * @param entry the entry
+     */
+    private void unindex(SmartCacheEntry<K, V> entry) {
+        String[] tags = entry.tags;
+        if (tags != null) {
+            for (String tag : tags)
+                TAGS.remove(tag, entry);
+        }
+        ValueIndex values = valueIndex;
+        if (values != null)
+            values.remove(entry);
+    }
+
+    /**
+     * Adds a Key to the index, and takes it out again if it was removed from the map meanwhile.
+     *
+     * @param index the index
+     * @param key   the Key of type {@link K}
+     */
+    private void indexKey(SmartCacheKeyIndex<K> index, K key) {
+        index.add(key);
+        if (!SMART_CACHE_DATA.containsKey(key))
+            unindexKey(index, key);
+    }
+
+    /**
+     * Removes a Key from the index, and puts it back if it was put into the map again meanwhile.
+     *
+     * @param index the index
+     * @param key   the Key of type {@link K}
+     */
+    private void unindexKey(SmartCacheKeyIndex<K> index, K key) {
+        index.remove(key);
+        if (SMART_CACHE_DATA.containsKey(key))
+            index.add(key);
+    }
+
+    /**
+     * Get the number of Keys whose string form starts with the given prefix.
+     *
+     * @param prefix the prefix
+     *
+     * @return the number of Keys
+     */
+    public int countKeysWithPrefix(String prefix) {
+        SmartCacheKeyIndex<K> index = keyIndex;
+        if (index != null)
+            return index.count(prefix);
+        int count = 0;
+        for (K key : SMART_CACHE_DATA.keySet()) {
+            if (String.valueOf(key).startsWith(prefix))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of Keys whose string form contains the given part. With the Keys indexed, the string forms
+     * are not computed again, but the whole index is read.
+     *
+     * @param part the part of the Keys
+     *
+     * @return the number of Keys
+     */
+    public int countKeysContaining(String part) {
+        SmartCacheKeyIndex<K> index = keyIndex;
+        if (index != null)
+            return index.countContaining(part);
+        int count = 0;
+        for (K key : SMART_CACHE_DATA.keySet()) {
+            if (String.valueOf(key).contains(part))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the Keys whose string form starts with the given prefix. With the Keys indexed, they are read from the
+     * index a page at a time, in the order of their string forms, as the returned {@link Iterable} is iterated.
+     *
+     * @param prefix the prefix
+     *
+     * @return the Keys, which are not removed by the iterator
+     */
+    public Iterable<K> keysWithPrefix(final String prefix) {
+        final SmartCacheKeyIndex<K> index = keyIndex;
+        if (index == null) {
+            List<K> keys = new ArrayList<K>();
+            for (K key : SMART_CACHE_DATA.keySet()) {
+                if (String.valueOf(key).startsWith(prefix))
+                    keys.add(key);
+            }
+            return Collections.unmodifiableList(keys);
+        }
+        return new Iterable<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new Iterator<K>() {
+                    private List<K> page = index.keys(prefix, null, KEYS_PER_PAGE);
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (next == page.size() && page.size() >= KEYS_PER_PAGE) {
+                            page = index.keys(prefix, String.valueOf(page.get(page.size() - 1)), KEYS_PER_PAGE);
+                            next = 0;
+                        }
+                        return next < page.size();
+                    }
+
+                    @Override
+                    public K next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        return page.get(next++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Removes all the entries whose Key starts with the given prefix, a page of Keys at a time. Every page is
+     * removed like the entries of a tag, see {@link #invalidateTag(String, String)}, with its own callback to a
+     * {@link SmartCacheBulkEventListener}.
+     *
+     * @param prefix the prefix of the Keys
+     * @param reason the reason for which the entries are deleted.
+     *               This can contain any value, but preferably one of the values present in
+     *               {@link SmartCache.SmartCacheDeleteReason}.
+     *
+     * @return the number of entries removed
+     *
+     * @throws IllegalStateException if the Keys could not be deleted through
+     */
+    public int removeKeysWithPrefix(String prefix, String reason) {
+        int count = 0;
+        List<SmartCacheEntry<K, V>> entries = new ArrayList<SmartCacheEntry<K, V>>(KEYS_PER_PAGE);
+        for (K key : keysWithPrefix(prefix)) {
+            SmartCacheEntry<K, V> entry = SMART_CACHE_DATA.get(key);
+            if (entry != null)
+                entries.add(entry);
+            if (entries.size() == KEYS_PER_PAGE) {
+                count += invalidate(entries, reason).size();
+                entries.clear();
+            }
+        }
+        return count + invalidate(entries, reason).size();
+    }
+
+    /**
+     * Returns a Set view of the keys contained in this map.
+     * The set is backed by the map, so changes to the map are reflected in the set,
+     * and vice-versa.
+     * <p/>
+     * The set supports element removal, which removes the corresponding mapping from this map,
+     * via the Iterator.remove, Set.remove, removeAll, retainAll, and clear operations.
+     * A removal through the set is a {@link #remove(Object, String)} with the reason
+     * {@link SmartCache.SmartCacheDeleteReason#DELETED_BY_USER}.
+     * It does not support the add or addAll operations.
+     *
+     * @return A set view of the keys contained in this map
+     */
+    @Override
+    public Set<K> keySet() {
+        return new KeySet();
+    }
+
+    /**
+     * Returns a Collection view of the values contained in this map.
+     * The collection is backed by the map, so changes to the map are reflected in the collection,
+     * and vice-versa.
+     * <p/>
+     * The collection supports element removal,
+     * which removes the corresponding mapping from this map, via the Iterator.remove,
+     * Collection.remove, removeAll, retainAll, and clear operations.
+     * A removal through the collection is a {@link #remove(Object, String)} with the reason
+     * {@link SmartCache.SmartCacheDeleteReason#DELETED_BY_USER}.
+     * It does not support the add or addAll operations.
+     *
+     * @return A Collection view of the values contained in this map
+     */
+    @Override
+    public Collection<V> values() {
+        return new Values();
+    }
+
+    /**
+     * Get the number of key-value mappings in this map.
+     * If the map contains more than Integer.MAX_VALUE elements, returns Integer.MAX_VALUE.
+     *
+     * @return The number of key-value mappings in this map
+     */
+    @Override
+    public int numberOfEntries() {
+        return SMART_CACHE_DATA.size();
+    }
+
+    /**
+     * Adds a {@link SmartCacheEventListener} or replaces an existing one.
+     * <p/>
+     * If a listener is attached to the {@link SmartCache} instance, then
+     * {@link SmartCache} can provide automatic callbacks on various internal events.
+     *
+     * @param smartCacheEventListener the smart cache event listener
+     */
+    @Override
+    public void addSmartCacheEventsListener(SmartCacheEventListener smartCacheEventListener) {
+        this.smartCacheEventListener = smartCacheEventListener;
+    }
+
+    /**
+     * Starts the Smart Cache Auto Cleaner Service. This method starts the auto cleaner service and
+     * deletes the entries which have been timed out.
+     * <p/>
+     * The Smart Cache Auto Cleaner service is started by default and you need not invoke this
+     * method, unless you at some point stop the Auto Cleaner Service.
+     * <p/>
+     * This method is needed, if you have stopped the Auto Cleaner Service and have added elements
+     * into the {@link SmartCache} which needs to be removed automatically after a certain duration.
+     * <p/>
+     * This method obsoletes those that are found in the {@link DeprecatedSmartCache} class.
+     * It is <Strong>HIGHLY RECOMMENDED</Strong> that you use this method instead of the
+     * deprecated once for new design/implementation.
+     * <p/>
+     * As an added benefit apart from performance gain, you now can store different elements
+     * into the {@link SmartCache} with different TTL value.
+     * <p/>
+     * Optionally with this method you can pass a {@link SmartCacheEventListener} to
+     * receive callbacks on certain events.
+     *
+     * @param smartCacheEventListener the smart cache event listener
+     */
+    @Override
+    public void startAllAutoCleaner(SmartCacheEventListener smartCacheEventListener) {
+        this.smartCacheEventListener = smartCacheEventListener;
+
+        // If the Auto Cleaner of any Cache entries was stopped then restart it
+        for (K key : NON_SCHEDULED_TASKS.keySet()) {
+            restartAutoCleaner(key);
+        }
+    }
+
+    /**
+     * Starts the Smart Cache Auto Cleaner Service. This method starts the auto cleaner service and
+     * deletes the entries which have been timed out.
+     * <p/>
+     * The Smart Cache Auto Cleaner service is started by default and you need not invoke this
+     * method, unless you at some point stop the Auto Cleaner Service.
+     * <p/>
+     * This method is needed, if you have stopped the Auto Cleaner Service and have added elements
+     * into the {@link SmartCache} which needs to be removed automatically after a certain duration.
+     * <p/>
+     * This method obsoletes those that are found in the {@link DeprecatedSmartCache} class.
+     * It is <Strong>HIGHLY RECOMMENDED</Strong> that you use this method instead of the
+     * deprecated once for new design/implementation.
+     * <p/>
+     * As an added benefit apart from performance gain, you now can store different elements
+     * into the {@link SmartCache} with different TTL value.
+     */
+    @Override
+    public void startAllAutoCleaner() {
+        startAllAutoCleaner(this.smartCacheEventListener);
+    }
+
+    /**
+     * Stops the ongoing Auto Cleaner Service for the Cache data corresponding to a specific key.
+     * This method {@link #stopAutoCleaner(Object, boolean)} obsoletes those that are found in the
+     * {@link DeprecatedSmartCache} class, and only works if the element was put into the {@link SmartCache}
+     * using either of the follwoing methods:
+     * {@link #put(Object, Object, int, java.util.concurrent.TimeUnit)} or
+     * {@link #put(Object, Object, int)}.
+     * <p/>
+     * If removeEntry param is <code>false</code> then the entry is backed up and you can
+     * restart the auto cleaner for this element with the given KEY, using the method
+     * {@link #restartAutoCleaner(Object)}.
+     *
+     * @param key         the key
+     * @param removeEntry if <code>true</code> then the entry corresponding to this key is removed
+     *                    from the Cache after stopping its cleanup task.
+     */
+    @Override
+    public void stopAutoCleaner(K key, boolean removeEntry) {
+        SmartCacheEntry<K, V> entry = SMART_CACHE_DATA.get(key);
+        if (entry == null)
+            return;
+        boolean scheduled;
+        long remaining;
+        synchronized (entry) {
+            scheduled = EXPIRY_QUEUE.cancel(entry);
+            remaining = Math.max(0, entry.expiresAt() - System.nanoTime());
+            entry.cleanerStopped = scheduled;
+            entry.softDeadline = SmartCacheEntry.NEVER;
+            entry.deadline = SmartCacheEntry.NEVER;
+            entry.accessDeadline = SmartCacheEntry.NEVER;
+        }
+
+        if (removeEntry)
+            remove(key, EXPIRED);
+        else if (scheduled) {
+            // Backup the remaining time for cleanup when needed
+            NON_SCHEDULED_TASKS.put(key, remaining);
+        }
+    }
+
+    /**
+     * Stops all the ongoing Auto Cleaner Services.
+     * This method {@link #stopAutoCleaner(Object, boolean)} obsoletes those that are found in the
+     * {@link DeprecatedSmartCache} class, and only works if the element was put into the {@link SmartCache}
+     * using either of the follwoing methods:
+     * {@link #put(Object, Object, int, java.util.concurrent.TimeUnit)} or
+     * {@link #put(Object, Object, int)}.
+     * <p/>
+     * If removeEntry param is <code>false</code> then the entries are backed up and you can
+     * restart the auto cleaner for these element with the given KEY, using the method
+     * {@link #restartAutoCleaner(Object)}.
+     *
+     * @param removeEntry if <code>true</code> then the entries are removed
+     *                    from the Cache after stopping its cleanup task.
+     */
+    @Override
+    public void stopAllAutoCleaner(boolean removeEntry) {
+        for (SmartCacheEntry<K, V> entry : SMART_CACHE_DATA.values()) {
+            if (EXPIRY_QUEUE.isScheduled(entry))
+                stopAutoCleaner(entry.key, removeEntry);
+        }
+    }
+
+    /**
+     * Starts the Smart Cache Auto Cleaner Service for the entry corresponding to the given KEY.
+     * This method starts the auto cleaner service and deletes the entries which have been timed out.
+     * <p/>
+     * The Smart Cache Auto Cleaner service is started by default and you need not invoke this
+     * method, unless you at some point stop the Auto Cleaner Service.
+     * <p/>
+     *
+     * @param key The KEY for the element in SmartCache for which the Auto Cleaner Service should be started.
+     */
+    @Override
+    public void restartAutoCleaner(K key) {
+        // If the Auto Cleaner of the Cache entry was stopped, restart its timer with the time it had left
+        Long remaining = NON_SCHEDULED_TASKS.remove(key);
+        SmartCacheEntry<K, V> entry;
+        if (remaining != null && (entry = SMART_CACHE_DATA.get(key)) != null) {
+            if (remaining > 0) {
+                synchronized (entry) {
+                    entry.cleanerStopped = false;
+                    schedule(entry, System.nanoTime(), remaining);
+                }
+            } else {
+                remove(key, EXPIRED);
+            }
+        }
+    }
+
+    /**
+     * Purges only the data corresponding to the given KEY.
+     * Invoking this method will give a callback to the
+     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCacheEventListener#onCachePurge(java.util.Map)}.
+     * The purge runs asynchronously, see {@link #purge(Collection, int)}.
+     *
+     * @param key the KEY
+     *
+     * @return the <code>true</code> if everything goes fine else <code>false</code>.
+     */
+    @Override
+    public boolean purgeCacheEntry(K key) {
+        if (smartCacheEventListener == null)
+            return false;
+        return purge(Collections.singleton(key), 1).isDone();
+    }
+
+    /**
+     * Purges only the data corresponding to the given set of KEYs, a chunk at a time, see
+     * {@link #purge(Collection, int)}. Invoking this method will give a callback to the
+     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCacheEventListener#onCachePurge(java.util.Map)}
+     * for every chunk of entries.
+     * <p/>
+     * This method waits for the listener callbacks of the purge, so it must not be
+     * invoked from within a callback of this cache. The purge is cancelled if the waiting thread is interrupted.
+     *
+     * @param keys the keys
+     *
+     * @return the boolean
+     */
+    @Override
+    public boolean purgeCacheEntries(Set<K> keys) throws ExecutionException, InterruptedException {
+        if (smartCacheEventListener == null)
+            return false;
+        SmartCachePurge purge = purge(keys, KEYS_PER_PURGE_CHUNK);
+        try {
+            purge.await();
+        } catch (InterruptedException e) {
+            purge.cancel();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Purge the entire cache for backup purpose. Invoking this method will give a
+     * callback to {@link com.sohail.alam.mango_pi.smart.cache.SmartCacheEventListener#onCachePurge(java.util.Map)}
+     * for every chunk of entries, see {@link #purgeCacheEntries(java.util.Set)}.
+     *
+     * @return the <code>true</code> if everything goes fine else <code>false</code>.
+     */
+    @Override
+    public boolean purgeAllCacheEntries() throws ExecutionException, InterruptedException {
+        return purgeCacheEntries(keySet());
+    }
+
+    /**
+     * Removes the entries of the given Keys, and gives them to the listener, if any, a chunk at a time:
+     * the Keys are split into chunks of {@code chunkSize}, which are removed in parallel on the fork/join pool
+     * shared by all the caches (see {@link SmartCacheRuntime}), and every chunk is given to
+     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCacheEventListener#onCachePurge(java.util.Map)} as soon as
+     * it is removed, the Keys that were not in the cache with a {@code null} value. The callbacks are given in
+     * order with the other listener callbacks of this cache, one at a time.
+     * <p/>
+     * Only a few chunks per thread are under way at any time: a chunk is started once an earlier one has been
+     * given to the listener, so a slow listener slows the purge down rather than letting the removed entries pile
+     * up. The returned {@link SmartCachePurge} reports the progress of the purge, waits for it, and cancels it,
+     * in which case the chunks under way are still removed and given to the listener.
+     * <p/>
+     * The Keys may be a live view of the cache, such as {@link #keySet()}: the Keys put during the purge may or
+     * may not be purged.
+     *
+     * @param keys      the Keys to purge
+     * @param chunkSize the number of Keys in a chunk
+     *
+     * @return the purge, which runs asynchronously
+     */
+    public SmartCachePurge purge(Collection<? extends K> keys, int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        SmartCachePurge purge = new SmartCachePurge(keys.size());
+        PURGES.add(purge);
+        new CachePurger(keys.iterator(), chunkSize, purge).start();
+        return purge;
+    }
+
+    /**
+     * Get the purges of this cache that are under way, see {@link #purge(Collection, int)}.
+     *
+     * @return an unmodifiable view of the purges under way
+     */
+    public Collection<SmartCachePurge> purges() {
+        return Collections.unmodifiableCollection(PURGES);
+    }
+
+    /**
+     * Cancels the purges of this cache that are under way, see {@link SmartCachePurge#cancel()}.
+     *
+     * @return the number of purges cancelled
+     */
+    public int cancelPurges() {
+        int cancelled = 0;
+        for (SmartCachePurge purge : PURGES) {
+            if (purge.cancel())
+                cancelled++;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Get the unique name for this Smart Cache Instance
+     *
+     * @return The unique name for this Smart Cache Instance
+     */
+    public String cacheName() {
+        return cacheName;
+    }
+
+    /**
+     * The Deleted Entries Counter increments whenever an item expires its TTL and is deleted from the
+     * {@link SmartCache}.
+     *
+     * @return The value of
+     */
+    public long deletedEntriesCounter() {
+        return deletedEntriesCounter.get();
+    }
+
+    /**
+     * Resets the {@code deletedEntriesCounter} back to zero.
+     */
+    public void resetDeletedEntriesCounter() {
+        deletedEntriesCounter = new AtomicLong(0);
+    }
+
+    /**
+     * Get the weight of the given value, as it is accounted by the implementations and reported to the
+     * Flight Recorder and the metrics. It is computed once, when the value is put, and the same weight is
+     * passed to {@link #entryStored(Object, Object, long, long)} and {@link #entryRemoved(Object, Object, long, String)}.
+     * The {@link AbstractSmartCache} does not know the weight of its values and returns 0,
+     * the implementations that account the size of their values should override this method.
+     *
+     * @param data the value
+     *
+     * @return the weight of the value
+     */
+    protected long weightOf(V data) {
+        return 0;
+    }
+
+    /**
+     * Invoked after an entry was stored, before the listener callback is queued.
+     * The implementations that keep their own book keeping of the entries should override this method.
+     *
+     * @param key            the key
+     * @param data           the stored entry
+     * @param weight         the weight of the stored entry
+     * @param replacedWeight the weight of the entry that was replaced, {@code 0} if none
+     */
+    protected void entryStored(K key, V data, long weight, long replacedWeight) {
+    }
+
+    /**
+     * Invoked after an entry was removed, whatever the reason (including expiry and purge),
+     * before the listener callback is queued.
+     * The implementations that keep their own book keeping of the entries should override this method.
+     *
+     * @param key    the key
+     * @param data   the removed entry
+     * @param weight the weight of the removed entry, as it was when the entry was put
+     * @param reason the reason for which the entry was removed
+     */
+    protected void entryRemoved(K key, V data, long weight, String reason) {
+    }
+
+    /**
+     * Invoked after an entry whose value was collected by the Garbage Collector was removed, in place of
+     * {@link #entryRemoved(Object, Object, long, String)}, see {@link SmartCacheValueReference}.
+     * The implementations that keep their own book keeping of the entries should override this method.
+     *
+     * @param key     the key
+     * @param weight  the weight of the collected value, as it was when the value was put
+     * @param created the {@link System#currentTimeMillis()} at which the value was put
+     */
+    protected void entryCollected(K key, long weight, long created) {
+    }
+
+    /**
+     * Get the listener attached to this cache, which is kept untyped since it is attached untyped,
+     * see {@link #addSmartCacheEventsListener(SmartCacheEventListener)}.
+     *
+     * @return the listener, {@code null} if none is attached
+     */
+    @SuppressWarnings("unchecked")
+    private SmartCacheEventListener<K, V> eventListener() {
+        return smartCacheEventListener;
+    }
+
+    /**
+     * Queues the {@link SmartCacheEventListener#onCreateCacheEntry(Object, Object)} callback,
+     * if a listener is attached.
+     *
+     * @param key    the key
+     * @param data   the created entry
+     * @param weight the weight of the created entry
+     */
+    protected void fireCreateCacheEntry(final K key, final V data, final long weight) {
+        final SmartCacheEventListener<K, V> listener = eventListener();
+        if (listener != null) {
+            WORK_QUEUE.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Object event = RECORDER.beginListener();
+                    listener.onCreateCacheEntry(key, data);
+                    if (event != null)
+                        RECORDER.endListener(event, cacheName, "onCreateCacheEntry", key, weight);
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues the {@link SmartCacheEventListener#onDeleteCacheEntry(Object, Object, String)} callback,
+     * if a listener is attached.
+     *
+     * @param key    the key
+     * @param data   the deleted entry
+     * @param reason the reason for which the entry was deleted
+     * @param weight the weight of the deleted entry
+     */
+    protected void fireDeleteCacheEntry(final K key, final V data, final String reason, final long weight) {
+        final SmartCacheEventListener<K, V> listener = eventListener();
+        if (listener != null) {
+            WORK_QUEUE.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Object event = RECORDER.beginListener();
+                    listener.onDeleteCacheEntry(key, data, reason);
+                    if (event != null)
+                        RECORDER.endListener(event, cacheName, "onDeleteCacheEntry", key, weight);
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues the {@link SmartCacheBulkEventListener#onDeleteCacheEntries(Map, String)} callback, if a listener is
+     * attached, or one {@link SmartCacheEventListener#onDeleteCacheEntry(Object, Object, String)} callback per
+     * entry if it is not a {@link SmartCacheBulkEventListener}.
+     *
+     * @param entries the deleted entries, by key
+     * @param reason  the reason for which the entries were deleted
+     * @param weight  the weight of the deleted entries
+     */
+    protected void fireDeleteCacheEntries(final Map<K, V> entries, final String reason, final long weight) {
+        final SmartCacheEventListener<K, V> listener = eventListener();
+        if (listener != null) {
+            WORK_QUEUE.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Object event = RECORDER.beginListener();
+                    if (listener instanceof SmartCacheBulkEventListener) {
+                        ((SmartCacheBulkEventListener<K, V>) listener).onDeleteCacheEntries(entries, reason);
+                    } else {
+                        for (Map.Entry<K, V> entry : entries.entrySet())
+                            listener.onDeleteCacheEntry(entry.getKey(), entry.getValue(), reason);
+                    }
+                    if (event != null)
+                        RECORDER.endListener(event, cacheName, "onDeleteCacheEntries", null, weight);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sets the deadlines of a new entry and schedules its expiry.
+     *
+     * @param entry the entry
+     * @param now   the current {@link System#nanoTime()}
+     * @param ttl   the time to live in nanoseconds, or a negative value if the entry only expires
+     *              when it is not read (or never)
+     */
+    private void schedule(SmartCacheEntry<K, V> entry, long now, long ttl) {
+        deadlines(entry, now, ttl);
+        long expiresAt = entry.expiresAt();
+        if (expiresAt != SmartCacheEntry.NEVER)
+            EXPIRY_QUEUE.schedule(entry, expiresAt);
+    }
+
+    /**
+     * Sets the deadlines of an entry, without scheduling it.
+     *
+     * @param entry the entry
+     * @param now   the current {@link System#nanoTime()}
+     * @param ttl   the time to live in nanoseconds, or a negative value if the entry only expires
+     *              when it is not read (or never)
+     */
+    private void deadlines(SmartCacheEntry<K, V> entry, long now, long ttl) {
+        long idle = expireAfterAccess;
+        if (ttl >= 0)
+            entry.deadline = now + ttl;
+        if (idle > 0)
+            entry.accessDeadline = now + idle;
+    }
+
+    /**
+     * Picks the random amount by which a TTL is shortened, as per the expiry jitter of this cache.
+     *
+     * @param ttl the time to live in nanoseconds
+     *
+     * @return the jitter in nanoseconds, between 0 and the TTL
+     */
+    private long jitter(long ttl) {
+        int percent = expiryJitterPercent;
+        long window = percent > 0 ? ttl / 100 * percent + ttl % 100 * percent / 100 : expiryJitterWindow;
+        window = Math.min(window, ttl);
+        return window > 0 ? ThreadLocalRandom.current().nextLong(window) : 0;
+    }
+
+    /**
+     * Updates the deadlines of an entry that is read, as per the expire-after-access and the {@link Expiry}
+     * of this cache. The deadlines that move later are written without touching the expiry queue: the expiry
+     * task looks at the entry again when it comes up. Only a deadline that moves earlier reschedules the entry.
+     * A deadline is moved under the monitor of the entry, and only if it has not changed since it was read, so
+     * it can not undo a concurrent {@link #stopAutoCleaner(Object, boolean)}. Since it moves only once it has
+     * drifted by a fraction of its duration, most reads write nothing.
+     *
+     * @param entry the entry
+     *
+     * @return the entry, or {@code null} if it has expired and is only waiting for the expiry task
+     */
+    private SmartCacheEntry<K, V> read(SmartCacheEntry<K, V> entry) {
+        long now = System.nanoTime();
+        if (entry.isExpired(now) || !entry.hasValue())
+            return null;
+        if (entry.cleanerStopped)
+            return entry;
+
+        Expiry<K, V> policy = expiry;
+        if (policy != null) {
+            long deadline = entry.deadline;
+            long current = deadline == SmartCacheEntry.NEVER ? -1 : Math.max(0, deadline - now);
+            long duration = policy.expireAfterRead(entry.key, entry.value(), now, current);
+            long next = duration < 0 ? SmartCacheEntry.NEVER : now + duration;
+            boolean later = deadline != SmartCacheEntry.NEVER && (next == SmartCacheEntry.NEVER || next - deadline > 0);
+            // Only push the deadline back once it has moved by a fraction of the duration
+            if (next != deadline && (!later || next == SmartCacheEntry.NEVER || next - deadline > (duration >>> 5))) {
+                synchronized (entry) {
+                    if (!entry.cleanerStopped && entry.deadline == deadline) {
+                        entry.deadline = next;
+                        if (!later)
+                            EXPIRY_QUEUE.schedule(entry, entry.expiresAt());
+                    }
+                }
+            }
+        }
+
+        long idle = expireAfterAccess;
+        long accessDeadline = entry.accessDeadline;
+        // Only push the deadline back once it has moved by a fraction of the idle time
+        if (idle > 0 && accessDeadline != SmartCacheEntry.NEVER && now + idle - accessDeadline > (idle >>> 5)) {
+            synchronized (entry) {
+                if (!entry.cleanerStopped && entry.accessDeadline == accessDeadline)
+                    entry.accessDeadline = now + idle;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * The book keeping common to all the removals of an entry that is no longer in the cache
+     *
+     * @param entry  the removed entry
+     * @param data   the value of the entry, read once by the caller
+     * @param reason the reason for which the entry was removed
+     *
+     * @return the reason to report, {@link SmartCache.SmartCacheDeleteReason#COLLECTED} if the value of the
+     *         entry was collected by the Garbage Collector, the given reason otherwise
+     */
+    private String removed(SmartCacheEntry<K, V> entry, V data, String reason) {
+        EXPIRY_QUEUE.cancel(entry);
+        NON_SCHEDULED_TASKS.remove(entry.key);
+        SmartCacheDeduplicator.Shared<V> shared = entry.shared();
+        if (shared != null)
+            shared.release();
+        unindex(entry);
+        SmartCacheKeyIndex<K> index = keyIndex;
+        if (index != null)
+            unindexKey(index, entry.key);
+        SmartCacheEntry.CollectableValue<K, V> reference = entry.reference();
+        if (data == null && reference != null) {
+            statistics.recordEviction(COLLECTED);
+            entryCollected(entry.key, entry.weight, reference.created());
+            return COLLECTED;
+        }
+        statistics.recordEviction(reason);
+        entryRemoved(entry.key, data, entry.weight, reason);
+        return reason;
+    }
+
+    /**
+     * Removes the entries whose value was collected by the Garbage Collector, a few at a time.
+     *
+     * @param max the maximum number of entries to remove
+     */
+    @SuppressWarnings("unchecked")
+    private void removeCollected(int max) {
+        Reference<? extends V> reference;
+        for (int i = 0; i < max && (reference = COLLECTED_VALUES.poll()) != null; i++) {
+            SmartCacheEntry<K, V> entry = ((SmartCacheEntry.CollectableValue<K, V>) reference).entry();
+            // The entry may have been replaced or removed since its value was collected
+            if (SMART_CACHE_DATA.remove(entry.key, entry)) {
+                removed(entry, null, COLLECTED);
+                deletedEntriesCounter.incrementAndGet();
+                fireDeleteCacheEntry(entry.key, null, COLLECTED, entry.weight);
+            }
+        }
+    }
+
+    /**
+     * Get the hit, miss, eviction and expiry lag statistics of this Smart Cache Instance
+     *
+     * @return The statistics of this Smart Cache Instance
+     */
+    public SmartCacheStatistics statistics() {
+        return statistics;
+    }
+
+    /**
+     * Get the statistics of the expiry of this Smart Cache Instance. The queue depth is the number of entries
+     * waiting to expire, the wait time is the lag with which every run removed its first expired entry and
+     * the run time is the time spent removing the expired entries.
+     *
+     * @return The statistics of the expiry
+     */
+    public SmartCacheExecutorStatistics expiryExecutorStatistics() {
+        return expiryStatistics;
+    }
+
+    /**
+     * Get the statistics of the lane of this Smart Cache Instance in the shared worker pool, which runs
+     * its purge jobs and its listener callbacks. The queue depth is the number of callbacks waiting.
+     *
+     * @return The statistics of the worker lane
+     */
+    public SmartCacheExecutorStatistics workQueueStatistics() {
+        return WORK_QUEUE.statistics();
+    }
+
+    /**
+     * Get the statistics of the lane of this Smart Cache Instance in the shared worker pool, which reloads
+     * its stale entries in the background. The queue depth is the number of reloads waiting.
+     *
+     * @return The statistics of the loader lane
+     */
+    public SmartCacheExecutorStatistics loaderQueueStatistics() {
+        return LOADER_QUEUE.statistics();
+    }
+
+    /**
+     * Get the statistics of the lane of this Smart Cache Instance in the shared worker pool, which writes
+     * its updates behind, see {@link #writeBehind(SmartCacheWriter, int, long, TimeUnit, int)}.
+     *
+     * @return The statistics of the writer lane
+     */
+    public SmartCacheExecutorStatistics writerQueueStatistics() {
+        return WRITER_QUEUE.statistics();
+    }
+
+    /**
+     * Get the statistics of the executor that flushes the Smart Cache History into files.
+     * The Smart Cache History is shared by all the Smart Cache Instances.
+     *
+     * @return The statistics of the History executor
+     */
+    public SmartCacheExecutorStatistics historyExecutorStatistics() {
+        return ((SmartCacheHistoryImpl) SMART_CACHE_HISTORY).executorStatistics();
+    }
+
+    /**
+     * Set the time after which an entry expires if it has not been read, on top of the TTL given to
+     * {@link #put(Object, Object, int, TimeUnit)}: an entry expires as soon as either of them has passed.
+     * Every {@link #get(Object)} pushes this deadline back, so the entries that keep being read stay in the
+     * cache until their TTL (if any). The deadline is pushed back lazily, in steps of 1/32 of the idle time,
+     * so the entries may live up to that much longer than the idle time.
+     * <p/>
+     * This applies to the entries put afterwards; the entries that are already in the cache keep their deadlines.
+     *
+     * @param idle     the idle time, or zero (or a negative value) to disable expire-after-access
+     * @param timeUnit the time unit of the idle time
+     */
+    public void expireAfterAccess(long idle, TimeUnit timeUnit) {
+        this.expireAfterAccess = idle <= 0 ? 0 : timeUnit.toNanos(idle);
+    }
+
+    /**
+     * Get the time after which an entry expires if it has not been read.
+     *
+     * @param timeUnit the time unit of the returned idle time
+     *
+     * @return the idle time, or {@code -1} if expire-after-access is disabled
+     */
+    public long expireAfterAccess(TimeUnit timeUnit) {
+        long idle = expireAfterAccess;
+        return idle == 0 ? -1 : timeUnit.convert(idle, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Shortens the TTL of every entry put from now on by a random amount, up to the given percentage of the TTL,
+     * so that the entries loaded together with the same TTL do not all expire at the same time.
+     * An entry never outlives the TTL it was given.
+     *
+     * @param percent the maximum jitter in percent of the TTL (0 to 100), 0 to disable the jitter
+     */
+    public void expiryJitter(int percent) {
+        if (percent < 0 || percent > 100)
+            throw new IllegalArgumentException("The expiry jitter must be between 0 and 100 percent: " + percent);
+        this.expiryJitterWindow = 0;
+        this.expiryJitterPercent = percent;
+    }
+
+    /**
+     * Shortens the TTL of every entry put from now on by a random amount, up to the given window,
+     * so that the entries loaded together with the same TTL do not all expire at the same time.
+     * An entry never outlives the TTL it was given.
+     *
+     * @param window   the maximum jitter, 0 to disable the jitter
+     * @param timeUnit the time unit of the window
+     */
+    public void expiryJitter(long window, TimeUnit timeUnit) {
+        this.expiryJitterPercent = 0;
+        this.expiryJitterWindow = Math.max(0, timeUnit.toNanos(window));
+    }
+
+    /**
+     * Enables the probabilistic early refresh of the entries loaded by
+     * {@link #get(Object, SmartCacheLoader, int, TimeUnit)}: as the deadline of such an entry gets closer, a reader
+     * reloads it with a probability that grows towards the deadline and with the time the entry took to load.
+     * This keeps a popular Key from expiring everywhere at once, and from being reloaded by all its readers.
+     *
+     * @param beta how early the entries are refreshed: 1 is the usual value, a larger value refreshes earlier,
+     *             0 disables the early refresh
+     */
+    public void earlyRefresh(double beta) {
+        if (!(beta >= 0) || Double.isInfinite(beta))
+            throw new IllegalArgumentException("The early refresh must be a positive number: " + beta);
+        this.earlyRefresh = beta;
+    }
+
+    /**
+     * Get how early the loaded entries are refreshed, see {@link #earlyRefresh(double)}.
+     *
+     * @return the beta of the early refresh, 0 if it is disabled
+     */
+    public double earlyRefresh() {
+        return earlyRefresh;
+    }
+
+    /**
+     * Keeps the entries put from now on for the given window after their TTL, during which they are stale:
+     * {@link #get(Object)} no longer returns them, but {@link #get(Object, SmartCacheLoader, int, TimeUnit)}
+     * returns them at once and reloads them in the background. If the reload fails, for example because the
+     * backend is down, the stale entry keeps being served until the end of the window.
+     *
+     * @param window   the stale window, 0 to expire the entries at the end of their TTL
+     * @param timeUnit the time unit of the window
+     */
+    public void staleWhileRevalidate(long window, TimeUnit timeUnit) {
+        this.staleWhileRevalidate = Math.max(0, timeUnit.toNanos(window));
+    }
+
+    /**
+     * Get the window after their TTL during which the entries are served stale while they are reloaded.
+     *
+     * @param timeUnit the time unit of the window
+     *
+     * @return the stale window, or {@code -1} if the entries expire at the end of their TTL
+     */
+    public long staleWhileRevalidate(TimeUnit timeUnit) {
+        long window = staleWhileRevalidate;
+        return window == 0 ? -1 : timeUnit.convert(window, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stores the values put from now on compressed, if they take at least the given number of bytes once
+     * encoded with the {@link BinaryValueCodec}, see {@link #compressAbove(int, ValueCodec, int)}.
+     *
+     * @param threshold the size in bytes from which the values are compressed, a negative value to stop compressing
+     */
+    public void compressAbove(int threshold) {
+        compressAbove(threshold, new BinaryValueCodec<V>(), Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Stores the values put from now on compressed, if they take at least the given number of bytes once
+     * encoded with the given codec. A value is only kept compressed if it shrinks by an eighth at least, and is
+     * then accounted for (see {@link #weightOf(Object)}) by its compressed size.
+     * <p/>
+     * A compressed value is decompressed on every read, so the Data returned for it are a new copy every time,
+     * and changing them does not change the cache. The values that the codec can not encode are stored as they are.
+     * Compression only applies to the values held strongly, see {@link SmartCacheValueReference}, and which are
+     * not indexed, see {@link #indexValues(SmartCacheValueIndex)}.
+     *
+     * @param threshold the size in bytes from which the values are compressed, a negative value to stop compressing
+     * @param codec     the codec that turns the values into bytes, and back
+     * @param level     the compression level of the {@link Deflater}, from {@link Deflater#BEST_SPEED} to
+     *                  {@link Deflater#BEST_COMPRESSION}
+     */
+    public void compressAbove(int threshold, ValueCodec<V> codec, int level) {
+        if (threshold < 0) {
+            this.compressor = null;
+            return;
+        }
+        if (VALUE_REFERENCE != SmartCacheValueReference.STRONG)
+            throw new IllegalStateException("The values of the Smart Cache '" + cacheName
+                    + "' may be collected, they can not be compressed");
+        if (valueIndex != null)
+            throw new IllegalStateException("The values of the Smart Cache '" + cacheName
+                    + "' are indexed, they can not be compressed");
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        this.compressor = new SmartCacheCompressor<V>(codec, threshold, level, statistics);
+    }
+
+    /**
+     * Get the size from which the values are stored compressed.
+     *
+     * @return the threshold in bytes, or {@code -1} if the values are not compressed
+     */
+    public int compressionThreshold() {
+        SmartCacheCompressor<V> compressor = this.compressor;
+        return compressor == null ? -1 : compressor.threshold();
+    }
+
+    /**
+     * Writes the Data put into this cache, and deletes the Keys removed from it, through the given writer, on the
+     * thread that updates the cache and before the cache is updated: if the writer throws, the update fails with an
+     * {@link IllegalStateException} and the cache is left as it was. The Data loaded by a {@link SmartCacheLoader},
+     * and the entries that expire or are purged, are not written. This replaces any writer set before.
+     *
+     * @param writer the writer, {@code null} to stop writing
+     */
+    public void writeThrough(SmartCacheWriter<K, V> writer) {
+        stopWriteBehind();
+        this.writeThrough = writer;
+    }
+
+    /**
+     * Writes the Data put into this cache, and deletes the Keys removed from it, through the given writer in the
+     * background. The updates are kept by Key until they are written, so the updates of a Key made within a flush
+     * interval are coalesced into a single write of its latest Data. They are written in batches: as soon as a
+     * batch is full, and at every flush interval. A batch that fails is retried with an exponential backoff (from
+     * 100 ms up to 30 seconds), and dropped after {@value SmartCacheWriteBehind#MAX_ATTEMPTS} attempts.
+     * <p/>
+     * When the given number of Keys are waiting to be written, the updates of the other Keys wait for a batch to
+     * be written, so the writer must not update this cache. The Data loaded by a {@link SmartCacheLoader}, and the
+     * entries that expire or are purged, are not written. This replaces any writer set before; the updates still
+     * pending for it are flushed in the background. When the cache is closed, its pending updates are flushed first.
+     *
+     * @param writer        the writer, {@code null} to stop writing
+     * @param batchSize     the maximum number of updates per batch
+     * @param flushInterval the interval at which the pending updates are written
+     * @param timeUnit      the time unit of the flush interval
+     * @param maxPending    the maximum number of Keys waiting to be written
+     */
+    public void writeBehind(SmartCacheWriter<K, V> writer, int batchSize, long flushInterval, TimeUnit timeUnit,
+                            int maxPending) {
+        if (writer != null && (batchSize <= 0 || flushInterval <= 0 || maxPending < batchSize))
+            throw new IllegalArgumentException("The batch size and flush interval must be positive, "
+                    + "and the maximum number of pending Keys at least the batch size");
+        this.writeThrough = null;
+        stopWriteBehind();
+        if (writer != null)
+            this.writeBehind = new SmartCacheWriteBehind<K, V>(cacheName, writer, WRITER_QUEUE, statistics,
+                    batchSize, timeUnit.toNanos(flushInterval), maxPending);
+    }
+
+    private void stopWriteBehind() {
+        SmartCacheWriteBehind<K, V> behind = writeBehind;
+        writeBehind = null;
+        if (behind != null)
+            behind.close();
+    }
+
+    /**
+     * Writes all the updates that are pending, in the background, without waiting for the flush interval.
+     */
+    public void flushWrites() {
+        SmartCacheWriteBehind<K, V> behind = writeBehind;
+        if (behind != null)
+            behind.flushAll();
+    }
+
+    /**
+     * Get the number of Keys whose update has not been written behind yet.
+     *
+     * @return the number of pending writes
+     */
+    public int pendingWrites() {
+        SmartCacheWriteBehind<K, V> behind = writeBehind;
+        return behind == null ? 0 : behind.pending();
+    }
+
+    /**
+     * Remembers, for the given time, the Keys for which the loader of
+     * {@link #get(Object, SmartCacheLoader, int, TimeUnit)} returned {@code null}, so that the lookups of a Key
+     * that does not exist do not all reach the backend. Until the marker expires, the loading lookups of the Key
+     * return {@code null} at once; putting or removing the Key drops the marker.
+     * <p/>
+     * The markers are kept apart from the entries: they are not part of {@link #numberOfEntries()},
+     * {@link #values()} or {@link #copy()}, are not reported to the listener or the History, and are counted in
+     * their own statistics (see {@link SmartCacheStatistics#negativeHitCount()}).
+     *
+     * @param ttl      the time to live of the markers, 0 to disable the negative caching
+     * @param timeUnit the time unit of the TTL
+     */
+    public void negativeTtl(long ttl, TimeUnit timeUnit) {
+        this.negativeTtl = Math.max(0, timeUnit.toNanos(ttl));
+    }
+
+    /**
+     * Get the time to live of the markers of the Keys found absent by the loader.
+     *
+     * @param timeUnit the time unit of the TTL
+     *
+     * @return the TTL, or {@code -1} if the negative caching is disabled
+     */
+    public long negativeTtl(TimeUnit timeUnit) {
+        long ttl = negativeTtl;
+        return ttl == 0 ? -1 : timeUnit.convert(ttl, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the number of Keys currently remembered as absent, including the markers that have expired but have
+     * not been removed yet.
+     *
+     * @return the number of absent markers
+     */
+    public int numberOfAbsentEntries() {
+        return ABSENT_ENTRIES.size();
+    }
+
+    /**
+     * Shares a single copy of the byte-identical values put from now on between all their keys, or stops sharing
+     * them, see {@link #deduplicate(ValueCodec)}. The values are identified by their encoding with the
+     * {@link #deduplicationCodec()}.
+     *
+     * @param deduplicate {@code true} to share the values, {@code false} to stop
+     */
+    public void deduplicate(boolean deduplicate) {
+        deduplicate(deduplicate ? deduplicationCodec() : null);
+    }
+
+    /**
+     * Get the codec whose encoding identifies the values when they are deduplicated with
+     * {@link #deduplicate(boolean)}. The implementations whose values hold some book keeping of their own, which
+     * differs from one instance to the next, should override this method to leave it out.
+     *
+     * @return a {@link BinaryValueCodec}
+     */
+    protected ValueCodec<V> deduplicationCodec() {
+        return new BinaryValueCodec<V>();
+    }
+
+    /**
+     * Shares a single copy of the byte-identical values put from now on between all their keys, or stops sharing
+     * them. Every value that is put is encoded with the given codec and looked up by the SHA-256 digest of its
+     * encoding: if the same value is already held for another key, the new key refers to that copy instead.
+     * A copy is dropped once the last key that refers to it is removed or expires.
+     * <p/>
+     * Every key is still accounted for (see {@link #weightOf(Object)}) by the whole weight of its value, see
+     * {@link #duplicateWeight()} for the weight that is saved. Since the keys share the same instance, the Data
+     * read from a shared value must not be changed. The values that the codec can not encode are not shared.
+     * Deduplication only applies to the values held strongly, see {@link SmartCacheValueReference}.
+     *
+     * @param codec the codec whose encoding identifies the values, {@code null} to stop sharing them
+     */
+    public void deduplicate(ValueCodec<V> codec) {
+        if (codec != null && VALUE_REFERENCE != SmartCacheValueReference.STRONG)
+            throw new IllegalStateException("The values of the Smart Cache '" + cacheName
+                    + "' may be collected, they can not be shared");
+        DEDUPLICATOR.codec(codec);
+    }
+
+    /**
+     * Checks whether the values put from now on are shared between the keys whose values are byte-identical.
+     *
+     * @return {@code true} if the values are deduplicated
+     */
+    public boolean isDeduplicating() {
+        return DEDUPLICATOR.isEnabled();
+    }
+
+    /**
+     * Get the weight of the references to the shared values beyond the first one: the weight that is accounted
+     * for every key, but that is held only once. The physical weight of the cache is its total weight minus
+     * this duplicate weight.
+     *
+     * @return the duplicate weight
+     */
+    public long duplicateWeight() {
+        return DEDUPLICATOR.duplicateWeight();
+    }
+
+    /**
+     * Get the number of distinct values shared between the keys.
+     *
+     * @return the number of shared values
+     */
+    public int sharedValues() {
+        return DEDUPLICATOR.size();
+    }
+
+    /**
+     * Limits the number of expired entries removed every expiry tick. When more entries expire at once,
+     * the rest are removed in the following ticks (see {@link #expiryBacklog()}), which spreads their removal
+     * and their listener callbacks over time, and keeps the shared scheduler available for the other caches.
+     *
+     * @param maxExpirations the maximum number of removals per tick, 0 (or a negative value) for no limit
+     */
+    public void maxExpirationsPerTick(int maxExpirations) {
+        this.maxExpirationsPerTick = maxExpirations <= 0 ? Integer.MAX_VALUE : maxExpirations;
+    }
+
+    /**
+     * Get the maximum number of expired entries removed every expiry tick.
      *
-     * @param smartCacheEventListener the smart cache event listener
+     * @return the limit, or {@code -1} if there is none
      */
-    @Override
-    public void startAllAutoCleaner(SmartCacheEventListener smartCacheEventListener) {
-        this.startAutoCleaner = true;
-        this.smartCacheEventListener = smartCacheEventListener;
+    public int maxExpirationsPerTick() {
+        int maxExpirations = maxExpirationsPerTick;
+        return maxExpirations == Integer.MAX_VALUE ? -1 : maxExpirations;
+    }
 
-        // If any Cache entries were put into the Cache before the timer was started then
-        // start the timer for them too
-        if (!NON_SCHEDULED_TASKS.isEmpty()) {
-            ConcurrentHashMap<String, Object> temp;
-            Integer ttl;
-            TimeUnit timeUnit;
-            Long putTime;
-            long expiry;
-            for (K key : NON_SCHEDULED_TASKS.keySet()) {
-                temp = NON_SCHEDULED_TASKS.get(key);
-                ttl = (Integer) temp.get("TTL");
-                timeUnit = (TimeUnit) temp.get("TIME_UNIT");
-                putTime = (Long) temp.get("CURRENT_NANO");
-                expiry = System.nanoTime() - (TimeUnit.NANOSECONDS.convert(putTime, timeUnit));
-                if (expiry > 0)
-                    TASK_HOLDER.put(key, TASK_EXECUTOR.schedule(new AutoCleanerTask(key), ttl, timeUnit));
-                else
-                    remove(key, EXPIRED);
-            }
-        }
+    /**
+     * Get the number of entries whose deadline had passed at the last expiry tick but which have not been
+     * removed yet, because the expiry is rate limited (see {@link #maxExpirationsPerTick(int)}) or falling behind.
+     * The expiry task keeps the count up to date, so reading it costs nothing.
+     *
+     * @return the expiry backlog
+     */
+    public int expiryBacklog() {
+        return EXPIRY_QUEUE.overdue();
     }
 
     /**
-     * Starts the Smart Cache Auto Cleaner Service. This method starts the auto cleaner service and
-     * deletes the entries which have been timed out.
-     * <p/>
-     * The Smart Cache Auto Cleaner service is started by default and you need not invoke this
-     * method, unless you at some point stop the Auto Cleaner Service.
-     * <p/>
-     * This method is needed, if you have stopped the Auto Cleaner Service and have added elements
-     * into the {@link SmartCache} which needs to be removed automatically after a certain duration.
-     * <p/>
-     * This method obsoletes those that are found in the {@link DeprecatedSmartCache} class.
-     * It is <Strong>HIGHLY RECOMMENDED</Strong> that you use this method instead of the
-     * deprecated once for new design/implementation.
-     * <p/>
-     * As an added benefit apart from performance gain, you now can store different elements
-     * into the {@link SmartCache} with different TTL value.
+     * Set the {@link Expiry} policy which decides the time to live of every entry when it is created,
+     * updated and read. The TTL given to {@link #put(Object, Object, int, TimeUnit)} is passed to the policy,
+     * which may keep it or not. The expire-after-access applies on top of the policy.
+     *
+     * @param expiry the policy, or {@code null} to only use the TTL given to {@code put}
      */
-    @Override
-    public void startAllAutoCleaner() {
-        startAllAutoCleaner(this.smartCacheEventListener);
+    public void expiry(Expiry<K, V> expiry) {
+        this.expiry = expiry;
     }
 
     /**
-     * Stops the ongoing Auto Cleaner Service for the Cache data corresponding to a specific key.
-     * This method {@link #stopAutoCleaner(Object, boolean)} obsoletes those that are found in the
-     * {@link DeprecatedSmartCache} class, and only works if the element was put into the {@link SmartCache}
-     * using either of the follwoing methods:
-     * {@link #put(Object, Object, int, java.util.concurrent.TimeUnit)} or
-     * {@link #put(Object, Object, int)}.
-     * <p/>
-     * If removeEntry param is <code>false</code> then the entry is backed up and you can
-     * restart the auto cleaner for this element with the given KEY, using the method
-     * {@link #restartAutoCleaner(Object)}.
+     * Get the {@link Expiry} policy of this cache.
      *
-     * @param key         the key
-     * @param removeEntry if <code>true</code> then the entry corresponding to this key is removed
-     *                    from the Cache after stopping its cleanup task.
+     * @return the policy, {@code null} if none
      */
-    @Override
-    public void stopAutoCleaner(K key, boolean removeEntry) {
-        TASK_HOLDER.get(key).cancel(true);
+    public Expiry<K, V> expiry() {
+        return expiry;
+    }
 
-        if (removeEntry)
-            remove(key, EXPIRED);
-        else {
-            // Backup the task for cleanup when needed
-            ConcurrentHashMap<String, Object> temp = new ConcurrentHashMap<String, Object>();
-            temp.put("REMAINING_TIME", TASK_HOLDER.get(key).getDelay(TimeUnit.NANOSECONDS));
-            NON_SCHEDULED_TASKS.put(key, temp);
-        }
-        if (canceledTasks.getAndIncrement() >= 100) {
-            TASK_EXECUTOR.purge();
-            canceledTasks.set(0);
+    /**
+     * Set the expiry lag above which a warning is logged. An expired entry that is removed later
+     * than this after its deadline indicates that the Auto Cleaner is falling behind.
+     * At most one warning is logged every 10 seconds.
+     *
+     * @param threshold the threshold, or a negative value to disable the alert
+     * @param timeUnit  the time unit of the threshold
+     */
+    public void expiryLagAlertThreshold(long threshold, TimeUnit timeUnit) {
+        this.expiryLagAlertThreshold = threshold < 0 ? Long.MAX_VALUE : timeUnit.toNanos(threshold);
+    }
+
+    /**
+     * Get the expiry lag above which a warning is logged.
+     *
+     * @param timeUnit the time unit of the returned threshold
+     *
+     * @return the threshold, or {@code -1} if the alert is disabled
+     */
+    public long expiryLagAlertThreshold(TimeUnit timeUnit) {
+        long threshold = expiryLagAlertThreshold;
+        return threshold == Long.MAX_VALUE ? -1 : timeUnit.convert(threshold, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the lag of an expiry and logs a warning if it is above the alert threshold.
+     *
+     * @param lagNanos the lag in nanoseconds
+     */
+    private void recordExpiryLag(long lagNanos) {
+        statistics.recordExpiryLag(lagNanos);
+        if (lagNanos > expiryLagAlertThreshold) {
+            long now = System.nanoTime();
+            long last = lastExpiryLagAlert.get();
+            if (now - last >= EXPIRY_LAG_ALERT_INTERVAL && lastExpiryLagAlert.compareAndSet(last, now)) {
+                LOGGER.log(Level.WARNING, "Smart Cache ''{0}'' is falling behind: an entry expired {1} ms after its deadline, "
+                        + "{2} entries are waiting to expire", new Object[]{cacheName,
+                        TimeUnit.NANOSECONDS.toMillis(lagNanos), EXPIRY_QUEUE.size()});
+            }
         }
     }
 
     /**
-     * Stops all the ongoing Auto Cleaner Services.
-     * This method {@link #stopAutoCleaner(Object, boolean)} obsoletes those that are found in the
-     * {@link DeprecatedSmartCache} class, and only works if the element was put into the {@link SmartCache}
-     * using either of the follwoing methods:
-     * {@link #put(Object, Object, int, java.util.concurrent.TimeUnit)} or
-     * {@link #put(Object, Object, int)}.
-     * <p/>
-     * If removeEntry param is <code>false</code> then the entries are backed up and you can
-     * restart the auto cleaner for these element with the given KEY, using the method
-     * {@link #restartAutoCleaner(Object)}.
+     * Starts the given MBean of this Smart Cache Instance, and remembers it so that it is
+     * unregistered when the cache is closed. Until the cache is started, see {@link #start()}, the MBean is
+     * only remembered, and it is started along with the cache; so the constructors may invoke this.
      *
-     * @param removeEntry if <code>true</code> then the entries are removed
-     *                    from the Cache after stopping its cleanup task.
+     * @param manager the MBean
+     *
+     * @throws SmartCacheException if the cache has been started and the MBean could not be started
      */
-    @Override
-    public void stopAllAutoCleaner(boolean removeEntry) {
-        Set<K> keySet = TASK_HOLDER.keySet();
-        for (K key : keySet) {
-            stopAutoCleaner(key, removeEntry);
+    protected void startMBeanService(AbstractSmartCacheManager<?, ?, ?> manager) throws SmartCacheException {
+        synchronized (START_LOCK) {
+            if (started)
+                manager.startSmartCacheMBeanService();
+            MBEANS.add(manager);
         }
-        TASK_EXECUTOR.purge();
     }
 
     /**
-     * Starts the Smart Cache Auto Cleaner Service for the entry corresponding to the given KEY.
-     * This method starts the auto cleaner service and deletes the entries which have been timed out.
-     * <p/>
-     * The Smart Cache Auto Cleaner service is started by default and you need not invoke this
-     * method, unless you at some point stop the Auto Cleaner Service.
+     * Closes this Smart Cache Instance, waiting up to 30 seconds for its pending work.
+     * See {@link #close(long, TimeUnit)}.
+     */
+    @Override
+    public void close() {
+        close(DEFAULT_CLOSE_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Closes this Smart Cache Instance: its expiry is stopped, its purges are cancelled, along with the loads
+     * under way (whose callers get a {@link SmartCacheException}), the chunks of the purges and the listener
+     * callbacks, reloads and writes that are pending on the lanes of this cache are given the time to complete,
+     * followed by the History flushes queued so far (the History is shared by all the caches, so these may
+     * include the flushes of other caches, within the same timeout), its MBeans are unregistered, its entries
+     * are dropped (without any callback), and finally its name is released so that it can be used again.
      * <p/>
+     * Entries can not be put into a closed cache anymore. Closing a cache more than once has no effect.
+     * When invoked from one of its own listener callbacks, the cache is closed without waiting.
      *
-     * @param key The KEY for the element in SmartCache for which the Auto Cleaner Service should be started.
+     * @param timeout  the maximum time to wait for the pending purges, listener callbacks, reloads, writes and
+     *                 History flushes
+     * @param timeUnit the time unit of the timeout
+     *
+     * @return {@code true} if the pending work completed in time, {@code false} otherwise
      */
-    @Override
-    public void restartAutoCleaner(K key) {
-        // If the Cache entries was put into the Cache, starts its timer
-        if (!NON_SCHEDULED_TASKS.isEmpty()) {
-            Long remaining;
-            if ((remaining = (Long) NON_SCHEDULED_TASKS.get(key).get("REMAINING_TIME")) != null) {
-                long expiry = System.nanoTime() - remaining;
-                if (expiry > 0)
-                    TASK_HOLDER.put(key, TASK_EXECUTOR.schedule(new AutoCleanerTask(key), expiry, TimeUnit.NANOSECONDS));
-                else
-                    remove(key, EXPIRED);
+    public boolean close(long timeout, TimeUnit timeUnit) {
+        if (!closed.compareAndSet(false, true))
+            return true;
+        boolean wasStarted;
+        synchronized (START_LOCK) {
+            // No start can begin anymore, and one under way has completed
+            wasStarted = started;
+        }
+        ScheduledFuture<?> task = expiryTask;
+        if (task != null)
+            task.cancel(false);
+
+        cancelPurges();
+        for (FutureTask<V> loading : LOADING_TASKS.values())
+            loading.cancel(false);
+        LOADING_TASKS.clear();
+
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        SmartCacheWriteBehind<K, V> behind = writeBehind;
+        if (behind != null)
+            behind.close();
+        boolean drained = true;
+        // The chunks under way end with a callback on the work queue, which a callback can not wait for
+        if (!WORK_QUEUE.isRunner()) {
+            for (SmartCachePurge purge : PURGES)
+                drained &= awaitPurge(purge, deadline);
+        }
+        drained &= WRITER_QUEUE.awaitIdle(deadline);
+        drained &= WORK_QUEUE.awaitIdle(deadline);
+        drained &= LOADER_QUEUE.awaitIdle(deadline);
+        // The removals above may have queued a flush of the History, which is given what is left of the timeout
+        drained &= ((SmartCacheHistoryImpl) SMART_CACHE_HISTORY).awaitIdle(deadline);
+
+        // The MBeans of a cache that never started were never registered
+        if (wasStarted) {
+            for (AbstractSmartCacheManager<?, ?, ?> manager : MBEANS) {
+                try {
+                    manager.stopMBeanService();
+                } catch (SmartCacheException e) {
+                    LOGGER.log(Level.WARNING, "The MBean of the Smart Cache '" + cacheName + "' could not be unregistered", e);
+                }
             }
         }
+        MBEANS.clear();
+        SMART_CACHE_DATA.clear();
+        NON_SCHEDULED_TASKS.clear();
+        EXPIRY_QUEUE.clear();
+        DEDUPLICATOR.clear();
+        TAGS.clear();
+        keyIndex = null;
+        valueIndex = null;
+        ABSENT_ENTRIES.clear();
+        REGISTERED_CACHES.remove(cacheName, this);
+        return drained;
     }
 
     /**
-     * Purges only the data corresponding to the given KEY.
-     * Invoking this method will give a callback to the
-     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCacheEventListener#onSingleEntryPurge(Object, Object)}.
+     * Waits for a cancelled purge to end its chunks under way.
      *
-     * @param key the KEY
+     * @param purge    the purge
+     * @param deadline the {@link System#nanoTime()} after which to stop waiting
      *
-     * @return the <code>true</code> if everything goes fine else <code>false</code>.
+     * @return {@code true} if the purge has ended, {@code false} if the deadline passed first
      */
-    @Override
-    public boolean purgeCacheEntry(K key) {
-        return PURGE_EXECUTOR.submit(new CachePurger(key)).isDone();
+    private static boolean awaitPurge(SmartCachePurge purge, long deadline) {
+        try {
+            return purge.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            // The purge failed, it has ended all the same
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     /**
-     * Purges only the data corresponding to the given set of KEYs.
-     * Invoking this method will give a callback to the
-     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCacheEventListener#onCachePurge(java.util.Map)}.
-     *
-     * @param keys the keys
+     * Checks whether this Smart Cache Instance has been closed.
      *
-     * @return the boolean
+     * @return {@code true} if closed
      */
-    @Override
-    public boolean purgeCacheEntries(Set<K> keys) throws ExecutionException, InterruptedException {
-        return PURGE_EXECUTOR.submit(new CachePurger(keys)).get();
+    public boolean isClosed() {
+        return closed.get();
     }
 
     /**
-     * Purge the entire cache for backup purpose. Invoking this method will give a
-     * callback to {@link com.sohail.alam.mango_pi.smart.cache.SmartCacheEventListener#onCachePurge(java.util.Map)}.
+     * Get the started Smart Cache Instance registered with the given name, see {@link #start()}.
      *
-     * @return the <code>true</code> if everything goes fine else <code>false</code>.
+     * @param cacheName the name of the cache
+     *
+     * @return the cache, {@code null} if none
      */
-    @Override
-    public boolean purgeAllCacheEntries() throws ExecutionException, InterruptedException {
-        return purgeCacheEntries(keySet());
+    static AbstractSmartCache<?, ?> registeredCache(String cacheName) {
+        AbstractSmartCache<?, ?> cache = REGISTERED_CACHES.get(cacheName);
+        return cache != null && cache.started ? cache : null;
     }
 
     /**
-     * Get the unique name for this Smart Cache Instance
+     * Get all the Smart Cache Instances that are currently registered in this application and have been
+     * started, see {@link #start()}.
      *
-     * @return The unique name for this Smart Cache Instance
+     * @return A snapshot of the started Smart Cache Instances
      */
-    public String cacheName() {
-        return cacheName;
+    public static Collection<AbstractSmartCache<?, ?>> registeredCaches() {
+        List<AbstractSmartCache<?, ?>> caches = new ArrayList<AbstractSmartCache<?, ?>>(REGISTERED_CACHES.size());
+        for (AbstractSmartCache<?, ?> cache : REGISTERED_CACHES.values()) {
+            if (cache.started)
+                caches.add(cache);
+        }
+        return Collections.unmodifiableList(caches);
     }
 
     /**
-     * The Deleted Entries Counter increments whenever an item expires its TTL and is deleted from the
-     * {@link SmartCache}.
+     * Get the Smart Cache Instance that holds the given name, whether it has been started or not,
+     * so that it can be closed.
      *
-     * @return The value of
+     * @param cacheName the name of the cache
+     *
+     * @return the cache, {@code null} if none
      */
-    public long deletedEntriesCounter() {
-        return deletedEntriesCounter.get();
+    static AbstractSmartCache<?, ?> namedCache(String cacheName) {
+        return REGISTERED_CACHES.get(cacheName);
     }
 
     /**
-     * Resets the {@code deletedEntriesCounter} back to zero.
+     * Get all the Smart Cache Instances that hold a name, whether they have been started or not,
+     * so that they can be closed.
+     *
+     * @return An unmodifiable view of the Smart Cache Instances
      */
-    public void resetDeletedEntriesCounter() {
-        deletedEntriesCounter = new AtomicLong(0);
+    static Collection<AbstractSmartCache<?, ?>> namedCaches() {
+        return Collections.unmodifiableCollection(REGISTERED_CACHES.values());
     }
 
     /**
-     * Class responsible for purging the cache entries
+     * Class responsible for purging the cache entries, a chunk at a time, see {@link #purge(Collection, int)}.
+     * The number of chunks under way counts the starter too, so it only drops to zero once the last chunk
+     * has been given to the listener and no further chunk is left to start.
      */
-    private final class CachePurger implements Callable<Boolean> {
+    private final class CachePurger {
 
-        private Set<K> keys = keySet();
+        private final Iterator<? extends K> keys;
+        private final int chunkSize;
+        private final SmartCachePurge purge;
+        private final AtomicInteger running = new AtomicInteger(1);
 
         /**
          * Instantiates a new Purger class.
          *
-         * @param keys the keys
+         * @param keys      the keys
+         * @param chunkSize the number of keys in a chunk
+         * @param purge     the purge to report to
          */
-        public CachePurger(Set<K> keys) {
+        CachePurger(Iterator<? extends K> keys, int chunkSize, SmartCachePurge purge) {
             this.keys = keys;
+            this.chunkSize = chunkSize;
+            this.purge = purge;
         }
 
         /**
-         * Instantiates a new Purger class.
-         *
-         * @param key the key
+         * Starts a few chunks per thread of the fork/join pool.
          */
-        public CachePurger(K key) {
-            keys = new HashSet<K>(1);
-            keys.add(key);
+        void start() {
+            int chunks = SmartCacheRuntime.runtime().parallel().getParallelism() * 2;
+            while (chunks-- > 0) {
+                if (!next())
+                    break;
+            }
+            done();
         }
 
         /**
-         * Computes a result, or throws an exception if unable to do so.
+         * Starts the next chunk, if any is left.
          *
-         * @return computed result
+         * @return {@code true} if a chunk was started
+         */
+        private boolean next() {
+            final List<K> chunk = new ArrayList<K>(chunkSize);
+            synchronized (keys) {
+                while (chunk.size() < chunkSize && !purge.isStopped() && keys.hasNext())
+                    chunk.add(keys.next());
+            }
+            if (chunk.isEmpty())
+                return false;
+            running.incrementAndGet();
+            try {
+                SmartCacheRuntime.runtime().parallel().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        remove(chunk);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                purge.fail(e);
+                done();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Removes the entries of a chunk, on the fork/join pool, and hands them to the listener.
          *
-         * @throws Exception if unable to compute a result
+         * @param chunk the keys of the chunk
+         */
+        private void remove(List<K> chunk) {
+            final Map<K, V> cacheEntries = new HashMap<K, V>(chunk.size() * 4 / 3 + 1);
+            long weight = 0;
+            int removed = 0;
+            try {
+                Object event = RECORDER.beginPurge();
+                for (K key : chunk) {
+                    SmartCacheEntry<K, V> entry = SMART_CACHE_DATA.remove(key);
+                    if (entry != null) {
+                        V data = entry.value();
+                        removed(entry, data, PURGED);
+                        weight += entry.weight;
+                        removed++;
+                        cacheEntries.put(key, data);
+                    } else {
+                        cacheEntries.put(key, null);
+                    }
+                }
+                if (event != null)
+                    RECORDER.endPurge(event, cacheName, cacheEntries.size(), weight);
+            } catch (Throwable e) {
+                purge.fail(e);
+            }
+            purge.chunk(chunk.size(), removed);
+
+            final SmartCacheEventListener<K, V> listener = eventListener();
+            if (listener == null) {
+                carryOn();
+                return;
+            }
+            final long chunkWeight = weight;
+            try {
+                WORK_QUEUE.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Object listenerEvent = RECORDER.beginListener();
+                            listener.onCachePurge(cacheEntries);
+                            if (listenerEvent != null)
+                                RECORDER.endListener(listenerEvent, cacheName, "onCachePurge", null, chunkWeight);
+                        } catch (Throwable e) {
+                            purge.fail(e);
+                        } finally {
+                            carryOn();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                purge.fail(e);
+                carryOn();
+            }
+        }
+
+        /**
+         * Starts the next chunk in place of the one just given to the listener.
+         */
+        private void carryOn() {
+            next();
+            done();
+        }
+
+        /**
+         * Ends the purge once no chunk is under way.
          */
+        private void done() {
+            if (running.decrementAndGet() == 0) {
+                PURGES.remove(purge);
+                purge.finish();
+            }
+        }
+    }
+
+    /**
+     * The index of the entries by their value, see {@link #indexValues(SmartCacheValueIndex)}.
+     */
+    private final class ValueIndex {
+        private final SmartCacheValueIndex mode;
+        private final SmartCacheEntryIndex<Object, K, V> entries = new SmartCacheEntryIndex<Object, K, V>();
+
+        ValueIndex(SmartCacheValueIndex mode) {
+            this.mode = mode;
+        }
+
+        Object attribute(Object value) {
+            return mode == SmartCacheValueIndex.IDENTITY ? new SmartCacheEntryIndex.Identity(value) : value;
+        }
+
+        void add(SmartCacheEntry<K, V> entry) {
+            // A compressed value is decompressed into a new copy every time, which no identity can match
+            if (mode == SmartCacheValueIndex.IDENTITY && entry.isCompressed())
+                return;
+            V value = entry.value();
+            if (value != null)
+                entries.add(attribute(value), entry);
+        }
+
+        void remove(SmartCacheEntry<K, V> entry) {
+            if (mode == SmartCacheValueIndex.IDENTITY && entry.isCompressed())
+                return;
+            V value = entry.value();
+            if (value != null)
+                entries.remove(attribute(value), entry);
+        }
+    }
+
+    /**
+     * Class responsible for the clean up operations: every expiry tick it removes the entries
+     * whose deadline has passed.
+     * <p/>
+     * The task runs on the scheduler shared by all the caches, so it never waits for room in the lane of its
+     * cache: once the lane is full, because the listener is slow, the tick stops and the entries left over are
+     * reported in the {@link #expiryBacklog()} until a later tick removes them.
+     */
+    private final class ExpiryTask implements Runnable {
+
         @Override
-        public Boolean call() throws Exception {
-            Map<K, V> cacheEntries = new HashMap<K, V>();
-            if (smartCacheEventListener != null) {
-                for (K key : keys) {
-                    V value = SMART_CACHE_DATA.remove(key);
-                    cacheEntries.put(key, value);
-                    if (value instanceof SmartCachePojo) {
-                        SMART_CACHE_HISTORY.addToHistory(PURGED, key, (SmartCachePojo) value);
+        public void run() {
+            SmartCacheWorkQueue.enterUnbounded();
+            try {
+                expire();
+            } finally {
+                SmartCacheWorkQueue.exitUnbounded();
+            }
+        }
+
+        private void expire() {
+            if (COLLECTED_VALUES != null)
+                removeCollected(COLLECTED_PER_TICK);
+            long now = System.nanoTime();
+            EXPIRY_QUEUE.advance(now);
+            Object event = null;
+            int count = 0;
+            long weight = 0;
+            K key = null;
+            SmartCacheEntry<K, V> entry;
+            int limit = maxExpirationsPerTick;
+            expiring = true;
+            try {
+                while (count < limit && !(smartCacheEventListener != null && WORK_QUEUE.isFull())
+                        && (entry = EXPIRY_QUEUE.poll(now)) != null) {
+                    long expiresAt = entry.expiresAt();
+                    if (expiresAt == SmartCacheEntry.NEVER)
+                        continue;
+                    if (expiresAt - now > 0) {
+                        // Read since it was scheduled, look at it again at its new deadline
+                        if (SMART_CACHE_DATA.get(entry.key) == entry)
+                            EXPIRY_QUEUE.schedule(entry, expiresAt);
+                        continue;
+                    }
+                    // The entry may have been replaced or removed since it was scheduled
+                    if (!SMART_CACHE_DATA.remove(entry.key, entry)) {
+                        ABSENT_ENTRIES.remove(entry.key, entry);
+                        continue;
                     }
+                    try {
+                        if (count == 0) {
+                            event = RECORDER.beginExpiry();
+                            expiryStatistics.recordWait(now - expiresAt);
+                        }
+                        recordExpiryLag(now - expiresAt);
+                        V data = entry.value();
+                        String reason = removed(entry, data, EXPIRED);
+                        deletedEntriesCounter.incrementAndGet();
+                        fireDeleteCacheEntry(entry.key, data, reason, entry.weight);
+                        weight += entry.weight;
+                    } catch (RuntimeException e) {
+                        // Never let an entry stop the expiry of this cache for good
+                        LOGGER.log(Level.SEVERE, "Smart Cache '" + cacheName + "' failed to expire an entry", e);
+                    }
+                    key = entry.key;
+                    count++;
                 }
-                smartCacheEventListener.onCachePurge(cacheEntries);
-                return true;
-            } else return false;
+            } finally {
+                expiring = false;
+            }
+            if (count > 0) {
+                expiryStatistics.recordRun(System.nanoTime() - now);
+                if (event != null)
+                    RECORDER.endExpiry(event, cacheName, count == 1 ? key : null, count, weight);
+            }
+        }
+    }
+
+    /**
+     * The keys of the cache, whose removals go through {@link #remove(Object, String)}
+     */
+    private final class KeySet extends AbstractSet<K> {
+
+        @Override
+        public Iterator<K> iterator() {
+            final Iterator<K> keys = SMART_CACHE_DATA.keySet().iterator();
+            return new Iterator<K>() {
+                private K last;
+
+                @Override
+                public boolean hasNext() {
+                    return keys.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    return last = keys.next();
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null)
+                        throw new IllegalStateException();
+                    AbstractSmartCache.this.remove(last, DELETED_BY_USER);
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return SMART_CACHE_DATA.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return SMART_CACHE_DATA.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return SMART_CACHE_DATA.containsKey(key);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object key) {
+            if (!SMART_CACHE_DATA.containsKey(key))
+                return false;
+            AbstractSmartCache.this.remove((K) key, DELETED_BY_USER);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            AbstractSmartCache.this.removeAll(DELETED_BY_USER);
+        }
+    }
+
+    /**
+     * The values of the cache, as seen through its entries, whose removals go through
+     * {@link #remove(Object, String)}
+     */
+    private final class Values extends AbstractCollection<V> {
+
+        @Override
+        public Iterator<V> iterator() {
+            final Iterator<SmartCacheEntry<K, V>> entries = SMART_CACHE_DATA.values().iterator();
+            return new Iterator<V>() {
+                private K last;
+
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public V next() {
+                    SmartCacheEntry<K, V> entry = entries.next();
+                    last = entry.key;
+                    return entry.value();
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null)
+                        throw new IllegalStateException();
+                    AbstractSmartCache.this.remove(last, DELETED_BY_USER);
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return SMART_CACHE_DATA.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return SMART_CACHE_DATA.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            AbstractSmartCache.this.removeAll(DELETED_BY_USER);
         }
     }
 
     /**
-     * Class responsible for the clean up operations
+     * An operation of {@link #bulk(long, BulkOperation)}, applied to slices of the entries
      */
-    private final class AutoCleanerTask implements Callable<V> {
+    private abstract static class BulkOperation<K, V, R> {
+
+        /**
+         * Applies the operation to a slice of the entries.
+         *
+         * @param entries the entries of the slice
+         *
+         * @return the result of the slice
+         */
+        abstract R apply(Iterator<SmartCacheEntry<K, V>> entries);
+
+        /**
+         * Combines the results of two slices, either of which may be {@code null} if it had no entry.
+         */
+        abstract R combine(R left, R right);
+
+        /**
+         * @return {@code true} if the remaining slices can be skipped
+         */
+        boolean isDone() {
+            return false;
+        }
+    }
 
-        private K key;
+    /**
+     * Forks the tasks of the other workers, then applies the operation to the slices of entries it takes from the
+     * iterator shared by all the workers, so only a slice per worker is ever copied out of the map.
+     */
+    private static final class BulkTask<K, V, R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+        private final BulkOperation<K, V, R> operation;
+        private final Iterator<SmartCacheEntry<K, V>> entries;
+        private final int slice;
+        private final int workers;
 
-        AutoCleanerTask(K key) {
-            this.key = key;
+        BulkTask(BulkOperation<K, V, R> operation, Iterator<SmartCacheEntry<K, V>> entries, int slice, int workers) {
+            this.operation = operation;
+            this.entries = entries;
+            this.slice = slice;
+            this.workers = workers;
         }
 
         @Override
-        public V call() throws Exception {
-            return remove(key, EXPIRED);
+        protected R compute() {
+            BulkTask<K, V, R> others = null;
+            if (workers > 1) {
+                others = new BulkTask<K, V, R>(operation, entries, slice, workers - 1);
+                others.fork();
+            }
+            List<SmartCacheEntry<K, V>> chunk = new ArrayList<SmartCacheEntry<K, V>>(slice);
+            R result = null;
+            while (!operation.isDone()) {
+                chunk.clear();
+                synchronized (entries) {
+                    while (chunk.size() < slice && entries.hasNext())
+                        chunk.add(entries.next());
+                }
+                if (chunk.isEmpty())
+                    break;
+                result = operation.combine(result, operation.apply(chunk.iterator()));
+            }
+            return others == null ? result : operation.combine(result, others.join());
         }
     }
 
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Counts the rejected tasks of a Smart Cache executor before handing them to the original handler.
+ */
+class CountingRejectionHandler implements RejectedExecutionHandler {
+
+    private final SmartCacheExecutorStatistics statistics;
+    private final RejectedExecutionHandler handler;
+
+    CountingRejectionHandler(SmartCacheExecutorStatistics statistics, RejectedExecutionHandler handler) {
+        this.statistics = statistics;
+        this.handler = handler;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+        statistics.recordRejection();
+        handler.rejectedExecution(runnable, executor);
+    }
+}
@@ -16,8 +16,11 @@
 
 package com.sohail.alam.mango_pi.smart.cache;
 
+import com.sohail.alam.mango_pi.smart.cache.codec.BinaryValueCodec;
+import com.sohail.alam.mango_pi.smart.cache.codec.ValueCodec;
 import com.sohail.alam.mango_pi.smart.cache.mbeans.DefaultSmartCacheManager;
 
+import java.lang.reflect.Field;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
@@ -36,6 +39,7 @@ public class DefaultSmartCache<K, V extends SmartCachePojo>
         implements SmartCacheHistory<K, V> {
 
     private AtomicLong totalCacheSize;
+    private volatile boolean sizeEstimation;
 
     /**
      * Instantiates a new {@link DefaultSmartCache}
@@ -47,69 +51,121 @@ public class DefaultSmartCache<K, V extends SmartCachePojo>
      * @throws SmartCacheException Throws any SmartCacheException whatsoever.
      */
     public DefaultSmartCache(String cacheName, boolean activateMBean) throws SmartCacheException {
-        super(cacheName, false);
+        this(cacheName, activateMBean, SmartCacheValueReference.STRONG);
+    }
+
+    /**
+     * Instantiates a new {@link DefaultSmartCache} whose values may be collected by the Garbage Collector,
+     * see {@link AbstractSmartCache#AbstractSmartCache(String, boolean, SmartCacheValueReference)}.
+     *
+     * @param cacheName      the cache name (must be unique if more than one Smart Cache
+     *                       is instantiated in the application)
+     * @param activateMBean  This indicates whether to activate the SmartCache MBean.
+     * @param valueReference how strongly the cache holds on to its values
+     *
+     * @throws SmartCacheException Throws any SmartCacheException whatsoever.
+     */
+    public DefaultSmartCache(String cacheName, boolean activateMBean, SmartCacheValueReference valueReference)
+            throws SmartCacheException {
+        super(cacheName, false, valueReference);
         totalCacheSize = new AtomicLong(0);// This represents the total numberOfEntries of the Cache in bytes
         if (activateMBean) {
-            new DefaultSmartCacheManager<DefaultSmartCache, K, V>(this).startSmartCacheMBeanService();
+            startMBeanService(new DefaultSmartCacheManager<DefaultSmartCache, K, V>(this));
         }
     }
 
     /**
-     * Put the Data of type {@link V} into the {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}, corresponding to the Key of type {@link K}
+     * Accounts the size of the stored Data into the total size of the Cache.
      *
-     * @param key      Any Key of type
-     * @param data     Any Data of type
-     * @param ttl      the ttl value - The after which data will be auto deleted from the Cache
-     * @param timeUnit the time unit for the TTL Value
+     * @param key            the key
+     * @param data           the stored entry
+     * @param weight         the size of the stored entry
+     * @param replacedWeight the size of the entry that was replaced, {@code 0} if none
      */
     @Override
-    public void put(K key, V data, int ttl, TimeUnit timeUnit) {
-        super.put(key, data, ttl, timeUnit);
-        incrementTotalCacheSize(data.size());
+    protected void entryStored(K key, V data, long weight, long replacedWeight) {
+        incrementTotalCacheSize(weight - replacedWeight);
     }
 
     /**
-     * Put the Data of type {@link V} into the
-     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache},
-     * corresponding to the Key of type {@link K}
-     *
-     * @param key  Any Key of type {@link K}
-     * @param data Any Data of type {@link V}
-     * @param ttl  the ttl value - The after which data will be auto deleted from the Cache
-     *             The Time Unit for this TTL Value defaults to Seconds.
+     * Takes the size of the removed Data off the total size of the Cache, and adds it to the History.
+     *
+     * @param key    the key
+     * @param data   the removed entry
+     * @param weight the size of the removed entry, as it was when the entry was put
+     * @param reason the reason for which the entry was removed
      */
     @Override
-    public void put(K key, V data, int ttl) throws NullPointerException {
-        put(key, data, ttl, TimeUnit.SECONDS);
+    @SuppressWarnings("unchecked")
+    protected void entryRemoved(K key, V data, long weight, String reason) {
+        decrementTotalCacheSize(weight);
+        ((SmartCacheHistoryImpl<K, V>) SMART_CACHE_HISTORY).addToHistory(reason, key, data, weight);
     }
 
     /**
-     * Removes the Data corresponding to the given Key from the {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}
+     * Takes the size the collected Data had when it was put off the total size of the Cache,
+     * and adds the entry to the History.
      *
-     * @param key    The Key of type
-     * @param reason the reason
+     * @param key     the key
+     * @param weight  the size of the collected Data
+     * @param created the time at which the Data was put
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void entryCollected(K key, long weight, long created) {
+        decrementTotalCacheSize(weight);
+        ((SmartCacheHistoryImpl<K, V>) SMART_CACHE_HISTORY).addToHistory(SmartCacheDeleteReason.COLLECTED, key, created, weight);
+    }
+
+    /**
+     * Closes this Smart Cache Instance, see {@link AbstractSmartCache#close(long, TimeUnit)}.
      *
-     * @return The Data of type
-     *         that was removed
+     * @param timeout  the maximum time to wait for the pending listener callbacks and History flushes
+     * @param timeUnit the time unit of the timeout
+     *
+     * @return {@code true} if the pending work completed in time, {@code false} otherwise
      */
     @Override
-    public V remove(K key, String reason) {
-        decrementTotalCacheSize(get(key).size());
-        SMART_CACHE_HISTORY.addToHistory(reason, key, get(key));
-        return super.remove(key, reason);
+    public boolean close(long timeout, TimeUnit timeUnit) {
+        boolean drained = super.close(timeout, timeUnit);
+        totalCacheSize.set(0);
+        return drained;
     }
 
     /**
-     * Removes an entire Map from the {@link com.sohail.alam.mango_pi.smart.cache.SmartCache} and returns it
+     * The weight of a value is the size reported by {@link SmartCachePojo#size()}, which is estimated unless the
+     * class of the value overrides it, or its size as estimated by the {@link SmartCacheSizeEstimator} if the size
+     * estimation is turned on, see {@link #sizeEstimation(boolean)}.
+     *
+     * @param data the value
      *
-     * @return dataMap Map of type {@link java.util.concurrent.ConcurrentMap} having Key of type {@link K} and Data of type {@link V}
+     * @return the weight of the value
      */
     @Override
-    public ConcurrentMap<K, V> removeAll(String reason) {
-        for (K key : keySet()) {
-            decrementTotalCacheSize(get(key).size());
-        }
-        return super.removeAll(reason);
+    protected long weightOf(V data) {
+        return sizeEstimation ? SmartCacheSizeEstimator.INSTANCE.sizeOf(data) : data.size();
+    }
+
+    /**
+     * Turns the size estimation of the Data put from now on on or off. When it is off (the default), the size
+     * reported by {@link SmartCachePojo#size()} is used: the Data whose class overrides it keep their own size, and
+     * the size of the others is estimated from their object graph by the {@link SmartCacheSizeEstimator}. When it
+     * is on, the size of every Data is estimated, even if its class overrides {@link SmartCachePojo#size()}.
+     *
+     * @param enabled whether to estimate the size of the Data
+     */
+    public void sizeEstimation(boolean enabled) {
+        this.sizeEstimation = enabled;
+    }
+
+    /**
+     * Checks whether the size of the Data put from now on is estimated, see {@link #sizeEstimation(boolean)}.
+     *
+     * @return {@code true} if the size of every Data is estimated, {@code false} if {@link SmartCachePojo#size()}
+     *         is used
+     */
+    public boolean sizeEstimation() {
+        return sizeEstimation;
     }
 
     /**
@@ -122,6 +178,34 @@ public class DefaultSmartCache<K, V extends SmartCachePojo>
         return totalCacheSize.get();
     }
 
+    /**
+     * The Data are identified by their own fields only, since the creation time and name of the
+     * {@link SmartCachePojo} differ from one instance to the next. The keys that share a Data thus see the
+     * creation time and name of the first instance that was put.
+     *
+     * @return a {@link BinaryValueCodec} that leaves the fields of the {@link SmartCachePojo} out
+     */
+    @Override
+    protected ValueCodec<V> deduplicationCodec() {
+        return new BinaryValueCodec<V>() {
+            @Override
+            protected boolean isEncoded(Field field) {
+                return field.getDeclaringClass() != SmartCachePojo.class && super.isEncoded(field);
+            }
+        };
+    }
+
+    /**
+     * Get the size of the data stored in Smart Cache as it is held in memory: the {@link #totalCacheSize()}
+     * counts the Data shared between several keys once per key, see {@link #deduplicate(boolean)}, while this
+     * counts them once.
+     *
+     * @return The physical size of the Smart Cache
+     */
+    public long physicalCacheSize() {
+        return totalCacheSize.get() - duplicateWeight();
+    }
+
     /**
      * Increment the total numberOfEntries of the data stored in Smart Cache by the given amount
      *
@@ -155,7 +239,7 @@ public class DefaultSmartCache<K, V extends SmartCachePojo>
         builder.append(String.format("%-20s", "Key"));
         builder.append(String.format("%-50s", "Value"));
         builder.append(SmartCacheUtils.createLine(90, '-'));
-        V data = get(key);
+        V data = peek(key);
         builder.append(String.format("%-20s", data.getCREATION_TIME()));
         builder.append(String.format("%-20s", key.toString()));
         builder.append(String.format("%-50s", data.toString()));
@@ -180,7 +264,7 @@ public class DefaultSmartCache<K, V extends SmartCachePojo>
         builder.append(SmartCacheUtils.createLine(90, '-'));
         // Iterate the SmartCache for all keys
         for (K key : keys) {
-            V data = get(key);
+            V data = peek(key);
             builder.append(String.format("%-20s", data.getCREATION_TIME()));
             builder.append(String.format("%-20s", key.toString()));
             builder.append(String.format("%-50s", data.toString()));
@@ -21,8 +21,7 @@ import com.sohail.alam.mango_pi.smart.cache.mbeans.DeprecatedSmartCacheManager;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static com.sohail.alam.mango_pi.smart.cache.SmartCache.SmartCacheDeleteReason.EXPIRED;
@@ -38,8 +37,7 @@ public class DeprecatedSmartCache<K, V extends SmartCachePojo>
         extends DefaultSmartCache<K, V>
         implements DeprecatedSmartCacheIntf<K, V> {
 
-    private Executors autoCleanerExecutor;
-    private ScheduledExecutorService autoCleanerService = null;
+    private ScheduledFuture<?> autoCleanerService = null;
     private SmartCacheEventListener smartCacheEventListener = null;
 
     /**
@@ -51,7 +49,7 @@ public class DeprecatedSmartCache<K, V extends SmartCachePojo>
      */
     public DeprecatedSmartCache(String cacheName) throws SmartCacheException {
         super(cacheName, false);
-        new DeprecatedSmartCacheManager<DeprecatedSmartCache, K, V>(this).startSmartCacheMBeanService();
+        startMBeanService(new DeprecatedSmartCacheManager<DeprecatedSmartCache, K, V>(this));
     }
 
     /**
@@ -98,19 +96,17 @@ public class DeprecatedSmartCache<K, V extends SmartCachePojo>
 
         final long expiry = TimeUnit.NANOSECONDS.convert(EXPIRY_DURATION, TIME_UNIT);
 
-        if (autoCleanerService == null) {
-            autoCleanerService = autoCleanerExecutor.newSingleThreadScheduledExecutor();
-        } else {
+        if (autoCleanerService != null) {
             throw new SmartCacheException("Auto Cleaner for this Cache has already been started!");
         }
 
         final SmartCacheException[] anyException = new SmartCacheException[1];
 
-        autoCleanerService.scheduleAtFixedRate(new Runnable() {
+        autoCleanerService = SmartCacheRuntime.runtime().scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
                 for (K key : keySet()) {
-                    if ((System.nanoTime() - get(key).getCREATION_TIME()) >= expiry) {
+                    if ((System.nanoTime() - peek(key).getCREATION_TIME()) >= expiry) {
                         // Delete and Provide Callback if needed
                         if (CALLBACK_CLASS_OBJECT != null && CALLBACK_METHOD != null) {
                             try {
@@ -182,17 +178,15 @@ public class DeprecatedSmartCache<K, V extends SmartCachePojo>
     public boolean startAutoCleaner(long EXPIRY_DURATION, long START_TASK_DELAY, long REPEAT_TASK_DELAY, TimeUnit TIME_UNIT) throws SmartCacheException {
         final long expiry = TimeUnit.NANOSECONDS.convert(EXPIRY_DURATION, TIME_UNIT);
 
-        if (autoCleanerService == null) {
-            autoCleanerService = autoCleanerExecutor.newSingleThreadScheduledExecutor();
-        } else {
+        if (autoCleanerService != null) {
             throw new SmartCacheException("Auto Cleaner for this Cache has already been started!");
         }
         try {
-            autoCleanerService.scheduleAtFixedRate(new Runnable() {
+            autoCleanerService = SmartCacheRuntime.runtime().scheduleAtFixedRate(new Runnable() {
                 @Override
                 public void run() {
                     for (K key : keySet()) {
-                        if ((System.nanoTime() - get(key).getCREATION_TIME()) >= expiry) {
+                        if ((System.nanoTime() - peek(key).getCREATION_TIME()) >= expiry) {
                             // Delete and Provide Callback if needed
                             remove(key, EXPIRED);
                         }
@@ -215,7 +209,22 @@ public class DeprecatedSmartCache<K, V extends SmartCachePojo>
     @Deprecated
     public void stopAutoCleaner() throws SecurityException {
         if (autoCleanerService != null)
-            autoCleanerService.shutdown();
+            autoCleanerService.cancel(false);
         autoCleanerService = null;
     }
+
+    /**
+     * Closes this Smart Cache Instance, along with its Auto Cleaner Service,
+     * see {@link AbstractSmartCache#close(long, TimeUnit)}.
+     *
+     * @param timeout  the maximum time to wait for the pending listener callbacks and History flushes
+     * @param timeUnit the time unit of the timeout
+     *
+     * @return {@code true} if the pending work completed in time, {@code false} otherwise
+     */
+    @Override
+    public boolean close(long timeout, TimeUnit timeUnit) {
+        stopAutoCleaner();
+        return super.close(timeout, timeUnit);
+    }
 }
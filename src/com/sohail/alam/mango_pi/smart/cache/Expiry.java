@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+/**
+ * This {@link Expiry} interface lets the user decide how long every entry of a {@link SmartCache}
+ * lives, from the entry itself, for example from a deadline that came along with the data from upstream,
+ * such as a Cache-Control header.
+ * <p/>
+ * The cache asks the policy for the time to live of an entry when it is created, updated and read,
+ * and stores the resulting deadline in its expiry queue. All the durations are in nanoseconds and a
+ * negative duration means that the entry never expires (just like the TTL of -1 given to
+ * {@link SmartCache#put(Object, Object, int)}). Returning {@code currentDuration} keeps the deadline as it is.
+ * <p/>
+ * The policy is invoked on the thread that puts or gets the entry, so it must be fast and must not
+ * access the cache itself.
+ */
+public interface Expiry<K, V> {
+
+    /**
+     * Get the time to live of an entry that was put for a key that was not in the cache.
+     *
+     * @param key               the key
+     * @param value             the value
+     * @param currentTime       the current {@link System#nanoTime()}
+     * @param requestedDuration the TTL given to {@code put}, or a negative value if none
+     *
+     * @return the time to live in nanoseconds, or a negative value if the entry never expires
+     */
+    public long expireAfterCreate(K key, V value, long currentTime, long requestedDuration);
+
+    /**
+     * Get the time to live of an entry that was put for a key that was already in the cache.
+     *
+     * @param key               the key
+     * @param value             the new value
+     * @param currentTime       the current {@link System#nanoTime()}
+     * @param requestedDuration the TTL given to {@code put}, or a negative value if none
+     * @param currentDuration   the time the replaced entry had left to live, or a negative value if it would
+     *                          never have expired
+     *
+     * @return the time to live in nanoseconds, or a negative value if the entry never expires
+     */
+    public long expireAfterUpdate(K key, V value, long currentTime, long requestedDuration, long currentDuration);
+
+    /**
+     * Get the time to live of an entry that was read with {@link SmartCache#get(Object)}.
+     *
+     * @param key             the key
+     * @param value           the value
+     * @param currentTime     the current {@link System#nanoTime()}
+     * @param currentDuration the time the entry has left to live, or a negative value if it never expires
+     *
+     * @return the time to live in nanoseconds, or a negative value if the entry never expires
+     */
+    public long expireAfterRead(K key, V value, long currentTime, long currentDuration);
+}
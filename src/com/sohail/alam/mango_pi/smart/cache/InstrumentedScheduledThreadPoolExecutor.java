@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ScheduledThreadPoolExecutor} that records how late its tasks started compared to their
+ * due time, how long they ran and how many were rejected, into a {@link SmartCacheExecutorStatistics}.
+ */
+class InstrumentedScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor {
+
+    private final SmartCacheExecutorStatistics statistics;
+    private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+
+    /**
+     * Instantiates a new {@link InstrumentedScheduledThreadPoolExecutor}.
+     *
+     * @param name       the name of the executor, used for the statistics
+     * @param threadName the prefix of the thread names
+     * @param threads    the number of threads
+     */
+    InstrumentedScheduledThreadPoolExecutor(String name, String threadName, int threads) {
+        super(threads, new SmartCacheThreadFactory(threadName));
+        statistics = new SmartCacheExecutorStatistics(name, this);
+        setRejectedExecutionHandler(new CountingRejectionHandler(statistics, getRejectedExecutionHandler()));
+    }
+
+    SmartCacheExecutorStatistics statistics() {
+        return statistics;
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+        // A task that is due has a negative delay, which is exactly how late it started
+        if (runnable instanceof RunnableScheduledFuture)
+            statistics.recordWait(-((RunnableScheduledFuture) runnable).getDelay(TimeUnit.NANOSECONDS));
+        startTime.set(System.nanoTime());
+        super.beforeExecute(thread, runnable);
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+        Long start = startTime.get();
+        if (start != null)
+            statistics.recordRun(System.nanoTime() - start);
+    }
+}
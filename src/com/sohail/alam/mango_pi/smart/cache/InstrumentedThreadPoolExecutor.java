@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.concurrent.*;
+
+/**
+ * A {@link ThreadPoolExecutor} that records the queue wait time, the run time and the rejections
+ * of its tasks into a {@link SmartCacheExecutorStatistics}.
+ */
+class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private final SmartCacheExecutorStatistics statistics;
+    private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+
+    /**
+     * Instantiates a new {@link InstrumentedThreadPoolExecutor} with a fixed number of threads
+     * and an unbounded queue.
+     *
+     * @param name       the name of the executor, used for the statistics
+     * @param threadName the prefix of the thread names
+     * @param threads    the number of threads
+     */
+    InstrumentedThreadPoolExecutor(String name, String threadName, int threads) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new SmartCacheThreadFactory(threadName));
+        statistics = new SmartCacheExecutorStatistics(name, this);
+        setRejectedExecutionHandler(new CountingRejectionHandler(statistics, getRejectedExecutionHandler()));
+    }
+
+    SmartCacheExecutorStatistics statistics() {
+        return statistics;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(command instanceof EnqueuedTask ? command : new EnqueuedTask(command));
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+        long now = System.nanoTime();
+        if (runnable instanceof EnqueuedTask)
+            statistics.recordWait(now - ((EnqueuedTask) runnable).enqueuedAt);
+        startTime.set(now);
+        super.beforeExecute(thread, runnable);
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+        Long start = startTime.get();
+        if (start != null)
+            statistics.recordRun(System.nanoTime() - start);
+    }
+
+    /**
+     * Remembers the time at which a task was handed to the executor
+     */
+    private static final class EnqueuedTask implements Runnable {
+
+        private final Runnable task;
+        private final long enqueuedAt = System.nanoTime();
+
+        EnqueuedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
@@ -305,7 +305,7 @@ public interface SmartCache<K, V> {
 
     /**
      * Purge the entire cache for backup purpose. Invoking this method will give a
-     * callback to {@link SmartCacheEventListener#onCachePurge(java.util.Map)}.
+     * callback to {@link SmartCacheEventListener#onCachePurge(java.util.Map)} for every chunk of entries.
      *
      * @return the <code>true</code> if everything goes fine else <code>false</code>.
      */
@@ -314,7 +314,7 @@ public interface SmartCache<K, V> {
     /**
      * Purges only the data corresponding to the given set of KEYs.
      * Invoking this method will give a callback to the
-     * {@link SmartCacheEventListener#onCachePurge(java.util.Map)}.
+     * {@link SmartCacheEventListener#onCachePurge(java.util.Map)} for every chunk of entries.
      *
      * @param keys the keys
      *
@@ -372,6 +372,11 @@ public interface SmartCache<K, V> {
      */
     public interface SmartCacheDeleteReason {
 
+        /**
+         * Cache entry was deleted due to the following reason: COLLECTED (its value was collected by the
+         * Garbage Collector, see {@link SmartCacheValueReference}).
+         */
+        public static final String COLLECTED = "COLLECTED";
         /**
          * Cache entry was deleted due to the following reason: DELETED_BY_USER.
          */
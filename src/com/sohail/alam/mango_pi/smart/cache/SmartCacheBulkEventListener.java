@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.Map;
+
+/**
+ * A {@link SmartCacheEventListener} that is told of the entries removed together, such as those invalidated by
+ * {@link AbstractSmartCache#invalidateTag(String, String)}, with a single callback rather than one
+ * {@link #onDeleteCacheEntry(Object, Object, String)} per entry.
+ */
+public interface SmartCacheBulkEventListener<K, V> extends SmartCacheEventListener<K, V> {
+
+    /**
+     * Event for On delete cache entries.
+     * Whenever several elements are deleted from the SmartCache by a single operation, this event gets fired,
+     * with all the deleted entries. The entries whose value had been collected by the Garbage Collector are
+     * reported one by one, with the reason
+     * {@link com.sohail.alam.mango_pi.smart.cache.SmartCache.SmartCacheDeleteReason#COLLECTED}.
+     *
+     * @param deletedEntries the entries which were deleted from the Cache, by key
+     * @param reason         the reason for which the cache entries were deleted
+     */
+    public void onDeleteCacheEntries(Map<K, V> deletedEntries, String reason);
+}
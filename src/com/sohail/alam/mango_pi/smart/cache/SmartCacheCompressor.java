@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import com.sohail.alam.mango_pi.smart.cache.codec.ValueCodec;
+import com.sohail.alam.mango_pi.smart.cache.codec.ValueCodecs;
+
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the values of an {@link AbstractSmartCache} that are larger than a threshold, see
+ * {@link AbstractSmartCache#compressAbove(int, ValueCodec, int)}.
+ * <p/>
+ * A value is first encoded with the {@link ValueCodec} of the cache, and only compressed with a {@link Deflater}
+ * if its encoded form reaches the threshold and shrinks by at least an eighth. The {@link Deflater},
+ * {@link Inflater} and the buffers are kept per thread, so neither compressing nor decompressing allocates
+ * anything but the compressed bytes and the decoded value.
+ */
+final class SmartCacheCompressor<V> {
+
+    private static final Logger LOGGER = Logger.getLogger(SmartCacheCompressor.class.getName());
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+    private static final ThreadLocal<ThreadBuffers> BUFFERS = new ThreadLocal<ThreadBuffers>() {
+        @Override
+        protected ThreadBuffers initialValue() {
+            return new ThreadBuffers();
+        }
+    };
+    private final ValueCodec<V> codec;
+    private final int threshold;
+    private final int level;
+    private final SmartCacheStatistics statistics;
+
+    SmartCacheCompressor(ValueCodec<V> codec, int threshold, int level, SmartCacheStatistics statistics) {
+        this.codec = codec;
+        this.threshold = threshold;
+        this.level = level;
+        this.statistics = statistics;
+    }
+
+    /**
+     * @return the size in bytes of the encoded values from which they are compressed
+     */
+    int threshold() {
+        return threshold;
+    }
+
+    /**
+     * Compresses a value, if it is worth it.
+     *
+     * @param value the value
+     *
+     * @return the compressed value, or {@code null} if the value must be stored as it is
+     */
+    Compressed<V> compress(V value) {
+        long start = System.nanoTime();
+        ThreadBuffers buffers = BUFFERS.get();
+        ByteBuffer encoded = buffers.encoded;
+        encoded.clear();
+        try {
+            encoded = ValueCodecs.encode(codec, value, encoded);
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.FINE, "A value of type " + value.getClass().getName()
+                    + " could not be encoded, it is stored uncompressed", e);
+            return null;
+        } finally {
+            buffers.retainEncoded(encoded);
+        }
+        int length = encoded.position();
+        if (length < threshold)
+            return null;
+
+        Deflater deflater = buffers.deflater;
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(encoded.array(), encoded.arrayOffset(), length);
+        deflater.finish();
+        // Not worth it unless the value shrinks by an eighth at least
+        int limit = length - (length >>> 3);
+        byte[] compressed = buffers.compressed(limit);
+        int size = 0;
+        while (!deflater.finished() && size < limit) {
+            size += deflater.deflate(compressed, size, limit - size);
+        }
+        if (!deflater.finished()) {
+            statistics.recordCompressionSkip(System.nanoTime() - start);
+            return null;
+        }
+        byte[] bytes = new byte[size];
+        System.arraycopy(compressed, 0, bytes, 0, size);
+        statistics.recordCompression(length, size, System.nanoTime() - start);
+        return new Compressed<V>(this, bytes, length);
+    }
+
+    /**
+     * Decompresses and decodes a value.
+     *
+     * @param compressed the compressed value
+     *
+     * @return a new copy of the value
+     */
+    private V decompress(Compressed<V> compressed) {
+        long start = System.nanoTime();
+        ThreadBuffers buffers = BUFFERS.get();
+        ByteBuffer decompressed = buffers.decompressed(compressed.length);
+        Inflater inflater = buffers.inflater;
+        inflater.reset();
+        inflater.setInput(compressed.bytes);
+        try {
+            int size = 0;
+            while (size < compressed.length && !inflater.finished()) {
+                int inflated = inflater.inflate(decompressed.array(), size, compressed.length - size);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                size += inflated;
+            }
+            if (size != compressed.length)
+                throw new IllegalStateException("A compressed value is truncated");
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("A compressed value is corrupt", e);
+        }
+        decompressed.limit(compressed.length);
+        V value = codec.decode(decompressed);
+        buffers.retainDecompressed(decompressed);
+        statistics.recordDecompression(System.nanoTime() - start);
+        return value;
+    }
+
+    /**
+     * A value held compressed by a {@link SmartCacheEntry}.
+     */
+    static final class Compressed<V> {
+        private final SmartCacheCompressor<V> compressor;
+        private final byte[] bytes;
+        private final int length;
+
+        private Compressed(SmartCacheCompressor<V> compressor, byte[] bytes, int length) {
+            this.compressor = compressor;
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        /**
+         * @return a new copy of the value
+         */
+        V get() {
+            return compressor.decompress(this);
+        }
+
+        /**
+         * @return the weight of the compressed value, including the header of its array
+         */
+        long weight() {
+            return SmartCacheSizeEstimator.INSTANCE.shallowSizeOf(bytes);
+        }
+    }
+
+    /**
+     * The {@link Deflater}, {@link Inflater} and buffers of a thread. A buffer that had to grow beyond
+     * {@link #MAX_RETAINED_BUFFER_SIZE} for a large value is not kept.
+     */
+    private static final class ThreadBuffers {
+        private final Deflater deflater = new Deflater();
+        private final Inflater inflater = new Inflater();
+        private ByteBuffer encoded = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private ByteBuffer decompressed = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private byte[] compressed = new byte[INITIAL_BUFFER_SIZE];
+
+        private void retainEncoded(ByteBuffer buffer) {
+            if (buffer.capacity() <= MAX_RETAINED_BUFFER_SIZE)
+                encoded = buffer;
+        }
+
+        private byte[] compressed(int size) {
+            if (compressed.length >= size)
+                return compressed;
+            byte[] buffer = new byte[Math.max(size, compressed.length * 2)];
+            if (buffer.length <= MAX_RETAINED_BUFFER_SIZE)
+                compressed = buffer;
+            return buffer;
+        }
+
+        private ByteBuffer decompressed(int size) {
+            ByteBuffer buffer = decompressed;
+            if (buffer.capacity() < size)
+                buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+            buffer.clear();
+            return buffer;
+        }
+
+        private void retainDecompressed(ByteBuffer buffer) {
+            if (buffer.capacity() <= MAX_RETAINED_BUFFER_SIZE)
+                decompressed = buffer;
+        }
+    }
+}
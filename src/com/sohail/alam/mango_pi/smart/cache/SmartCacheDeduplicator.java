@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import com.sohail.alam.mango_pi.smart.cache.codec.ValueCodec;
+import com.sohail.alam.mango_pi.smart.cache.codec.ValueCodecs;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The store of the values that an {@link AbstractSmartCache} shares between its keys, see
+ * {@link AbstractSmartCache#deduplicate(ValueCodec)}.
+ * <p/>
+ * The values are addressed by the SHA-256 digest of their encoded form, so the keys whose values are
+ * byte-identical share a single copy, held by a reference counted {@link Shared} value. The copy is dropped
+ * from the store when the last key that refers to it is removed, whatever the reason.
+ */
+final class SmartCacheDeduplicator<V> {
+
+    private static final Logger LOGGER = Logger.getLogger(SmartCacheDeduplicator.class.getName());
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+    };
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    };
+    private final ConcurrentHashMap<Digest, Shared<V>> SHARED_VALUES = new ConcurrentHashMap<Digest, Shared<V>>();
+    private final AtomicLong duplicateWeight = new AtomicLong(0);
+    private volatile ValueCodec<V> codec = null;
+
+    /**
+     * @param codec the codec whose encoded form identifies the values, {@code null} to stop sharing the values
+     *              put from now on
+     */
+    void codec(ValueCodec<V> codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * @return {@code true} if the values put from now on are shared
+     */
+    boolean isEnabled() {
+        return codec != null;
+    }
+
+    /**
+     * Computes the address of a value.
+     *
+     * @param value the value
+     *
+     * @return the digest of the encoded value, or {@code null} if the value is not shared
+     */
+    Digest digest(V value) {
+        ValueCodec<V> codec = this.codec;
+        if (codec == null || value == null)
+            return null;
+        ByteBuffer buffer = BUFFERS.get();
+        buffer.clear();
+        try {
+            buffer = ValueCodecs.encode(codec, value, buffer);
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.FINE, "A value of type " + value.getClass().getName()
+                    + " could not be encoded, it is not shared", e);
+            return null;
+        }
+        if (buffer.capacity() <= MAX_RETAINED_BUFFER_SIZE)
+            BUFFERS.set(buffer);
+        MessageDigest digest = DIGESTS.get();
+        digest.update(buffer.array(), buffer.arrayOffset(), buffer.position());
+        return new Digest(digest.digest());
+    }
+
+    /**
+     * Takes a reference to the shared copy of a value, if there is one.
+     *
+     * @param digest the address of the value
+     *
+     * @return the shared value, or {@code null} if none is stored yet
+     */
+    Shared<V> acquire(Digest digest) {
+        while (true) {
+            Shared<V> shared = SHARED_VALUES.get(digest);
+            if (shared == null)
+                return null;
+            if (shared.retain()) {
+                duplicateWeight.addAndGet(shared.weight);
+                return shared;
+            }
+            // Its last reference is being released
+            SHARED_VALUES.remove(digest, shared);
+        }
+    }
+
+    /**
+     * Stores the first copy of a value, or takes a reference to the copy that another thread stored meanwhile.
+     *
+     * @param digest the address of the value
+     * @param stored the value, as held by the entries (possibly compressed)
+     * @param weight the weight of the value
+     *
+     * @return the shared value
+     */
+    Shared<V> add(Digest digest, Object stored, long weight) {
+        Shared<V> created = new Shared<V>(this, digest, stored, weight);
+        while (true) {
+            if (SHARED_VALUES.putIfAbsent(digest, created) == null)
+                return created;
+            Shared<V> shared = acquire(digest);
+            if (shared != null)
+                return shared;
+        }
+    }
+
+    /**
+     * Drops a reference to a shared value, and the value itself if it was the last one.
+     *
+     * @param shared the shared value
+     */
+    private void release(Shared<V> shared) {
+        if (shared.references.decrementAndGet() == 0)
+            SHARED_VALUES.remove(shared.digest, shared);
+        else
+            duplicateWeight.addAndGet(-shared.weight);
+    }
+
+    /**
+     * @return the weight of the references to the shared values beyond the first, which is accounted once per
+     *         key but held only once
+     */
+    long duplicateWeight() {
+        return duplicateWeight.get();
+    }
+
+    /**
+     * @return the number of distinct values shared
+     */
+    int size() {
+        return SHARED_VALUES.size();
+    }
+
+    /**
+     * Drops all the shared values, when the cache is closed.
+     */
+    void clear() {
+        SHARED_VALUES.clear();
+        duplicateWeight.set(0);
+    }
+
+    /**
+     * The SHA-256 digest of an encoded value.
+     */
+    static final class Digest {
+        private final byte[] bytes;
+        private final int hash;
+
+        private Digest(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Digest && Arrays.equals(bytes, ((Digest) other).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A value held by a {@link SmartCacheEntry} of every key that refers to it.
+     */
+    static final class Shared<V> {
+        private final SmartCacheDeduplicator<V> deduplicator;
+        private final Digest digest;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        /**
+         * The value, or the {@link SmartCacheCompressor.Compressed} value.
+         */
+        final Object stored;
+
+        /**
+         * The weight of the value.
+         */
+        final long weight;
+
+        private Shared(SmartCacheDeduplicator<V> deduplicator, Digest digest, Object stored, long weight) {
+            this.deduplicator = deduplicator;
+            this.digest = digest;
+            this.stored = stored;
+            this.weight = weight;
+        }
+
+        private boolean retain() {
+            int count;
+            while ((count = references.get()) > 0) {
+                if (references.compareAndSet(count, count + 1))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Drops the reference of an entry that is removed.
+         */
+        void release() {
+            deduplicator.release(this);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+/**
+ * The holder of a single value in the {@link AbstractSmartCache}, along with the book keeping
+ * that the cache needs for it, such as its expiry deadlines.
+ * <p/>
+ * A new {@link SmartCacheEntry} is created for every {@code put}, so that a background task
+ * that still refers to a replaced entry can tell that it is stale.
+ */
+final class SmartCacheEntry<K, V> {
+
+    /**
+     * The deadline of an entry that never expires.
+     */
+    static final long NEVER = Long.MAX_VALUE;
+
+    final K key;
+
+    /**
+     * The value, the {@link CollectableValue} that holds it if it may be collected by the Garbage Collector,
+     * the {@link SmartCacheCompressor.Compressed} value, or the {@link SmartCacheDeduplicator.Shared} value that
+     * holds either.
+     */
+    private final Object value;
+
+    /**
+     * The nanoseconds it took to load the value, {@code 0} if it was put rather than loaded.
+     */
+    final long loadTime;
+
+    /**
+     * The weight of the value when it was put, see {@link AbstractSmartCache#weightOf(Object)}.
+     */
+    final long weight;
+
+    /**
+     * The tags of this entry, set before the entry is put into the map, {@code null} if it has none.
+     */
+    String[] tags;
+
+    /**
+     * The version of this entry, set before the entry is put into the map: that of the entry it replaced plus one,
+     * see {@link AbstractSmartCache#nextVersion(SmartCacheEntry)}. {@code 0} for the markers of the absent Keys.
+     */
+    long version;
+
+    /**
+     * The {@link System#nanoTime()} after which this entry expires since it was put, {@link #NEVER} if it does not.
+     */
+    volatile long deadline = NEVER;
+
+    /**
+     * The {@link System#nanoTime()} after which this entry is stale, {@link #NEVER} if it does not go stale
+     * before it expires.
+     */
+    volatile long softDeadline = NEVER;
+
+    /**
+     * The {@link System#nanoTime()} after which this entry expires since it was last read,
+     * {@link #NEVER} if it does not.
+     */
+    volatile long accessDeadline = NEVER;
+
+    /**
+     * Whether the Auto Cleaner of this entry has been stopped, see {@link AbstractSmartCache#stopAutoCleaner(Object,
+     * boolean)}: the readers then leave its deadlines alone until it is restarted. Like the deadlines that move
+     * after the entry was put, it is written under the monitor of the entry.
+     */
+    volatile boolean cleanerStopped;
+
+    /**
+     * The node of this entry in the {@link SmartCacheExpiryQueue}, {@code null} if it is not scheduled.
+     */
+    volatile SmartCacheExpiryQueue.Node<K, V> node;
+
+    SmartCacheEntry(K key, V value, long loadTime, long weight) {
+        this.key = key;
+        this.value = value;
+        this.loadTime = loadTime;
+        this.weight = weight;
+    }
+
+    SmartCacheEntry(K key, SmartCacheCompressor.Compressed<V> value, long loadTime) {
+        this.key = key;
+        this.value = value;
+        this.loadTime = loadTime;
+        this.weight = value.weight();
+    }
+
+    SmartCacheEntry(K key, SmartCacheDeduplicator.Shared<V> value, long loadTime) {
+        this.key = key;
+        this.value = value;
+        this.loadTime = loadTime;
+        this.weight = value.weight;
+    }
+
+    SmartCacheEntry(K key, V value, long loadTime, long weight, SmartCacheValueReference reference,
+                    ReferenceQueue<? super V> queue) {
+        this.key = key;
+        this.loadTime = loadTime;
+        this.weight = weight;
+        switch (reference) {
+            case SOFT:
+                this.value = new SoftValue<K, V>(value, queue, this);
+                break;
+            case WEAK:
+                this.value = new WeakValue<K, V>(value, queue, this);
+                break;
+            default:
+                this.value = value;
+        }
+    }
+
+    /**
+     * Get the value of this entry. A compressed value is decompressed, into a new copy, on every call.
+     *
+     * @return the value, {@code null} if it has been collected by the Garbage Collector
+     */
+    @SuppressWarnings("unchecked")
+    V value() {
+        Object value = this.value;
+        if (value instanceof CollectableValue)
+            return ((CollectableValue<K, V>) value).get();
+        if (value instanceof SmartCacheDeduplicator.Shared)
+            value = ((SmartCacheDeduplicator.Shared<V>) value).stored;
+        if (value instanceof SmartCacheCompressor.Compressed)
+            return ((SmartCacheCompressor.Compressed<V>) value).get();
+        return (V) value;
+    }
+
+    /**
+     * Checks whether this entry holds a value, without decompressing it.
+     *
+     * @return {@code false} if the value is {@code null}, or has been collected by the Garbage Collector
+     */
+    @SuppressWarnings("unchecked")
+    boolean hasValue() {
+        Object value = this.value;
+        if (value instanceof CollectableValue)
+            return ((CollectableValue<K, V>) value).get() != null;
+        return value != null;
+    }
+
+    /**
+     * Checks whether the value of this entry is held compressed, and decompressed into a new copy on every read.
+     *
+     * @return {@code true} if the value is compressed
+     */
+    @SuppressWarnings("unchecked")
+    boolean isCompressed() {
+        Object value = this.value;
+        if (value instanceof SmartCacheDeduplicator.Shared)
+            value = ((SmartCacheDeduplicator.Shared<V>) value).stored;
+        return value instanceof SmartCacheCompressor.Compressed;
+    }
+
+    /**
+     * Get the reference that holds the value of this entry, if it may be collected by the Garbage Collector.
+     *
+     * @return the reference, {@code null} if the value is held strongly
+     */
+    @SuppressWarnings("unchecked")
+    CollectableValue<K, V> reference() {
+        Object value = this.value;
+        return value instanceof CollectableValue ? (CollectableValue<K, V>) value : null;
+    }
+
+    /**
+     * Get the shared value that this entry refers to.
+     *
+     * @return the shared value, {@code null} if the value of this entry is its own
+     */
+    @SuppressWarnings("unchecked")
+    SmartCacheDeduplicator.Shared<V> shared() {
+        Object value = this.value;
+        return value instanceof SmartCacheDeduplicator.Shared ? (SmartCacheDeduplicator.Shared<V>) value : null;
+    }
+
+    /**
+     * Get the earliest of the two deadlines.
+     *
+     * @return the {@link System#nanoTime()} at which this entry expires, {@link #NEVER} if it does not
+     */
+    long expiresAt() {
+        long put = deadline;
+        long access = accessDeadline;
+        if (put == NEVER)
+            return access;
+        if (access == NEVER)
+            return put;
+        return put - access < 0 ? put : access;
+    }
+
+    /**
+     * Checks whether this entry has outlived one of its deadlines.
+     *
+     * @param now the current {@link System#nanoTime()}
+     *
+     * @return {@code true} if the entry has expired
+     */
+    boolean isExpired(long now) {
+        long expiresAt = expiresAt();
+        return expiresAt != NEVER && expiresAt - now <= 0;
+    }
+
+    /**
+     * Checks whether this entry has outlived its soft deadline, and is only kept to be served while it is reloaded.
+     *
+     * @param now the current {@link System#nanoTime()}
+     *
+     * @return {@code true} if the entry is stale
+     */
+    boolean isStale(long now) {
+        long soft = softDeadline;
+        return soft != NEVER && soft - now <= 0;
+    }
+
+    /**
+     * A value that may be collected by the Garbage Collector. Once it is collected, the reference is queued
+     * and leads the cache back to the entry to remove, along with what must be known of the value that is gone.
+     */
+    interface CollectableValue<K, V> {
+
+        /**
+         * @return the value, {@code null} if it has been collected
+         */
+        V get();
+
+        /**
+         * @return the entry that holds this value
+         */
+        SmartCacheEntry<K, V> entry();
+
+        /**
+         * @return the {@link System#currentTimeMillis()} at which the value was put
+         */
+        long created();
+    }
+
+    private static final class SoftValue<K, V> extends SoftReference<V> implements CollectableValue<K, V> {
+        private final SmartCacheEntry<K, V> entry;
+        private final long created = System.currentTimeMillis();
+
+        SoftValue(V value, ReferenceQueue<? super V> queue, SmartCacheEntry<K, V> entry) {
+            super(value, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public SmartCacheEntry<K, V> entry() {
+            return entry;
+        }
+
+        @Override
+        public long created() {
+            return created;
+        }
+    }
+
+    private static final class WeakValue<K, V> extends WeakReference<V> implements CollectableValue<K, V> {
+        private final SmartCacheEntry<K, V> entry;
+        private final long created = System.currentTimeMillis();
+
+        WeakValue(V value, ReferenceQueue<? super V> queue, SmartCacheEntry<K, V> entry) {
+            super(value, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public SmartCacheEntry<K, V> entry() {
+            return entry;
+        }
+
+        @Override
+        public long created() {
+            return created;
+        }
+    }
+}
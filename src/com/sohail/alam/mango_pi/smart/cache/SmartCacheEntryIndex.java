@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An inverted index from the attributes of the entries of an {@link AbstractSmartCache}, such as their tags or their
+ * values, to the entries that have them, see {@link AbstractSmartCache#invalidateTag(String, String)} and
+ * {@link AbstractSmartCache#indexValues(SmartCacheValueIndex)}.
+ * <p/>
+ * The index holds the entries rather than their keys: an entry is added before it is put into the map and
+ * removed along with it, so a replaced entry that is still in the index can never be mistaken for the one that
+ * replaced it. The set of an attribute is dropped once it is empty; an entry that was added to a set that was
+ * dropped meanwhile is added again to the new set of the attribute.
+ */
+final class SmartCacheEntryIndex<T, K, V> {
+
+    /**
+     * The estimated bytes taken by an attribute of the index: its node in the index and the set of its entries.
+     */
+    static final long BYTES_PER_ATTRIBUTE = 192;
+
+    /**
+     * The estimated bytes taken by an entry in the set of an attribute.
+     */
+    static final long BYTES_PER_ENTRY = 40;
+
+    private final ConcurrentHashMap<T, Set<SmartCacheEntry<K, V>>> INDEXED_ENTRIES =
+            new ConcurrentHashMap<T, Set<SmartCacheEntry<K, V>>>();
+    private final AtomicLong entries = new AtomicLong(0);
+
+    /**
+     * Adds an entry to the set of an attribute.
+     *
+     * @param attribute the attribute
+     * @param entry     the entry
+     */
+    void add(T attribute, SmartCacheEntry<K, V> entry) {
+        Set<SmartCacheEntry<K, V>> entries;
+        boolean added = false;
+        do {
+            entries = INDEXED_ENTRIES.get(attribute);
+            if (entries == null) {
+                Set<SmartCacheEntry<K, V>> created =
+                        Collections.newSetFromMap(new ConcurrentHashMap<SmartCacheEntry<K, V>, Boolean>(4));
+                entries = INDEXED_ENTRIES.putIfAbsent(attribute, created);
+                if (entries == null)
+                    entries = created;
+            }
+            added |= entries.add(entry);
+        } while (INDEXED_ENTRIES.get(attribute) != entries);
+        if (added)
+            this.entries.incrementAndGet();
+    }
+
+    /**
+     * Removes an entry from the set of an attribute, and drops the set if it is left empty.
+     *
+     * @param attribute the attribute
+     * @param entry     the entry
+     */
+    void remove(T attribute, SmartCacheEntry<K, V> entry) {
+        Set<SmartCacheEntry<K, V>> entries = INDEXED_ENTRIES.get(attribute);
+        if (entries != null && entries.remove(entry)) {
+            this.entries.decrementAndGet();
+            if (entries.isEmpty())
+                INDEXED_ENTRIES.remove(attribute, entries);
+        }
+    }
+
+    /**
+     * @param attribute the attribute
+     *
+     * @return a snapshot of the entries that have the attribute, some of which may have been removed from the map
+     *         but not yet from the index
+     */
+    List<SmartCacheEntry<K, V>> entries(T attribute) {
+        Set<SmartCacheEntry<K, V>> entries = INDEXED_ENTRIES.get(attribute);
+        return entries == null ? Collections.<SmartCacheEntry<K, V>>emptyList() : new ArrayList<SmartCacheEntry<K, V>>(entries);
+    }
+
+    /**
+     * @return the number of attributes that at least one entry has
+     */
+    int size() {
+        return INDEXED_ENTRIES.size();
+    }
+
+    /**
+     * @return the number of entries in the index, counted once per attribute they have
+     */
+    long entries() {
+        return entries.get();
+    }
+
+    /**
+     * Forgets all the entries, once they have all been removed from the map.
+     */
+    void clear() {
+        INDEXED_ENTRIES.clear();
+        entries.set(0);
+    }
+
+    /**
+     * An attribute that matches the same instance only, whatever its {@link Object#equals(Object)}.
+     */
+    static final class Identity {
+
+        /**
+         * The estimated bytes taken by an {@link Identity}.
+         */
+        static final long BYTES = 24;
+
+        private final Object object;
+        private final int hash;
+
+        Identity(Object object) {
+            this.object = object;
+            this.hash = System.identityHashCode(object);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identity && ((Identity) o).object == object;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
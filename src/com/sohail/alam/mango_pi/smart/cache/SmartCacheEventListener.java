@@ -69,8 +69,8 @@ public interface SmartCacheEventListener<K, V> {
 
     /**
      * Event for On Cache Purge.
-     * Whenever the entire Cache gets purged (deleted for backup purpose),
-     * this event gets fired, with an Set containing the entire cache data.
+     * Whenever the Cache gets purged (deleted for backup purpose),
+     * this event gets fired for every chunk of the purged data, one chunk at a time.
      *
      * @param cacheList the cache list
      */
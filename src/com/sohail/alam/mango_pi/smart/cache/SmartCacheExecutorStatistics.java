@@ -0,0 +1,187 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This {@link SmartCacheExecutorStatistics} class holds the running counters of one of the
+ * executors or work queues that do the background work of the Smart Cache, such as the Auto Cleaner,
+ * the purge and listener work of a cache, and the History purger.
+ * <p/>
+ * It records how long the tasks waited before they started (for the scheduled executors, how late
+ * they started compared to their due time), how long they ran, and how many were rejected.
+ * The queue depth and the number of active threads are read from the executor itself.
+ */
+public class SmartCacheExecutorStatistics {
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejectedTasks = new AtomicLong(0);
+    private final AtomicLong completedTasks = new AtomicLong(0);
+    private final AtomicLong totalWaitTime = new AtomicLong(0);
+    private final AtomicLong maxWaitTime = new AtomicLong(0);
+    private final AtomicLong totalRunTime = new AtomicLong(0);
+    private final AtomicLong maxRunTime = new AtomicLong(0);
+
+    SmartCacheExecutorStatistics(String name, ThreadPoolExecutor executor) {
+        this.name = name;
+        this.executor = executor;
+    }
+
+    /**
+     * Instantiates the statistics of a queue that is not backed by its own {@link ThreadPoolExecutor}.
+     * Such a subclass must override {@link #queueDepth()} and {@link #activeThreads()}.
+     *
+     * @param name the name of the queue
+     */
+    SmartCacheExecutorStatistics(String name) {
+        this(name, null);
+    }
+
+    private static void max(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value))
+                break;
+        }
+    }
+
+    void recordWait(long waitNanos) {
+        long wait = Math.max(0, waitNanos);
+        totalWaitTime.addAndGet(wait);
+        max(maxWaitTime, wait);
+    }
+
+    void recordRun(long runNanos) {
+        completedTasks.incrementAndGet();
+        totalRunTime.addAndGet(runNanos);
+        max(maxRunTime, runNanos);
+    }
+
+    void recordRejection() {
+        rejectedTasks.incrementAndGet();
+    }
+
+    /**
+     * Get the name of the executor, such as {@code expiry}, {@code purge} or {@code history}.
+     *
+     * @return the name of the executor
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Get the number of tasks currently waiting in the queue of the executor.
+     *
+     * @return the queue depth
+     */
+    public int queueDepth() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * Get the number of threads that are currently running a task.
+     *
+     * @return the number of active threads
+     */
+    public int activeThreads() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    /**
+     * Get the number of tasks that have finished running.
+     *
+     * @return the number of completed tasks
+     */
+    public long completedTasks() {
+        return completedTasks.get();
+    }
+
+    /**
+     * Get the number of tasks that the executor refused to accept.
+     *
+     * @return the number of rejected tasks
+     */
+    public long rejectedTasks() {
+        return rejectedTasks.get();
+    }
+
+    /**
+     * Get the total time the completed tasks waited before they started.
+     *
+     * @return the wait time in nanoseconds
+     */
+    public long totalWaitTime() {
+        return totalWaitTime.get();
+    }
+
+    /**
+     * Get the longest time a task waited before it started.
+     *
+     * @return the wait time in nanoseconds
+     */
+    public long maxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * Get the total time the completed tasks ran.
+     *
+     * @return the run time in nanoseconds
+     */
+    public long totalRunTime() {
+        return totalRunTime.get();
+    }
+
+    /**
+     * Get the longest time a task ran.
+     *
+     * @return the run time in nanoseconds
+     */
+    public long maxRunTime() {
+        return maxRunTime.get();
+    }
+
+    /**
+     * Resets the counters back to zero. The queue depth and the active threads are not affected.
+     */
+    public void reset() {
+        rejectedTasks.set(0);
+        completedTasks.set(0);
+        totalWaitTime.set(0);
+        maxWaitTime.set(0);
+        totalRunTime.set(0);
+        maxRunTime.set(0);
+    }
+
+    @Override
+    public String toString() {
+        long completed = completedTasks.get();
+        return String.format("%-10s", name)
+                + String.format("%-10s", queueDepth())
+                + String.format("%-10s", activeThreads())
+                + String.format("%-12s", completed)
+                + String.format("%-12s", rejectedTasks.get())
+                + String.format("%-16s", completed == 0 ? 0 : totalWaitTime.get() / completed / 1000)
+                + String.format("%-16s", maxWaitTime.get() / 1000)
+                + String.format("%-16s", completed == 0 ? 0 : totalRunTime.get() / completed / 1000)
+                + String.format("%-16s", maxRunTime.get() / 1000);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The deadlines of the entries of a single {@link AbstractSmartCache}, in the order in which they expire.
+ * <p/>
+ * This replaces a {@link java.util.concurrent.ScheduledFuture} per entry: the deadlines are kept in a
+ * lock free skip list and the expired entries are polled from its head by the periodic expiry task of the
+ * cache, which runs on the scheduler shared by all the caches (see {@link SmartCacheRuntime}).
+ */
+final class SmartCacheExpiryQueue<K, V> {
+
+    private final ConcurrentSkipListSet<Node<K, V>> queue = new ConcurrentSkipListSet<Node<K, V>>();
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicInteger overdue = new AtomicInteger(0);
+    private volatile long dueUntil = System.nanoTime();
+
+    /**
+     * Schedules the entry to be looked at, at the given time, replacing its previous schedule (if any).
+     * The entry is only removed if one of its deadlines has passed by then.
+     *
+     * @param entry the entry
+     * @param time  the {@link System#nanoTime()} at which the entry should be looked at
+     */
+    void schedule(SmartCacheEntry<K, V> entry, long time) {
+        synchronized (entry) {
+            unlink(entry);
+            Node<K, V> node = new Node<K, V>(time, sequence.incrementAndGet(), entry);
+            entry.node = node;
+            queue.add(node);
+            size.incrementAndGet();
+            if (time - dueUntil <= 0) {
+                node.overdue = true;
+                overdue.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the entry from the queue.
+     *
+     * @param entry the entry
+     *
+     * @return {@code true} if the entry was scheduled
+     */
+    boolean cancel(SmartCacheEntry<K, V> entry) {
+        synchronized (entry) {
+            return unlink(entry);
+        }
+    }
+
+    /**
+     * Checks whether the entry is waiting in the queue.
+     *
+     * @param entry the entry
+     *
+     * @return {@code true} if the entry is scheduled to expire
+     */
+    boolean isScheduled(SmartCacheEntry<K, V> entry) {
+        return entry.node != null;
+    }
+
+    /**
+     * Removes and returns the entry at the head of the queue, if it is due.
+     * The caller must still check that the entry has not been replaced in the cache in the meantime.
+     *
+     * @param now the current {@link System#nanoTime()}
+     *
+     * @return the expired entry, or {@code null} if no entry is due
+     */
+    SmartCacheEntry<K, V> poll(long now) {
+        while (true) {
+            Node<K, V> head;
+            try {
+                head = queue.first();
+            } catch (java.util.NoSuchElementException e) {
+                return null;
+            }
+            if (head.time - now > 0)
+                return null;
+            SmartCacheEntry<K, V> entry = head.entry;
+            synchronized (entry) {
+                if (queue.remove(head)) {
+                    size.decrementAndGet();
+                    if (head.overdue)
+                        overdue.decrementAndGet();
+                    if (entry.node == head)
+                        entry.node = null;
+                    return entry;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of entries waiting in the queue.
+     *
+     * @return the number of scheduled entries
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Counts the entries whose time has come by the given time as overdue, until they are polled or cancelled.
+     * Only the entries that have come due since the previous call are walked, so that over time every entry is
+     * walked at most once; the entries scheduled for a time that has already come are counted as they are added.
+     * Invoked by the expiry task, before it polls the queue.
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    void advance(long now) {
+        long from = dueUntil;
+        if (now - from <= 0)
+            return;
+        dueUntil = now;
+        for (Node<K, V> node : queue.subSet(new Node<K, V>(from, Long.MAX_VALUE, null), false,
+                new Node<K, V>(now, Long.MAX_VALUE, null), true)) {
+            synchronized (node.entry) {
+                if (node.entry.node == node && !node.overdue) {
+                    node.overdue = true;
+                    overdue.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of entries that were overdue when the expiry task last looked, see {@link #advance(long)},
+     * and have not been polled since. This is a counter, so it costs nothing to read.
+     *
+     * @return the number of overdue entries
+     */
+    int overdue() {
+        return Math.max(0, overdue.get());
+    }
+
+    /**
+     * Removes all the entries from the queue.
+     */
+    void clear() {
+        queue.clear();
+        size.set(0);
+        overdue.set(0);
+    }
+
+    private boolean unlink(SmartCacheEntry<K, V> entry) {
+        Node<K, V> node = entry.node;
+        if (node == null)
+            return false;
+        entry.node = null;
+        if (queue.remove(node)) {
+            size.decrementAndGet();
+            if (node.overdue)
+                overdue.decrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * The position of an entry in the queue, ordered by deadline and then by insertion order.
+     */
+    static final class Node<K, V> implements Comparable<Node<K, V>> {
+
+        final long time;
+        final long sequence;
+        final SmartCacheEntry<K, V> entry;
+
+        /**
+         * Whether this node is counted as overdue, written under the monitor of its entry.
+         */
+        boolean overdue;
+
+        Node(long time, long sequence, SmartCacheEntry<K, V> entry) {
+            this.time = time;
+            this.sequence = sequence;
+            this.entry = entry;
+        }
+
+        @Override
+        public int compareTo(Node<K, V> other) {
+            long difference = time - other.time;
+            if (difference != 0)
+                return difference < 0 ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+/**
+ * This {@link SmartCacheFlightRecorder} is the hook through which the Smart Cache reports its
+ * operations to the JDK Flight Recorder.
+ * <p/>
+ * Every operation is reported as a pair of calls: a {@code begin} call which returns a token
+ * (or {@code null} if the corresponding event is disabled) and an {@code end} call which
+ * receives this token along with the details of the operation.
+ * <p/>
+ * This base class records nothing. When the running JDK ships the Flight Recorder API,
+ * {@link #INSTANCE} is replaced by an implementation that emits the events of the
+ * {@code com.sohail.alam.mango_pi.smart.cache.jfr} package, so the rest of the Smart Cache
+ * never depends upon the {@code jdk.jfr} module. Set the system property
+ * {@code mango_pi.smart_cache.jfr} to {@code false} to turn the events off altogether.
+ */
+public class SmartCacheFlightRecorder {
+
+    /**
+     * The recorder used by all the Smart Cache Instances.
+     */
+    public static final SmartCacheFlightRecorder INSTANCE = create();
+
+    /**
+     * Instantiates a new {@link SmartCacheFlightRecorder} that records nothing.
+     */
+    protected SmartCacheFlightRecorder() {
+    }
+
+    private static SmartCacheFlightRecorder create() {
+        if (!Boolean.parseBoolean(System.getProperty("mango_pi.smart_cache.jfr", "true")))
+            return new SmartCacheFlightRecorder();
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return (SmartCacheFlightRecorder) Class.forName(
+                    "com.sohail.alam.mango_pi.smart.cache.jfr.JfrSmartCacheFlightRecorder")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // The Flight Recorder is not available in this JDK
+            return new SmartCacheFlightRecorder();
+        }
+    }
+
+    /**
+     * Computes the hash that is recorded in place of the key.
+     *
+     * @param key the key
+     *
+     * @return the hash of the key, {@code 0} for {@code null}
+     */
+    protected static int keyHash(Object key) {
+        return key == null ? 0 : key.hashCode();
+    }
+
+    /**
+     * Begin a {@link SmartCache#get(Object)} call.
+     *
+     * @return the token to pass to {@link #endGet(Object, String, Object, long, boolean)}, or {@code null}
+     */
+    public Object beginGet() {
+        return null;
+    }
+
+    /**
+     * End a {@link SmartCache#get(Object)} call.
+     *
+     * @param token     the token returned by {@link #beginGet()}
+     * @param cacheName the name of the cache
+     * @param key       the key that was looked up
+     * @param weight    the weight of the value found, {@code 0} if none
+     * @param hit       whether a value was found
+     */
+    public void endGet(Object token, String cacheName, Object key, long weight, boolean hit) {
+    }
+
+    /**
+     * Begin a {@link SmartCache#put(Object, Object, int, java.util.concurrent.TimeUnit)} call.
+     *
+     * @return the token to pass to {@link #endPut(Object, String, Object, long)}, or {@code null}
+     */
+    public Object beginPut() {
+        return null;
+    }
+
+    /**
+     * End a {@link SmartCache#put(Object, Object, int, java.util.concurrent.TimeUnit)} call.
+     *
+     * @param token     the token returned by {@link #beginPut()}
+     * @param cacheName the name of the cache
+     * @param key       the key that was stored
+     * @param weight    the weight of the value stored
+     */
+    public void endPut(Object token, String cacheName, Object key, long weight) {
+    }
+
+    /**
+     * Begin a batch of expired entries being removed.
+     *
+     * @return the token to pass to {@link #endExpiry(Object, String, Object, int, long)}, or {@code null}
+     */
+    public Object beginExpiry() {
+        return null;
+    }
+
+    /**
+     * End a batch of expired entries being removed.
+     *
+     * @param token     the token returned by {@link #beginExpiry()}
+     * @param cacheName the name of the cache
+     * @param key       the key of the expired entry, or {@code null} for a batch of several keys
+     * @param count     the number of entries removed
+     * @param weight    the total weight of the entries removed
+     */
+    public void endExpiry(Object token, String cacheName, Object key, int count, long weight) {
+    }
+
+    /**
+     * Begin a purge run.
+     *
+     * @return the token to pass to {@link #endPurge(Object, String, int, long)}, or {@code null}
+     */
+    public Object beginPurge() {
+        return null;
+    }
+
+    /**
+     * End a purge run.
+     *
+     * @param token     the token returned by {@link #beginPurge()}
+     * @param cacheName the name of the cache
+     * @param count     the number of entries purged
+     * @param weight    the total weight of the entries purged
+     */
+    public void endPurge(Object token, String cacheName, int count, long weight) {
+    }
+
+    /**
+     * Begin flushing the Smart Cache History into a file.
+     *
+     * @return the token to pass to {@link #endHistoryFlush(Object, String, int, long)}, or {@code null}
+     */
+    public Object beginHistoryFlush() {
+        return null;
+    }
+
+    /**
+     * End flushing the Smart Cache History into a file.
+     *
+     * @param token    the token returned by {@link #beginHistoryFlush()}
+     * @param filePath the file the History was written to
+     * @param count    the number of History entries written
+     * @param weight   the number of bytes written
+     */
+    public void endHistoryFlush(Object token, String filePath, int count, long weight) {
+    }
+
+    /**
+     * Begin a callback of the {@link SmartCacheEventListener}.
+     *
+     * @return the token to pass to {@link #endListener(Object, String, String, Object, long)}, or {@code null}
+     */
+    public Object beginListener() {
+        return null;
+    }
+
+    /**
+     * End a callback of the {@link SmartCacheEventListener}.
+     *
+     * @param token     the token returned by {@link #beginListener()}
+     * @param cacheName the name of the cache
+     * @param callback  the name of the listener method that was called
+     * @param key       the key of the entry, or {@code null} for callbacks about several entries
+     * @param weight    the weight of the entries passed to the callback
+     */
+    public void endListener(Object token, String cacheName, String callback, Object key, long weight) {
+    }
+}
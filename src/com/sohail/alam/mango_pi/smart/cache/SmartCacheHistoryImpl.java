@@ -4,8 +4,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * User: Sohail Alam
@@ -15,20 +20,25 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 class SmartCacheHistoryImpl<K, V extends SmartCachePojo> implements SmartCacheHistory<K, V> {
 
+    private static final Logger LOGGER = Logger.getLogger(SmartCacheHistoryImpl.class.getName());
     protected static final SmartCacheHistory SMART_CACHE_HISTORY = new SmartCacheHistoryImpl();
-    private final ConcurrentHashMap<K, SmartCacheHistoryPojo> HISTORY;
-    private final ExecutorService HISTORY_PURGER;
+    private final ConcurrentHashMap<K, SmartCacheHistoryPojo<K, V>> HISTORY;
+    private final SmartCacheWorkQueue HISTORY_PURGER;
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
     private AtomicLong maxHistoryCount;
     private String filePath;
 
     private SmartCacheHistoryImpl() {
-        HISTORY = new ConcurrentHashMap<K, SmartCacheHistoryPojo>();
-        HISTORY_PURGER = Executors.newSingleThreadExecutor();
+        HISTORY = new ConcurrentHashMap<K, SmartCacheHistoryPojo<K, V>>();
+        HISTORY_PURGER = SmartCacheRuntime.runtime().newWorkQueue("history");
         maxHistoryCount = new AtomicLong(1000);
     }
 
     /**
      * Add to history.
+     * <p/>
+     * Once the History holds the maximum number of entries, it is flushed into the file in the background
+     * and the flushed entries are dropped from the History.
      *
      * @param reason the reason
      * @param key    the key
@@ -36,14 +46,53 @@ class SmartCacheHistoryImpl<K, V extends SmartCachePojo> implements SmartCacheHi
      */
     @Override
     public void addToHistory(String reason, K key, V value) {
-        if (HISTORY.size() >= maxHistoryCount.get())
+        record(key, new SmartCacheHistoryPojo<K, V>(reason, key, value));
+    }
+
+    /**
+     * Add to history, with the size the value was accounted with by the cache.
+     *
+     * @param reason   the reason
+     * @param key      the key
+     * @param value    the value
+     * @param dataSize the size of the value
+     */
+    void addToHistory(String reason, K key, V value, long dataSize) {
+        record(key, new SmartCacheHistoryPojo<K, V>(reason, key, value, dataSize));
+    }
+
+    /**
+     * Add to history an entry whose value is no longer available, such as one collected by the Garbage Collector.
+     *
+     * @param reason       the reason
+     * @param key          the key
+     * @param creationTime the time at which the entry was created
+     * @param dataSize     the size of the value
+     */
+    void addToHistory(String reason, K key, long creationTime, long dataSize) {
+        record(key, new SmartCacheHistoryPojo<K, V>(creationTime, reason, key, dataSize));
+    }
+
+    private void record(K key, SmartCacheHistoryPojo<K, V> pojo) {
+        HISTORY.put(key, pojo);
+
+        if (HISTORY.size() >= maxHistoryCount.get() && flushing.compareAndSet(false, true)) {
             try {
-                purgeSmartCacheHistory(filePath);
-            } catch (Exception e) {
-                e.printStackTrace();
+                HISTORY_PURGER.execute(new FutureTask<String>(new HistoryPurgerClass(filePath)) {
+                    @Override
+                    protected void done() {
+                        flushing.set(false);
+                        try {
+                            get();
+                        } catch (Exception e) {
+                            LOGGER.log(Level.WARNING, "The Smart Cache History could not be flushed", e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                flushing.set(false);
             }
-
-        HISTORY.put(key, new SmartCacheHistoryPojo<K, V>(reason, key, value));
+        }
     }
 
     /**
@@ -71,7 +120,7 @@ class SmartCacheHistoryImpl<K, V extends SmartCachePojo> implements SmartCacheHi
     @Override
     public String smartCacheKeyHistory(K key) {
         StringBuilder builder = new StringBuilder();
-        SmartCacheHistoryPojo found = HISTORY.get(key);
+        SmartCacheHistoryPojo<K, V> found = HISTORY.get(key);
         builder.append("Smart Cache History: ");
         builder.append(SmartCacheUtils.createLine(175, '-'));
         builder.append(String.format("%-15s", "REASON"));
@@ -104,7 +153,7 @@ class SmartCacheHistoryImpl<K, V extends SmartCachePojo> implements SmartCacheHi
     @Override
     public String smartCacheReasonHistory(String reason) {
         StringBuilder builder = new StringBuilder();
-        SmartCacheHistoryPojo foundPojo = null;
+        SmartCacheHistoryPojo<K, V> foundPojo = null;
         boolean found = false;
 
         builder.append("Smart Cache History: ");
@@ -145,8 +194,12 @@ class SmartCacheHistoryImpl<K, V extends SmartCachePojo> implements SmartCacheHi
      */
     @Override
     public String smartCacheAllHistory() {
+        return smartCacheAllHistory(HISTORY);
+    }
+
+    private String smartCacheAllHistory(Map<K, SmartCacheHistoryPojo<K, V>> history) {
         StringBuilder builder = new StringBuilder();
-        SmartCacheHistoryPojo foundPojo = null;
+        SmartCacheHistoryPojo<K, V> foundPojo = null;
 
         builder.append("Smart Cache History: ");
         builder.append(SmartCacheUtils.createLine(175, '-'));
@@ -158,8 +211,8 @@ class SmartCacheHistoryImpl<K, V extends SmartCachePojo> implements SmartCacheHi
         builder.append(String.format("%-35s", "DELETION TIME"));
         builder.append(SmartCacheUtils.createLine(175, '-'));
 
-        for (K key : HISTORY.keySet()) {
-            foundPojo = HISTORY.get(key);
+        for (K key : history.keySet()) {
+            foundPojo = history.get(key);
             builder.append(String.format("%-15s", foundPojo.DELETE_REASON));
             builder.append(String.format("%-50s", foundPojo.KEY));
             builder.append(String.format("%-20s", foundPojo.DATA_SIZE));
@@ -187,6 +240,8 @@ class SmartCacheHistoryImpl<K, V extends SmartCachePojo> implements SmartCacheHi
      * Purges the contents of History into a user defined file.
      * By default the SmartCache will dump the data into a file named -
      * SmartCacheHistory_(current-date/time).txt
+     * <p/>
+     * The purged entries are dropped from the History, and appended to the file if it already exists.
      *
      * @param filePath the absolute file path for the dump file.
      */
@@ -194,7 +249,39 @@ class SmartCacheHistoryImpl<K, V extends SmartCachePojo> implements SmartCacheHi
     public String purgeSmartCacheHistory(String filePath) throws Exception {
         this.filePath = filePath;
 
-        return HISTORY_PURGER.submit(new HistoryPurgerClass(filePath)).get();
+        FutureTask<String> purger = new FutureTask<String>(new HistoryPurgerClass(filePath));
+        HISTORY_PURGER.execute(purger);
+        return purger.get();
+    }
+
+    /**
+     * Get the statistics of the executor that flushes the History into files.
+     *
+     * @return the executor statistics
+     */
+    SmartCacheExecutorStatistics executorStatistics() {
+        return HISTORY_PURGER.statistics();
+    }
+
+    /**
+     * Waits until the History flushes queued so far have completed.
+     *
+     * @param deadline the {@link System#nanoTime()} after which to stop waiting
+     *
+     * @return {@code true} if the flushes have completed, {@code false} if the deadline passed first
+     */
+    boolean awaitIdle(long deadline) {
+        return HISTORY_PURGER.awaitIdle(deadline);
+    }
+
+    /**
+     * Flushes whatever is left in the History into the file, if anything.
+     *
+     * @throws Exception if the History could not be written
+     */
+    void flush() throws Exception {
+        if (!HISTORY.isEmpty())
+            purgeSmartCacheHistory(filePath);
     }
 
     /**
@@ -260,10 +347,21 @@ class SmartCacheHistoryImpl<K, V extends SmartCachePojo> implements SmartCacheHi
          */
         @Override
         public String call() throws Exception {
-            FileOutputStream fos = new FileOutputStream(file);
-            fos.write(smartCacheAllHistory().getBytes());
-            fos.flush();
-            fos.close();
+            Object event = SmartCacheFlightRecorder.INSTANCE.beginHistoryFlush();
+            Map<K, SmartCacheHistoryPojo<K, V>> flushed = new HashMap<K, SmartCacheHistoryPojo<K, V>>(HISTORY);
+            byte[] history = smartCacheAllHistory(flushed).getBytes();
+            FileOutputStream fos = new FileOutputStream(file, true);
+            try {
+                fos.write(history);
+                fos.flush();
+            } finally {
+                fos.close();
+            }
+            // Only drop the entries that were written, not those added in the meantime
+            for (Map.Entry<K, SmartCacheHistoryPojo<K, V>> entry : flushed.entrySet()) {
+                HISTORY.remove(entry.getKey(), entry.getValue());
+            }
+            SmartCacheFlightRecorder.INSTANCE.endHistoryFlush(event, file.getAbsolutePath(), flushed.size(), history.length);
             return "Smart Cache History was successfully purged into file => " +
                     file.getAbsolutePath();
         }
@@ -61,12 +61,24 @@ class SmartCacheHistoryPojo<K, V extends SmartCachePojo> {
      * @param pojo         the pojo
      */
     public SmartCacheHistoryPojo(String deleteReason, K key, V pojo) {
+        this(deleteReason, key, pojo, pojo.size());
+    }
+
+    /**
+     * Instantiates a new Smart cache history pojo.
+     *
+     * @param deleteReason the delete reason
+     * @param key          the key
+     * @param pojo         the pojo
+     * @param dataSize     the size of the pojo
+     */
+    public SmartCacheHistoryPojo(String deleteReason, K key, V pojo, long dataSize) {
         this.CREATION_TIME = (new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")).format(new Date(pojo.getCREATION_TIME()));
         this.DELETE_REASON = deleteReason;
         this.DELETION_TIME = (new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")).format(new Date(System.currentTimeMillis()));
         this.KEY = key;
         this.SMART_CACHE_DATA_NAME = pojo.SMART_CACHE_DATA_NAME;
-        this.DATA_SIZE = pojo.size();
+        this.DATA_SIZE = dataSize;
     }
 
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The index of the keys of an {@link AbstractSmartCache} by their string form, sorted so that the keys which
+ * share a prefix are next to each other, see {@link AbstractSmartCache#indexKeys(boolean)}.
+ * <p/>
+ * A prefix is found in {@code O(log n)} and its keys are then walked in order, so counting, listing or removing
+ * the keys of a prefix costs the number of keys that match rather than the size of the cache, and the string
+ * form of the keys is computed once, when they are added, instead of on every lookup.
+ * The keys whose string forms are equal share a single {@link Collision}.
+ */
+final class SmartCacheKeyIndex<K> {
+
+    private final ConcurrentSkipListMap<String, Object> KEYS_BY_NAME = new ConcurrentSkipListMap<String, Object>();
+
+    /**
+     * Adds a key, unless it is already in the index.
+     *
+     * @param key the key
+     */
+    void add(K key) {
+        String name = String.valueOf(key);
+        while (true) {
+            Object current = KEYS_BY_NAME.putIfAbsent(name, key);
+            if (current == null || current.equals(key))
+                return;
+            Object next;
+            if (current instanceof Collision) {
+                if (((Collision) current).contains(key))
+                    return;
+                next = ((Collision) current).with(key);
+            } else {
+                next = new Collision(new Object[]{current, key});
+            }
+            if (KEYS_BY_NAME.replace(name, current, next))
+                return;
+        }
+    }
+
+    /**
+     * Removes a key, if it is in the index.
+     *
+     * @param key the key
+     */
+    void remove(K key) {
+        String name = String.valueOf(key);
+        while (true) {
+            Object current = KEYS_BY_NAME.get(name);
+            if (current == null)
+                return;
+            if (current instanceof Collision) {
+                Collision collision = (Collision) current;
+                if (!collision.contains(key))
+                    return;
+                if (KEYS_BY_NAME.replace(name, current, collision.without(key)))
+                    return;
+            } else if (!current.equals(key) || KEYS_BY_NAME.remove(name, current)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param prefix the prefix of the string form of the keys
+     *
+     * @return the number of keys that start with the prefix
+     */
+    int count(String prefix) {
+        int count = 0;
+        for (Map.Entry<String, Object> entry : KEYS_BY_NAME.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix))
+                break;
+            Object keys = entry.getValue();
+            count += keys instanceof Collision ? ((Collision) keys).keys.length : 1;
+        }
+        return count;
+    }
+
+    /**
+     * @param part a part of the string form of the keys
+     *
+     * @return the number of keys that contain the part, found with a walk of the whole index
+     */
+    int countContaining(String part) {
+        int count = 0;
+        for (Map.Entry<String, Object> entry : KEYS_BY_NAME.entrySet()) {
+            if (entry.getKey().contains(part)) {
+                Object keys = entry.getValue();
+                count += keys instanceof Collision ? ((Collision) keys).keys.length : 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param prefix the prefix of the string form of the keys
+     * @param after  the string form of the last key returned by the previous call, {@code null} to start from the
+     *               first key of the prefix
+     * @param max    the maximum number of keys to return
+     *
+     * @return the next keys that start with the prefix, in the order of their string forms
+     */
+    @SuppressWarnings("unchecked")
+    List<K> keys(String prefix, String after, int max) {
+        List<K> keys = new ArrayList<K>(Math.min(max, 256));
+        Map<String, Object> tail = after == null ? KEYS_BY_NAME.tailMap(prefix) : KEYS_BY_NAME.tailMap(after, false);
+        for (Map.Entry<String, Object> entry : tail.entrySet()) {
+            if (keys.size() >= max || !entry.getKey().startsWith(prefix))
+                break;
+            Object value = entry.getValue();
+            if (value instanceof Collision) {
+                for (Object key : ((Collision) value).keys)
+                    keys.add((K) key);
+            } else {
+                keys.add((K) value);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the number of distinct string forms in the index
+     */
+    int size() {
+        return KEYS_BY_NAME.size();
+    }
+
+    /**
+     * Forgets all the keys, once they have all been removed from the map.
+     */
+    void clear() {
+        KEYS_BY_NAME.clear();
+    }
+
+    /**
+     * The keys whose string forms are equal, as an immutable array which is replaced on every change.
+     */
+    private static final class Collision {
+        private final Object[] keys;
+
+        Collision(Object[] keys) {
+            this.keys = keys;
+        }
+
+        boolean contains(Object key) {
+            for (Object k : keys) {
+                if (k.equals(key))
+                    return true;
+            }
+            return false;
+        }
+
+        Collision with(Object key) {
+            Object[] next = Arrays.copyOf(keys, keys.length + 1);
+            next[keys.length] = key;
+            return new Collision(next);
+        }
+
+        Object without(Object key) {
+            List<Object> next = new ArrayList<Object>(keys.length);
+            for (Object k : keys) {
+                if (!k.equals(key))
+                    next.add(k);
+            }
+            return next.size() == 1 ? next.get(0) : new Collision(next.toArray());
+        }
+    }
+}
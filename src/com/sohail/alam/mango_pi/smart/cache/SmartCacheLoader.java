@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+/**
+ * This {@link SmartCacheLoader} interface computes the Data of a Key that is missing from a {@link SmartCache},
+ * see {@link AbstractSmartCache#get(Object, SmartCacheLoader, int, java.util.concurrent.TimeUnit)}.
+ * <p/>
+ * The loader is invoked on the thread that asked for the Key. Only one thread loads a given Key at a time,
+ * the others wait for its result instead of loading the same Key again.
+ */
+public interface SmartCacheLoader<K, V> {
+
+    /**
+     * Computes the Data of the given Key.
+     *
+     * @param key the Key of type {@link K}
+     *
+     * @return the Data of type {@link V}, or {@code null} if there is none, in which case nothing is cached
+     *         (but the Key may be remembered as absent, see {@link AbstractSmartCache#negativeTtl(long, java.util.concurrent.TimeUnit)})
+     *
+     * @throws Exception if the Data could not be computed
+     */
+    public V load(K key) throws Exception;
+}
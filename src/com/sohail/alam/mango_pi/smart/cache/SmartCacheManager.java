@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.sohail.alam.mango_pi.smart.cache.SmartCacheHistoryImpl.SMART_CACHE_HISTORY;
+
+/**
+ * Creates, looks up and closes the Smart Cache Instances of the application by their name.
+ * <p/>
+ * Every Smart Cache Instance takes its unique name when it is created, whether it is created through this
+ * class or not, and releases its name when it is closed. It is looked up and listed here once it has started,
+ * which it does when its first entry is stored, see {@link AbstractSmartCache#start()}. So a cache can be
+ * replaced at runtime by closing it and creating a new one with the same name:
+ * <pre>
+ * SmartCacheManager.close("users");
+ * DefaultSmartCache&lt;String, User&gt; users = SmartCacheManager.create("users", true);
+ * </pre>
+ * Creating a cache with the name of a cache that is still open fails with a {@link SmartCacheException},
+ * even when both are created concurrently.
+ */
+public final class SmartCacheManager {
+
+    private static final Logger LOGGER = Logger.getLogger(SmartCacheManager.class.getName());
+
+    /**
+     * Private Constructor
+     */
+    private SmartCacheManager() {
+    }
+
+    /**
+     * Creates a new {@link DefaultSmartCache}.
+     *
+     * @param cacheName     the unique name of the cache
+     * @param activateMBean whether to activate the Smart Cache MBean
+     *
+     * @return the new cache
+     *
+     * @throws SmartCacheException if the name is already used by an open cache, or the MBean could not be started
+     */
+    public static <K, V extends SmartCachePojo<?>> DefaultSmartCache<K, V> create(String cacheName, boolean activateMBean)
+            throws SmartCacheException {
+        return new DefaultSmartCache<K, V>(cacheName, activateMBean);
+    }
+
+    /**
+     * Creates a new {@link DefaultSmartCache} whose values may be collected by the Garbage Collector,
+     * see {@link SmartCacheValueReference}.
+     *
+     * @param cacheName      the unique name of the cache
+     * @param activateMBean  whether to activate the Smart Cache MBean
+     * @param valueReference how strongly the cache holds on to its values
+     *
+     * @return the new cache
+     *
+     * @throws SmartCacheException if the name is already used by an open cache, or the MBean could not be started
+     */
+    public static <K, V extends SmartCachePojo<?>> DefaultSmartCache<K, V> create(String cacheName, boolean activateMBean,
+                                                                             SmartCacheValueReference valueReference)
+            throws SmartCacheException {
+        return new DefaultSmartCache<K, V>(cacheName, activateMBean, valueReference);
+    }
+
+    /**
+     * Get the open Smart Cache Instance with the given name.
+     *
+     * @param cacheName the name of the cache
+     *
+     * @return the cache, {@code null} if there is none
+     */
+    public static AbstractSmartCache<?, ?> lookup(String cacheName) {
+        return AbstractSmartCache.registeredCache(cacheName);
+    }
+
+    /**
+     * Get the open Smart Cache Instance with the given name.
+     *
+     * @param cacheName the name of the cache
+     * @param type      the expected type of the cache
+     *
+     * @return the cache, {@code null} if there is none
+     *
+     * @throws ClassCastException if the cache is not of the expected type
+     */
+    public static <C extends AbstractSmartCache<?, ?>> C lookup(String cacheName, Class<C> type) {
+        return type.cast(AbstractSmartCache.registeredCache(cacheName));
+    }
+
+    /**
+     * Get the names of all the open Smart Cache Instances.
+     *
+     * @return a snapshot of the names
+     */
+    public static List<String> cacheNames() {
+        List<String> names = new ArrayList<String>();
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            names.add(cache.cacheName());
+        }
+        return names;
+    }
+
+    /**
+     * Closes the Smart Cache Instance with the given name, see {@link AbstractSmartCache#close(long, TimeUnit)}.
+     *
+     * @param cacheName the name of the cache
+     * @param timeout   the maximum time to wait for the pending work of the cache
+     * @param timeUnit  the time unit of the timeout
+     *
+     * @return {@code true} if the cache was closed and its pending work completed in time,
+     *         {@code false} otherwise or if there was no such cache
+     */
+    public static boolean close(String cacheName, long timeout, TimeUnit timeUnit) {
+        AbstractSmartCache<?, ?> cache = AbstractSmartCache.namedCache(cacheName);
+        return cache != null && cache.close(timeout, timeUnit);
+    }
+
+    /**
+     * Closes the Smart Cache Instance with the given name, waiting up to 30 seconds for its pending work.
+     *
+     * @param cacheName the name of the cache
+     *
+     * @return {@code true} if the cache was closed and its pending work completed in time,
+     *         {@code false} otherwise or if there was no such cache
+     */
+    public static boolean close(String cacheName) {
+        return close(cacheName, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Closes all the open Smart Cache Instances.
+     *
+     * @param timeout  the maximum time to wait for the pending work of all the caches
+     * @param timeUnit the time unit of the timeout
+     *
+     * @return {@code true} if the pending work of every cache completed in time, {@code false} otherwise
+     */
+    public static boolean closeAll(long timeout, TimeUnit timeUnit) {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        boolean drained = true;
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.namedCaches()) {
+            drained &= cache.close(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        return drained;
+    }
+
+    /**
+     * Closes all the open Smart Cache Instances, writes what is left of the Smart Cache History into its file,
+     * and stops the threads shared by the caches (see {@link SmartCacheRuntime}).
+     * <p/>
+     * The Smart Cache can not be used anymore afterwards; this is meant for the applications that are
+     * undeployed from a container which outlives them.
+     *
+     * @param timeout  the maximum time to wait for the pending work
+     * @param timeUnit the time unit of the timeout
+     *
+     * @return {@code true} if all the pending work completed and the threads terminated in time, {@code false} otherwise
+     */
+    public static boolean shutdown(long timeout, TimeUnit timeUnit) {
+        long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+        boolean drained = closeAll(timeout, timeUnit);
+        try {
+            ((SmartCacheHistoryImpl) SMART_CACHE_HISTORY).flush();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "The Smart Cache History could not be flushed", e);
+            drained = false;
+        }
+        return SmartCacheRuntime.runtime().shutdown(deadline) && drained;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+/**
+ * This {@link SmartCacheMerger} interface combines the current Data of a Key with a new Data, see
+ * {@link AbstractSmartCache#merge(Object, Object, SmartCacheMerger, int, java.util.concurrent.TimeUnit)}.
+ * <p/>
+ * Like a {@link SmartCacheRemapper}, the merger may be invoked more than once for a single update, so it must
+ * not have side effects and must not access the cache itself.
+ */
+public interface SmartCacheMerger<V> {
+
+    /**
+     * Combines the current Data of a Key with the given Data.
+     *
+     * @param current the current Data of type {@link V}, never {@code null}
+     * @param data    the Data of type {@link V} that was given to merge
+     *
+     * @return the combined Data of type {@link V}, or {@code null} to remove the Key
+     */
+    public V merge(V current, V data);
+}
@@ -28,6 +28,12 @@ package com.sohail.alam.mango_pi.smart.cache;
  * Any Class that extends this {@link SmartCachePojo} class, automatically gets a value for {@link SmartCachePojo#CREATION_TIME},
  * when instantiated. This value is then taken as the creation time for the Cache Data.
  * </p>
+ * <p>
+ * {@link SmartCachePojo#size()} used to be abstract. It now has a default, which estimates the size of the Data
+ * from its object graph with the {@link SmartCacheSizeEstimator}, so a new Data Structure does not have to
+ * implement it. A Data Structure that overrides it keeps its own size in the {@link DefaultSmartCache}, unless the
+ * cache is told to estimate every size, see {@link DefaultSmartCache#sizeEstimation(boolean)}.
+ * </p>
  * User: Sohail Alam
  * Version: 1.1.6
  * Date: 9/6/13
@@ -73,12 +79,16 @@ public abstract class SmartCachePojo<K> {
     }
 
     /**
-     * This abstract method MUST be defined in your implementation, and
-     * it SHOULD return the total numberOfEntries of the data entry that is stored in the Cache.
+     * The total size of the data entry that is stored in the Cache, in bytes.
+     * By default it is estimated from the object graph of the data by the {@link SmartCacheSizeEstimator}.
+     * You may override this method with the exact size, which the {@link DefaultSmartCache} then uses as it is,
+     * unless its size estimation is turned on, see {@link DefaultSmartCache#sizeEstimation(boolean)}.
      *
-     * @return the total numberOfEntries of the data stored
+     * @return the total size of the data stored
      */
-    public abstract long size();
+    public long size() {
+        return SmartCacheSizeEstimator.INSTANCE.sizeOf(this);
+    }
 
     /**
      * Gets key for this Cache entry.
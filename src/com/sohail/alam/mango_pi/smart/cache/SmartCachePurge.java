@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A purge under way, see {@link AbstractSmartCache#purge(java.util.Collection, int)}: its progress, and the means to
+ * wait for it or to cancel it.
+ */
+public final class SmartCachePurge {
+
+    private final long total;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong purged = new AtomicLong();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+
+    SmartCachePurge(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Stops the purge: no further chunk is started, while the chunks under way are still removed and given to
+     * the listener, so every entry removed is reported.
+     *
+     * @return {@code false} if the purge had already ended
+     */
+    public boolean cancel() {
+        if (isDone())
+            return false;
+        cancelled = true;
+        return true;
+    }
+
+    /**
+     * Checks whether the purge was cancelled before it got through all the Keys.
+     *
+     * @return {@code true} if the purge was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Checks whether the purge has ended, because it got through all the Keys, was cancelled or failed.
+     *
+     * @return {@code true} if the purge has ended
+     */
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Get the number of Keys to purge, as they were counted when the purge started.
+     *
+     * @return the number of Keys
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Get the number of Keys that the purge got through so far.
+     *
+     * @return the number of Keys
+     */
+    public long processed() {
+        return processed.get();
+    }
+
+    /**
+     * Get the number of entries removed so far, which leaves out the Keys that were not in the cache.
+     *
+     * @return the number of entries
+     */
+    public long purged() {
+        return purged.get();
+    }
+
+    /**
+     * Get the share of the Keys that the purge got through so far.
+     *
+     * @return the progress, from {@code 0} to {@code 1}
+     */
+    public double progress() {
+        if (isDone() && !cancelled && failure == null)
+            return 1;
+        return total == 0 ? 0 : Math.min(1, (double) processed.get() / total);
+    }
+
+    /**
+     * Waits for the purge to end.
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting, the purge carries on
+     * @throws ExecutionException   if the purge failed, such as when the listener threw an exception
+     */
+    public void await() throws InterruptedException, ExecutionException {
+        done.await();
+        checkFailure();
+    }
+
+    /**
+     * Waits for the purge to end, for at most the given time.
+     *
+     * @param timeout  the time to wait
+     * @param timeUnit the {@link TimeUnit} of the timeout
+     *
+     * @return {@code true} if the purge has ended, {@code false} if the time ran out
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting, the purge carries on
+     * @throws ExecutionException   if the purge failed, such as when the listener threw an exception
+     */
+    public boolean await(long timeout, TimeUnit timeUnit) throws InterruptedException, ExecutionException {
+        if (!done.await(timeout, timeUnit))
+            return false;
+        checkFailure();
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SmartCachePurge{" + processed.get() + "/" + total + " keys, " + purged.get() + " purged"
+                + (failure != null ? ", failed" : cancelled ? ", cancelled" : isDone() ? ", done" : "") + "}";
+    }
+
+    /**
+     * @return {@code true} if no further chunk must be started
+     */
+    boolean isStopped() {
+        return cancelled || failure != null;
+    }
+
+    void chunk(int keys, int entries) {
+        processed.addAndGet(keys);
+        purged.addAndGet(entries);
+    }
+
+    void fail(Throwable cause) {
+        if (failure == null)
+            failure = cause;
+    }
+
+    void finish() {
+        done.countDown();
+    }
+
+    private void checkFailure() throws ExecutionException {
+        Throwable cause = failure;
+        if (cause != null)
+            throw new ExecutionException(cause);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+/**
+ * This {@link SmartCacheReducer} interface folds the entries of a {@link SmartCache} into a single result, see
+ * {@link AbstractSmartCache#reduce(long, SmartCacheReducer)}: every entry is transformed into a result, and the results
+ * are combined pairwise, in no particular order.
+ * <p/>
+ * The reducer is invoked from several threads at once, so it must be thread safe, and {@link #reduce(Object, Object)}
+ * must be associative.
+ */
+public interface SmartCacheReducer<K, V, R> {
+
+    /**
+     * Transforms an entry into a result.
+     *
+     * @param key  the Key of type {@link K}
+     * @param data the Data of type {@link V}
+     *
+     * @return the result of the entry, or {@code null} to leave it out
+     */
+    public R transform(K key, V data);
+
+    /**
+     * Combines two results.
+     *
+     * @param left  a result, never {@code null}
+     * @param right another result, never {@code null}
+     *
+     * @return the combined result
+     */
+    public R reduce(R left, R right);
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+/**
+ * This {@link SmartCacheRemapper} interface computes the new Data of a Key from its current Data, see
+ * {@link AbstractSmartCache#compute(Object, SmartCacheRemapper, int, java.util.concurrent.TimeUnit)}.
+ * <p/>
+ * The remapper is invoked on the thread that updates the Key, without any lock held. If another thread
+ * changes the Key meanwhile, the update is retried and the remapper invoked again with the new current Data,
+ * so it must not have side effects and must not access the cache itself.
+ */
+public interface SmartCacheRemapper<K, V> {
+
+    /**
+     * Computes the new Data of the given Key.
+     *
+     * @param key  the Key of type {@link K}
+     * @param data the current Data of type {@link V}, {@code null} if the Key is absent
+     *
+     * @return the new Data of type {@link V}, or {@code null} to remove the Key
+     */
+    public V remap(K key, V data);
+}
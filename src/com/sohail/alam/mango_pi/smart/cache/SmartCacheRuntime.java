@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads that do the background work of all the Smart Cache Instances of the application.
+ * <p/>
+ * Instead of every cache starting its own executors, all the caches share:
+ * <ul>
+ * <li>one scheduler, which runs the periodic expiry task of every cache (and the Auto Cleaner of the
+ * {@link DeprecatedSmartCache}), and</li>
+ * <li>one pool of workers, which runs the listener callbacks and the History flushes.
+ * Every cache gets its own lane in this pool (a {@link SmartCacheWorkQueue}), which keeps its tasks in
+ * order and makes sure a busy cache can not starve the others, and</li>
+ * <li>one pool of loaders, which reloads the stale entries in the background. The loaders block on the
+ * system of record, so they get threads of their own, apart from the callbacks. Every cache gets a lane in
+ * this pool too, which holds at most {@code mango_pi.smart_cache.reloads_per_cache} reloads (64 by default):
+ * beyond that a stale entry is not reloaded yet, and keeps being served, and</li>
+ * <li>one fork/join pool, which runs the parallel bulk operations such as
+ * {@link AbstractSmartCache#parallelForEach(long, SmartCacheVisitor)}, and the chunks of the purges.</li>
+ * </ul>
+ * So the number of threads does not grow with the number of caches. The pools are sized from the
+ * number of processors and can be overridden with the system properties
+ * {@code mango_pi.smart_cache.scheduler_threads}, {@code mango_pi.smart_cache.worker_threads},
+ * {@code mango_pi.smart_cache.loader_threads} and {@code mango_pi.smart_cache.parallelism}.
+ * A lane holds at most {@code mango_pi.smart_cache.lane_capacity} tasks (65536 by default), after which the
+ * threads that submit to it wait for room, see {@link SmartCacheWorkQueue}.
+ * The resolution of the expiry, in milliseconds, is set with {@code mango_pi.smart_cache.expiry_tick}
+ * (10 by default).
+ */
+public final class SmartCacheRuntime {
+
+    private static final SmartCacheRuntime RUNTIME = new SmartCacheRuntime();
+    private final InstrumentedScheduledThreadPoolExecutor SCHEDULER;
+    private final InstrumentedThreadPoolExecutor WORKERS;
+    private final InstrumentedThreadPoolExecutor LOADERS;
+    private final ForkJoinPool PARALLEL;
+    private final long expiryTick;
+    private final int laneCapacity;
+    private final int reloadsPerCache;
+
+    private SmartCacheRuntime() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        SCHEDULER = new InstrumentedScheduledThreadPoolExecutor("scheduler", "scheduler",
+                Integer.getInteger("mango_pi.smart_cache.scheduler_threads", Math.max(1, Math.min(4, processors / 4))));
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+        WORKERS = new InstrumentedThreadPoolExecutor("workers", "worker",
+                Integer.getInteger("mango_pi.smart_cache.worker_threads", Math.max(2, Math.min(8, processors))));
+        WORKERS.setKeepAliveTime(60, TimeUnit.SECONDS);
+        WORKERS.allowCoreThreadTimeOut(true);
+        LOADERS = new InstrumentedThreadPoolExecutor("loaders", "loader",
+                Integer.getInteger("mango_pi.smart_cache.loader_threads", Math.max(2, Math.min(8, processors))));
+        LOADERS.setKeepAliveTime(60, TimeUnit.SECONDS);
+        LOADERS.allowCoreThreadTimeOut(true);
+        PARALLEL = new ForkJoinPool(Integer.getInteger("mango_pi.smart_cache.parallelism", processors),
+                new SmartCacheThreadFactory("parallel"), null, false);
+        expiryTick = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong("mango_pi.smart_cache.expiry_tick", 10)));
+        laneCapacity = Math.max(1, Integer.getInteger("mango_pi.smart_cache.lane_capacity", 65536));
+        reloadsPerCache = Math.max(1, Integer.getInteger("mango_pi.smart_cache.reloads_per_cache", 64));
+    }
+
+    /**
+     * Get the runtime shared by all the Smart Cache Instances
+     *
+     * @return the Smart Cache runtime
+     */
+    public static SmartCacheRuntime runtime() {
+        return RUNTIME;
+    }
+
+    /**
+     * Get the interval at which the caches look for expired entries, which is the resolution of the TTL.
+     *
+     * @param timeUnit the time unit of the returned interval
+     *
+     * @return the expiry tick
+     */
+    public long expiryTick(TimeUnit timeUnit) {
+        return timeUnit.convert(expiryTick, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the statistics of the shared scheduler.
+     *
+     * @return the scheduler statistics
+     */
+    public SmartCacheExecutorStatistics schedulerStatistics() {
+        return SCHEDULER.statistics();
+    }
+
+    /**
+     * Get the statistics of the shared worker pool. The statistics of the individual lanes are
+     * reported by every cache.
+     *
+     * @return the worker pool statistics
+     */
+    public SmartCacheExecutorStatistics workerStatistics() {
+        return WORKERS.statistics();
+    }
+
+    /**
+     * Get the statistics of the shared loader pool.
+     *
+     * @return the loader pool statistics
+     */
+    public SmartCacheExecutorStatistics loaderStatistics() {
+        return LOADERS.statistics();
+    }
+
+    /**
+     * Schedules the expiry task of a cache to run every expiry tick.
+     *
+     * @param task the expiry task
+     *
+     * @return the future to cancel when the cache is closed
+     */
+    ScheduledFuture<?> scheduleExpiry(Runnable task) {
+        return SCHEDULER.scheduleWithFixedDelay(task, expiryTick, expiryTick, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Schedules a periodic task on the shared scheduler.
+     *
+     * @param task         the task
+     * @param initialDelay the delay before the first run
+     * @param period       the period between the runs
+     * @param timeUnit     the time unit of the delay and the period
+     *
+     * @return the future to cancel the task
+     */
+    ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit timeUnit) {
+        return SCHEDULER.scheduleAtFixedRate(task, initialDelay, period, timeUnit);
+    }
+
+    /**
+     * Checks whether the shared threads have been stopped, see {@link #shutdown(long)}.
+     *
+     * @return {@code true} if shut down
+     */
+    boolean isShutdown() {
+        return SCHEDULER.isShutdown();
+    }
+
+    /**
+     * Stops the shared scheduler, worker pool and loader pool, after the queued work has run.
+     * The Smart Cache can not be used anymore afterwards; this is meant for the applications that are
+     * undeployed from a container which outlives them. See {@link SmartCacheManager#shutdown(long, TimeUnit)}.
+     *
+     * @param deadline the {@link System#nanoTime()} after which to stop waiting for the queued work
+     *
+     * @return {@code true} if all the threads have terminated, {@code false} if the deadline passed first
+     */
+    boolean shutdown(long deadline) {
+        SCHEDULER.shutdownNow();
+        WORKERS.shutdown();
+        LOADERS.shutdown();
+        PARALLEL.shutdown();
+        try {
+            return WORKERS.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                    && LOADERS.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                    && SCHEDULER.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                    && PARALLEL.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Get the fork/join pool that runs the parallel bulk operations of all the caches.
+     *
+     * @return the fork/join pool
+     */
+    ForkJoinPool parallel() {
+        return PARALLEL;
+    }
+
+    /**
+     * Creates a new lane in the shared worker pool.
+     *
+     * @param name the name of the lane, used for the statistics
+     *
+     * @return the lane
+     */
+    SmartCacheWorkQueue newWorkQueue(String name) {
+        return new SmartCacheWorkQueue(name, WORKERS, laneCapacity);
+    }
+
+    /**
+     * Creates a new lane in the shared loader pool, which holds at most
+     * {@code mango_pi.smart_cache.reloads_per_cache} reloads.
+     *
+     * @return the lane
+     */
+    SmartCacheWorkQueue newLoaderQueue() {
+        return new SmartCacheWorkQueue("loader", LOADERS, reloadsPerCache);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.Map;
+
+/**
+ * A page of the entries of a {@link SmartCache}, along with the cursor from which the scan carries on, see
+ * {@link AbstractSmartCache#scan(String, int, SmartCacheFilter)}.
+ */
+public final class SmartCacheScan<K, V> {
+
+    private final Map<K, V> entries;
+    private final String cursor;
+
+    SmartCacheScan(Map<K, V> entries, String cursor) {
+        this.entries = entries;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Get the entries of this page that the filter accepted, in the order of the string form of their Keys.
+     *
+     * @return the Data of type {@link V} by Key of type {@link K}
+     */
+    public Map<K, V> entries() {
+        return entries;
+    }
+
+    /**
+     * Get the cursor to pass to the next call, to get the next page.
+     *
+     * @return the cursor, {@code null} if the scan is complete
+     */
+    public String cursor() {
+        return cursor;
+    }
+
+    /**
+     * Checks whether this page is the last one.
+     *
+     * @return {@code true} if the scan is complete
+     */
+    public boolean isComplete() {
+        return cursor == null;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+/**
+ * This {@link SmartCacheSearcher} interface looks for a result in the entries of a {@link SmartCache}, see
+ * {@link AbstractSmartCache#search(long, SmartCacheSearcher)}.
+ * <p/>
+ * The searcher is invoked from several threads at once, so it must be thread safe.
+ */
+public interface SmartCacheSearcher<K, V, R> {
+
+    /**
+     * Looks for a result in an entry.
+     *
+     * @param key  the Key of type {@link K}
+     * @param data the Data of type {@link V}
+     *
+     * @return the result, which ends the search, or {@code null} to carry on
+     */
+    public R search(K key, V data);
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This {@link SmartCacheSizeEstimator} estimates how much memory a value takes, so that the users of a
+ * {@link SmartCache} do not have to write {@link SmartCachePojo#size()} by hand.
+ * <p/>
+ * The deep size of a value is the sum of the shallow sizes of all the objects it refers to, directly or not.
+ * The shallow size of an object is computed from the fields of its class, as the HotSpot JVM lays them out
+ * (object header, 4 or 8 bytes per reference depending on whether the heap is small enough for compressed
+ * references, fields padded to 8 bytes), and cached per class. The objects that are shared by the whole
+ * application, such as the classes, the enum constants and the threads, are not counted.
+ * <p/>
+ * The strings, the collections and the maps are measured through their public API rather than their private
+ * fields, and the other JDK classes are counted shallow. The elements of the arrays and collections that are larger than {@link #SAMPLE_SIZE} are sampled, and
+ * the size of the sample scaled up, so that the cost of an estimate does not grow with the size of the value.
+ * <p/>
+ * All the sizes are estimates, in bytes.
+ */
+public final class SmartCacheSizeEstimator {
+
+    /**
+     * The estimator used by all the Smart Cache Instances.
+     */
+    public static final SmartCacheSizeEstimator INSTANCE = new SmartCacheSizeEstimator();
+
+    /**
+     * The number of elements measured in a larger array or collection.
+     */
+    public static final int SAMPLE_SIZE = 64;
+
+    /**
+     * The maximum number of objects visited by a single estimate, beyond which the rest of the value is not counted.
+     */
+    public static final int MAX_OBJECTS = 100000;
+
+    private static final long COMPRESSED_OOPS_MAX_HEAP = 32L * 1024 * 1024 * 1024;
+    private static final Field[] NO_FIELDS = new Field[0];
+
+    private final ConcurrentHashMap<Class<?>, ClassLayout> LAYOUTS = new ConcurrentHashMap<Class<?>, ClassLayout>();
+    private final int referenceSize;
+    private final int objectHeader;
+    private final int arrayHeader;
+    private final boolean compactStrings;
+
+    /**
+     * Private Constructor
+     */
+    private SmartCacheSizeEstimator() {
+        boolean is64Bit = !"32".equals(System.getProperty("sun.arch.data.model"));
+        boolean compressed = is64Bit && Runtime.getRuntime().maxMemory() < COMPRESSED_OOPS_MAX_HEAP;
+        referenceSize = compressed || !is64Bit ? 4 : 8;
+        objectHeader = !is64Bit ? 8 : compressed ? 12 : 16;
+        arrayHeader = (int) align(objectHeader + 4);
+        boolean coder = false;
+        try {
+            String.class.getDeclaredField("coder");
+            coder = true;
+        } catch (NoSuchFieldException e) {
+            // Before Java 9 the strings are arrays of chars
+        }
+        compactStrings = coder;
+    }
+
+    /**
+     * Estimates the deep size of the given object: its own size and the size of all the objects it refers to.
+     *
+     * @param object the object
+     *
+     * @return the size in bytes, {@code 0} for {@code null}
+     */
+    public long sizeOf(Object object) {
+        if (object == null)
+            return 0;
+        Walk walk = new Walk();
+        walk.push(object, 1);
+        double size = 0;
+        try {
+            while (!walk.isEmpty() && walk.visited.size() < MAX_OBJECTS) {
+                double factor = walk.factor();
+                Object current = walk.pop();
+                size += factor * visit(current, factor, walk);
+            }
+        } catch (RuntimeException e) {
+            // The value changed while it was measured, keep what was measured so far
+        }
+        return Math.round(size);
+    }
+
+    /**
+     * Estimates the shallow size of the given object: its header and its fields, but not the objects
+     * that its fields refer to.
+     *
+     * @param object the object
+     *
+     * @return the size in bytes, {@code 0} for {@code null}
+     */
+    public long shallowSizeOf(Object object) {
+        if (object == null)
+            return 0;
+        Class<?> type = object.getClass();
+        if (type.isArray())
+            return arraySize(type.getComponentType(), Array.getLength(object));
+        return layout(type).shallowSize;
+    }
+
+    /**
+     * Measures an object and queues the objects it refers to.
+     *
+     * @return the size of the object itself, along with the internals of the JDK types that are not walked
+     */
+    private long visit(Object object, double factor, Walk walk) {
+        Class<?> type = object.getClass();
+        if (type.isArray()) {
+            Class<?> component = type.getComponentType();
+            int length = Array.getLength(object);
+            if (!component.isPrimitive())
+                walk.pushSample((Object[]) object, length, factor);
+            return arraySize(component, length);
+        }
+        if (isShared(object))
+            return 0;
+        long size = layout(type).shallowSize;
+        if (object instanceof String)
+            return size + stringValueSize((String) object);
+        if (isJdkType(type) || object instanceof Collection || object instanceof Map) {
+            if (object instanceof Collection) {
+                Collection<?> collection = (Collection<?>) object;
+                int elements = collection.size();
+                size += arraySize(Object.class, elements);
+                if (!(object instanceof RandomAccess))
+                    size += elements * align(objectHeader + 3 * referenceSize);
+                walk.pushSample(collection, elements, factor);
+            } else if (object instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) object;
+                int entries = map.size();
+                size += arraySize(Object.class, tableSize(entries));
+                size += entries * align(objectHeader + 4 + 3 * referenceSize);
+                walk.pushSample(map.keySet(), entries, factor);
+                walk.pushSample(map.values(), entries, factor);
+            }
+            return size;
+        }
+        for (Field field : layout(type).references) {
+            try {
+                walk.push(field.get(object), factor);
+            } catch (IllegalAccessException e) {
+                // Not accessible, not counted
+            }
+        }
+        return size;
+    }
+
+    private long arraySize(Class<?> component, int length) {
+        return align(arrayHeader + (long) length * (component.isPrimitive() ? primitiveSize(component) : referenceSize));
+    }
+
+    private long stringValueSize(String string) {
+        int length = string.length();
+        if (!compactStrings)
+            return arraySize(char.class, length);
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) > 0xFF)
+                return arraySize(byte.class, 2 * length);
+        }
+        return arraySize(byte.class, length);
+    }
+
+    private static int tableSize(int entries) {
+        int table = 16;
+        while (table * 3 / 4 < entries && table < (1 << 30))
+            table <<= 1;
+        return table;
+    }
+
+    private static boolean isShared(Object object) {
+        return object instanceof Class || object instanceof Enum || object instanceof ClassLoader
+                || object instanceof Thread;
+    }
+
+    private static boolean isJdkType(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+                || name.startsWith("sun.") || name.startsWith("com.sun.");
+    }
+
+    private static long primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class)
+            return 8;
+        if (type == int.class || type == float.class)
+            return 4;
+        if (type == short.class || type == char.class)
+            return 2;
+        return 1;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Get the layout of the given class, computed once per class.
+     */
+    private ClassLayout layout(Class<?> type) {
+        ClassLayout layout = LAYOUTS.get(type);
+        if (layout == null) {
+            layout = new ClassLayout(type);
+            ClassLayout existing = LAYOUTS.putIfAbsent(type, layout);
+            if (existing != null)
+                layout = existing;
+        }
+        return layout;
+    }
+
+    /**
+     * The shallow size of the instances of a class, and the fields through which they refer to other objects.
+     * The reference fields of the JDK classes are not read: these classes are either measured through their
+     * public API, or counted shallow.
+     */
+    private final class ClassLayout {
+        private final long shallowSize;
+        private final Field[] references;
+
+        private ClassLayout(Class<?> type) {
+            List<Field> fields = new ArrayList<Field>();
+            long size = objectHeader;
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                boolean walked = !isJdkType(current);
+                for (Field field : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()))
+                        continue;
+                    Class<?> fieldType = field.getType();
+                    if (fieldType.isPrimitive()) {
+                        size += primitiveSize(fieldType);
+                        continue;
+                    }
+                    size += referenceSize;
+                    if (walked) {
+                        try {
+                            field.setAccessible(true);
+                            fields.add(field);
+                        } catch (RuntimeException e) {
+                            // Not accessible, not counted
+                        }
+                    }
+                }
+            }
+            this.shallowSize = align(size);
+            this.references = fields.isEmpty() ? NO_FIELDS : fields.toArray(new Field[fields.size()]);
+        }
+    }
+
+    /**
+     * The state of a single estimate: the objects already counted, and those still to visit along with
+     * the factor by which their size is scaled up when they stand for a sample.
+     */
+    private static final class Walk {
+        private final IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+        private Object[] objects = new Object[32];
+        private double[] factors = new double[32];
+        private int top;
+
+        private void push(Object object, double factor) {
+            if (object == null || visited.put(object, Boolean.TRUE) != null)
+                return;
+            if (top == objects.length) {
+                Object[] grownObjects = new Object[top * 2];
+                double[] grownFactors = new double[top * 2];
+                System.arraycopy(objects, 0, grownObjects, 0, top);
+                System.arraycopy(factors, 0, grownFactors, 0, top);
+                objects = grownObjects;
+                factors = grownFactors;
+            }
+            objects[top] = object;
+            factors[top++] = factor;
+        }
+
+        private void pushSample(Object[] array, int length, double factor) {
+            int step = Math.max(1, length / SAMPLE_SIZE);
+            double scaled = factor * step;
+            for (int i = 0; i < length; i += step) {
+                push(array[i], scaled);
+            }
+        }
+
+        private void pushSample(Collection<?> collection, int size, double factor) {
+            int step = Math.max(1, size / SAMPLE_SIZE);
+            double scaled = factor * step;
+            int i = 0;
+            for (Object element : collection) {
+                if (i++ % step == 0)
+                    push(element, scaled);
+            }
+        }
+
+        private boolean isEmpty() {
+            return top == 0;
+        }
+
+        private double factor() {
+            return factors[top - 1];
+        }
+
+        private Object pop() {
+            Object object = objects[--top];
+            objects[top] = null;
+            return object;
+        }
+    }
+}
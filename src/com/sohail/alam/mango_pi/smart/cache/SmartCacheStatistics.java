@@ -0,0 +1,496 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This {@link SmartCacheStatistics} class holds the running counters of a single
+ * {@link SmartCache} instance, such as the number of hits, misses and evictions (by reason)
+ * the lag with which the expired entries were actually removed, the loads done for the missing
+ * and the early refreshed entries, the stale entries served while they were reloaded, the
+ * lookups of the keys found absent, the compression of the large values, and the updates written to
+ * the system of record.
+ * <p/>
+ * All the counters are updated lock free and can be read at any time, for example by the
+ * Smart Cache MBean or the metrics exporter.
+ */
+public class SmartCacheStatistics {
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final ConcurrentHashMap<String, AtomicLong> evictions = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong lastExpiryLag = new AtomicLong(0);
+    private final AtomicLong maxExpiryLag = new AtomicLong(0);
+    private final AtomicLong loads = new AtomicLong(0);
+    private final AtomicLong loadFailures = new AtomicLong(0);
+    private final AtomicLong totalLoadTime = new AtomicLong(0);
+    private final AtomicLong earlyRefreshes = new AtomicLong(0);
+    private final AtomicLong staleServes = new AtomicLong(0);
+    private final AtomicLong negativeHits = new AtomicLong(0);
+    private final AtomicLong negativeMisses = new AtomicLong(0);
+    private final AtomicLong versionConflicts = new AtomicLong(0);
+    private final AtomicLong writes = new AtomicLong(0);
+    private final AtomicLong coalescedWrites = new AtomicLong(0);
+    private final AtomicLong writeFailures = new AtomicLong(0);
+    private final AtomicLong droppedWrites = new AtomicLong(0);
+    private final AtomicLong compressions = new AtomicLong(0);
+    private final AtomicLong compressionSkips = new AtomicLong(0);
+    private final AtomicLong uncompressedBytes = new AtomicLong(0);
+    private final AtomicLong compressedBytes = new AtomicLong(0);
+    private final AtomicLong compressionTime = new AtomicLong(0);
+    private final AtomicLong decompressions = new AtomicLong(0);
+    private final AtomicLong decompressionTime = new AtomicLong(0);
+
+    /**
+     * Record a lookup that found an entry.
+     */
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Record a lookup that did not find any entry.
+     */
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Record the removal of an entry.
+     *
+     * @param reason the reason for which the entry was removed, preferably one of the values in
+     *               {@link SmartCache.SmartCacheDeleteReason}
+     */
+    public void recordEviction(String reason) {
+        String name = (reason == null) ? SmartCache.SmartCacheDeleteReason.UNKNOWN : reason;
+        AtomicLong counter = evictions.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong(0);
+            counter = evictions.putIfAbsent(name, created);
+            if (counter == null)
+                counter = created;
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * Record how late an expired entry was removed, compared to its deadline.
+     *
+     * @param lagNanos the lag in nanoseconds
+     */
+    public void recordExpiryLag(long lagNanos) {
+        long lag = Math.max(0, lagNanos);
+        lastExpiryLag.set(lag);
+        long max;
+        while (lag > (max = maxExpiryLag.get())) {
+            if (maxExpiryLag.compareAndSet(max, lag))
+                break;
+        }
+    }
+
+    /**
+     * Record a successful load of an entry.
+     *
+     * @param loadNanos the time the load took in nanoseconds
+     */
+    public void recordLoad(long loadNanos) {
+        loads.incrementAndGet();
+        totalLoadTime.addAndGet(Math.max(0, loadNanos));
+    }
+
+    /**
+     * Record a load that threw an exception.
+     */
+    public void recordLoadFailure() {
+        loadFailures.incrementAndGet();
+    }
+
+    /**
+     * Record a load started before the entry expired, to refresh it early.
+     */
+    public void recordEarlyRefresh() {
+        earlyRefreshes.incrementAndGet();
+    }
+
+    /**
+     * Record a lookup that was served a stale entry while it is reloaded.
+     */
+    public void recordStaleServe() {
+        staleServes.incrementAndGet();
+    }
+
+    /**
+     * Record a loading lookup answered by the marker of a key found absent earlier.
+     */
+    public void recordNegativeHit() {
+        negativeHits.incrementAndGet();
+    }
+
+    /**
+     * Record a load that found the key absent.
+     */
+    public void recordNegativeMiss() {
+        negativeMisses.incrementAndGet();
+    }
+
+    /**
+     * Record an optimistic update that failed because its Key had changed since it was read.
+     */
+    public void recordVersionConflict() {
+        versionConflicts.incrementAndGet();
+    }
+
+    /**
+     * Record updates written to the system of record by the {@link SmartCacheWriter}.
+     *
+     * @param count the number of updates
+     */
+    public void recordWrites(int count) {
+        writes.addAndGet(count);
+    }
+
+    /**
+     * Record an update that replaced the pending update of the same key, and will not be written on its own.
+     */
+    public void recordCoalescedWrite() {
+        coalescedWrites.incrementAndGet();
+    }
+
+    /**
+     * Record a write (or batch of writes) to the system of record that failed.
+     */
+    public void recordWriteFailure() {
+        writeFailures.incrementAndGet();
+    }
+
+    /**
+     * Record updates that were given up after too many failed attempts to write them.
+     *
+     * @param count the number of updates
+     */
+    public void recordDroppedWrites(int count) {
+        droppedWrites.addAndGet(count);
+    }
+
+    /**
+     * Record a value that was stored compressed.
+     *
+     * @param uncompressed the size of the encoded value in bytes
+     * @param compressed   the size of the compressed value in bytes
+     * @param nanos        the time it took to encode and compress the value in nanoseconds
+     */
+    public void recordCompression(long uncompressed, long compressed, long nanos) {
+        compressions.incrementAndGet();
+        uncompressedBytes.addAndGet(uncompressed);
+        compressedBytes.addAndGet(compressed);
+        compressionTime.addAndGet(Math.max(0, nanos));
+    }
+
+    /**
+     * Record a value that was large enough to be compressed, but was stored as it is since it did not shrink enough.
+     *
+     * @param nanos the time spent encoding and compressing the value in nanoseconds
+     */
+    public void recordCompressionSkip(long nanos) {
+        compressionSkips.incrementAndGet();
+        compressionTime.addAndGet(Math.max(0, nanos));
+    }
+
+    /**
+     * Record a compressed value that was read.
+     *
+     * @param nanos the time it took to decompress and decode the value in nanoseconds
+     */
+    public void recordDecompression(long nanos) {
+        decompressions.incrementAndGet();
+        decompressionTime.addAndGet(Math.max(0, nanos));
+    }
+
+    /**
+     * Get the number of lookups that found an entry.
+     *
+     * @return the hit count
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups that did not find any entry.
+     *
+     * @return the miss count
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of entries removed for the given reason.
+     *
+     * @param reason the reason
+     *
+     * @return the eviction count
+     */
+    public long evictionCount(String reason) {
+        AtomicLong counter = evictions.get(reason);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Get the eviction counters of all the reasons seen so far.
+     *
+     * @return an unmodifiable, live view of the eviction counters keyed by reason
+     */
+    public Map<String, AtomicLong> evictionCounts() {
+        return Collections.unmodifiableMap(evictions);
+    }
+
+    /**
+     * Get the lag of the most recent expiry.
+     *
+     * @return the lag in nanoseconds
+     */
+    public long lastExpiryLag() {
+        return lastExpiryLag.get();
+    }
+
+    /**
+     * Get the largest expiry lag seen since the last {@link #reset()}.
+     *
+     * @return the lag in nanoseconds
+     */
+    public long maxExpiryLag() {
+        return maxExpiryLag.get();
+    }
+
+    /**
+     * Get the number of successful loads.
+     *
+     * @return the load count
+     */
+    public long loadCount() {
+        return loads.get();
+    }
+
+    /**
+     * Get the number of loads that threw an exception.
+     *
+     * @return the load failure count
+     */
+    public long loadFailureCount() {
+        return loadFailures.get();
+    }
+
+    /**
+     * Get the total time spent in the successful loads.
+     *
+     * @return the time in nanoseconds
+     */
+    public long totalLoadTime() {
+        return totalLoadTime.get();
+    }
+
+    /**
+     * Get the number of loads started to refresh an entry before it expired.
+     *
+     * @return the early refresh count
+     */
+    public long earlyRefreshCount() {
+        return earlyRefreshes.get();
+    }
+
+    /**
+     * Get the number of lookups that were served a stale entry.
+     *
+     * @return the stale serve count
+     */
+    public long staleServeCount() {
+        return staleServes.get();
+    }
+
+    /**
+     * Get the number of loading lookups answered by the marker of a key found absent earlier,
+     * which are not counted as hits or misses.
+     *
+     * @return the negative hit count
+     */
+    public long negativeHitCount() {
+        return negativeHits.get();
+    }
+
+    /**
+     * Get the number of loads that found the key absent.
+     *
+     * @return the negative miss count
+     */
+    public long negativeMissCount() {
+        return negativeMisses.get();
+    }
+
+    /**
+     * Get the number of optimistic updates that failed, or were retried, because their Key had changed
+     * since it was read.
+     *
+     * @return the version conflict count
+     */
+    public long versionConflictCount() {
+        return versionConflicts.get();
+    }
+
+    /**
+     * Get the number of updates written to the system of record.
+     *
+     * @return the write count
+     */
+    public long writeCount() {
+        return writes.get();
+    }
+
+    /**
+     * Get the number of updates that were coalesced into a later update of the same key.
+     *
+     * @return the coalesced write count
+     */
+    public long coalescedWriteCount() {
+        return coalescedWrites.get();
+    }
+
+    /**
+     * Get the number of writes (or batches of writes) to the system of record that failed.
+     *
+     * @return the write failure count
+     */
+    public long writeFailureCount() {
+        return writeFailures.get();
+    }
+
+    /**
+     * Get the number of updates given up after too many failed attempts to write them.
+     *
+     * @return the dropped write count
+     */
+    public long droppedWriteCount() {
+        return droppedWrites.get();
+    }
+
+    /**
+     * Get the number of values stored compressed.
+     *
+     * @return the compression count
+     */
+    public long compressionCount() {
+        return compressions.get();
+    }
+
+    /**
+     * Get the number of values stored as they are, although they were large enough to be compressed.
+     *
+     * @return the compression skip count
+     */
+    public long compressionSkipCount() {
+        return compressionSkips.get();
+    }
+
+    /**
+     * Get the total size of the values stored compressed, before they were compressed.
+     *
+     * @return the size in bytes
+     */
+    public long uncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * Get the total size of the values stored compressed.
+     *
+     * @return the size in bytes
+     */
+    public long compressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * Get the compression ratio of the values stored compressed.
+     *
+     * @return the uncompressed size divided by the compressed size, {@code 0} if nothing was compressed
+     */
+    public double compressionRatio() {
+        long compressed = compressedBytes.get();
+        return compressed == 0 ? 0 : (double) uncompressedBytes.get() / compressed;
+    }
+
+    /**
+     * Get the total time spent compressing the values, including those that did not shrink enough.
+     *
+     * @return the time in nanoseconds
+     */
+    public long compressionTime() {
+        return compressionTime.get();
+    }
+
+    /**
+     * Get the number of compressed values that were read.
+     *
+     * @return the decompression count
+     */
+    public long decompressionCount() {
+        return decompressions.get();
+    }
+
+    /**
+     * Get the total time spent decompressing the values that were read.
+     *
+     * @return the time in nanoseconds
+     */
+    public long decompressionTime() {
+        return decompressionTime.get();
+    }
+
+    /**
+     * Resets all the counters back to zero.
+     */
+    public void reset() {
+        hits.set(0);
+        misses.set(0);
+        evictions.clear();
+        lastExpiryLag.set(0);
+        maxExpiryLag.set(0);
+        loads.set(0);
+        loadFailures.set(0);
+        totalLoadTime.set(0);
+        earlyRefreshes.set(0);
+        staleServes.set(0);
+        negativeHits.set(0);
+        negativeMisses.set(0);
+        versionConflicts.set(0);
+        writes.set(0);
+        coalescedWrites.set(0);
+        writeFailures.set(0);
+        droppedWrites.set(0);
+        compressions.set(0);
+        compressionSkips.set(0);
+        uncompressedBytes.set(0);
+        compressedBytes.set(0);
+        compressionTime.set(0);
+        decompressions.set(0);
+        decompressionTime.set(0);
+    }
+}
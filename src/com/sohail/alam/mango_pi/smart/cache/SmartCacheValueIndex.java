@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+/**
+ * How the index of the values of an {@link AbstractSmartCache} matches them, see
+ * {@link AbstractSmartCache#indexValues(SmartCacheValueIndex)}.
+ */
+public enum SmartCacheValueIndex {
+
+    /**
+     * A value matches the same instance only, which suits the values that are shared or mutable.
+     */
+    IDENTITY,
+
+    /**
+     * A value matches the equal values, as per their {@link Object#equals(Object)} and {@link Object#hashCode()},
+     * which must not change while they are in the cache.
+     */
+    EQUALITY
+}
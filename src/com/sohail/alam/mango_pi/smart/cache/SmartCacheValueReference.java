@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+/**
+ * This {@link SmartCacheValueReference} enumeration tells how strongly a {@link SmartCache} holds on to its values,
+ * see {@link AbstractSmartCache#AbstractSmartCache(String, boolean, SmartCacheValueReference)}.
+ * <p/>
+ * A value that is held softly or weakly can be collected by the Garbage Collector, in which case its entry
+ * is removed from the cache and reported with the reason {@link SmartCache.SmartCacheDeleteReason#COLLECTED}.
+ */
+public enum SmartCacheValueReference {
+
+    /**
+     * The values are only removed by the cache itself (the default).
+     */
+    STRONG,
+
+    /**
+     * The values are held by {@link java.lang.ref.SoftReference}s: the Garbage Collector clears them,
+     * in a least recently used order, before it throws an {@link OutOfMemoryError}.
+     */
+    SOFT,
+
+    /**
+     * The values are held by {@link java.lang.ref.WeakReference}s: the Garbage Collector clears them as soon as
+     * nothing outside the cache refers to them.
+     */
+    WEAK
+}
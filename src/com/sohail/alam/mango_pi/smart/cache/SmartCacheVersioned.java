@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+/**
+ * The Data of a Key along with the version of its entry, see {@link AbstractSmartCache#getWithVersion(Object)}.
+ * <p/>
+ * Every put of a Key gives its entry the next version of the Key, so a Key that is put back with the same Data
+ * still gets another version; a Key that was absent starts from a new base, so it does not reuse the versions of
+ * its past entries. The version of an absent Key is {@code 0}.
+ */
+public final class SmartCacheVersioned<V> {
+
+    private final V data;
+    private final long version;
+
+    SmartCacheVersioned(V data, long version) {
+        this.data = data;
+        this.version = version;
+    }
+
+    /**
+     * Get the Data that was read.
+     *
+     * @return the Data of type {@link V}, {@code null} if the Key was absent
+     */
+    public V data() {
+        return data;
+    }
+
+    /**
+     * Get the version of the entry that was read, to pass to
+     * {@link AbstractSmartCache#putIfVersion(Object, Object, long, int, java.util.concurrent.TimeUnit)}.
+     *
+     * @return the version, {@code 0} if the Key was absent
+     */
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return data + " (version " + version + ")";
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The lane of a single Smart Cache in the worker pool shared by all the caches (see {@link SmartCacheRuntime}).
+ * <p/>
+ * The tasks submitted to a lane run one at a time and in the order in which they were submitted, so the
+ * listener callbacks of a cache are never reordered. A lane does not hold on to a worker thread: it runs
+ * at most {@link #QUANTUM} tasks and then goes back at the end of the queue of the worker pool, so a cache
+ * that floods its lane only delays its own tasks and the other caches keep getting their turn.
+ * <p/>
+ * A lane holds a bounded number of tasks. Once it is full, a thread that submits a task waits until the lane
+ * has room, so a slow listener slows down the puts and the removes of its cache rather than letting their
+ * callbacks, and the Keys and Data they hold, pile up without limit. The threads of the worker pool never
+ * wait, since the tasks they run are the ones that make room: a task may always submit to a full lane, which
+ * then holds more tasks than its capacity for a while. Neither does a thread that holds a lock the tasks may
+ * take, such as the lock of a Key that a cache writes through, nor the expiry task of a cache, which runs on
+ * the scheduler shared by all the caches: it stops its tick once the lane of its cache is full instead, see
+ * {@link #isFull()}.
+ */
+final class SmartCacheWorkQueue implements Executor {
+
+    /**
+     * The maximum number of tasks a lane runs before it gives its worker thread back.
+     */
+    static final int QUANTUM = 32;
+    private static final Logger LOGGER = Logger.getLogger(SmartCacheWorkQueue.class.getName());
+    private static final long ROOM_CHECK_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final ThreadLocal<int[]> UNBOUNDED = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+    private final Executor workers;
+    private final Semaphore room;
+    private final ConcurrentLinkedQueue<EnqueuedTask> tasks = new ConcurrentLinkedQueue<EnqueuedTask>();
+    private final AtomicInteger depth = new AtomicInteger(0);
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final SmartCacheExecutorStatistics statistics;
+    private final Runnable drainer = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private volatile Thread runner;
+
+    /**
+     * Instantiates a new {@link SmartCacheWorkQueue}.
+     *
+     * @param name     the name of the lane, used for the statistics
+     * @param workers  the worker pool the lane runs on
+     * @param capacity the number of tasks the lane holds before the submitters wait for room
+     */
+    SmartCacheWorkQueue(String name, Executor workers, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        this.workers = workers;
+        this.room = new Semaphore(capacity);
+        this.statistics = new SmartCacheExecutorStatistics(name) {
+            @Override
+            public int queueDepth() {
+                return depth.get();
+            }
+
+            @Override
+            public int activeThreads() {
+                return runner != null ? 1 : 0;
+            }
+        };
+    }
+
+    /**
+     * Submits a task to this lane, waiting for room if the lane is full, unless the calling thread is one of
+     * the worker pool or holds a lock, see {@link #enterUnbounded()}.
+     *
+     * @param command the task
+     *
+     * @throws RejectedExecutionException if the worker pool has been shut down
+     */
+    @Override
+    public void execute(Runnable command) {
+        enqueue(new EnqueuedTask(command, awaitRoom()));
+    }
+
+    /**
+     * Submits a task to this lane only if the lane has room, without ever waiting.
+     *
+     * @param command the task
+     *
+     * @return {@code true} if the task was submitted, {@code false} if the lane is full
+     *
+     * @throws RejectedExecutionException if the worker pool has been shut down
+     */
+    boolean offer(Runnable command) {
+        if (!room.tryAcquire())
+            return false;
+        enqueue(new EnqueuedTask(command, true));
+        return true;
+    }
+
+    private void enqueue(EnqueuedTask task) {
+        tasks.add(task);
+        depth.incrementAndGet();
+        try {
+            schedule();
+        } catch (RejectedExecutionException e) {
+            if (tasks.remove(task)) {
+                depth.decrementAndGet();
+                task.release(room);
+            }
+            statistics.recordRejection();
+            throw e;
+        }
+    }
+
+    /**
+     * Lets the calling thread go over the capacity of the lanes until {@link #exitUnbounded()}, which it must
+     * invoke as many times. A thread that runs the tasks of a lane, or holds a lock that they may take, must
+     * never wait for room.
+     */
+    static void enterUnbounded() {
+        UNBOUNDED.get()[0]++;
+    }
+
+    /**
+     * Ends what {@link #enterUnbounded()} began.
+     */
+    static void exitUnbounded() {
+        UNBOUNDED.get()[0]--;
+    }
+
+    /**
+     * Checks whether this lane is full, in which case a thread that submits a task waits for room, unless it
+     * may go over the capacity, see {@link #enterUnbounded()}.
+     *
+     * @return {@code true} if full
+     */
+    boolean isFull() {
+        return room.availablePermits() == 0;
+    }
+
+    /**
+     * Get the statistics of this lane.
+     *
+     * @return the statistics
+     */
+    SmartCacheExecutorStatistics statistics() {
+        return statistics;
+    }
+
+    /**
+     * Checks whether this lane has neither queued nor running tasks.
+     *
+     * @return {@code true} if idle
+     */
+    boolean isIdle() {
+        return !scheduled.get() && tasks.isEmpty();
+    }
+
+    /**
+     * Checks whether the calling thread is running a task of this lane.
+     *
+     * @return {@code true} if invoked from a task of this lane
+     */
+    boolean isRunner() {
+        return runner == Thread.currentThread();
+    }
+
+    /**
+     * Waits until all the tasks submitted to this lane so far have run.
+     *
+     * @param deadline the {@link System#nanoTime()} after which to stop waiting
+     *
+     * @return {@code true} if the tasks have run, {@code false} if the deadline passed first,
+     *         or if invoked from a task of this lane (which can not wait for itself)
+     */
+    boolean awaitIdle(long deadline) {
+        if (isRunner())
+            return false;
+        FutureTask<Void> marker = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+        try {
+            execute(marker);
+            marker.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return isIdle();
+        } catch (ExecutionException e) {
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Takes a place in this lane, waiting for one if the lane is full. The wait survives an interrupt, which is
+     * restored afterwards, since the task must not be lost; it ends with a rejection if the worker pool is shut
+     * down meanwhile.
+     *
+     * @return {@code true} if a place was taken, {@code false} if the task goes over the capacity of the lane
+     *         because it is submitted from the worker pool, or while a lock is held, see
+     *         {@link #enterUnbounded()}
+     *
+     * @throws RejectedExecutionException if the worker pool has been shut down
+     */
+    private boolean awaitRoom() {
+        if (room.tryAcquire())
+            return true;
+        if (UNBOUNDED.get()[0] > 0)
+            return false;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (room.tryAcquire(ROOM_CHECK_INTERVAL, TimeUnit.NANOSECONDS))
+                        return true;
+                    // Makes sure the lane is still being drained, which fails once the worker pool is shut down
+                    schedule();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (RejectedExecutionException e) {
+                    statistics.recordRejection();
+                    throw e;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                workers.execute(drainer);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        runner = Thread.currentThread();
+        enterUnbounded();
+        try {
+            for (int i = 0; i < QUANTUM; i++) {
+                EnqueuedTask task = tasks.poll();
+                if (task == null)
+                    break;
+                depth.decrementAndGet();
+                task.release(room);
+                long start = System.nanoTime();
+                statistics.recordWait(start - task.enqueuedAt);
+                try {
+                    task.task.run();
+                } catch (Throwable e) {
+                    // A failing task must not stall the tasks queued behind it
+                    LOGGER.log(Level.SEVERE, "A Smart Cache task failed", e);
+                } finally {
+                    statistics.recordRun(System.nanoTime() - start);
+                }
+            }
+        } finally {
+            exitUnbounded();
+            runner = null;
+            scheduled.set(false);
+            if (!tasks.isEmpty()) {
+                try {
+                    schedule();
+                } catch (RejectedExecutionException e) {
+                    LOGGER.log(Level.WARNING, "The Smart Cache worker pool has been shut down, "
+                            + "{0} tasks were not run", depth.get());
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers the time at which a task was submitted to the lane, and whether it holds a place in it
+     */
+    private static final class EnqueuedTask {
+
+        private final Runnable task;
+        private final boolean placed;
+        private final long enqueuedAt = System.nanoTime();
+
+        EnqueuedTask(Runnable task, boolean placed) {
+            this.task = task;
+            this.placed = placed;
+        }
+
+        void release(Semaphore room) {
+            if (placed)
+                room.release();
+        }
+    }
+}
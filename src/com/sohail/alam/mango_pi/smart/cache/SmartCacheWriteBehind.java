@@ -0,0 +1,288 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The pending writes of an {@link AbstractSmartCache} that writes behind, see
+ * {@link AbstractSmartCache#writeBehind(SmartCacheWriter, int, long, TimeUnit, int)}.
+ * <p/>
+ * The updates are kept by Key, so an update replaces the one still pending for the same Key, and are flushed
+ * to the {@link SmartCacheWriter} in batches, on the writer lane of the cache: as soon as a batch is full, and
+ * at every flush interval. A batch that fails is put back (behind the updates of its Keys made meanwhile) and
+ * retried with an exponential backoff, up to {@link #MAX_ATTEMPTS} times before it is dropped.
+ * <p/>
+ * The number of Keys pending is bounded: once it is reached, the updates of the other Keys wait for a batch
+ * to be flushed, which slows the writers of the cache down to the pace of the system of record.
+ */
+final class SmartCacheWriteBehind<K, V> {
+
+    /**
+     * The number of times a batch is attempted before it is dropped.
+     */
+    static final int MAX_ATTEMPTS = 10;
+    private static final Logger LOGGER = Logger.getLogger(SmartCacheWriteBehind.class.getName());
+    private static final long INITIAL_BACKOFF = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(30);
+    private static final Object DELETE = new Object();
+    private final LinkedHashMap<K, Object> PENDING_WRITES = new LinkedHashMap<K, Object>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicBoolean flushQueued = new AtomicBoolean(false);
+    private final String cacheName;
+    private final SmartCacheWriter<K, V> writer;
+    private final SmartCacheWorkQueue lane;
+    private final SmartCacheStatistics statistics;
+    private final int batchSize;
+    private final int maxPending;
+    private final ScheduledFuture<?> timer;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushQueued.set(false);
+            flush(false);
+        }
+    };
+    private int attempts = 0;
+    private long retryAt = 0;
+    private volatile boolean closed = false;
+
+    SmartCacheWriteBehind(String cacheName, SmartCacheWriter<K, V> writer, SmartCacheWorkQueue lane,
+                          SmartCacheStatistics statistics, int batchSize, long flushInterval, int maxPending) {
+        this.cacheName = cacheName;
+        this.writer = writer;
+        this.lane = lane;
+        this.statistics = statistics;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.timer = SmartCacheRuntime.runtime().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (!closed && pending() > 0)
+                    queueFlush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Queues the write of a Key, waiting for some room if too many Keys are pending.
+     *
+     * @param key  the Key
+     * @param data the Data
+     */
+    void write(K key, V data) {
+        enqueue(key, data);
+    }
+
+    /**
+     * Queues the deletion of a Key, waiting for some room if too many Keys are pending.
+     *
+     * @param key the Key
+     */
+    void delete(K key) {
+        enqueue(key, DELETE);
+    }
+
+    private void enqueue(K key, Object update) {
+        boolean interrupted = false;
+        int pending;
+        lock.lock();
+        try {
+            while (PENDING_WRITES.size() >= maxPending && !PENDING_WRITES.containsKey(key) && !closed) {
+                queueFlush();
+                try {
+                    notFull.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (closed)
+                return;
+            if (PENDING_WRITES.put(key, update) != null)
+                statistics.recordCoalescedWrite();
+            pending = PENDING_WRITES.size();
+        } finally {
+            lock.unlock();
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (pending >= batchSize)
+            queueFlush();
+    }
+
+    /**
+     * @return the number of Keys whose update has not been written yet
+     */
+    int pending() {
+        lock.lock();
+        try {
+            return PENDING_WRITES.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a flush on the writer lane, unless one is queued already.
+     */
+    private void queueFlush() {
+        if (flushQueued.compareAndSet(false, true))
+            lane.execute(flushTask);
+    }
+
+    /**
+     * Queues the flush of all the pending updates on the writer lane, ignoring the backoff of a failed batch.
+     */
+    void flushAll() {
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush(true);
+                int pending = pending();
+                if (closed && pending > 0)
+                    LOGGER.log(Level.WARNING, "Smart Cache ''{0}'' was closed with {1} updates that could not be written",
+                            new Object[]{cacheName, pending});
+            }
+        });
+    }
+
+    /**
+     * Stops flushing periodically, and queues the flush of all the pending updates.
+     * The updates made afterwards are not written anymore.
+     */
+    void close() {
+        closed = true;
+        timer.cancel(false);
+        flushAll();
+        lock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending updates in batches, on the writer lane.
+     *
+     * @param all {@code true} to write all of them regardless of the backoff, {@code false} to write as many full
+     *            batches as there are (at least one batch), unless a failed batch is waiting for its retry.
+     *            Either way, the flush stops at the first batch that fails.
+     */
+    private void flush(boolean all) {
+        boolean first = true;
+        while (true) {
+            Map<K, V> writes = new LinkedHashMap<K, V>();
+            List<K> deletes = new ArrayList<K>();
+            lock.lock();
+            try {
+                if (PENDING_WRITES.isEmpty() || (!all && retryAt - System.nanoTime() > 0)
+                        || (!first && !all && PENDING_WRITES.size() < batchSize))
+                    return;
+                Iterator<Map.Entry<K, Object>> pending = PENDING_WRITES.entrySet().iterator();
+                for (int i = 0; i < batchSize && pending.hasNext(); i++) {
+                    Map.Entry<K, Object> update = pending.next();
+                    if (update.getValue() == DELETE)
+                        deletes.add(update.getKey());
+                    else
+                        writes.put(update.getKey(), cast(update.getValue()));
+                    pending.remove();
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            first = false;
+            if (!writeBatch(writes, deletes))
+                return;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V cast(Object data) {
+        return (V) data;
+    }
+
+    /**
+     * Writes a batch, and puts back what could not be written.
+     *
+     * @return {@code true} if the batch was written
+     */
+    private boolean writeBatch(Map<K, V> writes, List<K> deletes) {
+        try {
+            if (!writes.isEmpty()) {
+                writer.writeAll(writes);
+                statistics.recordWrites(writes.size());
+                writes.clear();
+            }
+            if (!deletes.isEmpty()) {
+                writer.deleteAll(deletes);
+                statistics.recordWrites(deletes.size());
+            }
+            lock.lock();
+            try {
+                attempts = 0;
+                retryAt = 0;
+            } finally {
+                lock.unlock();
+            }
+            return true;
+        } catch (Exception e) {
+            statistics.recordWriteFailure();
+            lock.lock();
+            try {
+                attempts++;
+                if (attempts >= MAX_ATTEMPTS) {
+                    statistics.recordDroppedWrites(writes.size() + deletes.size());
+                    LOGGER.log(Level.SEVERE, "Smart Cache '" + cacheName + "' dropped " + (writes.size() + deletes.size())
+                            + " updates after " + attempts + " failed attempts to write them", e);
+                    attempts = 0;
+                    retryAt = 0;
+                    return false;
+                }
+                // Put the batch back, unless its Keys were updated meanwhile
+                for (Map.Entry<K, V> write : writes.entrySet()) {
+                    if (!PENDING_WRITES.containsKey(write.getKey()))
+                        PENDING_WRITES.put(write.getKey(), write.getValue());
+                }
+                for (K key : deletes) {
+                    if (!PENDING_WRITES.containsKey(key))
+                        PENDING_WRITES.put(key, DELETE);
+                }
+                long backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(attempts - 1, 20));
+                retryAt = System.nanoTime() + backoff;
+                LOGGER.log(Level.WARNING, "Smart Cache '" + cacheName + "' failed to write " + (writes.size() + deletes.size())
+                        + " updates, retrying in " + TimeUnit.NANOSECONDS.toMillis(backoff) + " ms", e);
+            } finally {
+                lock.unlock();
+            }
+            return false;
+        }
+    }
+}
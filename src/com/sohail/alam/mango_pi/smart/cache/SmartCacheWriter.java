@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * This {@link SmartCacheWriter} interface writes the updates of a {@link SmartCache} to the system of record,
+ * such as a database, see {@link AbstractSmartCache#writeThrough(SmartCacheWriter)} and
+ * {@link AbstractSmartCache#writeBehind(SmartCacheWriter, int, long, java.util.concurrent.TimeUnit, int)}.
+ * <p/>
+ * The Data put into the cache are written, and the Keys removed from the cache are deleted, except for the
+ * entries that the cache drops on its own (the expired, purged and collected ones), and the Data that were
+ * loaded from the system of record by a {@link SmartCacheLoader}.
+ * <p/>
+ * When writing through, {@link #write(Object, Object)} and {@link #delete(Object)} are invoked on the thread
+ * that updates the cache. When writing behind, {@link #writeAll(Map)} and {@link #deleteAll(Collection)} are
+ * invoked in batches from a worker thread, with the latest update of every Key only.
+ */
+public interface SmartCacheWriter<K, V> {
+
+    /**
+     * Writes the Data of a single Key.
+     *
+     * @param key  the Key of type {@link K}
+     * @param data the Data of type {@link V}
+     *
+     * @throws Exception if the Data could not be written
+     */
+    public void write(K key, V data) throws Exception;
+
+    /**
+     * Writes the Data of several Keys at once. If it throws, all of them are written again later.
+     *
+     * @param entries the Data of type {@link V} by Key of type {@link K}, in the order of their first update
+     *
+     * @throws Exception if the Data could not be written
+     */
+    public void writeAll(Map<K, V> entries) throws Exception;
+
+    /**
+     * Deletes a single Key.
+     *
+     * @param key the Key of type {@link K}
+     *
+     * @throws Exception if the Key could not be deleted
+     */
+    public void delete(K key) throws Exception;
+
+    /**
+     * Deletes several Keys at once. If it throws, all of them are deleted again later.
+     *
+     * @param keys the Keys of type {@link K}
+     *
+     * @throws Exception if the Keys could not be deleted
+     */
+    public void deleteAll(Collection<K> keys) throws Exception;
+}
@@ -0,0 +1,587 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache.codec;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This {@link BinaryValueCodec} is the default {@link ValueCodec}: a compact binary format that is much faster
+ * than the Java Serialization, and does not require the values to be {@link java.io.Serializable}.
+ * <p/>
+ * Every value is written as a one byte tag followed by its content:
+ * <ul>
+ * <li>the boxed primitives and the strings (in UTF-8) are written as such;</li>
+ * <li>the {@code byte[]} and {@code byte[][]} payloads, such as those of the Smart Cache Data of the examples,
+ * are copied in bulk, as are the {@code int[]} and {@code long[]};</li>
+ * <li>the other arrays, the lists, the sets and the maps are written element by element, along with the name of
+ * their class, which is instantiated back through its public no-argument constructor if it has one (an
+ * {@link ArrayList}, a {@link LinkedHashSet} or a {@link LinkedHashMap} otherwise);</li>
+ * <li>the enum constants are written by name;</li>
+ * <li>any other object is written as the name of its class followed by its non-static, non-transient fields, in
+ * the order of their declaration, and is instantiated back through its no-argument constructor (which may be
+ * private). The fields of every class are looked up once and cached.</li>
+ * </ul>
+ * The values must not refer to themselves, and only the objects of the application (not those of the JDK, other
+ * than the ones above) can be written field by field.
+ */
+public class BinaryValueCodec<V> implements ValueCodec<V> {
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte BYTE = 3;
+    private static final byte SHORT = 4;
+    private static final byte CHAR = 5;
+    private static final byte INT = 6;
+    private static final byte LONG = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DOUBLE = 9;
+    private static final byte STRING = 10;
+    private static final byte BYTES = 11;
+    private static final byte BYTE_ARRAYS = 12;
+    private static final byte INTS = 13;
+    private static final byte LONGS = 14;
+    private static final byte ARRAY = 15;
+    private static final byte LIST = 16;
+    private static final byte SET = 17;
+    private static final byte MAP = 18;
+    private static final byte ENUM = 19;
+    private static final byte OBJECT = 20;
+    private static final byte BOOLEAN = 21;
+    private static final byte REFERENCE = 22;
+    private static final int MAX_DEPTH = 64;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ConcurrentHashMap<Class<?>, ClassLayout> LAYOUTS = new ConcurrentHashMap<Class<?>, ClassLayout>();
+    private final ConcurrentHashMap<String, Class<?>> CLASSES = new ConcurrentHashMap<String, Class<?>>();
+    private final ClassLoader classLoader;
+
+    /**
+     * Instantiates a new {@link BinaryValueCodec} that loads the classes of the values it decodes from the context
+     * class loader of the decoding thread.
+     */
+    public BinaryValueCodec() {
+        this(null);
+    }
+
+    /**
+     * Instantiates a new {@link BinaryValueCodec}.
+     *
+     * @param classLoader the class loader of the classes of the values it decodes, {@code null} for the context
+     *                    class loader of the decoding thread
+     */
+    public BinaryValueCodec(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Writes the given value into the buffer, from its current position.
+     *
+     * @param value  the value, which may be {@code null}
+     * @param buffer the buffer
+     */
+    @Override
+    public void encode(V value, ByteBuffer buffer) {
+        write(value, buffer, 0);
+    }
+
+    /**
+     * Reads a value from the buffer, from its current position.
+     *
+     * @param buffer the buffer
+     *
+     * @return the value, which may be {@code null}
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V decode(ByteBuffer buffer) {
+        return (V) read(buffer);
+    }
+
+    /**
+     * Decides whether a field of the objects written field by field is encoded. The fields that are not encoded
+     * keep the value set by the no-argument constructor when the object is decoded.
+     *
+     * @param field the field
+     *
+     * @return {@code true} unless the field is static or transient
+     */
+    protected boolean isEncoded(Field field) {
+        int modifiers = field.getModifiers();
+        return !Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers);
+    }
+
+    private void write(Object value, ByteBuffer buffer, int depth) {
+        if (value == null) {
+            buffer.put(NULL);
+            return;
+        }
+        if (depth > MAX_DEPTH)
+            throw new IllegalArgumentException("The value is nested too deeply, or refers to itself");
+        Class<?> type = value.getClass();
+        if (type == String.class) {
+            buffer.put(STRING);
+            writeString((String) value, buffer);
+        } else if (type == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            buffer.put(BYTES).putInt(bytes.length).put(bytes);
+        } else if (type == byte[][].class) {
+            byte[][] arrays = (byte[][]) value;
+            buffer.put(BYTE_ARRAYS).putInt(arrays.length);
+            for (byte[] bytes : arrays) {
+                if (bytes == null)
+                    buffer.putInt(-1);
+                else
+                    buffer.putInt(bytes.length).put(bytes);
+            }
+        } else if (type == Integer.class) {
+            buffer.put(INT).putInt((Integer) value);
+        } else if (type == Long.class) {
+            buffer.put(LONG).putLong((Long) value);
+        } else if (type == Boolean.class) {
+            buffer.put((Boolean) value ? TRUE : FALSE);
+        } else if (type == Double.class) {
+            buffer.put(DOUBLE).putDouble((Double) value);
+        } else if (type == Float.class) {
+            buffer.put(FLOAT).putFloat((Float) value);
+        } else if (type == Short.class) {
+            buffer.put(SHORT).putShort((Short) value);
+        } else if (type == Byte.class) {
+            buffer.put(BYTE).put((Byte) value);
+        } else if (type == Character.class) {
+            buffer.put(CHAR).putChar((Character) value);
+        } else if (type == int[].class) {
+            int[] ints = (int[]) value;
+            buffer.put(INTS).putInt(ints.length);
+            ensure(buffer, 4L * ints.length);
+            buffer.asIntBuffer().put(ints);
+            buffer.position(buffer.position() + 4 * ints.length);
+        } else if (type == long[].class) {
+            long[] longs = (long[]) value;
+            buffer.put(LONGS).putInt(longs.length);
+            ensure(buffer, 8L * longs.length);
+            buffer.asLongBuffer().put(longs);
+            buffer.position(buffer.position() + 8 * longs.length);
+        } else if (type.isArray()) {
+            int length = Array.getLength(value);
+            buffer.put(ARRAY);
+            writeString(type.getComponentType().getName(), buffer);
+            buffer.putInt(length);
+            for (int i = 0; i < length; i++) {
+                write(Array.get(value, i), buffer, depth + 1);
+            }
+        } else if (value instanceof Enum) {
+            buffer.put(ENUM);
+            writeString(((Enum<?>) value).getDeclaringClass().getName(), buffer);
+            writeString(((Enum<?>) value).name(), buffer);
+        } else if (value instanceof Collection && (value instanceof List || value instanceof Set)) {
+            Collection<?> collection = (Collection<?>) value;
+            buffer.put(value instanceof List ? LIST : SET);
+            writeString(type.getName(), buffer);
+            buffer.putInt(collection.size());
+            for (Object element : collection) {
+                write(element, buffer, depth + 1);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            buffer.put(MAP);
+            writeString(type.getName(), buffer);
+            buffer.putInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(entry.getKey(), buffer, depth + 1);
+                write(entry.getValue(), buffer, depth + 1);
+            }
+        } else {
+            ClassLayout layout = layout(type);
+            if (layout.fields == null)
+                throw new IllegalArgumentException("The values of type " + type.getName() + " can not be encoded");
+            buffer.put(OBJECT);
+            writeString(type.getName(), buffer);
+            layout.write(value, buffer, depth);
+        }
+    }
+
+    private Object read(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(buffer);
+            case BYTES: {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                return bytes;
+            }
+            case BYTE_ARRAYS: {
+                byte[][] arrays = new byte[buffer.getInt()][];
+                for (int i = 0; i < arrays.length; i++) {
+                    int length = buffer.getInt();
+                    if (length >= 0) {
+                        arrays[i] = new byte[length];
+                        buffer.get(arrays[i]);
+                    }
+                }
+                return arrays;
+            }
+            case INT:
+                return buffer.getInt();
+            case LONG:
+                return buffer.getLong();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DOUBLE:
+                return buffer.getDouble();
+            case FLOAT:
+                return buffer.getFloat();
+            case SHORT:
+                return buffer.getShort();
+            case BYTE:
+                return buffer.get();
+            case CHAR:
+                return buffer.getChar();
+            case INTS: {
+                int[] ints = new int[buffer.getInt()];
+                buffer.asIntBuffer().get(ints);
+                buffer.position(buffer.position() + 4 * ints.length);
+                return ints;
+            }
+            case LONGS: {
+                long[] longs = new long[buffer.getInt()];
+                buffer.asLongBuffer().get(longs);
+                buffer.position(buffer.position() + 8 * longs.length);
+                return longs;
+            }
+            case ARRAY: {
+                Class<?> component = classFor(readString(buffer));
+                Object array = Array.newInstance(component, buffer.getInt());
+                for (int i = 0, length = Array.getLength(array); i < length; i++) {
+                    Array.set(array, i, read(buffer));
+                }
+                return array;
+            }
+            case ENUM:
+                return enumFor(classFor(readString(buffer)), readString(buffer));
+            case LIST:
+            case SET: {
+                Class<?> type = classFor(readString(buffer));
+                int size = buffer.getInt();
+                Collection<Object> collection = newCollection(type, tag, size);
+                for (int i = 0; i < size; i++) {
+                    collection.add(read(buffer));
+                }
+                return collection;
+            }
+            case MAP: {
+                Class<?> type = classFor(readString(buffer));
+                int size = buffer.getInt();
+                Map<Object, Object> map = newMap(type, size);
+                for (int i = 0; i < size; i++) {
+                    map.put(read(buffer), read(buffer));
+                }
+                return map;
+            }
+            case OBJECT: {
+                Class<?> type = classFor(readString(buffer));
+                ClassLayout layout = layout(type);
+                if (layout.fields == null)
+                    throw new IllegalArgumentException("The values of type " + type.getName() + " can not be decoded");
+                return layout.read(buffer);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown value tag: " + tag);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<Object> newCollection(Class<?> type, byte tag, int size) {
+        Constructor<?> constructor = layout(type).constructor;
+        if (constructor != null && Collection.class.isAssignableFrom(type))
+            return (Collection<Object>) newInstance(constructor);
+        return tag == LIST ? new ArrayList<Object>(size) : new LinkedHashSet<Object>(size * 4 / 3 + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> newMap(Class<?> type, int size) {
+        Constructor<?> constructor = layout(type).constructor;
+        if (constructor != null && Map.class.isAssignableFrom(type))
+            return (Map<Object, Object>) newInstance(constructor);
+        return new LinkedHashMap<Object, Object>(size * 4 / 3 + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object enumFor(Class<?> type, String name) {
+        if (!type.isEnum())
+            throw new IllegalArgumentException("Not an enum: " + type.getName());
+        return Enum.valueOf((Class) type, name);
+    }
+
+    private static Object newInstance(Constructor<?> constructor) {
+        try {
+            return constructor.newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Could not instantiate " + constructor.getDeclaringClass().getName(), e);
+        }
+    }
+
+    private Class<?> classFor(String name) {
+        Class<?> type = CLASSES.get(name);
+        if (type == null) {
+            type = primitiveClass(name);
+            if (type == null) {
+                ClassLoader loader = classLoader != null ? classLoader : Thread.currentThread().getContextClassLoader();
+                try {
+                    type = Class.forName(name, false, loader != null ? loader : BinaryValueCodec.class.getClassLoader());
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalArgumentException("Unknown class: " + name, e);
+                }
+            }
+            CLASSES.putIfAbsent(name, type);
+        }
+        return type;
+    }
+
+    private static Class<?> primitiveClass(String name) {
+        Class<?>[] primitives = {boolean.class, byte.class, short.class, char.class, int.class, long.class,
+                float.class, double.class};
+        for (Class<?> primitive : primitives) {
+            if (primitive.getName().equals(name))
+                return primitive;
+        }
+        return null;
+    }
+
+    private ClassLayout layout(Class<?> type) {
+        ClassLayout layout = LAYOUTS.get(type);
+        if (layout == null) {
+            layout = new ClassLayout(type);
+            ClassLayout existing = LAYOUTS.putIfAbsent(type, layout);
+            if (existing != null)
+                layout = existing;
+        }
+        return layout;
+    }
+
+    private static void ensure(ByteBuffer buffer, long bytes) {
+        if (buffer.remaining() < bytes)
+            throw new BufferOverflowException();
+    }
+
+    private static void writeString(String string, ByteBuffer buffer) {
+        ensure(buffer, 4);
+        int start = buffer.position();
+        buffer.position(start + 4);
+        for (int i = 0, length = string.length(); i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer.put((byte) (0xF0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F)).put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // A lone surrogate, written as String.getBytes() would
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        buffer.putInt(start, buffer.position() - start - 4);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (buffer.hasArray()) {
+            if (length > buffer.remaining())
+                throw new IllegalArgumentException("Truncated string of " + length + " bytes");
+            String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+            buffer.position(buffer.position() + length);
+            return string;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static boolean isJdkType(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+                || name.startsWith("sun.") || name.startsWith("com.sun.");
+    }
+
+    /**
+     * How the objects of a class are instantiated and written field by field.
+     * The JDK classes are only instantiated, through their public no-argument constructor if they have one.
+     */
+    private final class ClassLayout {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final byte[] kinds;
+
+        private ClassLayout(Class<?> type) {
+            if (isJdkType(type)) {
+                Constructor<?> publicConstructor = null;
+                try {
+                    publicConstructor = type.getConstructor();
+                } catch (NoSuchMethodException e) {
+                    // Instantiated as the closest general purpose type instead
+                }
+                this.constructor = publicConstructor;
+                this.fields = null;
+                this.kinds = null;
+                return;
+            }
+            try {
+                this.constructor = type.getDeclaredConstructor();
+                this.constructor.setAccessible(true);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("The class " + type.getName()
+                        + " must have a no-argument constructor to be encoded", e);
+            }
+            List<Field> fields = new ArrayList<Field>();
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (!isEncoded(field))
+                        continue;
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            this.fields = fields.toArray(new Field[fields.size()]);
+            this.kinds = new byte[this.fields.length];
+            for (int i = 0; i < this.fields.length; i++) {
+                this.kinds[i] = kindOf(this.fields[i].getType());
+            }
+        }
+
+        private byte kindOf(Class<?> type) {
+            if (type == int.class)
+                return INT;
+            if (type == long.class)
+                return LONG;
+            if (type == boolean.class)
+                return BOOLEAN;
+            if (type == double.class)
+                return DOUBLE;
+            if (type == float.class)
+                return FLOAT;
+            if (type == short.class)
+                return SHORT;
+            if (type == byte.class)
+                return BYTE;
+            if (type == char.class)
+                return CHAR;
+            return REFERENCE;
+        }
+
+        private void write(Object value, ByteBuffer buffer, int depth) {
+            try {
+                for (int i = 0; i < fields.length; i++) {
+                    Field field = fields[i];
+                    switch (kinds[i]) {
+                        case INT:
+                            buffer.putInt(field.getInt(value));
+                            break;
+                        case LONG:
+                            buffer.putLong(field.getLong(value));
+                            break;
+                        case BOOLEAN:
+                            buffer.put(field.getBoolean(value) ? TRUE : FALSE);
+                            break;
+                        case DOUBLE:
+                            buffer.putDouble(field.getDouble(value));
+                            break;
+                        case FLOAT:
+                            buffer.putFloat(field.getFloat(value));
+                            break;
+                        case SHORT:
+                            buffer.putShort(field.getShort(value));
+                            break;
+                        case BYTE:
+                            buffer.put(field.getByte(value));
+                            break;
+                        case CHAR:
+                            buffer.putChar(field.getChar(value));
+                            break;
+                        default:
+                            BinaryValueCodec.this.write(field.get(value), buffer, depth + 1);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Could not read the fields of " + value.getClass().getName(), e);
+            }
+        }
+
+        private Object read(ByteBuffer buffer) {
+            Object value = newInstance(constructor);
+            try {
+                for (int i = 0; i < fields.length; i++) {
+                    Field field = fields[i];
+                    switch (kinds[i]) {
+                        case INT:
+                            field.setInt(value, buffer.getInt());
+                            break;
+                        case LONG:
+                            field.setLong(value, buffer.getLong());
+                            break;
+                        case BOOLEAN:
+                            field.setBoolean(value, buffer.get() == TRUE);
+                            break;
+                        case DOUBLE:
+                            field.setDouble(value, buffer.getDouble());
+                            break;
+                        case FLOAT:
+                            field.setFloat(value, buffer.getFloat());
+                            break;
+                        case SHORT:
+                            field.setShort(value, buffer.getShort());
+                            break;
+                        case BYTE:
+                            field.setByte(value, buffer.get());
+                            break;
+                        case CHAR:
+                            field.setChar(value, buffer.getChar());
+                            break;
+                        default:
+                            field.set(value, BinaryValueCodec.this.read(buffer));
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Could not set the fields of " + value.getClass().getName(), e);
+            }
+            return value;
+        }
+    }
+}
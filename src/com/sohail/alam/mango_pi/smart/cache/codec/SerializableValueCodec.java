@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * This {@link SerializableValueCodec} encodes the values with the Java Serialization, so it handles any
+ * {@link java.io.Serializable} value, but is slow and verbose. It is mostly meant as the baseline the other codecs
+ * are compared to, see {@link ValueCodecBenchmark}.
+ * <p/>
+ * Every value is written as its length (4 bytes) followed by its serialized form, since an
+ * {@link ObjectInputStream} reads ahead of the object it returns.
+ */
+public class SerializableValueCodec<V> implements ValueCodec<V> {
+
+    /**
+     * Writes the given value into the buffer, from its current position.
+     *
+     * @param value  the value, which must be {@link java.io.Serializable}
+     * @param buffer the buffer
+     */
+    @Override
+    public void encode(V value, ByteBuffer buffer) {
+        if (buffer.remaining() < 4)
+            throw new BufferOverflowException();
+        int start = buffer.position();
+        buffer.position(start + 4);
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new ByteBufferOutputStream(buffer));
+            out.writeObject(value);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The value could not be serialized", e);
+        }
+        buffer.putInt(start, buffer.position() - start - 4);
+    }
+
+    /**
+     * Reads a value from the buffer, from its current position.
+     *
+     * @param buffer the buffer
+     *
+     * @return the value
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V decode(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        ByteBuffer bytes = buffer.slice();
+        bytes.limit(length);
+        buffer.position(buffer.position() + length);
+        try {
+            return (V) new ObjectInputStream(new ByteBufferInputStream(bytes)).readObject();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The value could not be deserialized", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("The value could not be deserialized", e);
+        }
+    }
+
+    /**
+     * Writes straight into a {@link ByteBuffer}.
+     */
+    private static final class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.put(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Reads straight from a {@link ByteBuffer}.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This {@link ValueCodec} interface turns the values of a {@link com.sohail.alam.mango_pi.smart.cache.SmartCache}
+ * into bytes and back, for the features that keep the values anywhere but on the heap, such as off-heap storage,
+ * disk, snapshots and replication.
+ * <p/>
+ * A codec reads and writes the bytes straight from and into a {@link ByteBuffer}, from its current position,
+ * so that the callers can re-use their buffers. A value must be decoded from exactly the bytes it was encoded to,
+ * and both methods must leave the position of the buffer right after these bytes, so that several values can
+ * follow one another in the same buffer.
+ * <p/>
+ * The codecs are shared by all the threads that use a cache, so they must be thread safe.
+ *
+ * @see BinaryValueCodec
+ * @see SerializableValueCodec
+ * @see ValueCodecs
+ */
+public interface ValueCodec<V> {
+
+    /**
+     * Writes the given value into the buffer, from its current position.
+     *
+     * @param value  the value, which may be {@code null}
+     * @param buffer the buffer
+     *
+     * @throws java.nio.BufferOverflowException if the buffer is too small, in which case its content from its
+     *                                          initial position is undefined (see
+     *                                          {@link ValueCodecs#encode(ValueCodec, Object, ByteBuffer)})
+     * @throws IllegalArgumentException         if the value can not be encoded by this codec
+     */
+    public void encode(V value, ByteBuffer buffer);
+
+    /**
+     * Reads a value from the buffer, from its current position.
+     *
+     * @param buffer the buffer
+     *
+     * @return the value, which may be {@code null}
+     *
+     * @throws java.nio.BufferUnderflowException if the buffer ends before the value
+     * @throws IllegalArgumentException          if the bytes do not hold a value encoded by this codec
+     */
+    public V decode(ByteBuffer buffer);
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache.codec;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * A small benchmark that compares the {@link ValueCodec}s on a typical Smart Cache value: a key, a time stamp and
+ * a few chunks of raw bytes. Run it with the number of iterations as the only (optional) argument:
+ * <pre>
+ * java com.sohail.alam.mango_pi.smart.cache.codec.ValueCodecBenchmark 200000
+ * </pre>
+ * It prints, for every codec, the size of the encoded value and the average time taken to encode and decode it.
+ */
+public final class ValueCodecBenchmark {
+
+    private static final int DEFAULT_ITERATIONS = 200000;
+
+    /**
+     * Private Constructor
+     */
+    private ValueCodecBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the number of iterations, optional
+     */
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        Sample sample = new Sample("user:42:profile", System.currentTimeMillis(), 8, 128);
+
+        System.out.println(String.format("%-12s %10s %14s %14s", "Codec", "Bytes", "Encode ns/op", "Decode ns/op"));
+        measure("binary", new BinaryValueCodec<Sample>(), sample, iterations);
+        measure("serializable", new SerializableValueCodec<Sample>(), sample, iterations / 10);
+    }
+
+    private static void measure(String name, ValueCodec<Sample> codec, Sample sample, int iterations) {
+        ByteBuffer buffer = ValueCodecs.encode(codec, sample, ByteBuffer.allocate(256));
+        int size = buffer.position();
+        Object sink = null;
+
+        // Warm up, so that the measures do not include the compilation
+        for (int i = 0; i < iterations; i++) {
+            buffer.clear();
+            codec.encode(sample, buffer);
+            buffer.flip();
+            sink = codec.decode(buffer);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            buffer.clear();
+            codec.encode(sample, buffer);
+        }
+        long encode = (System.nanoTime() - start) / Math.max(1, iterations);
+
+        buffer.flip();
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            buffer.rewind();
+            sink = codec.decode(buffer);
+        }
+        long decode = (System.nanoTime() - start) / Math.max(1, iterations);
+
+        if (sink == null)
+            throw new IllegalStateException("Nothing was decoded");
+        System.out.println(String.format("%-12s %10d %14d %14d", name, size, encode, decode));
+    }
+
+    /**
+     * The value encoded by the benchmark, shaped like the Smart Cache Data of the examples.
+     */
+    private static final class Sample implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String key;
+        private long created;
+        private byte[][] data;
+
+        private Sample() {
+        }
+
+        private Sample(String key, long created, int chunks, int chunkSize) {
+            this.key = key;
+            this.created = created;
+            this.data = new byte[chunks][chunkSize];
+            for (int i = 0; i < chunks; i++) {
+                for (int j = 0; j < chunkSize; j++) {
+                    data[i][j] = (byte) (i * 31 + j);
+                }
+            }
+        }
+    }
+}
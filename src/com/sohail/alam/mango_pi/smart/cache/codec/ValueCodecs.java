@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers to use a {@link ValueCodec}.
+ */
+public final class ValueCodecs {
+
+    /**
+     * Private Constructor
+     */
+    private ValueCodecs() {
+    }
+
+    /**
+     * Encodes a value into the given buffer, from its current position, or into a larger copy of the buffer if the
+     * value does not fit. The caller is expected to keep the returned buffer and re-use it for the next value, so
+     * that the buffer soon gets large enough for all the values and nothing is allocated anymore.
+     *
+     * @param codec  the codec
+     * @param value  the value
+     * @param buffer the buffer to re-use
+     * @param <V>    the type of the value
+     *
+     * @return the buffer that holds the encoded value (the given buffer, or a larger copy of it with the same
+     *         content before its position), with its position right after the value
+     */
+    public static <V> ByteBuffer encode(ValueCodec<? super V> codec, V value, ByteBuffer buffer) {
+        while (true) {
+            int start = buffer.position();
+            try {
+                codec.encode(value, buffer);
+                return buffer;
+            } catch (BufferOverflowException e) {
+                int capacity = Math.max(64, buffer.capacity() * 2);
+                ByteBuffer grown = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+                grown.order(buffer.order());
+                buffer.limit(start).position(0);
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache.jfr;
+
+import com.sohail.alam.mango_pi.smart.cache.AbstractSmartCache;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheFlightRecorder;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * The {@link SmartCacheFlightRecorder} that emits the Smart Cache events into the JDK Flight Recorder.
+ * <p/>
+ * Each {@code begin} call first checks whether the corresponding event type is enabled in any
+ * running recording, so that nothing is allocated or timed while the events are turned off.
+ * The slow {@code get} and {@code put} events are only committed above their threshold,
+ * which defaults to 1 ms and can be changed in the recording settings.
+ * <p/>
+ * This class is instantiated reflectively by {@link SmartCacheFlightRecorder#INSTANCE}.
+ */
+public class JfrSmartCacheFlightRecorder extends SmartCacheFlightRecorder {
+
+    private static final EventType GET = EventType.getEventType(SmartCacheGetEvent.class);
+    private static final EventType PUT = EventType.getEventType(SmartCachePutEvent.class);
+    private static final EventType EXPIRY = EventType.getEventType(SmartCacheExpiryEvent.class);
+    private static final EventType PURGE = EventType.getEventType(SmartCachePurgeEvent.class);
+    private static final EventType HISTORY_FLUSH = EventType.getEventType(SmartCacheHistoryFlushEvent.class);
+    private static final EventType LISTENER = EventType.getEventType(SmartCacheListenerEvent.class);
+
+    /**
+     * Instantiates a new {@link JfrSmartCacheFlightRecorder} and registers the periodic
+     * {@link SmartCacheStatisticsEvent}.
+     */
+    public JfrSmartCacheFlightRecorder() {
+        FlightRecorder.addPeriodicEvent(SmartCacheStatisticsEvent.class, new Runnable() {
+            @Override
+            public void run() {
+                for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+                    SmartCacheStatisticsEvent event = new SmartCacheStatisticsEvent();
+                    event.cacheName = cache.cacheName();
+                    event.entries = cache.numberOfEntries();
+                    try {
+                        event.weight = cache.totalCacheSize();
+                    } catch (RuntimeException e) {
+                        // The cache is still being constructed, or does not account its weight
+                        event.weight = 0;
+                    }
+                    event.hits = cache.statistics().hitCount();
+                    event.misses = cache.statistics().missCount();
+                    event.commit();
+                }
+            }
+        });
+    }
+
+    @Override
+    public Object beginGet() {
+        if (!GET.isEnabled())
+            return null;
+        SmartCacheGetEvent event = new SmartCacheGetEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endGet(Object token, String cacheName, Object key, long weight, boolean hit) {
+        if (token == null)
+            return;
+        SmartCacheGetEvent event = (SmartCacheGetEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.cacheName = cacheName;
+            event.keyHash = keyHash(key);
+            event.weight = weight;
+            event.hit = hit;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginPut() {
+        if (!PUT.isEnabled())
+            return null;
+        SmartCachePutEvent event = new SmartCachePutEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endPut(Object token, String cacheName, Object key, long weight) {
+        if (token == null)
+            return;
+        SmartCachePutEvent event = (SmartCachePutEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.cacheName = cacheName;
+            event.keyHash = keyHash(key);
+            event.weight = weight;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginExpiry() {
+        if (!EXPIRY.isEnabled())
+            return null;
+        SmartCacheExpiryEvent event = new SmartCacheExpiryEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endExpiry(Object token, String cacheName, Object key, int count, long weight) {
+        if (token == null)
+            return;
+        SmartCacheExpiryEvent event = (SmartCacheExpiryEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.cacheName = cacheName;
+            event.keyHash = keyHash(key);
+            event.count = count;
+            event.weight = weight;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginPurge() {
+        if (!PURGE.isEnabled())
+            return null;
+        SmartCachePurgeEvent event = new SmartCachePurgeEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endPurge(Object token, String cacheName, int count, long weight) {
+        if (token == null)
+            return;
+        SmartCachePurgeEvent event = (SmartCachePurgeEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.cacheName = cacheName;
+            event.count = count;
+            event.weight = weight;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginHistoryFlush() {
+        if (!HISTORY_FLUSH.isEnabled())
+            return null;
+        SmartCacheHistoryFlushEvent event = new SmartCacheHistoryFlushEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endHistoryFlush(Object token, String filePath, int count, long weight) {
+        if (token == null)
+            return;
+        SmartCacheHistoryFlushEvent event = (SmartCacheHistoryFlushEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.filePath = filePath;
+            event.count = count;
+            event.weight = weight;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginListener() {
+        if (!LISTENER.isEnabled())
+            return null;
+        SmartCacheListenerEvent event = new SmartCacheListenerEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endListener(Object token, String cacheName, String callback, Object key, long weight) {
+        if (token == null)
+            return;
+        SmartCacheListenerEvent event = (SmartCacheListenerEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.cacheName = cacheName;
+            event.callback = callback;
+            event.keyHash = keyHash(key);
+            event.weight = weight;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A purge run, which removed entries from the Smart Cache for backup purpose.
+ */
+@Name("com.sohail.alam.mango_pi.smart_cache.Purge")
+@Label("Smart Cache Purge")
+@Category({"Mango Pi", "Smart Cache"})
+@StackTrace(false)
+public class SmartCachePurgeEvent extends SmartCacheEvent {
+
+    @Label("Entries")
+    int count;
+}
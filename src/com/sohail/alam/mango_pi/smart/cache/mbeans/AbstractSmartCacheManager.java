@@ -6,8 +6,13 @@ import com.sohail.alam.mango_pi.jmx.wrapper.JMXBeanParameter;
 import com.sohail.alam.mango_pi.smart.cache.AbstractSmartCache;
 import com.sohail.alam.mango_pi.smart.cache.SmartCache;
 import com.sohail.alam.mango_pi.smart.cache.SmartCacheException;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheRuntime;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheScan;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheStatistics;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheValueIndex;
 import com.sohail.alam.mango_pi.utils.MBeanService;
 
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
@@ -22,14 +27,14 @@ import java.util.concurrent.TimeUnit;
 @JMXBean(description = "Smart Cache MBean")
 public class AbstractSmartCacheManager<T extends AbstractSmartCache, K, V> implements AbstractSmartCacheManagerMBean<K, V> {
 
-    private static String MBEAN_NAME;
+    private final String mbeanName;
     private SmartCache cache;
 
     public AbstractSmartCacheManager(T cache) {
         if (cache == null)
             throw new NullPointerException("The Instance of the Cache can not be null");
 
-        MBEAN_NAME = "MangoPI:Module=SmartCache-" + cache.cacheName();
+        mbeanName = "MangoPI:Module=SmartCache-" + cache.cacheName();
         this.cache = cache;
     }
 
@@ -41,7 +46,7 @@ public class AbstractSmartCacheManager<T extends AbstractSmartCache, K, V> imple
      */
     public void startSmartCacheMBeanService() throws SmartCacheException {
         try {
-            MBeanService.startService(this, MBEAN_NAME);
+            MBeanService.startService(this, mbeanName);
         } catch (Exception e) {
             throw new SmartCacheException("Smart Cache was unable to start the Smart Cache MBean Service: " + e.getMessage(), e);
         }
@@ -58,7 +63,7 @@ public class AbstractSmartCacheManager<T extends AbstractSmartCache, K, V> imple
             description = "Stops The Smart Cache MBean service")
     public void stopMBeanService() throws SmartCacheException {
         try {
-            MBeanService.stopService(MBEAN_NAME);
+            MBeanService.stopService(mbeanName);
         } catch (Exception e) {
             throw new SmartCacheException("Smart Cache was unable to stop the Smart Cache MBean Service: " + e.getMessage(), e);
         }
@@ -275,14 +280,85 @@ public class AbstractSmartCacheManager<T extends AbstractSmartCache, K, V> imple
     public int numberOfEntries(@JMXBeanParameter(name = "Some Portion Of Key",
             description = "Some portion of the Key") K somePortionOfKey) {
 
-        int count = 0;
-        Set<V> keys = this.cache.keySet();
-        for (V key : keys) {
-            if (String.valueOf(key).contains(String.valueOf(somePortionOfKey)))
-                count++;
-        }
+        return ((AbstractSmartCache) this.cache).countKeysContaining(String.valueOf(somePortionOfKey));
+    }
+
+    /**
+     * Gets the total number of entries in the Cache whose keys start with the given prefix
+     *
+     * @param prefix the prefix of the keys
+     *
+     * @return number of entries
+     */
+    @Override
+    @JMXBeanOperation(name = "numberOfEntriesWithPrefix",
+            description = "Gets the total number of entries in the Cache whose keys start with the given prefix")
+    public int numberOfEntriesWithPrefix(@JMXBeanParameter(name = "The Prefix",
+            description = "The prefix of the Keys") String prefix) {
+        return ((AbstractSmartCache) this.cache).countKeysWithPrefix(prefix);
+    }
+
+    /**
+     * Returns a formatted String that holds a page of the entries of the cache, and the cursor of the next page
+     *
+     * @param cursor the cursor returned with the previous page, empty to start from the first page
+     * @param count  the number of keys to read
+     *
+     * @return the page of entries
+     */
+    @Override
+    @JMXBeanOperation(name = "scan",
+            description = "Displays a page of the entries of the cache, and the cursor of the next page (the keys must be indexed)")
+    public String scan(@JMXBeanParameter(name = "The Cursor",
+            description = "The cursor returned with the previous page, empty to start from the first page") String cursor,
+                       @JMXBeanParameter(name = "The Count",
+                               description = "The number of keys to read") int count) {
+        SmartCacheScan<?, ?> page = ((AbstractSmartCache<?, ?>) this.cache).scan(
+                cursor == null || cursor.isEmpty() ? null : cursor, count, null);
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<?, ?> entry : page.entries().entrySet())
+            builder.append(String.format("%-24s%s%n", entry.getKey(), entry.getValue()));
+        builder.append(String.format("%-24s%s%n", "NEXT CURSOR", page.isComplete() ? "(complete)" : page.cursor()));
+        return builder.toString();
+    }
+
+    /**
+     * Keeps an index of the entries by their value, or drops it
+     *
+     * @param mode IDENTITY or EQUALITY to index the values, NONE to drop the index
+     */
+    @Override
+    @JMXBeanOperation(name = "indexValues",
+            description = "Keeps an index of the entries by their value, to find the keys of a value quickly, or drops it")
+    public void indexValues(@JMXBeanParameter(name = "Mode",
+            description = "IDENTITY or EQUALITY to index the values, NONE to drop the index") String mode) {
+        ((AbstractSmartCache) this.cache).indexValues("NONE".equalsIgnoreCase(mode) ? null
+                : SmartCacheValueIndex.valueOf(mode.toUpperCase()));
+    }
+
+    /**
+     * Get an estimate of the memory taken by the index of the values
+     *
+     * @return the weight in bytes
+     */
+    @Override
+    @JMXBeanOperation(name = "valueIndexWeight",
+            description = "Get an estimate of the memory taken by the index of the values, in bytes")
+    public long valueIndexWeight() {
+        return ((AbstractSmartCache) this.cache).valueIndexWeight();
+    }
 
-        return count;
+    /**
+     * Keeps an index of the keys by their string form, or drops it
+     *
+     * @param index true to index the keys, false to drop the index
+     */
+    @Override
+    @JMXBeanOperation(name = "indexKeys",
+            description = "Keeps an index of the keys by their string form, to count the keys of a prefix quickly, or drops it")
+    public void indexKeys(@JMXBeanParameter(name = "Index",
+            description = "true to index the keys, false to drop the index") boolean index) {
+        ((AbstractSmartCache) this.cache).indexKeys(index);
     }
 
     /**
@@ -327,6 +403,30 @@ public class AbstractSmartCacheManager<T extends AbstractSmartCache, K, V> imple
         return this.cache.purgeCacheEntry(key);
     }
 
+    /**
+     * Describes the progress of the purges under way
+     *
+     * @return the progress of the purges
+     */
+    @Override
+    @JMXBeanOperation(name = "purgesInProgress",
+            description = "Describes the progress of the purges under way")
+    public String purgesInProgress() {
+        return ((AbstractSmartCache) this.cache).purges().toString();
+    }
+
+    /**
+     * Cancels the purges under way
+     *
+     * @return the number of purges cancelled
+     */
+    @Override
+    @JMXBeanOperation(name = "cancelPurges",
+            description = "Cancels the purges under way, once the chunks already started are given to the listener")
+    public int cancelPurges() {
+        return ((AbstractSmartCache) this.cache).cancelPurges();
+    }
+
     /**
      * Gets deleted entries counter.
      *
@@ -366,4 +466,273 @@ public class AbstractSmartCacheManager<T extends AbstractSmartCache, K, V> imple
     public String cacheName() {
         return ((AbstractSmartCache) this.cache).cacheName();
     }
+
+    /**
+     * Returns a formatted String that holds the queue depth, active threads, completed and rejected
+     * tasks, and the wait and run times of the executors used by this Smart Cache Instance,
+     * followed by those of the pools shared by all the Smart Cache Instances
+     *
+     * @return Executor Statistics
+     */
+    @Override
+    @JMXBeanOperation(name = "executorStatistics",
+            description = "Displays the queue depth, threads, tasks and wait/run times (in microseconds) of the Smart Cache executors")
+    public String executorStatistics() {
+        AbstractSmartCache<?, ?> smartCache = (AbstractSmartCache<?, ?>) this.cache;
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-10s", "EXECUTOR"));
+        builder.append(String.format("%-10s", "QUEUED"));
+        builder.append(String.format("%-10s", "ACTIVE"));
+        builder.append(String.format("%-12s", "COMPLETED"));
+        builder.append(String.format("%-12s", "REJECTED"));
+        builder.append(String.format("%-16s", "AVG WAIT (us)"));
+        builder.append(String.format("%-16s", "MAX WAIT (us)"));
+        builder.append(String.format("%-16s", "AVG RUN (us)"));
+        builder.append(String.format("%-16s", "MAX RUN (us)"));
+        builder.append("\n");
+        builder.append(smartCache.expiryExecutorStatistics()).append("\n");
+        builder.append(smartCache.workQueueStatistics()).append("\n");
+        builder.append(smartCache.loaderQueueStatistics()).append("\n");
+        builder.append(smartCache.writerQueueStatistics()).append("\n");
+        builder.append(smartCache.historyExecutorStatistics()).append("\n");
+        // The pools shared by all the Smart Cache Instances
+        builder.append(SmartCacheRuntime.runtime().schedulerStatistics()).append("\n");
+        builder.append(SmartCacheRuntime.runtime().workerStatistics()).append("\n");
+        builder.append(SmartCacheRuntime.runtime().loaderStatistics()).append("\n");
+        return builder.toString();
+    }
+
+    /**
+     * Set the expiry lag (in milliseconds) above which a warning is logged, -1 to disable the alert
+     *
+     * @param thresholdMillis the threshold in milliseconds
+     */
+    @Override
+    @JMXBeanOperation(name = "expiryLagAlertThreshold",
+            description = "Set the expiry lag (in milliseconds) above which a warning is logged, -1 to disable the alert")
+    public void expiryLagAlertThreshold(@JMXBeanParameter(name = "The Threshold",
+            description = "The expiry lag in milliseconds") long thresholdMillis) {
+        ((AbstractSmartCache) this.cache).expiryLagAlertThreshold(thresholdMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set the time (in milliseconds) after which the entries put from now on expire if they are not read,
+     * 0 to disable expire-after-access
+     *
+     * @param idleMillis the idle time in milliseconds
+     */
+    @Override
+    @JMXBeanOperation(name = "expireAfterAccess",
+            description = "Set the time (in milliseconds) after which the new entries expire if they are not read, 0 to disable")
+    public void expireAfterAccess(@JMXBeanParameter(name = "The Idle Time",
+            description = "The idle time in milliseconds") long idleMillis) {
+        ((AbstractSmartCache) this.cache).expireAfterAccess(idleMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set the maximum jitter, in percent of the TTL, by which the entries put from now on expire early,
+     * 0 to disable the jitter
+     *
+     * @param percent the maximum jitter in percent of the TTL
+     */
+    @Override
+    @JMXBeanOperation(name = "expiryJitter",
+            description = "Set the maximum jitter (in percent of the TTL) by which the new entries expire early, 0 to disable")
+    public void expiryJitter(@JMXBeanParameter(name = "The Jitter",
+            description = "The maximum jitter in percent of the TTL") int percent) {
+        ((AbstractSmartCache) this.cache).expiryJitter(percent);
+    }
+
+    /**
+     * Set the maximum number of expired entries removed every expiry tick, 0 for no limit
+     *
+     * @param maxExpirations the maximum number of removals per tick
+     */
+    @Override
+    @JMXBeanOperation(name = "maxExpirationsPerTick",
+            description = "Set the maximum number of expired entries removed every expiry tick, 0 for no limit")
+    public void maxExpirationsPerTick(@JMXBeanParameter(name = "The Limit",
+            description = "The maximum number of removals per tick") int maxExpirations) {
+        ((AbstractSmartCache) this.cache).maxExpirationsPerTick(maxExpirations);
+    }
+
+    /**
+     * Set how early the loaded entries are refreshed before they expire, 0 to disable the early refresh
+     *
+     * @param beta how early the entries are refreshed, 1 is the usual value
+     */
+    @Override
+    @JMXBeanOperation(name = "earlyRefresh",
+            description = "Set how early (1 is the usual value) the loaded entries are refreshed before they expire, 0 to disable")
+    public void earlyRefresh(@JMXBeanParameter(name = "The Beta",
+            description = "How early the entries are refreshed") double beta) {
+        ((AbstractSmartCache) this.cache).earlyRefresh(beta);
+    }
+
+    /**
+     * Set the time (in milliseconds) after their TTL during which the entries put from now on are served stale
+     * while they are reloaded, 0 to disable
+     *
+     * @param windowMillis the stale window in milliseconds
+     */
+    @Override
+    @JMXBeanOperation(name = "staleWhileRevalidate",
+            description = "Set the time (in milliseconds) after their TTL during which the new entries are served stale while they are reloaded, 0 to disable")
+    public void staleWhileRevalidate(@JMXBeanParameter(name = "The Stale Window",
+            description = "The stale window in milliseconds") long windowMillis) {
+        ((AbstractSmartCache) this.cache).staleWhileRevalidate(windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Compress the values put from now on if they take at least the given number of bytes once encoded,
+     * -1 to disable the compression
+     *
+     * @param thresholdBytes the size in bytes from which the values are compressed
+     */
+    @Override
+    @JMXBeanOperation(name = "compressAbove",
+            description = "Compress the new entries whose Data take at least the given number of bytes, -1 to disable")
+    public void compressAbove(@JMXBeanParameter(name = "The Threshold",
+            description = "The size in bytes from which the Data are compressed") int thresholdBytes) {
+        ((AbstractSmartCache) this.cache).compressAbove(thresholdBytes);
+    }
+
+    /**
+     * Returns a formatted String that holds the number of values stored compressed, their compression ratio,
+     * and the time spent compressing and decompressing them
+     *
+     * @return Compression Statistics
+     */
+    @Override
+    @JMXBeanOperation(name = "compressionStatistics",
+            description = "Displays the compression ratio of the Data and the time (in microseconds) spent compressing and decompressing them")
+    public String compressionStatistics() {
+        AbstractSmartCache<?, ?> smartCache = (AbstractSmartCache<?, ?>) this.cache;
+        SmartCacheStatistics statistics = smartCache.statistics();
+        long compressions = statistics.compressionCount();
+        long attempts = compressions + statistics.compressionSkipCount();
+        long decompressions = statistics.decompressionCount();
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-24s%d bytes%n", "THRESHOLD", smartCache.compressionThreshold()));
+        builder.append(String.format("%-24s%d%n", "COMPRESSED", compressions));
+        builder.append(String.format("%-24s%d%n", "NOT WORTH IT", statistics.compressionSkipCount()));
+        builder.append(String.format("%-24s%d -> %d bytes%n", "SIZE", statistics.uncompressedBytes(), statistics.compressedBytes()));
+        builder.append(String.format("%-24s%.2f%n", "RATIO", statistics.compressionRatio()));
+        builder.append(String.format("%-24s%d%n", "AVG COMPRESS (us)",
+                attempts == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(statistics.compressionTime() / attempts)));
+        builder.append(String.format("%-24s%d%n", "DECOMPRESSED", decompressions));
+        builder.append(String.format("%-24s%d%n", "AVG DECOMPRESS (us)",
+                decompressions == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(statistics.decompressionTime() / decompressions)));
+        builder.append(String.format("%-24s%d%n", "TOTAL CPU (ms)",
+                TimeUnit.NANOSECONDS.toMillis(statistics.compressionTime() + statistics.decompressionTime())));
+        return builder.toString();
+    }
+
+    /**
+     * Share a single copy of the byte-identical Data put from now on between their keys, or stop sharing them
+     *
+     * @param deduplicate true to share the Data, false to stop
+     */
+    @Override
+    @JMXBeanOperation(name = "deduplicate",
+            description = "Share a single copy of the byte-identical new Data between their keys (true), or stop sharing them (false)")
+    public void deduplicate(@JMXBeanParameter(name = "Deduplicate (true/false)",
+            description = "Whether to share the byte-identical Data") boolean deduplicate) {
+        ((AbstractSmartCache) this.cache).deduplicate(deduplicate);
+    }
+
+    /**
+     * Set the time (in milliseconds) during which the keys that the loader found absent are remembered, 0 to disable
+     *
+     * @param ttlMillis the TTL of the absent markers in milliseconds
+     */
+    @Override
+    @JMXBeanOperation(name = "negativeTtl",
+            description = "Set the time (in milliseconds) during which the keys found absent by the loader are remembered, 0 to disable")
+    public void negativeTtl(@JMXBeanParameter(name = "The Negative TTL",
+            description = "The TTL of the absent markers in milliseconds") long ttlMillis) {
+        ((AbstractSmartCache) this.cache).negativeTtl(ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a formatted String that holds the number of keys remembered as absent, and the number of loading
+     * lookups of absent keys answered by their marker or by the loader
+     *
+     * @return Negative Cache Statistics
+     */
+    @Override
+    @JMXBeanOperation(name = "negativeCacheStatistics",
+            description = "Displays the number of keys remembered as absent, and the lookups of absent keys by result")
+    public String negativeCacheStatistics() {
+        AbstractSmartCache<?, ?> smartCache = (AbstractSmartCache<?, ?>) this.cache;
+        SmartCacheStatistics statistics = smartCache.statistics();
+        long hits = statistics.negativeHitCount();
+        long misses = statistics.negativeMissCount();
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-24s%d ms%n", "NEGATIVE TTL", smartCache.negativeTtl(TimeUnit.MILLISECONDS)));
+        builder.append(String.format("%-24s%d%n", "ABSENT ENTRIES", smartCache.numberOfAbsentEntries()));
+        builder.append(String.format("%-24s%d%n", "NEGATIVE HITS", hits));
+        builder.append(String.format("%-24s%d%n", "NEGATIVE MISSES", misses));
+        builder.append(String.format("%-24s%.2f%%%n", "NEGATIVE HIT RATIO", hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses)));
+        return builder.toString();
+    }
+
+    /**
+     * Writes all the updates that are pending, in the background, without waiting for the flush interval
+     */
+    @Override
+    @JMXBeanOperation(name = "flushWrites",
+            description = "Writes all the pending updates to the system of record, without waiting for the flush interval")
+    public void flushWrites() {
+        ((AbstractSmartCache) this.cache).flushWrites();
+    }
+
+    /**
+     * Returns a formatted String that holds the number of updates pending, written, coalesced, failed and dropped
+     *
+     * @return Write Statistics
+     */
+    @Override
+    @JMXBeanOperation(name = "writeStatistics",
+            description = "Displays the number of updates pending, written, coalesced, failed and dropped")
+    public String writeStatistics() {
+        AbstractSmartCache<?, ?> smartCache = (AbstractSmartCache<?, ?>) this.cache;
+        SmartCacheStatistics statistics = smartCache.statistics();
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-24s%d%n", "PENDING", smartCache.pendingWrites()));
+        builder.append(String.format("%-24s%d%n", "WRITTEN", statistics.writeCount()));
+        builder.append(String.format("%-24s%d%n", "COALESCED", statistics.coalescedWriteCount()));
+        builder.append(String.format("%-24s%d%n", "FAILED", statistics.writeFailureCount()));
+        builder.append(String.format("%-24s%d%n", "DROPPED", statistics.droppedWriteCount()));
+        return builder.toString();
+    }
+
+    /**
+     * Removes all the entries that carry the given tag
+     *
+     * @param tag    the tag
+     * @param reason the reason for which the entries are removed
+     *
+     * @return the number of entries removed
+     */
+    @Override
+    @JMXBeanOperation(name = "invalidateTag",
+            description = "Removes all the entries that carry the given tag")
+    public int invalidateTag(@JMXBeanParameter(name = "The Tag",
+            description = "The Tag of the Cache elements") String tag, @JMXBeanParameter(name = "The Reason",
+            description = "The Reason for which the data were removed") String reason) {
+        return ((AbstractSmartCache) this.cache).invalidateTag(tag, reason).size();
+    }
+
+    /**
+     * Get the number of expired entries waiting to be removed
+     *
+     * @return the expiry backlog
+     */
+    @Override
+    @JMXBeanOperation(name = "expiryBacklog",
+            description = "Get the number of expired entries waiting to be removed")
+    public int expiryBacklog() {
+        return ((AbstractSmartCache) this.cache).expiryBacklog();
+    }
 }
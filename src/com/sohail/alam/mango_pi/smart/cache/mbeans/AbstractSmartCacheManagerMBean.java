@@ -162,6 +162,46 @@ public interface AbstractSmartCacheManagerMBean<K, V> {
      */
     public int numberOfEntries(K somePortionOfKey);
 
+    /**
+     * Gets the total number of entries in the Cache whose keys start with the given prefix
+     *
+     * @param prefix the prefix of the keys
+     *
+     * @return number of entries
+     */
+    public int numberOfEntriesWithPrefix(String prefix);
+
+    /**
+     * Returns a formatted String that holds a page of the entries of the cache, and the cursor of the next page
+     *
+     * @param cursor the cursor returned with the previous page, empty to start from the first page
+     * @param count  the number of keys to read
+     *
+     * @return the page of entries
+     */
+    public String scan(String cursor, int count);
+
+    /**
+     * Keeps an index of the entries by their value, or drops it
+     *
+     * @param mode IDENTITY or EQUALITY to index the values, NONE to drop the index
+     */
+    public void indexValues(String mode);
+
+    /**
+     * Get an estimate of the memory taken by the index of the values
+     *
+     * @return the weight in bytes
+     */
+    public long valueIndexWeight();
+
+    /**
+     * Keeps an index of the keys by their string form, or drops it
+     *
+     * @param index true to index the keys, false to drop the index
+     */
+    public void indexKeys(boolean index);
+
     /**
      * Purges the entire cache
      *
@@ -187,6 +227,20 @@ public interface AbstractSmartCacheManagerMBean<K, V> {
      */
     public boolean purgeCacheEntry(K key);
 
+    /**
+     * Describes the progress of the purges under way
+     *
+     * @return the progress of the purges
+     */
+    public String purgesInProgress();
+
+    /**
+     * Cancels the purges under way
+     *
+     * @return the number of purges cancelled
+     */
+    public int cancelPurges();
+
     /**
      * Gets deleted entries counter.
      *
@@ -209,4 +263,123 @@ public interface AbstractSmartCacheManagerMBean<K, V> {
      * @return The unique name for this Smart Cache Instance
      */
     public String cacheName();
+
+    /**
+     * Returns a formatted String that holds the queue depth, active threads, completed and rejected
+     * tasks, and the wait and run times of the executors used by this Smart Cache Instance
+     *
+     * @return Executor Statistics
+     */
+    public String executorStatistics();
+
+    /**
+     * Set the expiry lag (in milliseconds) above which a warning is logged, -1 to disable the alert
+     *
+     * @param thresholdMillis the threshold in milliseconds
+     */
+    public void expiryLagAlertThreshold(long thresholdMillis);
+
+    /**
+     * Set the time (in milliseconds) after which the entries put from now on expire if they are not read,
+     * 0 to disable expire-after-access
+     *
+     * @param idleMillis the idle time in milliseconds
+     */
+    public void expireAfterAccess(long idleMillis);
+
+    /**
+     * Set the maximum jitter, in percent of the TTL, by which the entries put from now on expire early,
+     * 0 to disable the jitter
+     *
+     * @param percent the maximum jitter in percent of the TTL
+     */
+    public void expiryJitter(int percent);
+
+    /**
+     * Set the maximum number of expired entries removed every expiry tick, 0 for no limit
+     *
+     * @param maxExpirations the maximum number of removals per tick
+     */
+    public void maxExpirationsPerTick(int maxExpirations);
+
+    /**
+     * Set how early the loaded entries are refreshed before they expire, 0 to disable the early refresh
+     *
+     * @param beta how early the entries are refreshed, 1 is the usual value
+     */
+    public void earlyRefresh(double beta);
+
+    /**
+     * Set the time (in milliseconds) after their TTL during which the entries put from now on are served stale
+     * while they are reloaded, 0 to disable
+     *
+     * @param windowMillis the stale window in milliseconds
+     */
+    public void staleWhileRevalidate(long windowMillis);
+
+    /**
+     * Compress the values put from now on if they take at least the given number of bytes, -1 to disable
+     *
+     * @param thresholdBytes the size in bytes from which the values are compressed
+     */
+    public void compressAbove(int thresholdBytes);
+
+    /**
+     * Returns a formatted String that holds the number of values stored compressed, their compression ratio,
+     * and the time spent compressing and decompressing them
+     *
+     * @return Compression Statistics
+     */
+    public String compressionStatistics();
+
+    /**
+     * Share a single copy of the byte-identical Data put from now on between their keys, or stop sharing them
+     *
+     * @param deduplicate true to share the Data, false to stop
+     */
+    public void deduplicate(boolean deduplicate);
+
+    /**
+     * Set the time (in milliseconds) during which the keys that the loader found absent are remembered, 0 to disable
+     *
+     * @param ttlMillis the TTL of the absent markers in milliseconds
+     */
+    public void negativeTtl(long ttlMillis);
+
+    /**
+     * Returns a formatted String that holds the number of keys remembered as absent, and the number of loading
+     * lookups of absent keys answered by their marker or by the loader
+     *
+     * @return Negative Cache Statistics
+     */
+    public String negativeCacheStatistics();
+
+    /**
+     * Writes all the updates that are pending, in the background, without waiting for the flush interval
+     */
+    public void flushWrites();
+
+    /**
+     * Returns a formatted String that holds the number of updates pending, written, coalesced, failed and dropped
+     *
+     * @return Write Statistics
+     */
+    public String writeStatistics();
+
+    /**
+     * Removes all the entries that carry the given tag
+     *
+     * @param tag    the tag
+     * @param reason the reason for which the entries are removed
+     *
+     * @return the number of entries removed
+     */
+    public int invalidateTag(String tag, String reason);
+
+    /**
+     * Get the number of expired entries waiting to be removed
+     *
+     * @return the expiry backlog
+     */
+    public int expiryBacklog();
 }
@@ -38,6 +38,18 @@ public class DefaultSmartCacheManager<T extends DefaultSmartCache, K, V extends
         return cache.totalCacheSize();
     }
 
+    /**
+     * Get the size of the Cache in Bytes as it is held in memory, counting the Data shared between several keys once
+     *
+     * @return Number of Bytes
+     */
+    @Override
+    @JMXBeanOperation(name = "physicalCacheSize",
+            description = "Get the size of the Cache in Bytes as it is held in memory, counting the shared Data once")
+    public long physicalCacheSize() {
+        return cache.physicalCacheSize();
+    }
+
     /**
      * Returns a formatted String that holds the information about the Smart Cache
      *
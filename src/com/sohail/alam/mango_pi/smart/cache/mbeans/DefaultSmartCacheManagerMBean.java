@@ -21,6 +21,13 @@ public interface DefaultSmartCacheManagerMBean<K, V extends SmartCachePojo>
      */
     public long totalCacheSize();
 
+    /**
+     * Get the size of the Cache in Bytes as it is held in memory, counting the Data shared between several keys once
+     *
+     * @return Number of Bytes
+     */
+    public long physicalCacheSize();
+
     /**
      * Returns a formatted String that holds the information about the Smart Cache
      *
@@ -0,0 +1,474 @@
+/*
+ * Copyright 2013 The Mango Pi Project
+ *
+ * The Mango Pi Project licenses this file to you under the Apache License, version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *              http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.sohail.alam.mango_pi.smart.cache.metrics;
+
+import com.sohail.alam.mango_pi.smart.cache.AbstractSmartCache;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheExecutorStatistics;
+import com.sohail.alam.mango_pi.smart.cache.SmartCacheRuntime;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This {@link SmartCacheMetricsExporter} serves the metrics of every registered Smart Cache
+ * in the OpenMetrics text format, using the HTTP server embedded in the JDK.
+ * <p/>
+ * The exporter walks {@link AbstractSmartCache#registeredCaches()} on every scrape and labels
+ * each sample with the unique {@link AbstractSmartCache#cacheName()} of the cache.
+ * The requests are served by a single dedicated thread, which also re-uses the render and
+ * output buffers between scrapes, so that a scrape does not allocate in proportion to the
+ * number of caches or samples.
+ * <p/>
+ * <pre>
+ * SmartCacheMetricsExporter exporter = new SmartCacheMetricsExporter(9404);
+ * exporter.start();
+ * // curl http://localhost:9404/metrics
+ * </pre>
+ */
+public class SmartCacheMetricsExporter {
+
+    /**
+     * The content type of the OpenMetrics text exposition format.
+     */
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    /**
+     * The default path under which the metrics are served.
+     */
+    public static final String DEFAULT_PATH = "/metrics";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final StringBuilder text = new StringBuilder(4096);
+    private byte[] bytes = new byte[4096];
+
+    /**
+     * Instantiates a new {@link SmartCacheMetricsExporter} listening on all interfaces.
+     *
+     * @param port the port on which the metrics are served
+     *
+     * @throws IOException if the HTTP server could not be bound
+     */
+    public SmartCacheMetricsExporter(int port) throws IOException {
+        this(new InetSocketAddress(port), DEFAULT_PATH);
+    }
+
+    /**
+     * Instantiates a new {@link SmartCacheMetricsExporter}.
+     *
+     * @param address the address on which the metrics are served
+     * @param path    the path under which the metrics are served, e.g. {@link #DEFAULT_PATH}
+     *
+     * @throws IOException if the HTTP server could not be bound
+     */
+    public SmartCacheMetricsExporter(InetSocketAddress address, String path) throws IOException {
+        server = HttpServer.create(address, 0);
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SmartCache-MetricsExporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext(path, new MetricsHandler());
+    }
+
+    /**
+     * Start serving the metrics.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop serving the metrics and release the exporter thread.
+     *
+     * @param delay the maximum time in seconds to wait for the ongoing scrape to finish
+     */
+    public void stop(int delay) {
+        server.stop(delay);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delay, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the address on which the metrics are being served.
+     *
+     * @return the bound address
+     */
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    /**
+     * Renders the current metrics of all the registered Smart Caches.
+     *
+     * @return the metrics in the OpenMetrics text format
+     */
+    public synchronized String scrape() {
+        render(text);
+        return text.toString();
+    }
+
+    /**
+     * Renders the metrics of all the registered Smart Caches into the given builder,
+     * replacing its previous contents.
+     *
+     * @param out the builder to render into
+     */
+    protected void render(StringBuilder out) {
+        out.setLength(0);
+
+        family(out, "smartcache_entries", "gauge", "Number of entries in the cache");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_entries", cache, null, null, cache.numberOfEntries());
+        }
+
+        family(out, "smartcache_weight_bytes", "gauge", "Total weight of the cached data in bytes");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            long weight;
+            try {
+                weight = cache.totalCacheSize();
+            } catch (RuntimeException e) {
+                // The cache is still being constructed, or does not account its weight
+                continue;
+            }
+            sample(out, "smartcache_weight_bytes", cache, null, null, weight);
+        }
+
+        family(out, "smartcache_duplicate_weight_bytes", "gauge", "Weight of the data shared between several keys, counted once per key beyond the first");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_duplicate_weight_bytes", cache, null, null, cache.duplicateWeight());
+        }
+
+        family(out, "smartcache_hits", "counter", "Number of lookups that found an entry");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_hits_total", cache, null, null, cache.statistics().hitCount());
+        }
+
+        family(out, "smartcache_misses", "counter", "Number of lookups that did not find an entry");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_misses_total", cache, null, null, cache.statistics().missCount());
+        }
+
+        family(out, "smartcache_evictions", "counter", "Number of removed entries by reason");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            Map<String, AtomicLong> evictions = cache.statistics().evictionCounts();
+            for (Map.Entry<String, AtomicLong> eviction : evictions.entrySet()) {
+                sample(out, "smartcache_evictions_total", cache, "reason", eviction.getKey(), eviction.getValue().get());
+            }
+        }
+
+        family(out, "smartcache_loads", "counter", "Number of loads of missing or early refreshed entries by result");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_loads_total", cache, "result", "success", cache.statistics().loadCount());
+            sample(out, "smartcache_loads_total", cache, "result", "failure", cache.statistics().loadFailureCount());
+        }
+
+        family(out, "smartcache_load_seconds", "counter", "Time spent in the successful loads");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            seconds(out, "smartcache_load_seconds_total", cache, null, null, cache.statistics().totalLoadTime());
+        }
+
+        family(out, "smartcache_early_refreshes", "counter", "Number of loads started to refresh an entry before it expired");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_early_refreshes_total", cache, null, null, cache.statistics().earlyRefreshCount());
+        }
+
+        family(out, "smartcache_stale_serves", "counter", "Number of lookups served a stale entry while it was reloaded");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_stale_serves_total", cache, null, null, cache.statistics().staleServeCount());
+        }
+
+        family(out, "smartcache_negative_lookups", "counter", "Number of loading lookups of absent keys, answered by a marker (hit) or by the loader (miss)");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_negative_lookups_total", cache, "result", "hit", cache.statistics().negativeHitCount());
+            sample(out, "smartcache_negative_lookups_total", cache, "result", "miss", cache.statistics().negativeMissCount());
+        }
+
+        family(out, "smartcache_absent_entries", "gauge", "Number of keys remembered as absent");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_absent_entries", cache, null, null, cache.numberOfAbsentEntries());
+        }
+
+        family(out, "smartcache_tags", "gauge", "Number of tags carried by the entries");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_tags", cache, null, null, cache.numberOfTags());
+        }
+
+        family(out, "smartcache_value_index_bytes", "gauge", "Estimated memory taken by the index of the values");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_value_index_bytes", cache, null, null, cache.valueIndexWeight());
+        }
+
+        family(out, "smartcache_version_conflicts", "counter", "Number of optimistic updates that failed or were retried because their key had changed");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_version_conflicts_total", cache, null, null, cache.statistics().versionConflictCount());
+        }
+
+        family(out, "smartcache_writes", "counter", "Number of updates written to the system of record, coalesced into a later update, or dropped, and of failed writes");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_writes_total", cache, "result", "written", cache.statistics().writeCount());
+            sample(out, "smartcache_writes_total", cache, "result", "coalesced", cache.statistics().coalescedWriteCount());
+            sample(out, "smartcache_writes_total", cache, "result", "failed", cache.statistics().writeFailureCount());
+            sample(out, "smartcache_writes_total", cache, "result", "dropped", cache.statistics().droppedWriteCount());
+        }
+
+        family(out, "smartcache_pending_writes", "gauge", "Number of keys whose update has not been written behind yet");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_pending_writes", cache, null, null, cache.pendingWrites());
+        }
+
+        family(out, "smartcache_compression_bytes", "counter", "Size of the values stored compressed, before and after compression");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_compression_bytes_total", cache, "state", "uncompressed", cache.statistics().uncompressedBytes());
+            sample(out, "smartcache_compression_bytes_total", cache, "state", "compressed", cache.statistics().compressedBytes());
+        }
+
+        family(out, "smartcache_compression_seconds", "counter", "Time spent compressing and decompressing the values");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            seconds(out, "smartcache_compression_seconds_total", cache, "operation", "compress", cache.statistics().compressionTime());
+            seconds(out, "smartcache_compression_seconds_total", cache, "operation", "decompress", cache.statistics().decompressionTime());
+        }
+
+        family(out, "smartcache_expiry_lag_seconds", "gauge", "Delay between the deadline and the removal of the last expired entry");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            seconds(out, "smartcache_expiry_lag_seconds", cache, null, null, cache.statistics().lastExpiryLag());
+        }
+
+        family(out, "smartcache_expiry_lag_max_seconds", "gauge", "Largest delay between the deadline and the removal of an expired entry");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            seconds(out, "smartcache_expiry_lag_max_seconds", cache, null, null, cache.statistics().maxExpiryLag());
+        }
+
+        family(out, "smartcache_expiry_backlog", "gauge", "Number of expired entries waiting to be removed");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            sample(out, "smartcache_expiry_backlog", cache, null, null, cache.expiryBacklog());
+        }
+
+        family(out, "smartcache_executor_queue_depth", "gauge", "Number of tasks waiting in the executor queue");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            for (SmartCacheExecutorStatistics executor : executors(cache)) {
+                sample(out, "smartcache_executor_queue_depth", cache, "executor", executor.name(), executor.queueDepth());
+            }
+        }
+
+        family(out, "smartcache_executor_active_threads", "gauge", "Number of executor threads running a task");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            for (SmartCacheExecutorStatistics executor : executors(cache)) {
+                sample(out, "smartcache_executor_active_threads", cache, "executor", executor.name(), executor.activeThreads());
+            }
+        }
+
+        family(out, "smartcache_executor_completed_tasks", "counter", "Number of tasks the executor has finished");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            for (SmartCacheExecutorStatistics executor : executors(cache)) {
+                sample(out, "smartcache_executor_completed_tasks_total", cache, "executor", executor.name(), executor.completedTasks());
+            }
+        }
+
+        family(out, "smartcache_executor_rejected_tasks", "counter", "Number of tasks the executor refused");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            for (SmartCacheExecutorStatistics executor : executors(cache)) {
+                sample(out, "smartcache_executor_rejected_tasks_total", cache, "executor", executor.name(), executor.rejectedTasks());
+            }
+        }
+
+        family(out, "smartcache_executor_wait_seconds", "counter", "Total time the tasks waited before they started");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            for (SmartCacheExecutorStatistics executor : executors(cache)) {
+                seconds(out, "smartcache_executor_wait_seconds_total", cache, "executor", executor.name(), executor.totalWaitTime());
+            }
+        }
+
+        family(out, "smartcache_executor_wait_max_seconds", "gauge", "Longest time a task waited before it started");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            for (SmartCacheExecutorStatistics executor : executors(cache)) {
+                seconds(out, "smartcache_executor_wait_max_seconds", cache, "executor", executor.name(), executor.maxWaitTime());
+            }
+        }
+
+        family(out, "smartcache_executor_run_seconds", "counter", "Total time the tasks ran");
+        for (AbstractSmartCache<?, ?> cache : AbstractSmartCache.registeredCaches()) {
+            for (SmartCacheExecutorStatistics executor : executors(cache)) {
+                seconds(out, "smartcache_executor_run_seconds_total", cache, "executor", executor.name(), executor.totalRunTime());
+            }
+        }
+
+        SmartCacheRuntime runtime = SmartCacheRuntime.runtime();
+        SmartCacheExecutorStatistics[] pools = {runtime.schedulerStatistics(), runtime.workerStatistics(),
+                runtime.loaderStatistics()};
+
+        family(out, "smartcache_runtime_queue_depth", "gauge", "Number of tasks waiting in the pools shared by all the caches");
+        for (SmartCacheExecutorStatistics pool : pools) {
+            sample(out, "smartcache_runtime_queue_depth", null, "executor", pool.name(), pool.queueDepth());
+        }
+
+        family(out, "smartcache_runtime_active_threads", "gauge", "Number of threads running a task in the pools shared by all the caches");
+        for (SmartCacheExecutorStatistics pool : pools) {
+            sample(out, "smartcache_runtime_active_threads", null, "executor", pool.name(), pool.activeThreads());
+        }
+
+        family(out, "smartcache_runtime_wait_max_seconds", "gauge", "Longest time a task waited in the pools shared by all the caches");
+        for (SmartCacheExecutorStatistics pool : pools) {
+            seconds(out, "smartcache_runtime_wait_max_seconds", null, "executor", pool.name(), pool.maxWaitTime());
+        }
+
+        out.append("# EOF\n");
+    }
+
+    private static SmartCacheExecutorStatistics[] executors(AbstractSmartCache<?, ?> cache) {
+        return new SmartCacheExecutorStatistics[]{cache.expiryExecutorStatistics(),
+                cache.workQueueStatistics(), cache.loaderQueueStatistics(), cache.writerQueueStatistics(),
+                cache.historyExecutorStatistics()};
+    }
+
+    private static void family(StringBuilder out, String name, String type, String help) {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    }
+
+    private static void labels(StringBuilder out, String name, AbstractSmartCache<?, ?> cache, String label, String value) {
+        out.append(name).append('{');
+        if (cache != null) {
+            out.append("cache=\"");
+            escape(out, cache.cacheName());
+            out.append('"');
+            if (label != null)
+                out.append(',');
+        }
+        if (label != null) {
+            out.append(label).append("=\"");
+            escape(out, value);
+            out.append('"');
+        }
+        out.append("} ");
+    }
+
+    private static void sample(StringBuilder out, String name, AbstractSmartCache<?, ?> cache, String label, String value, long sample) {
+        labels(out, name, cache, label, value);
+        out.append(sample).append('\n');
+    }
+
+    /**
+     * Appends the nanoseconds as seconds with a fixed precision, avoiding the
+     * intermediate Strings of the floating point conversion.
+     */
+    private static void seconds(StringBuilder out, String name, AbstractSmartCache<?, ?> cache, String label, String value, long nanos) {
+        labels(out, name, cache, label, value);
+        long fraction = nanos % 1000000000L;
+        out.append(nanos / 1000000000L).append('.');
+        for (long digit = 100000000L; digit > 1 && fraction < digit; digit /= 10) {
+            out.append('0');
+        }
+        out.append(fraction).append('\n');
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\')
+                out.append("\\\\");
+            else if (c == '"')
+                out.append("\\\"");
+            else if (c == '\n')
+                out.append("\\n");
+            else
+                out.append(c);
+        }
+    }
+
+    /**
+     * Encodes the rendered text into the re-usable byte buffer as UTF-8.
+     *
+     * @return the number of bytes written
+     */
+    private int encode(CharSequence source) {
+        int length = source.length();
+        if (bytes.length < length * 3)
+            bytes = new byte[length * 3];
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            char c = source.charAt(i);
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(source.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, source.charAt(++i));
+                bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                bytes[position++] = (byte) (0xE0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Class responsible for answering the scrape requests
+     */
+    private final class MetricsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                synchronized (SmartCacheMetricsExporter.this) {
+                    render(text);
+                    int length = encode(text);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    if ("HEAD".equals(method)) {
+                        exchange.sendResponseHeaders(200, -1);
+                    } else {
+                        exchange.sendResponseHeaders(200, length);
+                        OutputStream body = exchange.getResponseBody();
+                        body.write(bytes, 0, length);
+                        body.flush();
+                    }
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}